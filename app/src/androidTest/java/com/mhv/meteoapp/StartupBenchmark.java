@@ -0,0 +1,142 @@
+package com.mhv.meteoapp;
+
+import android.content.ContentValues;
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+import com.mhv.meteoapp.utils.BenchmarkUtils;
+import com.mhv.meteoapp.utils.PollingCheck;
+
+import java.io.File;
+
+/*
+    Measures how long MainActivity takes to draw its first frame and to show forecast content,
+    once with an empty app storage (list comes from the database) and once with the
+    ForecastSnapshot left by the previous start. Results are written to the log.
+
+    The process is already running when the activity starts, so these numbers are activity
+    start times rather than full process cold starts.
+ */
+public class StartupBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    public static final String LOG_TAG = StartupBenchmark.class.getSimpleName();
+
+    private static final int ITERATIONS = 5;
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long TIMEOUT = 10000;
+
+    public StartupBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        seedForecast(getInstrumentation().getTargetContext());
+    }
+
+    public void testStartupFromDatabase() throws Exception {
+        long[] firstFrame = new long[ITERATIONS];
+        long[] content = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            snapshotFile().delete();
+            measureStart(i, firstFrame, content);
+            assertFalse("Error: content should come from the database without a snapshot",
+                    StartupTrace.isContentFromSnapshot());
+        }
+        report("database", firstFrame, content);
+    }
+
+    public void testStartupFromSnapshot() throws Exception {
+        // One start to leave a snapshot behind.
+        snapshotFile().delete();
+        measureStart(0, new long[1], new long[1]);
+        new PollingCheck(TIMEOUT) {
+            @Override
+            protected boolean check() {
+                return snapshotFile().exists();
+            }
+        }.run();
+
+        long[] firstFrame = new long[ITERATIONS];
+        long[] content = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            measureStart(i, firstFrame, content);
+            assertTrue("Error: content should come from the snapshot",
+                    StartupTrace.isContentFromSnapshot());
+        }
+        report("snapshot", firstFrame, content);
+    }
+
+    private void measureStart(int iteration, long[] firstFrame, long[] content) {
+        StartupTrace.reset();
+        long start = SystemClock.uptimeMillis();
+        getActivity();
+
+        new PollingCheck(TIMEOUT) {
+            @Override
+            protected boolean check() {
+                return StartupTrace.getFirstFrameTime() != 0 && StartupTrace.getContentTime() != 0;
+            }
+        }.run();
+
+        firstFrame[iteration] = StartupTrace.getFirstFrameTime() - start;
+        content[iteration] = StartupTrace.getContentTime() - start;
+
+        getActivity().finish();
+        getInstrumentation().waitForIdleSync();
+        setActivity(null);
+    }
+
+    private void report(String source, long[] firstFrame, long[] content) {
+        Log.i(LOG_TAG, "startup from " + source
+                + ": time-to-first-frame median " + BenchmarkUtils.median(firstFrame) + " ms"
+                + ", max " + BenchmarkUtils.percentile(firstFrame, 100) + " ms"
+                + "; time-to-content median " + BenchmarkUtils.median(content) + " ms"
+                + ", max " + BenchmarkUtils.percentile(content, 100) + " ms");
+    }
+
+    private File snapshotFile() {
+        return new File(getInstrumentation().getTargetContext().getFilesDir(),
+                ForecastSnapshot.FILE_NAME);
+    }
+
+    private static void seedForecast(Context context) {
+        String locationSetting = Utils.getPreferredLocation(context);
+        context.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "Benchmark City");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 38.8887);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, -77.0047);
+        Uri locationUri = context.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        long locationId = ContentUris.parseId(locationUri);
+
+        ContentValues[] days = new ContentValues[DAYS];
+        long date = System.currentTimeMillis();
+        for (int i = 0; i < DAYS; i++, date += DAY_IN_MILLIS) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, date);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 180.0);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 60.0);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1013.0);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + i % 5);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 10 - i % 5);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            days[i] = weatherValues;
+        }
+        context.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+}
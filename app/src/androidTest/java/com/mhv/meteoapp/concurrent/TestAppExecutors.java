@@ -0,0 +1,196 @@
+package com.mhv.meteoapp.concurrent;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class TestAppExecutors extends AndroidTestCase {
+
+    private final List<AppExecutors> mExecutors = new ArrayList<>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (AppExecutors executors : mExecutors) {
+            executors.shutdown();
+        }
+        mExecutors.clear();
+        super.tearDown();
+    }
+
+    private AppExecutors newExecutors(int workers) {
+        AppExecutors executors = new AppExecutors(workers);
+        mExecutors.add(executors);
+        return executors;
+    }
+
+    // Keeps every worker of the executor busy until the latch is released.
+    private static void blockWorkers(AppExecutors executors, int workers, Lane lane,
+                                     final CountDownLatch started, final CountDownLatch release) {
+        for (int i = 0; i < workers; i++) {
+            executors.execute(lane, new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+    }
+
+    public void testReadsRunAheadOfQueuedBackgroundWork() throws Exception {
+        AppExecutors executors = newExecutors(2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        blockWorkers(executors, 2, Lane.UI_READ, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final List<Lane> order = Collections.synchronizedList(new ArrayList<Lane>());
+        final CountDownLatch done = new CountDownLatch(2);
+        executors.execute(Lane.PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                order.add(Lane.PREFETCH);
+                done.countDown();
+            }
+        });
+        executors.execute(Lane.UI_READ, new Runnable() {
+            @Override
+            public void run() {
+                order.add(Lane.UI_READ);
+                done.countDown();
+            }
+        });
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("Error: the read should have been taken first", Lane.UI_READ, order.get(0));
+    }
+
+    public void testBackgroundLaneIsNotStarved() throws Exception {
+        AppExecutors executors = newExecutors(2);
+        final CountDownLatch ingestRan = new CountDownLatch(1);
+        executors.execute(Lane.INGEST, new Runnable() {
+            @Override
+            public void run() {
+                ingestRan.countDown();
+            }
+        });
+
+        // Flood the read lane for longer than the INGEST promotion delay.
+        long end = System.currentTimeMillis() + Lane.INGEST.maxWaitMillis * 2;
+        while (ingestRan.getCount() > 0 && System.currentTimeMillis() < end) {
+            try {
+                executors.execute(Lane.UI_READ, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(5);
+            }
+        }
+
+        assertTrue("Error: the INGEST task never ran", ingestRan.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testFullLaneRejects() throws Exception {
+        AppExecutors executors = newExecutors(2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        blockWorkers(executors, 2, Lane.UI_READ, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        for (int i = 0; i < Lane.INGEST.capacity; i++) {
+            executors.execute(Lane.INGEST, noop);
+        }
+        try {
+            executors.execute(Lane.INGEST, noop);
+            fail("Error: a full lane should reject new tasks");
+        } catch (RejectedExecutionException expected) {
+            assertEquals(1, executors.getMetrics(Lane.INGEST).getRejected());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    // The sync stores its forecasts through runBlocking(INGEST); a full lane mustn't fail them.
+    public void testRunBlockingOnFullLaneRunsInline() throws Exception {
+        AppExecutors executors = newExecutors(2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        blockWorkers(executors, 2, Lane.UI_READ, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        try {
+            for (int i = 0; i < Lane.INGEST.capacity; i++) {
+                executors.execute(Lane.INGEST, noop);
+            }
+            final Thread caller = Thread.currentThread();
+            Boolean inline = executors.runBlocking(Lane.INGEST, new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return Thread.currentThread() == caller;
+                }
+            });
+            assertTrue("Error: the task didn't run on the calling thread", inline);
+            assertEquals(1, executors.getMetrics(Lane.INGEST).getRejected());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    public void testShutdownRejectsNewTasks() {
+        AppExecutors executors = newExecutors(2);
+        executors.shutdown();
+        try {
+            executors.execute(Lane.UI_READ, new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("Error: a shut down executor should reject new tasks");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    public void testRunBlockingFromWorkerRunsInline() throws Exception {
+        final AppExecutors executors = newExecutors(2);
+        String result = executors.runBlocking(Lane.INGEST, new Callable<String>() {
+            @Override
+            public String call() {
+                return executors.runBlocking(Lane.UI_READ, new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return Thread.currentThread().getName();
+                    }
+                });
+            }
+        });
+        assertTrue(result.startsWith("AppExecutors-"));
+    }
+}
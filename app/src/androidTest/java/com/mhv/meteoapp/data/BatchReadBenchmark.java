@@ -0,0 +1,123 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+import com.mhv.meteoapp.utils.BenchmarkUtils;
+
+/*
+    What a screen showing today, the forecast list and the location reads: the location record,
+    today's row, the 14 day list and a 7 day aggregate. Once as four query() calls, the way the
+    fragments do it, and once as a single BatchRead.
+ */
+public class BatchReadBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = BatchReadBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 200;
+
+    private long mFirstDay;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mFirstDay = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mFirstDay + i * DAY_IN_MILLIS);
+        }
+        resolver.bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testBatchVersusSeparateQueries() {
+        for (int i = 0; i < WARMUP; i++) {
+            separateQueries();
+            batchRead();
+        }
+        long[] separate = new long[ITERATIONS];
+        long[] batched = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            assertEquals(DAYS, separateQueries());
+            separate[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(DAYS, batchRead());
+            batched[i] = System.nanoTime() - start;
+        }
+        Log.i(LOG_TAG, "4 separate queries: median " + BenchmarkUtils.median(separate) / 1000
+                + " us, p90 " + BenchmarkUtils.percentile(separate, 90) / 1000 + " us");
+        Log.i(LOG_TAG, "1 batch read:       median " + BenchmarkUtils.median(batched) / 1000
+                + " us, p90 " + BenchmarkUtils.percentile(batched, 90) / 1000 + " us");
+    }
+
+    // Returns the number of forecast days read, so neither path can be optimized away.
+    private int separateQueries() {
+        ContentResolver resolver = mContext.getContentResolver();
+        String location = TestUtilities.TEST_LOCATION;
+
+        Cursor cursor = resolver.query(LocationEntry.CONTENT_URI, null,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{location}, null);
+        cursor.moveToFirst();
+        cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME));
+        cursor.close();
+
+        cursor = resolver.query(WeatherEntry.buildWeatherLocationWithDate(location, mFirstDay),
+                null, null, null, null);
+        cursor.moveToFirst();
+        cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+        cursor.close();
+
+        cursor = resolver.query(WeatherEntry.buildWeatherLocationWithStartDate(location, mFirstDay),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        int days = 0;
+        while (cursor.moveToNext()) {
+            cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+            days++;
+        }
+        cursor.close();
+
+        cursor = resolver.query(WeatherEntry.buildWeatherLocationWithStartDate(location, mFirstDay),
+                new String[]{"MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ")", "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ")"},
+                null, null, null);
+        cursor.moveToFirst();
+        cursor.getDouble(0);
+        cursor.close();
+        return days;
+    }
+
+    private int batchRead() {
+        String location = TestUtilities.TEST_LOCATION;
+        BatchRead batch = new BatchRead();
+        int place = batch.location(location);
+        int today = batch.day(location, mFirstDay);
+        int list = batch.range(location, mFirstDay, mFirstDay + (DAYS - 1) * DAY_IN_MILLIS);
+        int week = batch.aggregate(location, mFirstDay, mFirstDay + 6 * DAY_IN_MILLIS);
+        BatchRead.Result result = batch.execute(mContext.getContentResolver());
+        result.getCityName(place);
+        result.getMaxTemps(today);
+        result.getHighest(week);
+        return result.getCount(list);
+    }
+}
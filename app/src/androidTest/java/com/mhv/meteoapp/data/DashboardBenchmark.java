@@ -0,0 +1,168 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.data.DatabaseContract.DashboardEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+import com.mhv.meteoapp.utils.BenchmarkUtils;
+
+/*
+    Loads the dashboard for 1 to 200 saved locations with 14 days each. Once through the single
+    dashboard query, once the way a screen built on the existing URIs would: one weather query
+    per location, reading today's row and the week's extremes out of it. Also times the refresh
+    of a single row, which is what a sync of one location costs the dashboard.
+ */
+public class DashboardBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = DashboardBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+    private static final int[] LOCATION_COUNTS = {1, 10, 50, 100, 200};
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 30;
+
+    private long mToday;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mToday = DatabaseContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testDashboardVersusPerLocationQueries() {
+        int stored = 0;
+        long dashboardAtOne = 0;
+        long dashboardAtAll = 0;
+        for (int locations : LOCATION_COUNTS) {
+            for (; stored < locations; stored++) {
+                insertLocation(stored);
+            }
+
+            for (int i = 0; i < WARMUP; i++) {
+                dashboardQuery();
+                perLocationQueries(locations);
+            }
+            long[] dashboard = new long[ITERATIONS];
+            long[] perLocation = new long[ITERATIONS];
+            long[] singleRow = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                assertEquals(locations, dashboardQuery());
+                dashboard[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                assertEquals(locations, perLocationQueries(locations));
+                perLocation[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                assertEquals(1, rowQuery(i % locations));
+                singleRow[i] = System.nanoTime() - start;
+            }
+            long dashboardMedian = BenchmarkUtils.median(dashboard);
+            if (locations == 1) {
+                dashboardAtOne = dashboardMedian;
+            }
+            dashboardAtAll = dashboardMedian;
+            Log.i(LOG_TAG, locations + " locations: dashboard query median "
+                    + dashboardMedian / 1000 + " us (p90 " + BenchmarkUtils.percentile(dashboard, 90) / 1000
+                    + " us), " + locations + " weather queries median "
+                    + BenchmarkUtils.median(perLocation) / 1000 + " us, single row refresh median "
+                    + BenchmarkUtils.median(singleRow) / 1000 + " us");
+        }
+        Log.i(LOG_TAG, "Dashboard query with " + stored + " locations took "
+                + String.format("%.1f", dashboardAtAll / (double) Math.max(1, dashboardAtOne))
+                + " times as long as with 1");
+    }
+
+    private void insertLocation(int index) {
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, "bench" + index);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "City " + index);
+        long locationId = Long.parseLong(
+                resolver.insert(LocationEntry.CONTENT_URI, location).getLastPathSegment());
+
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mToday + i * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, index % 10 - i);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, index % 10 + i);
+        }
+        resolver.bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    // Returns the number of locations read, so neither path can be optimized away.
+    private int dashboardQuery() {
+        Cursor cursor = mContext.getContentResolver().query(
+                DashboardEntry.buildDashboardUri(mToday), null, null, null, null);
+        int rows = readDashboard(cursor);
+        cursor.close();
+        return rows;
+    }
+
+    private int rowQuery(int index) {
+        Cursor cursor = mContext.getContentResolver().query(
+                DashboardEntry.buildDashboardLocationUri("bench" + index, mToday), null, null, null, null);
+        int rows = readDashboard(cursor);
+        cursor.close();
+        return rows;
+    }
+
+    private static int readDashboard(Cursor cursor) {
+        int maxIndex = cursor.getColumnIndex(DashboardEntry.COLUMN_MAX_TEMP);
+        int weekLowIndex = cursor.getColumnIndex(DashboardEntry.COLUMN_WEEK_LOW);
+        int weekHighIndex = cursor.getColumnIndex(DashboardEntry.COLUMN_WEEK_HIGH);
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            cursor.getDouble(maxIndex);
+            cursor.getDouble(weekLowIndex);
+            cursor.getDouble(weekHighIndex);
+            rows++;
+        }
+        return rows;
+    }
+
+    private int perLocationQueries(int locations) {
+        ContentResolver resolver = mContext.getContentResolver();
+        long lastDay = mToday + 6 * DAY_IN_MILLIS;
+        int read = 0;
+        for (int l = 0; l < locations; l++) {
+            Cursor cursor = resolver.query(
+                    WeatherEntry.buildWeatherLocationWithStartDate("bench" + l, mToday),
+                    null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            int dateIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            int minIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP);
+            int maxIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+            double low = Double.MAX_VALUE;
+            double high = -Double.MAX_VALUE;
+            while (cursor.moveToNext() && cursor.getLong(dateIndex) <= lastDay) {
+                low = Math.min(low, cursor.getDouble(minIndex));
+                high = Math.max(high, cursor.getDouble(maxIndex));
+            }
+            cursor.close();
+            if (low <= high) {
+                read++;
+            }
+        }
+        return read;
+    }
+}
@@ -0,0 +1,127 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+import com.mhv.meteoapp.utils.BenchmarkUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Reads the 14 days of the preferred location three ways: through a provider query, by mapping
+    the published forecast file, and by checking the version of a file that is already mapped,
+    which is what a reader holding on to the mapping pays on every later read.
+ */
+public class ForecastFileBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = ForecastFileBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 200;
+
+    private long mToday;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ForecastFile.fileFor(mContext.getFilesDir(), TestUtilities.TEST_LOCATION).delete();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mToday = DatabaseContract.normalizeDate(System.currentTimeMillis());
+
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = new ContentValues[DAYS];
+        List<ForecastFile.Day> days = new ArrayList<>(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mToday + i * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 20 + i);
+
+            ForecastFile.Day day = new ForecastFile.Day();
+            day.date = mToday + i * DAY_IN_MILLIS;
+            day.weatherId = values[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            day.min = values[i].getAsFloat(WeatherEntry.COLUMN_MIN_TEMP);
+            day.max = values[i].getAsFloat(WeatherEntry.COLUMN_MAX_TEMP);
+            day.shortDesc = values[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            days.add(day);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        ForecastFile.publish(mContext.getFilesDir(), TestUtilities.TEST_LOCATION, days);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testMappedFileVersusProviderQuery() {
+        File dir = mContext.getFilesDir();
+        for (int i = 0; i < WARMUP; i++) {
+            providerQuery();
+            readFile(ForecastFile.open(dir, TestUtilities.TEST_LOCATION));
+        }
+
+        ForecastFile held = ForecastFile.open(dir, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: the published file could not be opened", held);
+        long[] query = new long[ITERATIONS];
+        long[] open = new long[ITERATIONS];
+        long[] reuse = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            double queried = providerQuery();
+            query[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            double mapped = readFile(ForecastFile.open(dir, TestUtilities.TEST_LOCATION));
+            open[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertTrue(held.isCurrent());
+            double reused = readFile(held);
+            reuse[i] = System.nanoTime() - start;
+
+            assertEquals("Error: the file and the provider disagree", queried, mapped, 0.001);
+            assertEquals(mapped, reused, 0);
+        }
+        Log.i(LOG_TAG, DAYS + " days: provider query median " + BenchmarkUtils.median(query) / 1000
+                + " us (p90 " + BenchmarkUtils.percentile(query, 90) / 1000 + " us), map and read median "
+                + BenchmarkUtils.median(open) / 1000 + " us (p90 " + BenchmarkUtils.percentile(open, 90) / 1000
+                + " us), version check and read of a held mapping median " + BenchmarkUtils.median(reuse) / 1000
+                + " us (p90 " + BenchmarkUtils.percentile(reuse, 90) / 1000 + " us)");
+    }
+
+    // Returns the sum of the highs, so neither path can be optimized away.
+    private double providerQuery() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, mToday),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        int maxIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        double sum = 0;
+        while (cursor.moveToNext()) {
+            sum += cursor.getDouble(maxIndex);
+        }
+        cursor.close();
+        return sum;
+    }
+
+    private double readFile(ForecastFile file) {
+        double sum = 0;
+        for (int i = file.indexOf(mToday); i < file.getDayCount(); i++) {
+            sum += file.getMax(i);
+        }
+        return sum;
+    }
+}
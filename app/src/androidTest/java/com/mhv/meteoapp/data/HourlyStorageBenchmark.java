@@ -0,0 +1,211 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.data.DatabaseContract.HourlyEntry;
+
+import java.io.File;
+
+/*
+    Compares the packed hourly layout (one row per location and day, see HourlyPacker) with a
+    plain row-per-point table, for a sync of LOCATIONS locations with 5 days of 3-hour points.
+    Each layout gets its own database file so the file sizes can be compared too.
+ */
+public class HourlyStorageBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = HourlyStorageBenchmark.class.getSimpleName();
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS = 5;
+    private static final int POINTS_PER_DAY = 8;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = DatabaseContract.normalizeDate(TestUtilities.TEST_DATE);
+
+    private static final String POINTS_TABLE = "hourly_points";
+
+    private static final String SQL_CREATE_POINTS_TABLE = "CREATE TABLE " + POINTS_TABLE + " (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "time INTEGER NOT NULL, " +
+            "temp REAL NOT NULL, " +
+            "weather_id INTEGER NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            "UNIQUE (location_id, time) ON CONFLICT REPLACE);";
+
+    private static final String SQL_CREATE_PACKED_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_COUNT + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_POINTS + " BLOB NOT NULL, " +
+            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " + HourlyEntry.COLUMN_DATE +
+            ") ON CONFLICT REPLACE);";
+
+    private File mPackedFile;
+    private File mPointsFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPackedFile = mContext.getDatabasePath("bench_hourly_packed.db");
+        mPointsFile = mContext.getDatabasePath("bench_hourly_points.db");
+        mPackedFile.getParentFile().mkdirs();
+        SQLiteDatabase.deleteDatabase(mPackedFile);
+        SQLiteDatabase.deleteDatabase(mPointsFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SQLiteDatabase.deleteDatabase(mPackedFile);
+        SQLiteDatabase.deleteDatabase(mPointsFile);
+        super.tearDown();
+    }
+
+    public void testPackedVersusRowPerPoint() {
+        SQLiteDatabase packed = SQLiteDatabase.openOrCreateDatabase(mPackedFile, null);
+        SQLiteDatabase points = SQLiteDatabase.openOrCreateDatabase(mPointsFile, null);
+        try {
+            packed.execSQL(SQL_CREATE_PACKED_TABLE);
+            points.execSQL(SQL_CREATE_POINTS_TABLE);
+
+            long packedInsert = insertPacked(packed);
+            long pointsInsert = insertPoints(points);
+
+            long packedQuery = queryPacked(packed);
+            long pointsQuery = queryPoints(points);
+
+            Log.i(LOG_TAG, LOCATIONS * DAYS * POINTS_PER_DAY + " points, " + LOCATIONS + " locations");
+            Log.i(LOG_TAG, "insert: packed " + packedInsert + " ms, row-per-point " + pointsInsert + " ms");
+            Log.i(LOG_TAG, "2-day range query for every location: packed " + packedQuery
+                    + " ms, row-per-point " + pointsQuery + " ms");
+            Log.i(LOG_TAG, "database size: packed " + databaseSize(packed)
+                    + " bytes, row-per-point " + databaseSize(points) + " bytes");
+        } finally {
+            packed.close();
+            points.close();
+        }
+    }
+
+    private static HourlyPacker.Series createDay(int location, int day) {
+        HourlyPacker.Series series = new HourlyPacker.Series(POINTS_PER_DAY);
+        for (int i = 0; i < POINTS_PER_DAY; i++) {
+            series.minutes[i] = i * 180;
+            series.temperatures[i] = 10 + (location + day + i) % 15;
+            series.weatherIds[i] = 800 + i % 4;
+            series.humidity[i] = 50 + i;
+            series.pressure[i] = 1010 + i;
+            series.windSpeed[i] = 2 + i;
+            series.degrees[i] = 45 * i;
+        }
+        return series;
+    }
+
+    private static long insertPacked(SQLiteDatabase db) {
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int location = 0; location < LOCATIONS; location++) {
+                for (int day = 0; day < DAYS; day++) {
+                    values.clear();
+                    values.put(HourlyEntry.COLUMN_LOC_KEY, location);
+                    values.put(HourlyEntry.COLUMN_DATE, FIRST_DAY + day * DAY_IN_MILLIS);
+                    values.put(HourlyEntry.COLUMN_COUNT, POINTS_PER_DAY);
+                    values.put(HourlyEntry.COLUMN_POINTS, HourlyPacker.pack(createDay(location, day)));
+                    db.insert(HourlyEntry.TABLE_NAME, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private static long insertPoints(SQLiteDatabase db) {
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int location = 0; location < LOCATIONS; location++) {
+                for (int day = 0; day < DAYS; day++) {
+                    HourlyPacker.Series series = createDay(location, day);
+                    for (int i = 0; i < series.size(); i++) {
+                        values.clear();
+                        values.put("location_id", location);
+                        values.put("time", FIRST_DAY + day * DAY_IN_MILLIS + series.minutes[i] * 60000L);
+                        values.put("temp", series.temperatures[i]);
+                        values.put("weather_id", series.weatherIds[i]);
+                        values.put("humidity", series.humidity[i]);
+                        values.put("pressure", series.pressure[i]);
+                        values.put("wind", series.windSpeed[i]);
+                        values.put("degrees", series.degrees[i]);
+                        db.insert(POINTS_TABLE, null, values);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    // Reads days 1 and 2 of every location and touches every temperature.
+    private static long queryPacked(SQLiteDatabase db) {
+        long start = SystemClock.elapsedRealtime();
+        int seen = 0;
+        for (int location = 0; location < LOCATIONS; location++) {
+            Cursor cursor = db.query(HourlyEntry.TABLE_NAME,
+                    new String[]{HourlyEntry.COLUMN_POINTS},
+                    HourlyEntry.COLUMN_LOC_KEY + " = ? AND " + HourlyEntry.COLUMN_DATE +
+                            " >= ? AND " + HourlyEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Integer.toString(location),
+                            Long.toString(FIRST_DAY + DAY_IN_MILLIS),
+                            Long.toString(FIRST_DAY + 2 * DAY_IN_MILLIS)},
+                    null, null, HourlyEntry.COLUMN_DATE + " ASC");
+            while (cursor.moveToNext()) {
+                HourlyPacker.Series series = HourlyPacker.unpack(cursor.getBlob(0));
+                seen += series.temperatures.length;
+            }
+            cursor.close();
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertEquals(LOCATIONS * 2 * POINTS_PER_DAY, seen);
+        return elapsed;
+    }
+
+    private static long queryPoints(SQLiteDatabase db) {
+        long start = SystemClock.elapsedRealtime();
+        int seen = 0;
+        for (int location = 0; location < LOCATIONS; location++) {
+            Cursor cursor = db.query(POINTS_TABLE,
+                    new String[]{"time", "temp"},
+                    "location_id = ? AND time >= ? AND time < ?",
+                    new String[]{Integer.toString(location),
+                            Long.toString(FIRST_DAY + DAY_IN_MILLIS),
+                            Long.toString(FIRST_DAY + 3 * DAY_IN_MILLIS)},
+                    null, null, "time ASC");
+            while (cursor.moveToNext()) {
+                cursor.getFloat(1);
+                seen++;
+            }
+            cursor.close();
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertEquals(LOCATIONS * 2 * POINTS_PER_DAY, seen);
+        return elapsed;
+    }
+
+    private static long databaseSize(SQLiteDatabase db) {
+        return db.getPageSize() * db.compileStatement("PRAGMA page_count").simpleQueryForLong();
+    }
+}
@@ -0,0 +1,338 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.BuildConfig;
+import com.mhv.meteoapp.data.DatabaseContract.DashboardEntry;
+import com.mhv.meteoapp.data.DatabaseContract.HistoryEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.TodayEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+import com.mhv.meteoapp.utils.BenchmarkUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Throughput and latency of the provider on a database the size of a heavy user's: seeds
+    BuildConfig.BENCH_LOCATIONS locations with BENCH_DAYS days each (a few of them already past),
+    then measures bulkInsert rows per second, query latency for each URI type, the retention
+    pass that moves past days out of the weather table, and what a notifyChange costs with
+    more and more observers registered.
+
+    The results go to the log and, as JSON with the device and build, to
+    files/provider_benchmark.json of the app, from where they can be pulled with adb:
+        adb shell run-as com.mhv.meteoapp cat files/provider_benchmark.json
+ */
+public class ProviderBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = ProviderBenchmark.class.getSimpleName();
+
+    static final String RESULTS_FILE = "provider_benchmark.json";
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // Days before today in every seeded forecast, for the retention pass to move.
+    private static final int PAST_DAYS = 3;
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 50;
+    private static final int[] OBSERVER_COUNTS = {0, 1, 10, 50};
+    private static final long NOTIFY_TIMEOUT_MILLIS = 5000;
+
+    private long mToday;
+    private int mLocations;
+    private int mDays;
+
+    private void deleteAllRecords() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(HistoryEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mToday = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        mLocations = Math.max(1, BuildConfig.BENCH_LOCATIONS);
+        mDays = Math.max(PAST_DAYS + 1, BuildConfig.BENCH_DAYS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testProviderThroughputAndLatency() throws Exception {
+        JSONObject results = new JSONObject();
+        results.put("insert", seed());
+        results.put("query", measureQueries());
+        results.put("retention", measureRetention());
+        results.put("notify", measureNotifications());
+        writeResults(results);
+    }
+
+    private static String setting(int location) {
+        return "bench" + location;
+    }
+
+    // Inserts every location and its days, one bulkInsert per location as the sync does.
+    private JSONObject seed() throws JSONException {
+        ContentResolver resolver = mContext.getContentResolver();
+        long[] perCall = new long[mLocations];
+        long total = 0;
+        for (int l = 0; l < mLocations; l++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, setting(l));
+            location.put(LocationEntry.COLUMN_CITY_NAME, "City " + l);
+            long locationId = Long.parseLong(
+                    resolver.insert(LocationEntry.CONTENT_URI, location).getLastPathSegment());
+
+            ContentValues[] values = new ContentValues[mDays];
+            for (int d = 0; d < mDays; d++) {
+                values[d] = TestUtilities.createWeatherValues(locationId);
+                values[d].put(WeatherEntry.COLUMN_DATE, mToday + (d - PAST_DAYS) * DAY_IN_MILLIS);
+                values[d].put(WeatherEntry.COLUMN_MAX_TEMP, l % 10 + d);
+            }
+            long start = System.nanoTime();
+            assertEquals(mDays, resolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+            perCall[l] = System.nanoTime() - start;
+            total += perCall[l];
+        }
+
+        double rowsPerSecond = mLocations * mDays / (total / 1e9);
+        Log.i(LOG_TAG, "bulkInsert of " + mLocations + " x " + mDays + " rows: "
+                + String.format("%.0f", rowsPerSecond) + " rows/s, median call "
+                + BenchmarkUtils.median(perCall) / 1000 + " us");
+        JSONObject insert = new JSONObject();
+        insert.put("rows", mLocations * mDays);
+        insert.put("rows_per_second", rowsPerSecond);
+        insert.put("call_p50_us", BenchmarkUtils.median(perCall) / 1000);
+        insert.put("call_p99_us", BenchmarkUtils.percentile(perCall, 99) / 1000);
+        return insert;
+    }
+
+    private JSONObject measureQueries() throws JSONException {
+        JSONObject query = new JSONObject();
+        // Each URI type is asked about a different location every time, as a list of them would.
+        query.put("weather", measureQuery("weather", new UriForLocation() {
+            @Override
+            public Uri get(int location) {
+                return WeatherEntry.CONTENT_URI;
+            }
+        }));
+        query.put("weather_with_location", measureQuery("weather_with_location", new UriForLocation() {
+            @Override
+            public Uri get(int location) {
+                return WeatherEntry.buildWeatherLocationWithStartDate(setting(location), mToday);
+            }
+        }));
+        query.put("weather_with_location_and_date", measureQuery("weather_with_location_and_date",
+                new UriForLocation() {
+                    @Override
+                    public Uri get(int location) {
+                        return WeatherEntry.buildWeatherLocationWithDate(setting(location), mToday);
+                    }
+                }));
+        query.put("location", measureQuery("location", new UriForLocation() {
+            @Override
+            public Uri get(int location) {
+                return LocationEntry.CONTENT_URI;
+            }
+        }));
+        query.put("dashboard", measureQuery("dashboard", new UriForLocation() {
+            @Override
+            public Uri get(int location) {
+                return DashboardEntry.buildDashboardUri(mToday);
+            }
+        }));
+        query.put("dashboard_with_location", measureQuery("dashboard_with_location", new UriForLocation() {
+            @Override
+            public Uri get(int location) {
+                return DashboardEntry.buildDashboardLocationUri(setting(location), mToday);
+            }
+        }));
+        query.put("today_with_location", measureQuery("today_with_location", new UriForLocation() {
+            @Override
+            public Uri get(int location) {
+                return TodayEntry.buildTodayUri(setting(location));
+            }
+        }));
+        return query;
+    }
+
+    private interface UriForLocation {
+        Uri get(int location);
+    }
+
+    private JSONObject measureQuery(String name, UriForLocation uris) throws JSONException {
+        ContentResolver resolver = mContext.getContentResolver();
+        for (int i = 0; i < WARMUP; i++) {
+            readAll(resolver.query(uris.get(i % mLocations), null, null, null, null));
+        }
+        long[] samples = new long[ITERATIONS];
+        int rows = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            rows = readAll(resolver.query(uris.get(i % mLocations), null, null, null, null));
+            samples[i] = System.nanoTime() - start;
+            assertTrue("Error: " + name + " returned no rows", rows > 0);
+        }
+        Log.i(LOG_TAG, name + ": p50 " + BenchmarkUtils.median(samples) / 1000 + " us, p99 "
+                + BenchmarkUtils.percentile(samples, 99) / 1000 + " us, " + rows + " rows");
+        JSONObject result = new JSONObject();
+        result.put("rows", rows);
+        result.put("p50_us", BenchmarkUtils.median(samples) / 1000);
+        result.put("p99_us", BenchmarkUtils.percentile(samples, 99) / 1000);
+        return result;
+    }
+
+    // Reads every column of every row, so the cursor window is really filled.
+    private static int readAll(Cursor cursor) {
+        int rows = 0;
+        int columns = cursor.getColumnCount();
+        while (cursor.moveToNext()) {
+            for (int c = 0; c < columns; c++) {
+                cursor.getString(c);
+            }
+            rows++;
+        }
+        cursor.close();
+        return rows;
+    }
+
+    // The archive pass of the sync, moving every location's past days out of the weather table.
+    private JSONObject measureRetention() throws JSONException {
+        ContentResolver resolver = mContext.getContentResolver();
+        // One run moves a bounded number of rows, large seeds take a few as syncs would.
+        int moved = 0;
+        int runs = 0;
+        long start = System.nanoTime();
+        while (true) {
+            Bundle result = resolver.call(DatabaseContract.BASE_CONTENT_URI,
+                    DatabaseContract.METHOD_ARCHIVE_HISTORY, null, null);
+            int changed = result.getInt(DatabaseContract.EXTRA_ROWS_CHANGED);
+            if (changed == 0) {
+                break;
+            }
+            moved += changed;
+            runs++;
+        }
+        long archive = System.nanoTime() - start;
+        assertEquals("Error: the retention pass missed past days", mLocations * PAST_DAYS, moved);
+
+        // And the plain delete of everything before today, with nothing left to delete.
+        start = System.nanoTime();
+        int deleted = resolver.delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(mToday)});
+        long delete = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Retention: archived " + moved + " rows in " + runs + " runs, " + archive / 1000
+                + " us, then deleted " + deleted + " in " + delete / 1000 + " us");
+        JSONObject retention = new JSONObject();
+        retention.put("archived_rows", moved);
+        retention.put("runs", runs);
+        retention.put("archive_us", archive / 1000);
+        retention.put("delete_us", delete / 1000);
+        return retention;
+    }
+
+    /*
+        Times notifyChange itself, and until the last observer has been told, with more and
+        more observers on the weather URI. Observers without a handler are called on a binder
+        thread, so nothing here waits on the main looper.
+     */
+    private JSONObject measureNotifications() throws Exception {
+        ContentResolver resolver = mContext.getContentResolver();
+        JSONObject notify = new JSONObject();
+        for (int count : OBSERVER_COUNTS) {
+            long[] call = new long[ITERATIONS];
+            long[] delivered = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                final CountDownLatch latch = new CountDownLatch(count);
+                List<ContentObserver> observers = new ArrayList<>(count);
+                for (int o = 0; o < count; o++) {
+                    ContentObserver observer = new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            latch.countDown();
+                        }
+                    };
+                    resolver.registerContentObserver(WeatherEntry.CONTENT_URI, true, observer);
+                    observers.add(observer);
+                }
+
+                long start = System.nanoTime();
+                resolver.notifyChange(WeatherEntry.buildWeatherLocation(setting(0)), null);
+                call[i] = System.nanoTime() - start;
+                assertTrue("Error: not every observer was notified",
+                        latch.await(NOTIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                delivered[i] = System.nanoTime() - start;
+
+                for (ContentObserver observer : observers) {
+                    resolver.unregisterContentObserver(observer);
+                }
+            }
+            Log.i(LOG_TAG, count + " observers: notifyChange p50 " + BenchmarkUtils.median(call) / 1000
+                    + " us, all delivered p50 " + BenchmarkUtils.median(delivered) / 1000
+                    + " us (p99 " + BenchmarkUtils.percentile(delivered, 99) / 1000 + " us)");
+            JSONObject result = new JSONObject();
+            result.put("call_p50_us", BenchmarkUtils.median(call) / 1000);
+            result.put("call_p99_us", BenchmarkUtils.percentile(call, 99) / 1000);
+            result.put("delivered_p50_us", BenchmarkUtils.median(delivered) / 1000);
+            result.put("delivered_p99_us", BenchmarkUtils.percentile(delivered, 99) / 1000);
+            notify.put(Integer.toString(count), result);
+        }
+        return notify;
+    }
+
+    private void writeResults(JSONObject results) throws JSONException, IOException {
+        JSONObject device = new JSONObject();
+        device.put("manufacturer", Build.MANUFACTURER);
+        device.put("model", Build.MODEL);
+        device.put("sdk", Build.VERSION.SDK_INT);
+        device.put("fingerprint", Build.FINGERPRINT);
+        results.put("device", device);
+
+        JSONObject build = new JSONObject();
+        build.put("version_name", BuildConfig.VERSION_NAME);
+        build.put("version_code", BuildConfig.VERSION_CODE);
+        build.put("build_type", BuildConfig.BUILD_TYPE);
+        build.put("database_version", DatabaseHelper.DATABASE_VERSION);
+        results.put("build", build);
+
+        JSONObject config = new JSONObject();
+        config.put("locations", mLocations);
+        config.put("days", mDays);
+        config.put("past_days", PAST_DAYS);
+        config.put("iterations", ITERATIONS);
+        results.put("config", config);
+        results.put("timestamp", System.currentTimeMillis());
+
+        File file = new File(mContext.getFilesDir(), RESULTS_FILE);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(results.toString(2));
+        } finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Results written to " + file);
+    }
+}
@@ -0,0 +1,242 @@
+package com.mhv.meteoapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/*
+    Exports and re-imports weather tables of 1k, 100k and 1M rows and compares the snapshot
+    with what the same rows take as a JSON export, as an SQL dump and as a database file.
+    The JSON and SQL outputs are only counted, never kept, so the 1M row run fits in memory.
+ */
+public class SnapshotBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = SnapshotBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS_PER_LOCATION = 1000;
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow", "Drizzle", "Mist"};
+
+    private File mSourceFile;
+    private File mTargetFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSourceFile = mContext.getDatabasePath("bench_snapshot_source.db");
+        mTargetFile = mContext.getDatabasePath("bench_snapshot_target.db");
+        mSourceFile.getParentFile().mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SQLiteDatabase.deleteDatabase(mSourceFile);
+        SQLiteDatabase.deleteDatabase(mTargetFile);
+        super.tearDown();
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public void testSnapshot1k() throws IOException {
+        runBenchmark(1000);
+    }
+
+    public void testSnapshot100k() throws IOException {
+        runBenchmark(100 * 1000);
+    }
+
+    public void testSnapshot1M() throws IOException {
+        runBenchmark(1000 * 1000);
+    }
+
+    private SQLiteDatabase createDatabase(File file) {
+        SQLiteDatabase.deleteDatabase(file);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        new DatabaseHelper(mContext).onCreate(db);
+        return db;
+    }
+
+    private void runBenchmark(int rows) throws IOException {
+        SQLiteDatabase source = createDatabase(mSourceFile);
+        SQLiteDatabase target = createDatabase(mTargetFile);
+        try {
+            populate(source, rows);
+
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+            long start = SystemClock.elapsedRealtime();
+            SnapshotTransfer.export(source, snapshot);
+            long exportMillis = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            long imported = SnapshotTransfer.importFrom(target,
+                    new ByteArrayInputStream(snapshot.toByteArray()));
+            long importMillis = SystemClock.elapsedRealtime() - start;
+            assertEquals(rows, imported);
+            assertEquals(rows, DatabaseUtils.queryNumEntries(target, WeatherEntry.TABLE_NAME));
+
+            CountingOutputStream json = new CountingOutputStream();
+            start = SystemClock.elapsedRealtime();
+            writeJson(source, json);
+            long jsonMillis = SystemClock.elapsedRealtime() - start;
+
+            CountingOutputStream sql = new CountingOutputStream();
+            start = SystemClock.elapsedRealtime();
+            writeSqlDump(source, sql);
+            long sqlMillis = SystemClock.elapsedRealtime() - start;
+
+            long fileSize = source.getPageSize()
+                    * source.compileStatement("PRAGMA page_count").simpleQueryForLong();
+
+            Log.i(LOG_TAG, rows + " rows: snapshot " + snapshot.size() + " bytes ("
+                    + String.format("%.1f", snapshot.size() / (double) rows) + " B/row), export "
+                    + exportMillis + " ms, import " + importMillis + " ms");
+            Log.i(LOG_TAG, rows + " rows: json " + json.count + " bytes in " + jsonMillis
+                    + " ms, sql dump " + sql.count + " bytes in " + sqlMillis
+                    + " ms, database file " + fileSize + " bytes");
+
+            assertTrue("Error: the snapshot is larger than the JSON export", snapshot.size() < json.count);
+        } finally {
+            source.close();
+            target.close();
+        }
+    }
+
+    // Rows shaped like real forecasts: temperatures with two decimals following a random walk.
+    private static void populate(SQLiteDatabase db, int rows) {
+        Random random = new Random(42);
+        long firstDay = DatabaseContract.normalizeDate(TestUtilities.TEST_DATE * 1000);
+        int locations = Math.max(1, rows / DAYS_PER_LOCATION);
+        int days = rows / locations;
+
+        SQLiteStatement location = db.compileStatement("INSERT INTO " + LocationEntry.TABLE_NAME +
+                " (" + LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME +
+                ", " + LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG +
+                ") VALUES (?, ?, ?, ?)");
+        SQLiteStatement weather = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME +
+                " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES +
+                ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int l = 0; l < locations; l++) {
+                location.bindString(1, "bench" + l);
+                location.bindString(2, "City " + l);
+                location.bindDouble(3, random.nextDouble() * 180 - 90);
+                location.bindDouble(4, random.nextDouble() * 360 - 180);
+                long locationId = location.executeInsert();
+
+                double temperature = random.nextDouble() * 30 - 5;
+                for (int d = 0; d < days; d++) {
+                    int condition = random.nextInt(DESCRIPTIONS.length);
+                    temperature += random.nextGaussian();
+                    weather.bindLong(1, locationId);
+                    weather.bindLong(2, firstDay + d * DAY_IN_MILLIS);
+                    weather.bindLong(3, 300 + condition * 100 + random.nextInt(4));
+                    weather.bindString(4, DESCRIPTIONS[condition]);
+                    weather.bindDouble(5, hundredths(temperature - 3 - random.nextDouble() * 4));
+                    weather.bindDouble(6, hundredths(temperature + random.nextDouble() * 4));
+                    weather.bindDouble(7, random.nextInt(100));
+                    weather.bindDouble(8, hundredths(990 + random.nextDouble() * 40));
+                    weather.bindDouble(9, hundredths(random.nextDouble() * 15));
+                    weather.bindDouble(10, random.nextInt(360));
+                    weather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            location.close();
+            weather.close();
+        }
+    }
+
+    private static double hundredths(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static void writeJson(SQLiteDatabase db, OutputStream out) throws IOException {
+        final Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                null, null, null, null, null);
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
+        try {
+            writer.beginArray();
+            while (cursor.moveToNext()) {
+                writer.beginObject();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    writer.name(cursor.getColumnName(i));
+                    if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
+                        writer.value(cursor.getString(i));
+                    } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
+                        writer.value(cursor.getLong(i));
+                    } else {
+                        writer.value(cursor.getDouble(i));
+                    }
+                }
+                writer.endObject();
+            }
+            writer.endArray();
+        } finally {
+            writer.close();
+            cursor.close();
+        }
+    }
+
+    // What "sqlite3 .dump" prints for the weather table: one INSERT statement per row.
+    private static void writeSqlDump(SQLiteDatabase db, OutputStream out) throws IOException {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                null, null, null, null, null);
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        StringBuilder line = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                line.setLength(0);
+                line.append("INSERT INTO \"").append(WeatherEntry.TABLE_NAME).append("\" VALUES(");
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    if (i > 0) line.append(',');
+                    if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
+                        DatabaseUtils.appendEscapedSQLString(line, cursor.getString(i));
+                    } else {
+                        line.append(cursor.getString(i));
+                    }
+                }
+                line.append(");\n");
+                writer.append(line);
+            }
+        } finally {
+            writer.close();
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+public class TestBatchRead extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+
+    private long mLocationId;
+    private long mFirstDay;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        mLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mFirstDay = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mFirstDay + i * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, i);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 10 + i);
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testAllReadsInOneCall() {
+        BatchRead batch = new BatchRead();
+        int location = batch.location(TestUtilities.TEST_LOCATION);
+        int today = batch.day(TestUtilities.TEST_LOCATION, mFirstDay + DAY_IN_MILLIS / 2);
+        int week = batch.range(TestUtilities.TEST_LOCATION, mFirstDay, mFirstDay + 6 * DAY_IN_MILLIS);
+        int aggregate = batch.aggregate(TestUtilities.TEST_LOCATION, mFirstDay, mFirstDay + 6 * DAY_IN_MILLIS);
+        BatchRead.Result result = batch.execute(mContext.getContentResolver());
+
+        assertEquals(mLocationId, result.getLocationId(location));
+        assertEquals(TestUtilities.TEST_LOCATION, result.getLocationSetting(location));
+        assertEquals("North Pole", result.getCityName(location));
+        assertEquals(64.7488, result.getLatitude(location), 1e-9);
+
+        assertEquals(1, result.getCount(today));
+        assertEquals(mFirstDay, result.getDates(today)[0]);
+        assertEquals(800, result.getWeatherIds(today)[0]);
+        assertEquals("Asteroids", result.getShortDescs(today)[0]);
+
+        assertEquals("Error: a week should have 7 days", 7, result.getCount(week));
+        assertEquals(7, result.getDates(week).length);
+        assertEquals(mFirstDay + 6 * DAY_IN_MILLIS, result.getDates(week)[6]);
+        assertEquals(16, result.getMaxTemps(week)[6], 1e-9);
+
+        assertEquals(7, result.getCount(aggregate));
+        assertEquals(0, result.getLowest(aggregate), 1e-9);
+        assertEquals(16, result.getHighest(aggregate), 1e-9);
+        // Mean of (i + 10 + i) / 2 for i in 0..6.
+        assertEquals(8, result.getMean(aggregate), 1e-9);
+    }
+
+    public void testUnknownLocation() {
+        BatchRead batch = new BatchRead();
+        int location = batch.location("nowhere");
+        int range = batch.range("nowhere", mFirstDay, mFirstDay + DAY_IN_MILLIS);
+        BatchRead.Result result = batch.execute(mContext.getContentResolver());
+
+        assertEquals(-1, result.getLocationId(location));
+        assertEquals(0, result.getCount(range));
+        assertEquals(0, result.getDates(range).length);
+    }
+}
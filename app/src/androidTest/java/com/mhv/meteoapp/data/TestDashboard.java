@@ -0,0 +1,114 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.mhv.meteoapp.data.DatabaseContract.DashboardEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+public class TestDashboard extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final String OTHER_LOCATION = "99705";
+
+    private long mToday;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mToday = DatabaseContract.normalizeDate(TestUtilities.TEST_DATE * 1000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private long insertLocation(String setting, String city) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, city);
+        return Long.parseLong(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, values).getLastPathSegment());
+    }
+
+    // Day i has a min of i and a max of 20 + i, so the week runs from the first min to the
+    // seventh max whatever the number of days stored.
+    private void insertDays(long locationId, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mToday + i * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, i);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 20 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    public void testEveryLocationInOneQuery() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION, "North Pole"), 14);
+        insertLocation(OTHER_LOCATION, "Fairbanks");
+
+        Cursor cursor = mContext.getContentResolver().query(
+                DashboardEntry.buildDashboardUri(mToday), null, null, null, null);
+        assertEquals("Error: one row per location expected", 2, cursor.getCount());
+
+        // Sorted by city name, and a location without forecast still has its row.
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Fairbanks", cursor.getString(cursor.getColumnIndex(DashboardEntry.COLUMN_CITY_NAME)));
+        assertTrue("Error: a location without forecast has a condition",
+                cursor.isNull(cursor.getColumnIndex(DashboardEntry.COLUMN_WEATHER_ID)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(DashboardEntry.COLUMN_WEEK_LOW)));
+
+        assertTrue(cursor.moveToNext());
+        assertEquals(TestUtilities.TEST_LOCATION,
+                cursor.getString(cursor.getColumnIndex(DashboardEntry.COLUMN_LOCATION_SETTING)));
+        assertEquals(321, cursor.getInt(cursor.getColumnIndex(DashboardEntry.COLUMN_WEATHER_ID)));
+        assertEquals("Asteroids", cursor.getString(cursor.getColumnIndex(DashboardEntry.COLUMN_SHORT_DESC)));
+        assertEquals(0.0, cursor.getDouble(cursor.getColumnIndex(DashboardEntry.COLUMN_MIN_TEMP)));
+        assertEquals(20.0, cursor.getDouble(cursor.getColumnIndex(DashboardEntry.COLUMN_MAX_TEMP)));
+        assertEquals("Error: wrong lowest temperature of the week",
+                0.0, cursor.getDouble(cursor.getColumnIndex(DashboardEntry.COLUMN_WEEK_LOW)));
+        assertEquals("Error: the week includes days after the seventh",
+                26.0, cursor.getDouble(cursor.getColumnIndex(DashboardEntry.COLUMN_WEEK_HIGH)));
+        cursor.close();
+    }
+
+    public void testSingleLocationRow() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION, "North Pole"), 3);
+        insertDays(insertLocation(OTHER_LOCATION, "Fairbanks"), 3);
+
+        // The day after: today's row is the second day and the week is what's left.
+        Cursor cursor = mContext.getContentResolver().query(
+                DashboardEntry.buildDashboardLocationUri(TestUtilities.TEST_LOCATION, mToday + DAY_IN_MILLIS),
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1.0, cursor.getDouble(cursor.getColumnIndex(DashboardEntry.COLUMN_MIN_TEMP)));
+        assertEquals(1.0, cursor.getDouble(cursor.getColumnIndex(DashboardEntry.COLUMN_WEEK_LOW)));
+        assertEquals(22.0, cursor.getDouble(cursor.getColumnIndex(DashboardEntry.COLUMN_WEEK_HIGH)));
+        cursor.close();
+    }
+
+    public void testWeatherChangeNotifiesItsLocationRow() {
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION, "North Pole");
+        ContentResolver resolver = mContext.getContentResolver();
+
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        resolver.registerContentObserver(
+                DashboardEntry.buildDashboardLocationUri(TestUtilities.TEST_LOCATION), false, tco);
+        insertDays(locationId, 7);
+        tco.waitForNotificationOrFail();
+        resolver.unregisterContentObserver(tco);
+    }
+}
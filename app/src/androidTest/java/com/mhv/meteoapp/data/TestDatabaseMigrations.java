@@ -0,0 +1,354 @@
+package com.mhv.meteoapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.BuildConfig;
+import com.mhv.meteoapp.data.DatabaseContract.HistoryEntry;
+import com.mhv.meteoapp.data.DatabaseContract.HourlyEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationAliasEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.TodayEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TestDatabaseMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDatabaseMigrations.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // A heavy install: many saved locations and half a year of days each.
+    private static final int LOCATIONS = 200;
+    private static final int DAYS = 180;
+    private static final int HOURLY_DAYS = 5;
+
+    // The schema of version 2, the first one with a migration path.
+    private static final String SQL_CREATE_LOCATION_TABLE_V2 = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL  );";
+
+    private static final String SQL_CREATE_WEATHER_TABLE_V2 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+            "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private File mDatabaseFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+        mDatabaseFile = mContext.getDatabasePath(DatabaseHelper.DATABASE_NAME);
+        mDatabaseFile.getParentFile().mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeFromEveryPastVersion() {
+        for (int version = DatabaseMigrations.OLDEST_MIGRATABLE_VERSION;
+             version < DatabaseHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+            createPastVersion(version);
+
+            long start = SystemClock.elapsedRealtime();
+            SQLiteDatabase db = new DatabaseHelper(mContext).getWritableDatabase();
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            Log.i(LOG_TAG, "Upgrade from version " + version + " with "
+                    + LOCATIONS * DAYS + " weather rows took " + elapsed + " ms");
+
+            try {
+                assertEquals(DatabaseHelper.DATABASE_VERSION, db.getVersion());
+                assertEquals("Error: locations lost upgrading from version " + version,
+                        LOCATIONS, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+                assertEquals("Error: weather rows lost upgrading from version " + version,
+                        LOCATIONS * DAYS, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+                if (version < 7) {
+                    assertEquals("Error: city ids should be left to the next sync",
+                            LOCATIONS, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME,
+                                    LocationEntry.COLUMN_CITY_ID + " IS NULL"));
+                }
+                assertEquals("Error: distinct cities shouldn't be merged",
+                        0, DatabaseUtils.queryNumEntries(db, LocationAliasEntry.TABLE_NAME));
+                if (version >= 3) {
+                    assertEquals("Error: hourly rows lost upgrading from version " + version,
+                            LOCATIONS * HOURLY_DAYS, DatabaseUtils.queryNumEntries(db, HourlyEntry.TABLE_NAME));
+                }
+                assertSameSchemaAsFreshInstall(db);
+            } finally {
+                db.close();
+            }
+        }
+    }
+
+    /*
+        Times each migration step of a heavy install on its own and logs them. Emulators and old
+        devices are too slow for a fixed budget, so the total is only held to
+        BuildConfig.BENCH_UPGRADE_BUDGET_MILLIS when a run sets one.
+     */
+    public void testUpgradeStepTimings() {
+        createPastVersion(DatabaseMigrations.OLDEST_MIGRATABLE_VERSION);
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(mDatabaseFile.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        StringBuilder steps = new StringBuilder();
+        long total = 0;
+        try {
+            for (int version = DatabaseMigrations.OLDEST_MIGRATABLE_VERSION;
+                 version < DatabaseHelper.DATABASE_VERSION; version++) {
+                long elapsed = DatabaseMigrations.migrate(db, version, version + 1);
+                total += elapsed;
+                steps.append(version).append(" to ").append(version + 1).append(": ")
+                        .append(elapsed).append(" ms, ");
+            }
+        } finally {
+            db.close();
+        }
+        steps.append("total ").append(total).append(" ms");
+        Log.i(LOG_TAG, "Upgrade steps with " + LOCATIONS * DAYS + " weather rows: " + steps);
+
+        long budget = BuildConfig.BENCH_UPGRADE_BUDGET_MILLIS;
+        if (budget > 0) {
+            assertTrue("Error: upgrade over the budget of " + budget + " ms, " + steps, total <= budget);
+        }
+    }
+
+    public void testUpgradeMergesDuplicateLocations() {
+        createPastVersion(7);
+        long firstDay = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(mDatabaseFile.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            // The same city by city id, and a postcode not resolved yet by name and coordinates.
+            db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, coord_long, city_id)" +
+                    " VALUES (1001, 'London', 'London', 51.5085, -0.1258, 2643743)");
+            db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, coord_long, city_id)" +
+                    " VALUES (1002, 'london,uk', 'London', 51.5085, -0.1258, 2643743)");
+            db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, coord_long)" +
+                    " VALUES (1003, 'SW1A 1AA', 'London', 51.5085, -0.1257)");
+            // Day 0 in both the first two, day 1 only in the second, day 2 only in the third.
+            for (long[] row : new long[][]{{1001, 0, 1}, {1002, 0, 2}, {1002, 1, 2}, {1003, 2, 3}}) {
+                db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, min, max," +
+                        " humidity, pressure, wind, degrees) VALUES (" + row[0] + ", " +
+                        (firstDay + row[1] * DAY_IN_MILLIS) + ", 'Clear', 800, " + row[2] +
+                        ", 20, 65, 1013.2, 4.5, 270)");
+            }
+        } finally {
+            db.close();
+        }
+
+        db = new DatabaseHelper(mContext).getWritableDatabase();
+        try {
+            assertEquals("Error: duplicates should be merged into one location",
+                    LOCATIONS + 1, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+            assertEquals("Error: the other settings should become aliases of the first",
+                    2, DatabaseUtils.queryNumEntries(db, LocationAliasEntry.TABLE_NAME,
+                            LocationAliasEntry.COLUMN_LOC_KEY + " = 1001"));
+            assertEquals("Error: every day of the duplicates should be kept",
+                    3, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME,
+                            WeatherEntry.COLUMN_LOC_KEY + " = 1001"));
+            assertEquals("Error: the location's own day should win", 1, DatabaseUtils.longForQuery(db,
+                    "SELECT min FROM weather WHERE location_id = 1001 AND date = ?",
+                    new String[]{Long.toString(firstDay)}));
+            assertEquals("Error: weather rows of the merged locations left behind", LOCATIONS * DAYS + 3,
+                    DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testTooOldVersionIsRecreated() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY, forecast TEXT)");
+        db.execSQL("INSERT INTO weather (forecast) VALUES ('sunny')");
+        db.setVersion(DatabaseMigrations.OLDEST_MIGRATABLE_VERSION - 1);
+        db.close();
+
+        db = new DatabaseHelper(mContext).getWritableDatabase();
+        try {
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+            assertSameSchemaAsFreshInstall(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testRebuildTableKeepsRows() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+        try {
+            db.execSQL("CREATE TABLE sample (_id INTEGER PRIMARY KEY, name TEXT, obsolete REAL)");
+            for (int i = 0; i < 100; i++) {
+                db.execSQL("INSERT INTO sample (name, obsolete) VALUES ('row" + i + "', " + i + ")");
+            }
+            db.beginTransaction();
+            try {
+                DatabaseMigrations.rebuildTable(db, "sample",
+                        "_id INTEGER PRIMARY KEY, name TEXT NOT NULL, UNIQUE (name) ON CONFLICT REPLACE",
+                        new String[]{"_id", "name"});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            assertEquals(100, DatabaseUtils.queryNumEntries(db, "sample"));
+            assertEquals("Error: dropped column still present", -1, columnNames(db, "sample").indexOf("obsolete"));
+            assertEquals("row42", DatabaseUtils.stringForQuery(db,
+                    "SELECT name FROM sample WHERE _id = 43", null));
+        } finally {
+            db.close();
+        }
+    }
+
+    // Version 2 as it was shipped, then the migrations up to the requested version, all filled
+    // with data the way the app of that version would have left it.
+    private void createPastVersion(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+        try {
+            db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+            db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+            if (version > DatabaseMigrations.OLDEST_MIGRATABLE_VERSION) {
+                DatabaseMigrations.migrate(db, DatabaseMigrations.OLDEST_MIGRATABLE_VERSION, version);
+            }
+            fill(db, version);
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void fill(SQLiteDatabase db, int version) {
+        long firstDay = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        SQLiteStatement location = db.compileStatement(
+                "INSERT INTO location (location_setting, city_name, coord_lat, coord_long) VALUES (?, ?, ?, ?)");
+        SQLiteStatement weather = db.compileStatement("INSERT INTO weather (location_id, date, " +
+                "short_desc, weather_id, min, max, humidity, pressure, wind, degrees) " +
+                "VALUES (?, ?, 'Clear', 800, ?, ?, 65, 1013.2, 4.5, 270)");
+        // The hourly table only exists from version 3 on.
+        SQLiteStatement hourly = version >= 3 ? db.compileStatement(
+                "INSERT INTO hourly (location_id, date, count, points) VALUES (?, ?, 8, ?)") : null;
+        byte[] points = HourlyPacker.pack(new HourlyPacker.Series(8));
+
+        db.beginTransaction();
+        try {
+            for (int l = 0; l < LOCATIONS; l++) {
+                location.bindString(1, "location" + l);
+                location.bindString(2, "City " + l);
+                location.bindDouble(3, l % 90);
+                location.bindDouble(4, l % 180);
+                long locationId = location.executeInsert();
+                for (int d = 0; d < DAYS; d++) {
+                    weather.bindLong(1, locationId);
+                    weather.bindLong(2, firstDay + d * DAY_IN_MILLIS);
+                    weather.bindDouble(3, d % 20);
+                    weather.bindDouble(4, 10 + d % 20);
+                    weather.executeInsert();
+                }
+                if (version >= 3) {
+                    for (int d = 0; d < HOURLY_DAYS; d++) {
+                        hourly.bindLong(1, locationId);
+                        hourly.bindLong(2, firstDay + d * DAY_IN_MILLIS);
+                        hourly.bindBlob(3, points);
+                        hourly.executeInsert();
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            location.close();
+            weather.close();
+            if (hourly != null) {
+                hourly.close();
+            }
+        }
+    }
+
+    // Compares columns, types, constraints and indexes of every table with a database built by
+    // onCreate, so an upgraded install ends up with exactly the schema of a new one.
+    private void assertSameSchemaAsFreshInstall(SQLiteDatabase upgraded) {
+        File freshFile = mContext.getDatabasePath("migration_reference.db");
+        SQLiteDatabase.deleteDatabase(freshFile);
+        SQLiteDatabase fresh = SQLiteDatabase.openOrCreateDatabase(freshFile, null);
+        try {
+            new DatabaseHelper(mContext).onCreate(fresh);
+            for (String table : new String[]{LocationEntry.TABLE_NAME, LocationAliasEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+                    HourlyEntry.TABLE_NAME, HistoryEntry.TABLE_NAME, TodayEntry.TABLE_NAME}) {
+                assertEquals("Error: columns of " + table + " differ from a fresh install",
+                        describeColumns(fresh, table), describeColumns(upgraded, table));
+                assertEquals("Error: indexes of " + table + " differ from a fresh install",
+                        describeIndexes(fresh, table), describeIndexes(upgraded, table));
+            }
+        } finally {
+            fresh.close();
+            SQLiteDatabase.deleteDatabase(freshFile);
+        }
+    }
+
+    private static List<String> columnNames(SQLiteDatabase db, String table) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(cursor.getColumnIndex("name")));
+        }
+        cursor.close();
+        return names;
+    }
+
+    private static List<String> describeColumns(SQLiteDatabase db, String table) {
+        List<String> columns = new ArrayList<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        while (cursor.moveToNext()) {
+            columns.add(cursor.getString(cursor.getColumnIndex("name")) + " "
+                    + cursor.getString(cursor.getColumnIndex("type")) + " notnull="
+                    + cursor.getInt(cursor.getColumnIndex("notnull")) + " pk="
+                    + cursor.getInt(cursor.getColumnIndex("pk")));
+        }
+        cursor.close();
+        return columns;
+    }
+
+    // Index names differ with the creation order, so only what they cover is compared.
+    private static List<String> describeIndexes(SQLiteDatabase db, String table) {
+        List<String> indexes = new ArrayList<>();
+        Cursor list = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+        while (list.moveToNext()) {
+            String name = list.getString(list.getColumnIndex("name"));
+            StringBuilder description = new StringBuilder("unique=")
+                    .append(list.getInt(list.getColumnIndex("unique"))).append(" on");
+            Cursor info = db.rawQuery("PRAGMA index_info(" + name + ")", null);
+            while (info.moveToNext()) {
+                description.append(' ').append(info.getString(info.getColumnIndex("name")));
+            }
+            info.close();
+            indexes.add(description.toString());
+        }
+        list.close();
+        Collections.sort(indexes);
+        return indexes;
+    }
+}
@@ -26,7 +26,11 @@ public class TestDb extends AndroidTestCase {
         // build a HashSet of all of the table names we wish to look for
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(DatabaseContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(DatabaseContract.LocationAliasEntry.TABLE_NAME);
         tableNameHashSet.add(DatabaseContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(DatabaseContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(DatabaseContract.HistoryEntry.TABLE_NAME);
+        tableNameHashSet.add(DatabaseContract.TodayEntry.TABLE_NAME);
 
         mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
         SQLiteDatabase db = new DatabaseHelper(
@@ -63,6 +67,7 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(DatabaseContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(DatabaseContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(DatabaseContract.LocationEntry.COLUMN_CITY_ID);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
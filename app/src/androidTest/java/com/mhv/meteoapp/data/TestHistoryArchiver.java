@@ -0,0 +1,163 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.mhv.meteoapp.data.DatabaseContract.HistoryEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+public class TestHistoryArchiver extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int YEARS = 5;
+    private static final int DAYS = YEARS * 365;
+    private static final int FORECAST_DAYS = 14;
+
+    // Daily rows are kept for 90 days plus up to a week, since only whole weeks are folded,
+    // and weekly rows for WEEKLY_RETENTION_WEEKS plus the partial weeks at either end.
+    private static final long MAX_DAILY_ROWS = HistoryArchiver.DAILY_RETENTION_DAYS + 7;
+    private static final long MAX_WEEKLY_ROWS = HistoryArchiver.WEEKLY_RETENTION_WEEKS + 2;
+
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+        mDb = new DatabaseHelper(mContext).getWritableDatabase();
+        mLocationId = mDb.insert(DatabaseContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private static long day(long firstDay, int index) {
+        // normalizeDate copes with the 23 and 25 hour days of daylight saving time.
+        return DatabaseContract.normalizeDate(firstDay + index * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    private void insertForecastDay(long date, int i) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -10 + i % 30);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, i % 30);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 200 + (i % 7) * 100);
+        mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+    }
+
+    private long countHistory(int tier) {
+        return DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_TIER + " = ?", new String[]{Integer.toString(tier)});
+    }
+
+    /*
+        Replays five years of daily syncs: each day the 14 day forecast is stored and the
+        archiver runs once, as the SyncAdapter does. The archive must never grow past the
+        retention windows, and no single run may do more than its batch budget.
+     */
+    public void testArchiveStaysBoundedOverFiveYears() {
+        long firstDay = DatabaseContract.normalizeDate(TestUtilities.TEST_DATE);
+        long maxDaily = 0;
+        long maxWeekly = 0;
+        int maxChangedPerRun = 0;
+
+        for (int i = 0; i < DAYS; i++) {
+            long today = day(firstDay, i);
+            mDb.beginTransaction();
+            try {
+                for (int d = 0; d < FORECAST_DAYS; d++) {
+                    insertForecastDay(day(firstDay, i + d), i + d);
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+
+            int changed = HistoryArchiver.run(mDb, today);
+            maxChangedPerRun = Math.max(maxChangedPerRun, changed);
+
+            maxDaily = Math.max(maxDaily, countHistory(HistoryEntry.TIER_DAILY));
+            maxWeekly = Math.max(maxWeekly, countHistory(HistoryEntry.TIER_WEEKLY));
+
+            assertEquals("Error: past days left in the weather table on day " + i, 0,
+                    DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME,
+                            WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(today)}));
+        }
+
+        assertTrue("Error: " + maxDaily + " daily rows in the archive", maxDaily <= MAX_DAILY_ROWS);
+        assertTrue("Error: " + maxWeekly + " weekly rows in the archive", maxWeekly <= MAX_WEEKLY_ROWS);
+        assertTrue("Error: one run changed " + maxChangedPerRun + " rows",
+                maxChangedPerRun <= HistoryArchiver.MAX_BATCHES_PER_RUN * HistoryArchiver.ARCHIVE_ROWS_PER_BATCH);
+
+        // After five years the weekly tier must have been filled up and trimmed.
+        assertTrue(countHistory(HistoryEntry.TIER_WEEKLY) >= HistoryArchiver.WEEKLY_RETENTION_WEEKS);
+    }
+
+    /*
+        A backlog of five years of past days (e.g. after a long time offline) is worked off
+        over several runs, each one bounded, and ends up inside the same limits.
+     */
+    public void testBacklogIsCompactedIncrementally() {
+        long firstDay = DatabaseContract.normalizeDate(TestUtilities.TEST_DATE);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < DAYS; i++) {
+                insertForecastDay(day(firstDay, i), i);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        long today = day(firstDay, DAYS);
+
+        int runs = 0;
+        int changed;
+        do {
+            changed = HistoryArchiver.run(mDb, today);
+            assertTrue("Error: one run changed " + changed + " rows",
+                    changed <= HistoryArchiver.MAX_BATCHES_PER_RUN * HistoryArchiver.ARCHIVE_ROWS_PER_BATCH);
+            runs++;
+        } while (changed > 0);
+
+        assertTrue("Error: the backlog should take more than one run", runs > 1);
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        assertTrue(countHistory(HistoryEntry.TIER_DAILY) <= MAX_DAILY_ROWS);
+        assertTrue(countHistory(HistoryEntry.TIER_WEEKLY) <= MAX_WEEKLY_ROWS);
+    }
+
+    // Two weeks of wind swinging between 350 and 10 degrees blow from the north, not the south.
+    public void testWeeklyWindDirectionWrapsAroundNorth() {
+        long firstDay = DatabaseContract.normalizeDate(TestUtilities.TEST_DATE);
+        for (int i = 0; i < 14; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+            values.put(WeatherEntry.COLUMN_DATE, day(firstDay, i));
+            values.put(WeatherEntry.COLUMN_DEGREES, i % 2 == 0 ? 350 : 10);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 5);
+            mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+        long today = day(firstDay, 14 + HistoryArchiver.DAILY_RETENTION_DAYS + 14);
+        while (HistoryArchiver.run(mDb, today) > 0) {
+        }
+
+        Cursor weeks = mDb.query(HistoryEntry.TABLE_NAME, new String[]{HistoryEntry.COLUMN_DEGREES},
+                HistoryEntry.COLUMN_TIER + " = " + HistoryEntry.TIER_WEEKLY, null, null, null, null);
+        try {
+            assertTrue("Error: no week was compacted", weeks.getCount() > 0);
+            while (weeks.moveToNext()) {
+                double degrees = weeks.getDouble(0);
+                double fromNorth = Math.min(degrees, 360 - degrees);
+                assertTrue("Error: weekly wind from " + degrees + " degrees", fromNorth < 10);
+            }
+        } finally {
+            weeks.close();
+        }
+    }
+}
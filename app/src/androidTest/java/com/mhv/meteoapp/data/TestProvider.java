@@ -12,6 +12,7 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.mhv.meteoapp.data.DatabaseContract.LocationAliasEntry;
 import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
 import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
 
@@ -146,6 +147,13 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.mhv.meteoapp/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.mhv.meteoapp/dashboard/94074
+        type = mContext.getContentResolver().getType(
+                DatabaseContract.DashboardEntry.buildDashboardLocationUri(testLocation));
+        // vnd.android.cursor.dir/com.mhv.meteoapp/dashboard
+        assertEquals("Error: the DashboardEntry URI with location should return DashboardEntry.CONTENT_TYPE",
+                DatabaseContract.DashboardEntry.CONTENT_TYPE, type);
     }
 
 
@@ -486,4 +494,37 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        A second setting of a stored city becomes an alias: no new location, and the weather
+        of the city read through either setting.
+     */
+    public void testLocationAlias() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_CITY_ID, 5861897);
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "north pole,us");
+        long aliasRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+        assertEquals("Error: The alias should resolve to the stored location", locationRowId, aliasRowId);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: The alias shouldn't add a location", 1, cursor.getCount());
+        cursor.close();
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("north pole,us"), null, null, null, null);
+        assertEquals("Error: The alias should read the weather of its location",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        deleteAllRecordsFromProvider();
+        cursor = mContext.getContentResolver().query(LocationAliasEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Aliases should go with their location", 0, cursor.getCount());
+        cursor.close();
+    }
 }
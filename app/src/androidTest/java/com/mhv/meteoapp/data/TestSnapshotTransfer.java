@@ -0,0 +1,162 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.ParcelFileDescriptor;
+import android.test.AndroidTestCase;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationAliasEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class TestSnapshotTransfer extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 30;
+    private static final long LONDON_CITY_ID = 2643743;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void insertForecast() {
+        insertForecast(TestUtilities.insertNorthPoleLocationValues(mContext));
+    }
+
+    private void insertForecast(long locationId) {
+        long firstDay = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, firstDay + i * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, -3.25 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private byte[] exportThroughProvider() throws IOException {
+        ParcelFileDescriptor descriptor = mContext.getContentResolver()
+                .openFileDescriptor(DatabaseContract.SNAPSHOT_URI, "r");
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static Cursor queryAllWeather(SQLiteDatabase db) {
+        return db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    public void testExportThenImportThroughProvider() throws IOException {
+        insertForecast();
+        byte[] snapshot = exportThroughProvider();
+        assertTrue("Error: " + snapshot.length + " bytes for " + DAYS + " days", snapshot.length < DAYS * 20 + 64);
+
+        deleteAllRecords();
+
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, tco);
+        ParcelFileDescriptor descriptor = mContext.getContentResolver()
+                .openFileDescriptor(DatabaseContract.SNAPSHOT_URI, "w");
+        OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(descriptor);
+        out.write(snapshot);
+        out.close();
+        // The import runs on the provider's transfer thread and notifies when it is done.
+        tco.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(tco);
+
+        SQLiteDatabase db = new DatabaseHelper(mContext).getReadableDatabase();
+        Cursor cursor = queryAllWeather(db);
+        assertEquals("Error: weather rows lost in the round trip", DAYS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(-3.25, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)), 1e-9);
+        assertEquals("Asteroids", cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        cursor.close();
+        TestUtilities.validateCursor("Error: location not restored",
+                db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null),
+                TestUtilities.createNorthPoleLocationValues());
+        db.close();
+    }
+
+    private static long insertLondon(SQLiteDatabase db, String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, "London");
+        values.put(LocationEntry.COLUMN_COORD_LAT, 51.51);
+        values.put(LocationEntry.COLUMN_COORD_LONG, -0.13);
+        values.put(LocationEntry.COLUMN_CITY_ID, LONDON_CITY_ID);
+        long id = db.insert(LocationEntry.TABLE_NAME, null, values);
+        assertTrue("Error: Failure to insert London", id != -1);
+        return id;
+    }
+
+    // The snapshot stores the city under "London" with the alias "london,uk", this database
+    // under "london,uk": the import must resolve both to the one stored location.
+    public void testImportResolvesCityIdsAndAliases() throws IOException {
+        SQLiteDatabase db = new DatabaseHelper(mContext).getWritableDatabase();
+        long exported = insertLondon(db, "London");
+        ContentValues alias = new ContentValues();
+        alias.put(LocationAliasEntry.COLUMN_LOCATION_SETTING, "london,uk");
+        alias.put(LocationAliasEntry.COLUMN_LOC_KEY, exported);
+        assertTrue(db.insert(LocationAliasEntry.TABLE_NAME, null, alias) != -1);
+        insertForecast(exported);
+        byte[] snapshot = exportThroughProvider();
+        deleteAllRecords();
+
+        long local = insertLondon(db, "london,uk");
+        assertEquals(DAYS, SnapshotTransfer.importFrom(db, new ByteArrayInputStream(snapshot)));
+
+        assertEquals("Error: the import stored the city twice",
+                1, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals("london,uk", LocationAliases.canonicalSetting(db, "London"));
+        assertEquals("Error: the snapshot's alias was stored although it is a location here",
+                1, DatabaseUtils.queryNumEntries(db, LocationAliasEntry.TABLE_NAME));
+        assertEquals("Error: weather not imported to the stored city", DAYS,
+                DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(local)}));
+        db.close();
+    }
+
+    public void testTruncatedImportChangesNothing() throws IOException {
+        insertForecast();
+        byte[] snapshot = exportThroughProvider();
+        deleteAllRecords();
+
+        SQLiteDatabase db = new DatabaseHelper(mContext).getWritableDatabase();
+        try {
+            SnapshotTransfer.importFrom(db, new ByteArrayInputStream(snapshot, 0, snapshot.length - 8));
+            fail("Error: a truncated snapshot was imported");
+        } catch (IOException expected) {
+        }
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        db.close();
+    }
+}
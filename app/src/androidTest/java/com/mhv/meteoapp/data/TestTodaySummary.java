@@ -0,0 +1,132 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.TodayEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+public class TestTodaySummary extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 7;
+
+    private long mToday;
+    private long mLocationId;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mToday = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        mLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void insertForecast(double todayHigh) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mToday + i * DAY_IN_MILLIS);
+        }
+        values[0].put(WeatherEntry.COLUMN_MAX_TEMP, todayHigh);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    public void testIngestWritesTodaysRow() {
+        insertForecast(30);
+
+        TodaySummary summary = TodaySummary.query(mContext.getContentResolver(), TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: no summary after a sync", summary);
+        assertEquals(mLocationId, summary.locationId);
+        assertEquals(mToday, summary.date);
+        assertEquals(30.0, summary.max);
+        assertEquals(321, summary.weatherId);
+        assertEquals("Asteroids", summary.shortDesc);
+        assertTrue("Error: summary text without the description", summary.summaryText.contains("Asteroids"));
+        assertTrue("Error: summary text without the high", summary.summaryText.contains(summary.highText));
+        assertEquals(summary.version,
+                TodaySummary.queryVersion(mContext.getContentResolver(), TestUtilities.TEST_LOCATION));
+    }
+
+    public void testVersionOnlyMovesOnChange() {
+        ContentResolver resolver = mContext.getContentResolver();
+        insertForecast(30);
+        long first = TodaySummary.queryVersion(resolver, TestUtilities.TEST_LOCATION);
+        assertTrue(first > 0);
+
+        // The same forecast again, as a sync with nothing new would store it.
+        insertForecast(30);
+        assertEquals("Error: an identical sync changed the version",
+                first, TodaySummary.queryVersion(resolver, TestUtilities.TEST_LOCATION));
+
+        insertForecast(31);
+        assertTrue("Error: a new high didn't change the version",
+                TodaySummary.queryVersion(resolver, TestUtilities.TEST_LOCATION) > first);
+        assertEquals(31.0, TodaySummary.query(resolver, TestUtilities.TEST_LOCATION).max);
+    }
+
+    public void testUnknownLocationHasNoSummary() {
+        assertNull(TodaySummary.query(mContext.getContentResolver(), "nowhere"));
+        assertEquals(0, TodaySummary.queryVersion(mContext.getContentResolver(), "nowhere"));
+    }
+
+    public void testDeletedWeatherDropsTheRow() {
+        insertForecast(30);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertNull("Error: summary kept after its weather row was deleted",
+                TodaySummary.query(mContext.getContentResolver(), TestUtilities.TEST_LOCATION));
+    }
+
+    // After midnight the stored row is yesterday's; a read serves it flagged stale and the
+    // rebuild from today's row is notified.
+    public void testRowOfAnEarlierDayIsRebuiltAfterRead() {
+        insertForecast(30);
+        SQLiteDatabase db = new DatabaseHelper(mContext).getWritableDatabase();
+        ContentValues yesterday = new ContentValues();
+        yesterday.put(TodayEntry.COLUMN_DATE, mToday - DAY_IN_MILLIS);
+        yesterday.put(TodayEntry.COLUMN_MAX_TEMP, -40);
+        db.update(TodayEntry.TABLE_NAME, yesterday, null, null);
+        db.close();
+
+        ContentResolver resolver = mContext.getContentResolver();
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        resolver.registerContentObserver(TodayEntry.buildTodayUri(TestUtilities.TEST_LOCATION), false, tco);
+
+        TodaySummary stale = TodaySummary.query(resolver, TestUtilities.TEST_LOCATION);
+        assertNotNull(stale);
+        assertTrue("Error: yesterday's row not flagged stale", stale.stale);
+        assertEquals(mToday - DAY_IN_MILLIS, stale.date);
+
+        tco.waitForNotificationOrFail();
+        resolver.unregisterContentObserver(tco);
+
+        TodaySummary summary = TodaySummary.query(resolver, TestUtilities.TEST_LOCATION);
+        assertNotNull(summary);
+        assertFalse("Error: rebuilt row still flagged stale", summary.stale);
+        assertEquals(mToday, summary.date);
+        assertEquals(30.0, summary.max);
+    }
+
+    public void testSummaryChangeIsNotified() {
+        ContentResolver resolver = mContext.getContentResolver();
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        resolver.registerContentObserver(TodayEntry.buildTodayUri(TestUtilities.TEST_LOCATION), false, tco);
+        insertForecast(30);
+        tco.waitForNotificationOrFail();
+        resolver.unregisterContentObserver(tco);
+    }
+}
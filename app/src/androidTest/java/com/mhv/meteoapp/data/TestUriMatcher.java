@@ -23,6 +23,23 @@ public class TestUriMatcher extends AndroidTestCase {
             WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.mhv.meteoapp/location"
     private static final Uri TEST_LOCATION_DIR = DatabaseContract.LocationEntry.CONTENT_URI;
+    // content://com.mhv.meteoapp/hourly"
+    private static final Uri TEST_HOURLY_DIR = DatabaseContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = DatabaseContract.
+            HourlyEntry.buildHourlyLocationWithDateRange(LOCATION_QUERY, TEST_DATE, TEST_DATE);
+    // content://com.mhv.meteoapp/history"
+    private static final Uri TEST_HISTORY_DIR = DatabaseContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = DatabaseContract.
+            HistoryEntry.buildHistoryLocationWithDateRange(LOCATION_QUERY, TEST_DATE, TEST_DATE,
+            DatabaseContract.HistoryEntry.TIER_WEEKLY);
+    // content://com.mhv.meteoapp/dashboard"
+    private static final Uri TEST_DASHBOARD_DIR = DatabaseContract.
+            DashboardEntry.buildDashboardUri(TEST_DATE);
+    private static final Uri TEST_DASHBOARD_WITH_LOCATION_DIR = DatabaseContract.
+            DashboardEntry.buildDashboardLocationUri(LOCATION_QUERY, TEST_DATE);
+    // content://com.mhv.meteoapp/today/London, UK"
+    private static final Uri TEST_TODAY_WITH_LOCATION_DIR = DatabaseContract.
+            TodayEntry.buildTodayUri(LOCATION_QUERY);
 
     /*
         This function tests that your UriMatcher returns the correct integer value
@@ -39,5 +56,19 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), CustomContentProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), CustomContentProvider.LOCATION);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), CustomContentProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), CustomContentProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), CustomContentProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), CustomContentProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The DASHBOARD URI was matched incorrectly.",
+                testMatcher.match(TEST_DASHBOARD_DIR), CustomContentProvider.DASHBOARD);
+        assertEquals("Error: The DASHBOARD WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_DASHBOARD_WITH_LOCATION_DIR), CustomContentProvider.DASHBOARD_WITH_LOCATION);
+        assertEquals("Error: The TODAY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_TODAY_WITH_LOCATION_DIR), CustomContentProvider.TODAY_WITH_LOCATION);
     }
 }
@@ -0,0 +1,362 @@
+package com.mhv.meteoapp.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.ContentObserver;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.BuildConfig;
+import com.mhv.meteoapp.R;
+import com.mhv.meteoapp.data.DatabaseContract;
+import com.mhv.meteoapp.data.DatabaseContract.HistoryEntry;
+import com.mhv.meteoapp.data.DatabaseContract.HourlyEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+import com.mhv.meteoapp.loadgen.FakeForecastServer;
+import com.mhv.meteoapp.loadgen.ForecastGenerator;
+import com.mhv.meteoapp.utils.BenchmarkUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    The whole sync, from the HTTP request to the last observer being told, run through the real
+    SyncAdapter.onPerformSync against the loadgen FakeForecastServer on the loopback interface.
+    For 1, 2, 4 ... BuildConfig.BENCH_LOCATIONS locations it syncs each of them in turn, the way
+    a user switching between them would, and records per round the wall time, the bytes read,
+    the allocations, the time spent writing to the provider and the change notifications sent.
+
+    The p50 wall and write times are then checked against assets/sync_benchmark_baseline.json
+    for this device, and the test fails if any of them got more than BENCH_SYNC_MAX_REGRESSION
+    percent slower. Devices without a baseline are only measured, except the reference device
+    BuildConfig.BENCH_REFERENCE_DEVICE, which fails without one. To record one, copy the
+    "baseline_entry" of the results into the baseline file:
+        adb shell run-as com.mhv.meteoapp cat files/sync_benchmark.json
+
+    The allocation counts are for the whole process, so they include the server's own, which
+    don't change from one build of the app to the next.
+ */
+public class SyncBenchmark extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = SyncBenchmark.class.getSimpleName();
+
+    static final String RESULTS_FILE = "sync_benchmark.json";
+    static final String BASELINE_ASSET = "sync_benchmark_baseline.json";
+
+    private static final long SEED = 2016;
+    private static final int ITERATIONS = 5;
+    // Differences below this are noise on any device, whatever the percentage.
+    private static final long MIN_GATED_MICROS = 5000;
+    private static final long SETTLE_MILLIS = 250;
+    // Far more calls than any API key allows, the benchmark isn't about the quota.
+    private static final int UNLIMITED_CALLS = 1000000;
+
+    private Context mContext;
+    private FakeForecastServer mServer;
+    private SyncAdapter mSyncAdapter;
+    private final AtomicInteger mNotifications = new AtomicInteger();
+    private ContentObserver mObserver;
+
+    private String mSavedLocation;
+    private boolean mSavedNotifications;
+
+    private void deleteAllRecords() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(HourlyEntry.CONTENT_URI, null, null);
+        resolver.delete(HistoryEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        deleteAllRecords();
+
+        // Every sync after the first of a location gets the next run of its forecast, so the
+        // writes change a few days each time as real syncs do.
+        ForecastGenerator generator = new ForecastGenerator(SEED);
+        mServer = new FakeForecastServer(generator, SEED);
+        mServer.setAdvancePerFetch(true);
+        mServer.start(0);
+        SyncAdapter.setBaseUrl(mServer.getBaseUrl());
+        final Map<String, Long> quotaState = new HashMap<>();
+        SyncAdapter.setQuota(new QuotaManager(UNLIMITED_CALLS, UNLIMITED_CALLS, new QuotaManager.Store() {
+            @Override
+            public long get(String key, long defaultValue) {
+                Long value = quotaState.get(key);
+                return value != null ? value : defaultValue;
+            }
+
+            @Override
+            public void put(String key, long value) {
+                quotaState.put(key, value);
+            }
+        }));
+        mSyncAdapter = new SyncAdapter(mContext, false);
+
+        // The daily notification would be drawn by the first sync only, keep it out.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String notificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        mSavedLocation = prefs.getString(locationKey, null);
+        mSavedNotifications = prefs.getBoolean(notificationsKey, true);
+        prefs.edit().putBoolean(notificationsKey, false).commit();
+
+        mObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mNotifications.incrementAndGet();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                DatabaseContract.BASE_CONTENT_URI, true, mObserver);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        SyncAdapter.setBaseUrl(null);
+        SyncAdapter.setQuota(null);
+        mServer.close();
+
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        editor.putString(mContext.getString(R.string.pref_location_key), mSavedLocation);
+        editor.putBoolean(mContext.getString(R.string.pref_enable_notifications_key), mSavedNotifications);
+        editor.commit();
+
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testSyncAgainstBaseline() throws Exception {
+        int maxLocations = Math.max(1, BuildConfig.BENCH_LOCATIONS);
+        List<Integer> sizes = new ArrayList<>();
+        for (int size = 1; size < maxLocations; size *= 2) {
+            sizes.add(size);
+        }
+        sizes.add(maxLocations);
+
+        JSONObject runs = new JSONObject();
+        for (int size : sizes) {
+            runs.put(Integer.toString(size), measure(size));
+        }
+
+        JSONObject results = new JSONObject();
+        results.put("sync", runs);
+        results.put("baseline_entry", baselineEntry(runs));
+        writeResults(results, maxLocations);
+
+        List<String> regressions = compareWithBaseline(runs);
+        assertTrue("Error: Sync got slower than the baseline for " + deviceKey() + ": " + regressions,
+                regressions.isEmpty());
+    }
+
+    private static String setting(int location) {
+        return "bench" + location;
+    }
+
+    private void syncLocation(int location) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), setting(location))
+                .commit();
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(), mContext.getString(R.string.content_authority),
+                null, syncResult);
+        assertFalse("Error: Sync of " + setting(location) + " failed", syncResult.hasError());
+    }
+
+    // Observers without a handler are told on binder threads, wait for them to stop coming.
+    private int settledNotifications() throws InterruptedException {
+        int count;
+        do {
+            count = mNotifications.get();
+            Thread.sleep(SETTLE_MILLIS);
+        } while (count != mNotifications.get());
+        return count;
+    }
+
+    @SuppressWarnings("deprecation")
+    private JSONObject measure(int locations) throws Exception {
+        deleteAllRecords();
+        // A first round fills the database, the measured ones replace what is stored.
+        for (int l = 0; l < locations; l++) {
+            syncLocation(l);
+        }
+
+        SyncMetrics metrics = SyncAdapter.getMetrics();
+        long[] wall = new long[ITERATIONS];
+        long[] write = new long[ITERATIONS];
+        long[] bytes = new long[ITERATIONS];
+        long[] allocCount = new long[ITERATIONS];
+        long[] allocBytes = new long[ITERATIONS];
+        long[] notifications = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            int notifiedBefore = settledNotifications();
+            long writeBefore = metrics.getWriteMicros();
+            long bytesBefore = metrics.getBytesRead();
+
+            Debug.resetGlobalAllocCount();
+            Debug.resetGlobalAllocSize();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            for (int l = 0; l < locations; l++) {
+                syncLocation(l);
+            }
+            wall[i] = (System.nanoTime() - start) / 1000;
+            Debug.stopAllocCounting();
+            allocCount[i] = Debug.getGlobalAllocCount();
+            allocBytes[i] = Debug.getGlobalAllocSize();
+
+            write[i] = metrics.getWriteMicros() - writeBefore;
+            bytes[i] = metrics.getBytesRead() - bytesBefore;
+            notifications[i] = settledNotifications() - notifiedBefore;
+        }
+
+        Log.i(LOG_TAG, locations + " locations: sync p50 " + BenchmarkUtils.median(wall) / 1000
+                + " ms, writes p50 " + BenchmarkUtils.median(write) / 1000 + " ms, "
+                + BenchmarkUtils.median(bytes) + " bytes, " + BenchmarkUtils.median(allocCount)
+                + " allocations (" + BenchmarkUtils.median(allocBytes) / 1024 + " KB), "
+                + BenchmarkUtils.median(notifications) + " notifications");
+        JSONObject result = new JSONObject();
+        result.put("wall_p50_us", BenchmarkUtils.median(wall));
+        result.put("wall_max_us", BenchmarkUtils.percentile(wall, 100));
+        result.put("write_p50_us", BenchmarkUtils.median(write));
+        result.put("bytes_read", BenchmarkUtils.median(bytes));
+        result.put("alloc_count", BenchmarkUtils.median(allocCount));
+        result.put("alloc_bytes", BenchmarkUtils.median(allocBytes));
+        result.put("notifications", BenchmarkUtils.median(notifications));
+        return result;
+    }
+
+    private static String deviceKey() {
+        return Build.MODEL + "/" + Build.VERSION.SDK_INT;
+    }
+
+    // The gated values of this run, in the form the baseline file keeps them.
+    private static JSONObject baselineEntry(JSONObject runs) throws JSONException {
+        JSONObject sizes = new JSONObject();
+        for (String size : iterable(runs)) {
+            JSONObject run = runs.getJSONObject(size);
+            JSONObject gated = new JSONObject();
+            gated.put("wall_p50_us", run.getLong("wall_p50_us"));
+            gated.put("write_p50_us", run.getLong("write_p50_us"));
+            sizes.put(size, gated);
+        }
+        JSONObject entry = new JSONObject();
+        entry.put(deviceKey(), sizes);
+        return entry;
+    }
+
+    private List<String> compareWithBaseline(JSONObject runs) throws JSONException, IOException {
+        List<String> regressions = new ArrayList<>();
+        JSONObject devices = readBaseline().optJSONObject("devices");
+        JSONObject baseline = devices == null ? null : devices.optJSONObject(deviceKey());
+        if (baseline == null) {
+            assertFalse("Error: No baseline for the reference device " + deviceKey() + " in "
+                    + BASELINE_ASSET, deviceKey().equals(BuildConfig.BENCH_REFERENCE_DEVICE));
+            Log.w(LOG_TAG, "No baseline for " + deviceKey() + ", nothing to compare with");
+            return regressions;
+        }
+
+        int maxRegression = BuildConfig.BENCH_SYNC_MAX_REGRESSION;
+        for (String size : iterable(runs)) {
+            JSONObject expected = baseline.optJSONObject(size);
+            if (expected == null) {
+                continue;
+            }
+            JSONObject run = runs.getJSONObject(size);
+            for (String metric : new String[]{"wall_p50_us", "write_p50_us"}) {
+                long before = expected.getLong(metric);
+                long now = run.getLong(metric);
+                if (now - before > MIN_GATED_MICROS && now > before * (100 + maxRegression) / 100) {
+                    regressions.add(size + " locations " + metric + " " + before + " -> " + now);
+                }
+            }
+        }
+        return regressions;
+    }
+
+    private JSONObject readBaseline() throws JSONException, IOException {
+        InputStream in;
+        try {
+            in = getInstrumentation().getContext().getAssets().open(BASELINE_ASSET);
+        } catch (FileNotFoundException e) {
+            return new JSONObject();
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new JSONObject(out.toString("UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Iterable<String> iterable(JSONObject object) {
+        List<String> keys = new ArrayList<>();
+        Iterator<String> it = object.keys();
+        while (it.hasNext()) {
+            keys.add(it.next());
+        }
+        return keys;
+    }
+
+    private void writeResults(JSONObject results, int maxLocations) throws JSONException, IOException {
+        JSONObject device = new JSONObject();
+        device.put("manufacturer", Build.MANUFACTURER);
+        device.put("model", Build.MODEL);
+        device.put("sdk", Build.VERSION.SDK_INT);
+        device.put("fingerprint", Build.FINGERPRINT);
+        results.put("device", device);
+
+        JSONObject build = new JSONObject();
+        build.put("version_name", BuildConfig.VERSION_NAME);
+        build.put("version_code", BuildConfig.VERSION_CODE);
+        build.put("build_type", BuildConfig.BUILD_TYPE);
+        results.put("build", build);
+
+        JSONObject config = new JSONObject();
+        config.put("max_locations", maxLocations);
+        config.put("iterations", ITERATIONS);
+        config.put("seed", SEED);
+        config.put("max_regression_percent", BuildConfig.BENCH_SYNC_MAX_REGRESSION);
+        results.put("config", config);
+        results.put("server_requests", mServer.getRequestCount());
+        results.put("timestamp", System.currentTimeMillis());
+
+        File file = new File(mContext.getFilesDir(), RESULTS_FILE);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(results.toString(2));
+        } finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Results written to " + file);
+    }
+}
@@ -0,0 +1,317 @@
+package com.mhv.meteoapp.sync;
+
+import android.accounts.Account;
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.BuildConfig;
+import com.mhv.meteoapp.R;
+import com.mhv.meteoapp.data.DatabaseContract;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+import com.mhv.meteoapp.loadgen.FakeForecastServer;
+import com.mhv.meteoapp.loadgen.ForecastGenerator;
+import com.mhv.meteoapp.utils.BenchmarkUtils;
+import com.mhv.meteoapp.utils.PollingCheck;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    What a sync costs the UI process, with SyncService in it or in its own ":sync" process.
+
+    Unlike SyncBenchmark this requests real syncs from the SyncManager, so SyncService runs
+    wherever the build put it. While each sync runs, a reader thread keeps querying the weather
+    list the way a scrolling forecast list does, and this process samples its Java and native
+    heap and counts its garbage collections. It also checks that the sync's writes and change
+    notifications reached this process, whichever process the sync ran in.
+
+    The sync process can't be pointed at a server by the test, so the build must point it at
+    the loopback address the test serves the loadgen stand-in on. Run it once per option:
+        ./gradlew connectedAndroidTest -PowmBaseUrl=http://127.0.0.1:8089/data/2.5/
+        ./gradlew connectedAndroidTest -PowmBaseUrl=http://127.0.0.1:8089/data/2.5/ -PsyncProcess=true
+    and compare the two results files:
+        adb shell run-as com.mhv.meteoapp cat files/sync_process_benchmark.json
+    Builds pointed anywhere else measure nothing.
+ */
+public class SyncProcessBenchmark extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = SyncProcessBenchmark.class.getSimpleName();
+
+    static final String RESULTS_FILE = "sync_process_benchmark.json";
+
+    private static final long SEED = 2016;
+    private static final int ITERATIONS = 5;
+    private static final String LOCATION = "benchprocess";
+    private static final long SYNC_TIMEOUT_MILLIS = 60 * 1000;
+    private static final long SAMPLE_MILLIS = 20;
+    private static final long SETTLE_MILLIS = 250;
+
+    private Context mContext;
+    private FakeForecastServer mServer;
+    private final AtomicInteger mNotifications = new AtomicInteger();
+    private ContentObserver mObserver;
+
+    private String mSavedLocation;
+    private boolean mSavedNotifications;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+
+        Uri baseUrl = Uri.parse(BuildConfig.OWM_BASE_URL);
+        if ("127.0.0.1".equals(baseUrl.getHost()) && baseUrl.getPort() > 0) {
+            mServer = new FakeForecastServer(new ForecastGenerator(SEED), SEED);
+            mServer.setAdvancePerFetch(true);
+            mServer.start(baseUrl.getPort());
+        }
+
+        // The daily notification would be drawn by the first sync only, keep it out.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String notificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        mSavedLocation = prefs.getString(locationKey, null);
+        mSavedNotifications = prefs.getBoolean(notificationsKey, true);
+        prefs.edit()
+                .putString(locationKey, LOCATION)
+                .putBoolean(notificationsKey, false)
+                .commit();
+
+        mObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mNotifications.incrementAndGet();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                DatabaseContract.BASE_CONTENT_URI, true, mObserver);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        if (mServer != null) {
+            mServer.close();
+        }
+
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        editor.putString(mContext.getString(R.string.pref_location_key), mSavedLocation);
+        editor.putBoolean(mContext.getString(R.string.pref_enable_notifications_key), mSavedNotifications);
+        editor.commit();
+        super.tearDown();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testUiHeapDuringSync() throws Exception {
+        if (mServer == null) {
+            Log.w(LOG_TAG, "OWM_BASE_URL " + BuildConfig.OWM_BASE_URL
+                    + " is not on the loopback address, nothing to measure");
+            return;
+        }
+        // A first sync creates the location, the measured ones replace its days.
+        sync();
+
+        long[] wall = new long[ITERATIONS];
+        long[] javaHeapPeak = new long[ITERATIONS];
+        long[] nativeHeapPeak = new long[ITERATIONS];
+        long[] gcCount = new long[ITERATIONS];
+        long[] readP95 = new long[ITERATIONS];
+        long[] notifications = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            int notifiedBefore = settledNotifications();
+            Runtime.getRuntime().gc();
+            long javaBefore = javaHeapUsed();
+            long nativeBefore = Debug.getNativeHeapAllocatedSize();
+
+            final List<Long> reads = new ArrayList<>();
+            final AtomicBoolean syncing = new AtomicBoolean(true);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (syncing.get()) {
+                        reads.add(readWeatherList());
+                    }
+                }
+            }, "ScrollingReader");
+
+            Debug.resetGlobalGcInvocationCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            reader.start();
+            Sync sync = requestSync();
+            while (!sync.isDone()) {
+                javaHeapPeak[i] = Math.max(javaHeapPeak[i], javaHeapUsed() - javaBefore);
+                nativeHeapPeak[i] = Math.max(nativeHeapPeak[i],
+                        Debug.getNativeHeapAllocatedSize() - nativeBefore);
+                assertTrue("Error: Sync didn't finish in time", sync.waited() < SYNC_TIMEOUT_MILLIS);
+                Thread.sleep(SAMPLE_MILLIS);
+            }
+            wall[i] = (System.nanoTime() - start) / 1000;
+            syncing.set(false);
+            reader.join();
+            Debug.stopAllocCounting();
+            gcCount[i] = Debug.getGlobalGcInvocationCount();
+
+            long[] readMicros = new long[reads.size()];
+            for (int r = 0; r < readMicros.length; r++) {
+                readMicros[r] = reads.get(r);
+            }
+            readP95[i] = BenchmarkUtils.percentile(readMicros, 95);
+            notifications[i] = settledNotifications() - notifiedBefore;
+            assertTrue("Error: No change notification reached the UI process", notifications[i] > 0);
+        }
+        assertTrue("Error: The synced days didn't reach the provider", countWeatherRows() > 0);
+        assertEquals("Error: SyncService ran in the wrong process", BuildConfig.SYNC_PROCESS,
+                isSyncProcessRunning());
+
+        Log.i(LOG_TAG, (BuildConfig.SYNC_PROCESS ? "Sync process" : "Same process")
+                + ": sync p50 " + BenchmarkUtils.median(wall) / 1000 + " ms, UI heap peak p50 "
+                + BenchmarkUtils.median(javaHeapPeak) / 1024 + " KB java, "
+                + BenchmarkUtils.median(nativeHeapPeak) / 1024 + " KB native, "
+                + BenchmarkUtils.median(gcCount) + " GCs, reads p95 "
+                + BenchmarkUtils.median(readP95) + " us");
+        JSONObject result = new JSONObject();
+        result.put("sync_process", BuildConfig.SYNC_PROCESS);
+        result.put("wall_p50_us", BenchmarkUtils.median(wall));
+        result.put("java_heap_peak_p50_kb", BenchmarkUtils.median(javaHeapPeak) / 1024);
+        result.put("java_heap_peak_max_kb", BenchmarkUtils.percentile(javaHeapPeak, 100) / 1024);
+        result.put("native_heap_peak_p50_kb", BenchmarkUtils.median(nativeHeapPeak) / 1024);
+        result.put("gc_count_p50", BenchmarkUtils.median(gcCount));
+        result.put("gc_count_max", BenchmarkUtils.percentile(gcCount, 100));
+        result.put("read_p95_us", BenchmarkUtils.median(readP95));
+        result.put("notifications", BenchmarkUtils.median(notifications));
+        writeResults(result);
+    }
+
+    private static long javaHeapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // One read of the forecast list, in microseconds.
+    private long readWeatherList() {
+        long start = System.nanoTime();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION,
+                        DatabaseContract.normalizeDate(System.currentTimeMillis())),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC));
+            }
+            cursor.close();
+        }
+        return (System.nanoTime() - start) / 1000;
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(LOCATION), null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean isSyncProcessRunning() {
+        ActivityManager manager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        String name = mContext.getPackageName() + ":sync";
+        for (ActivityManager.RunningAppProcessInfo process : manager.getRunningAppProcesses()) {
+            if (name.equals(process.processName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A sync requested from the SyncManager, done once it made its requests and went idle.
+    private class Sync {
+        final Account account = SyncAdapter.getSyncAccount(mContext);
+        final String authority = mContext.getString(R.string.content_authority);
+        final int requestsBefore = mServer.getRequestCount();
+        final long requestedAt = System.currentTimeMillis();
+
+        boolean isDone() {
+            return mServer.getRequestCount() > requestsBefore
+                    && !ContentResolver.isSyncActive(account, authority)
+                    && !ContentResolver.isSyncPending(account, authority);
+        }
+
+        long waited() {
+            return System.currentTimeMillis() - requestedAt;
+        }
+    }
+
+    private Sync requestSync() {
+        Sync sync = new Sync();
+        SyncAdapter.syncImmediately(mContext);
+        return sync;
+    }
+
+    private void sync() throws Exception {
+        final Sync sync = requestSync();
+        PollingCheck.check("Error: Sync didn't finish in time",
+                SYNC_TIMEOUT_MILLIS, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return sync.isDone();
+                    }
+                });
+    }
+
+    // Observers without a handler are told on binder threads, wait for them to stop coming.
+    private int settledNotifications() throws InterruptedException {
+        int count;
+        do {
+            count = mNotifications.get();
+            Thread.sleep(SETTLE_MILLIS);
+        } while (count != mNotifications.get());
+        return count;
+    }
+
+    private void writeResults(JSONObject results) throws JSONException, IOException {
+        JSONObject device = new JSONObject();
+        device.put("manufacturer", Build.MANUFACTURER);
+        device.put("model", Build.MODEL);
+        device.put("sdk", Build.VERSION.SDK_INT);
+        device.put("fingerprint", Build.FINGERPRINT);
+        results.put("device", device);
+
+        JSONObject config = new JSONObject();
+        config.put("iterations", ITERATIONS);
+        config.put("seed", SEED);
+        results.put("config", config);
+        results.put("server_requests", mServer.getRequestCount());
+        results.put("timestamp", System.currentTimeMillis());
+
+        File file = new File(mContext.getFilesDir(), RESULTS_FILE);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(results.toString(2));
+        } finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Results written to " + file);
+    }
+}
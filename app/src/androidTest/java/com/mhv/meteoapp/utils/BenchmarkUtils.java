@@ -0,0 +1,26 @@
+package com.mhv.meteoapp.utils;
+
+import java.util.Arrays;
+
+/*
+    Small helpers shared by the benchmark tests. Samples are kept as raw longs (millis or nanos,
+    whatever the caller measured) and only summarized at the end of a run.
+ */
+public class BenchmarkUtils {
+
+    private BenchmarkUtils() {}
+
+    public static long percentile(long[] samples, double percentile) {
+        if (samples.length == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, samples.length);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    public static long median(long[] samples) {
+        return percentile(samples, 50);
+    }
+}
@@ -0,0 +1,160 @@
+package com.mhv.meteoapp.widget;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.mhv.meteoapp.data.DatabaseContract;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+import com.mhv.meteoapp.utils.BenchmarkUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    What a sync costs the widget, in time and in allocations on the sync thread:
+    - days unchanged: the parsed days match the cache and nothing is drawn;
+    - days changed: the cache is rewritten and one RemoteViews goes to every instance (with no
+      widget on the test device's home screen this stops after the cache write);
+    - the query path this replaces: read the days back through the weather/location join and
+      build the RemoteViews, which every onUpdate used to need.
+ */
+public class WidgetUpdateBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = WidgetUpdateBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final String LOCATION = "20540";
+    private static final int SYNC_DAYS = 14;
+    private static final int WARMUP = 10;
+    private static final int ITERATIONS = 100;
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences(WidgetUpdater.PREFS_NAME, 0).edit().clear().commit();
+        mToday = DatabaseContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getSharedPreferences(WidgetUpdater.PREFS_NAME, 0).edit().clear().commit();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    // Stores the days the way the sync does, for the query path to read back.
+    private void storeDays(List<ContentValues> days) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        ContentValues[] values = new ContentValues[days.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues(days.get(i));
+            values[i].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            values[i].put(WeatherEntry.COLUMN_HUMIDITY, 65);
+            values[i].put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+            values[i].put(WeatherEntry.COLUMN_WIND_SPEED, 4.5);
+            values[i].put(WeatherEntry.COLUMN_DEGREES, 270);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    // The days as the sync has them right after parsing.
+    private List<ContentValues> parsedDays(double firstHigh) {
+        List<ContentValues> days = new ArrayList<>(SYNC_DAYS);
+        for (int i = 0; i < SYNC_DAYS; i++) {
+            ContentValues day = new ContentValues();
+            day.put(WeatherEntry.COLUMN_DATE, mToday + i * DAY_IN_MILLIS);
+            day.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            day.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, i == 0 ? firstHigh : 20.0 + i);
+            day.put(WeatherEntry.COLUMN_MIN_TEMP, 10.0 + i);
+            days.add(day);
+        }
+        return days;
+    }
+
+    public void testUnchangedSyncDrawsNothing() {
+        List<ContentValues> days = parsedDays(25);
+        WidgetUpdater.onSync(mContext, LOCATION, days);
+        assertFalse("Error: the same days were drawn twice", WidgetUpdater.onSync(mContext, LOCATION, days));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testUpdateCostPerSync() {
+        final List<ContentValues> same = parsedDays(25);
+        final List<ContentValues>[] alternating = new List[]{parsedDays(26), parsedDays(27)};
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        storeDays(same);
+        WidgetUpdater.onSync(mContext, LOCATION, same);
+
+        measure("days unchanged", new Runnable() {
+            @Override
+            public void run() {
+                WidgetUpdater.onSync(mContext, LOCATION, same);
+            }
+        });
+        measure("days changed", new Runnable() {
+            int mRun;
+
+            @Override
+            public void run() {
+                WidgetUpdater.onSync(mContext, LOCATION, alternating[mRun++ % 2]);
+            }
+        });
+        measure("query and build", new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = mContext.getContentResolver().query(
+                        WeatherEntry.buildWeatherLocationWithStartDate(LOCATION, mToday),
+                        null, null, null, WeatherEntry.COLUMN_DATE + " ASC LIMIT " + WidgetForecast.DAYS);
+                WidgetForecast forecast = new WidgetForecast(LOCATION, "metric", cursor.getCount());
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    forecast.dates[i] = cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE));
+                    forecast.weatherIds[i] = cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID));
+                    forecast.highs[i] = cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+                    forecast.lows[i] = cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP));
+                    forecast.descriptions[i] = cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC));
+                }
+                cursor.close();
+                assertEquals(WidgetForecast.DAYS, forecast.getDayCount());
+                WidgetUpdater.buildViews(mContext, forecast);
+            }
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    private void measure(String name, Runnable update) {
+        for (int i = 0; i < WARMUP; i++) {
+            update.run();
+        }
+        long[] times = new long[ITERATIONS];
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            update.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Debug.stopAllocCounting();
+        Log.i(LOG_TAG, name + ": median " + BenchmarkUtils.median(times) / 1000 + " us, p90 "
+                + BenchmarkUtils.percentile(times, 90) / 1000 + " us, "
+                + Debug.getThreadAllocCount() / ITERATIONS + " allocations ("
+                + Debug.getThreadAllocSize() / ITERATIONS + " bytes) per sync");
+    }
+}
@@ -9,6 +9,8 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.mhv.meteoapp.data.TodaySummary;
+
 /**
  * {@link CustomCursorAdapter} exposes a list of weather forecasts
  * from a {@link Cursor} to a {@link android.widget.ListView}.
@@ -21,6 +23,8 @@ public class CustomCursorAdapter extends CursorAdapter {
 
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
+    // Pre-formatted row of today, drawn instead of the cursor's first row when they match.
+    private TodaySummary mTodaySummary;
 
     public CustomCursorAdapter(Context context, Cursor c, int flags) {
         super(context, c, flags);
@@ -64,6 +68,9 @@ public class CustomCursorAdapter extends CursorAdapter {
         ViewHolder viewHolder = (ViewHolder) view.getTag();
 
         int viewType = getItemViewType(cursor.getPosition());
+        if (viewType == VIEW_TYPE_TODAY && bindToday(viewHolder, context, cursor)) {
+            return;
+        }
         switch (viewType) {
             case VIEW_TYPE_TODAY: {
             // Get weather icon
@@ -101,10 +108,31 @@ public class CustomCursorAdapter extends CursorAdapter {
         viewHolder.lowTempView.setText(Utils.formatTemperature(context, low));
     }
 
+    // Draws today from the summary when it is of the same day and in the current units.
+    private boolean bindToday(ViewHolder viewHolder, Context context, Cursor cursor) {
+        TodaySummary summary = mTodaySummary;
+        if (summary == null || summary.stale
+                || summary.date != cursor.getLong(MainFragment.COL_WEATHER_DATE)) {
+            return false;
+        }
+        viewHolder.iconView.setImageResource(Utils.getArtResourceForWeatherCondition(summary.weatherId));
+        viewHolder.iconView.setContentDescription(summary.shortDesc);
+        viewHolder.dateView.setText(Utils.getFriendlyDayString(context, summary.date));
+        viewHolder.descriptionView.setText(summary.shortDesc);
+        viewHolder.highTempView.setText(summary.highText);
+        viewHolder.lowTempView.setText(summary.lowText);
+        return true;
+    }
+
     public void setUseTodayLayout(boolean useTodayLayout) {
         mUseTodayLayout = useTodayLayout;
     }
 
+    public void setTodaySummary(TodaySummary summary) {
+        mTodaySummary = summary;
+        notifyDataSetChanged();
+    }
+
     public static class ViewHolder {
         public final ImageView iconView;
         public final TextView dateView;
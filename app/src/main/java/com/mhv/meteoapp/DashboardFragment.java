@@ -0,0 +1,421 @@
+package com.mhv.meteoapp;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.app.Fragment;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.mhv.meteoapp.concurrent.AppExecutors;
+import com.mhv.meteoapp.concurrent.Lane;
+import com.mhv.meteoapp.data.BatchRead;
+import com.mhv.meteoapp.data.DatabaseContract;
+import com.mhv.meteoapp.data.DatabaseContract.DashboardEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Today's forecast and the range of the week for every saved location.
+ *
+ * The whole list comes from one query on the dashboard URI. After that, a sync that touches a
+ * few locations notifies their dashboard/[location] URIs and only those rows are read again,
+ * all in one {@link BatchRead}, so a refresh costs the same whether 1 or 200 locations are saved. A change to the whole
+ * dashboard (locations added or removed, many locations synced at once) reloads everything.
+ */
+public class DashboardFragment extends Fragment {
+
+    public static final String TAG = DashboardFragment.class.getSimpleName();
+
+    private static final String[] DASHBOARD_COLUMNS = {
+            DashboardEntry._ID,
+            DashboardEntry.COLUMN_LOCATION_SETTING,
+            DashboardEntry.COLUMN_CITY_NAME,
+            DashboardEntry.COLUMN_WEATHER_ID,
+            DashboardEntry.COLUMN_SHORT_DESC,
+            DashboardEntry.COLUMN_MIN_TEMP,
+            DashboardEntry.COLUMN_MAX_TEMP,
+            DashboardEntry.COLUMN_WEEK_LOW,
+            DashboardEntry.COLUMN_WEEK_HIGH
+    };
+
+    // These indices are tied to DASHBOARD_COLUMNS.  If DASHBOARD_COLUMNS changes, these
+    // must change.
+    static final int COL_LOCATION_ID = 0;
+    static final int COL_LOCATION_SETTING = 1;
+    static final int COL_CITY_NAME = 2;
+    static final int COL_WEATHER_CONDITION_ID = 3;
+    static final int COL_WEATHER_DESC = 4;
+    static final int COL_WEATHER_MIN_TEMP = 5;
+    static final int COL_WEATHER_MAX_TEMP = 6;
+    static final int COL_WEEK_LOW = 7;
+    static final int COL_WEEK_HIGH = 8;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // How long to wait before reading again when the UI_READ lane is full.
+    private static final long RETRY_DELAY_MILLIS = 250;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Row> mRows = new ArrayList<>();
+    private DashboardAdapter mAdapter;
+    private DashboardObserver mObserver;
+
+    // Locations whose rows have to be read again, null once the whole list has to.
+    private Set<String> mPendingLocations = new HashSet<>();
+    private boolean mRefreshPosted;
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mRefreshPosted = false;
+            Set<String> locations = mPendingLocations;
+            mPendingLocations = new HashSet<>();
+            if (isAdded()) {
+                refresh(locations);
+            }
+        }
+    };
+
+    // Bumped by every full load, so a row read before it can't overwrite newer data.
+    private int mGeneration;
+
+    static class Row {
+        long locationId;
+        String locationSetting;
+        String cityName;
+        boolean hasToday;
+        int weatherId;
+        String description;
+        double min;
+        double max;
+        boolean hasWeek;
+        double weekLow;
+        double weekHigh;
+
+        static Row fromCursor(Cursor cursor) {
+            Row row = new Row();
+            row.locationId = cursor.getLong(COL_LOCATION_ID);
+            row.locationSetting = cursor.getString(COL_LOCATION_SETTING);
+            row.cityName = cursor.getString(COL_CITY_NAME);
+            row.hasToday = !cursor.isNull(COL_WEATHER_CONDITION_ID);
+            if (row.hasToday) {
+                row.weatherId = cursor.getInt(COL_WEATHER_CONDITION_ID);
+                row.description = cursor.getString(COL_WEATHER_DESC);
+                row.min = cursor.getDouble(COL_WEATHER_MIN_TEMP);
+                row.max = cursor.getDouble(COL_WEATHER_MAX_TEMP);
+            }
+            row.hasWeek = !cursor.isNull(COL_WEEK_LOW);
+            if (row.hasWeek) {
+                row.weekLow = cursor.getDouble(COL_WEEK_LOW);
+                row.weekHigh = cursor.getDouble(COL_WEEK_HIGH);
+            }
+            return row;
+        }
+
+        // From the location read of a batch, followed by its day and aggregate reads. Null when
+        // the location is gone.
+        static Row fromBatch(BatchRead.Result result, int read) {
+            long locationId = result.getLocationId(read);
+            if (locationId == -1) {
+                return null;
+            }
+            Row row = new Row();
+            row.locationId = locationId;
+            row.locationSetting = result.getLocationSetting(read);
+            row.cityName = result.getCityName(read);
+            int day = read + 1;
+            row.hasToday = result.getCount(day) > 0;
+            if (row.hasToday) {
+                row.weatherId = result.getWeatherIds(day)[0];
+                row.description = result.getShortDescs(day)[0];
+                row.min = result.getMinTemps(day)[0];
+                row.max = result.getMaxTemps(day)[0];
+            }
+            int week = read + 2;
+            row.hasWeek = result.getCount(week) > 0;
+            if (row.hasWeek) {
+                row.weekLow = result.getLowest(week);
+                row.weekHigh = result.getHighest(week);
+            }
+            return row;
+        }
+    }
+
+    public DashboardFragment() {
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        View rootView = inflater.inflate(R.layout.fragment_dashboard, container, false);
+        mAdapter = new DashboardAdapter(getActivity());
+        ListView listView = (ListView) rootView.findViewById(R.id.listview_dashboard);
+        listView.setAdapter(mAdapter);
+        return rootView;
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        mObserver = new DashboardObserver();
+        getActivity().getContentResolver().registerContentObserver(
+                DashboardEntry.CONTENT_URI, true, mObserver);
+        // Whatever changed while stopped went unobserved.
+        scheduleRefresh(null);
+    }
+
+    @Override
+    public void onStop() {
+        getActivity().getContentResolver().unregisterContentObserver(mObserver);
+        mObserver = null;
+        super.onStop();
+    }
+
+    private class DashboardObserver extends ContentObserver {
+
+        DashboardObserver() {
+            super(mHandler);
+        }
+
+        // Before API 16 observers aren't told which URI changed.
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleRefresh(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            scheduleRefresh(uri == null ? null : DashboardEntry.getLocationSettingFromUri(uri));
+        }
+    }
+
+    /**
+     * Queues a refresh of one location's row, or of every row when locationSetting is null.
+     * A sync notifies each of its locations separately, so the changes are gathered until the
+     * main thread gets to them and then read in one go.
+     */
+    private void scheduleRefresh(String locationSetting) {
+        if (locationSetting == null) {
+            mPendingLocations = null;
+        } else if (mPendingLocations != null) {
+            mPendingLocations.add(locationSetting);
+        }
+        if (!mRefreshPosted) {
+            mRefreshPosted = true;
+            mHandler.post(mRefresh);
+        }
+    }
+
+    private void refresh(final Set<String> locations) {
+        try {
+            read(locations);
+        } catch (RejectedExecutionException e) {
+            // A burst of reads filled the lane: keep the locations pending and try again later.
+            if (locations == null) {
+                mPendingLocations = null;
+            } else if (mPendingLocations != null) {
+                mPendingLocations.addAll(locations);
+            }
+            if (!mRefreshPosted) {
+                mRefreshPosted = true;
+                mHandler.postDelayed(mRefresh, RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private void read(final Set<String> locations) {
+        final Context context = getActivity().getApplicationContext();
+        final int generation = locations == null ? ++mGeneration : mGeneration;
+        AppExecutors.get().execute(Lane.UI_READ, new Runnable() {
+            @Override
+            public void run() {
+                long today = DatabaseContract.normalizeDate(System.currentTimeMillis());
+                if (locations == null) {
+                    final List<Row> rows = query(context, DashboardEntry.buildDashboardUri(today));
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mGeneration) {
+                                mRows.clear();
+                                mRows.addAll(rows);
+                                mAdapter.notifyDataSetChanged();
+                            }
+                        }
+                    });
+                    return;
+                }
+                // The same columns as the dashboard URI, for every changed location in one call.
+                long lastDay = today + 6 * DAY_IN_MILLIS + DAY_IN_MILLIS / 2;
+                List<String> settings = new ArrayList<>(locations);
+                int[] reads = new int[settings.size()];
+                BatchRead batch = new BatchRead();
+                for (int i = 0; i < reads.length; i++) {
+                    String location = settings.get(i);
+                    reads[i] = batch.location(location);
+                    batch.day(location, today);
+                    batch.aggregate(location, today, lastDay);
+                }
+                BatchRead.Result result = batch.execute(context.getContentResolver());
+
+                final List<Row> changed = new ArrayList<>();
+                final Set<String> missing = new HashSet<>();
+                for (int i = 0; i < reads.length; i++) {
+                    Row row = Row.fromBatch(result, reads[i]);
+                    if (row == null) {
+                        missing.add(settings.get(i));
+                    } else {
+                        changed.add(row);
+                    }
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            applyRows(changed, missing);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // Swaps in the re-read rows. A location that isn't in the list or no longer exists means
+    // the list itself changed, which takes a full load to get right.
+    private void applyRows(List<Row> changed, Set<String> missing) {
+        if (!missing.isEmpty()) {
+            scheduleRefresh(null);
+            return;
+        }
+        for (Row row : changed) {
+            int position = indexOf(row.locationSetting);
+            if (position < 0) {
+                scheduleRefresh(null);
+                return;
+            }
+            mRows.set(position, row);
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private int indexOf(String locationSetting) {
+        for (int i = 0; i < mRows.size(); i++) {
+            if (mRows.get(i).locationSetting.equals(locationSetting)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<Row> query(Context context, Uri uri) {
+        List<Row> rows = new ArrayList<>();
+        Cursor cursor = context.getContentResolver().query(uri, DASHBOARD_COLUMNS, null, null, null);
+        if (cursor == null) {
+            return rows;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(Row.fromCursor(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Cache of the children views for a dashboard list item.
+     */
+    private static class ViewHolder {
+        final ImageView iconView;
+        final TextView cityView;
+        final TextView descriptionView;
+        final TextView weekView;
+        final TextView highTempView;
+        final TextView lowTempView;
+
+        ViewHolder(View view) {
+            iconView = (ImageView) view.findViewById(R.id.list_item_icon);
+            cityView = (TextView) view.findViewById(R.id.list_item_city_textview);
+            descriptionView = (TextView) view.findViewById(R.id.list_item_forecast_textview);
+            weekView = (TextView) view.findViewById(R.id.list_item_week_textview);
+            highTempView = (TextView) view.findViewById(R.id.list_item_high_textview);
+            lowTempView = (TextView) view.findViewById(R.id.list_item_low_textview);
+        }
+    }
+
+    private class DashboardAdapter extends BaseAdapter {
+        private final Context mContext;
+
+        DashboardAdapter(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
+
+        @Override
+        public Row getItem(int position) {
+            return mRows.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mRows.get(position).locationId;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView;
+            if (view == null) {
+                view = LayoutInflater.from(mContext).inflate(R.layout.list_item_dashboard, parent, false);
+                view.setTag(new ViewHolder(view));
+            }
+            ViewHolder viewHolder = (ViewHolder) view.getTag();
+            Row row = getItem(position);
+
+            viewHolder.cityView.setText(row.cityName);
+            if (row.hasToday) {
+                viewHolder.iconView.setImageResource(
+                        Utils.getIconResourceForWeatherCondition(row.weatherId));
+                viewHolder.iconView.setContentDescription(row.description);
+                viewHolder.descriptionView.setText(row.description);
+                viewHolder.highTempView.setText(Utils.formatTemperature(mContext, row.max));
+                viewHolder.lowTempView.setText(Utils.formatTemperature(mContext, row.min));
+            } else {
+                viewHolder.iconView.setImageDrawable(null);
+                viewHolder.iconView.setContentDescription(null);
+                viewHolder.descriptionView.setText(R.string.dashboard_no_forecast);
+                viewHolder.highTempView.setText(null);
+                viewHolder.lowTempView.setText(null);
+            }
+            if (row.hasWeek) {
+                viewHolder.weekView.setText(mContext.getString(R.string.format_week_range,
+                        Utils.formatTemperature(mContext, row.weekLow),
+                        Utils.formatTemperature(mContext, row.weekHigh)));
+            } else {
+                viewHolder.weekView.setText(null);
+            }
+            return view;
+        }
+    }
+}
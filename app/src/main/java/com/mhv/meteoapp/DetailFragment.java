@@ -6,7 +6,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.widget.ShareActionProvider;
@@ -19,6 +18,7 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.mhv.meteoapp.concurrent.LaneCursorLoader;
 import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
 import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
 
@@ -146,7 +146,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         if ( null != mUri ) {
             // Now create and return a CursorLoader that will take care of
             // creating a Cursor for the data being displayed.
-            return new CursorLoader(
+            return new LaneCursorLoader(
                     getActivity(),
                     mUri,
                     DETAIL_COLUMNS,
@@ -0,0 +1,216 @@
+package com.mhv.meteoapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.mhv.meteoapp.concurrent.AppExecutors;
+import com.mhv.meteoapp.concurrent.Lane;
+import com.mhv.meteoapp.data.DatabaseContract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A small serialized copy of the last forecast list shown by {@link MainFragment}.
+ *
+ * On a cold start the list is drawn from this file before the database has even been
+ * opened, and the loader swaps in the live cursor once the real query finishes.
+ */
+public class ForecastSnapshot {
+
+    private static final String TAG = ForecastSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "last_forecast.bin";
+
+    // Bump this whenever the record layout below changes, old files are then ignored.
+    private static final int FORMAT_VERSION = 1;
+
+    // The snapshot is only a placeholder, never hold on to more rows than the list shows.
+    private static final int MAX_ROWS = 14;
+
+    // Column names as SQLite reports them for MainFragment.FORECAST_COLUMNS, so the
+    // CursorAdapter can find "_id" and the COL_* indices keep working.
+    private static final String[] COLUMNS = {
+            DatabaseContract.WeatherEntry._ID,
+            DatabaseContract.WeatherEntry.COLUMN_DATE,
+            DatabaseContract.WeatherEntry.COLUMN_SHORT_DESC,
+            DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP,
+            DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP,
+            DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            DatabaseContract.WeatherEntry.COLUMN_WEATHER_ID,
+            DatabaseContract.LocationEntry.COLUMN_COORD_LAT,
+            DatabaseContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private final String mLocationSetting;
+    private final List<Row> mRows;
+
+    private static class Row {
+        long id;
+        long date;
+        String description;
+        double high;
+        double low;
+        int weatherId;
+        double lat;
+        double lon;
+    }
+
+    private ForecastSnapshot(String locationSetting, List<Row> rows) {
+        mLocationSetting = locationSetting;
+        mRows = rows;
+    }
+
+    /**
+     * Copies the rows of a cursor with the MainFragment.FORECAST_COLUMNS projection.
+     * The cursor position is restored afterwards, since it is still owned by the adapter.
+     */
+    static ForecastSnapshot fromCursor(String locationSetting, Cursor cursor) {
+        List<Row> rows = new ArrayList<>(Math.min(cursor.getCount(), MAX_ROWS));
+        int position = cursor.getPosition();
+        if (cursor.moveToFirst()) {
+            do {
+                Row row = new Row();
+                row.id = cursor.getLong(MainFragment.COL_WEATHER_ID);
+                row.date = cursor.getLong(MainFragment.COL_WEATHER_DATE);
+                row.description = cursor.getString(MainFragment.COL_WEATHER_DESC);
+                row.high = cursor.getDouble(MainFragment.COL_WEATHER_MAX_TEMP);
+                row.low = cursor.getDouble(MainFragment.COL_WEATHER_MIN_TEMP);
+                row.weatherId = cursor.getInt(MainFragment.COL_WEATHER_CONDITION_ID);
+                row.lat = cursor.getDouble(MainFragment.COL_COORD_LAT);
+                row.lon = cursor.getDouble(MainFragment.COL_COORD_LONG);
+                rows.add(row);
+            } while (rows.size() < MAX_ROWS && cursor.moveToNext());
+        }
+        cursor.moveToPosition(position);
+        return new ForecastSnapshot(locationSetting, rows);
+    }
+
+    /**
+     * Reads the snapshot for the given location, dropping the days that are already in the past.
+     *
+     * @return a cursor laid out like MainFragment.FORECAST_COLUMNS, or null if there is no usable
+     * snapshot for this location.
+     */
+    static Cursor read(Context context, String locationSetting) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            if (!in.readUTF().equals(locationSetting)) {
+                return null;
+            }
+
+            long today = DatabaseContract.normalizeDate(System.currentTimeMillis());
+            int count = in.readInt();
+            MatrixCursor cursor = new MatrixCursor(COLUMNS, count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                long date = in.readLong();
+                String description = in.readUTF();
+                double high = in.readDouble();
+                double low = in.readDouble();
+                int weatherId = in.readInt();
+                double lat = in.readDouble();
+                double lon = in.readDouble();
+                if (date < today) {
+                    continue;
+                }
+                cursor.addRow(new Object[]{id, date, description, high, low,
+                        locationSetting, weatherId, lat, lon});
+            }
+
+            if (cursor.getCount() == 0) {
+                cursor.close();
+                return null;
+            }
+            return cursor;
+        } catch (IOException e) {
+            // A broken snapshot only costs us the fast path, the loader will still fill the list.
+            Log.w(TAG, "Ignoring unreadable forecast snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing snapshot", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot off the main thread, on the PREFETCH lane since it only serves the
+     * next cold start. The file is written next to the old one and renamed over it, so a
+     * reader never sees a half written snapshot.
+     */
+    void saveAsync(Context context) {
+        final File dir = context.getApplicationContext().getFilesDir();
+        try {
+            AppExecutors.get().execute(Lane.PREFETCH, new Runnable() {
+                @Override
+                public void run() {
+                    write(dir);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The next load will write a fresher snapshot anyway.
+            Log.w(TAG, "Skipping forecast snapshot, background lane is full");
+        }
+    }
+
+    private void write(File dir) {
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(mLocationSetting);
+            out.writeInt(mRows.size());
+            for (Row row : mRows) {
+                out.writeLong(row.id);
+                out.writeLong(row.date);
+                out.writeUTF(row.description);
+                out.writeDouble(row.high);
+                out.writeDouble(row.low);
+                out.writeInt(row.weatherId);
+                out.writeDouble(row.lat);
+                out.writeDouble(row.lon);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(new File(dir, FILE_NAME))) {
+                Log.w(TAG, "Could not publish forecast snapshot");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing forecast snapshot", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing snapshot", e);
+                }
+            }
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package com.mhv.meteoapp;
 
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
 
+import com.mhv.meteoapp.concurrent.AppExecutors;
+import com.mhv.meteoapp.concurrent.Lane;
 import com.mhv.meteoapp.sync.SyncAdapter;
 
+import java.util.concurrent.RejectedExecutionException;
+
 public class MainActivity extends AppCompatActivity implements MainFragment.Callback {
 
     private final String TAG = MainActivity.class.getSimpleName();
@@ -48,7 +55,44 @@ public class MainActivity extends AppCompatActivity implements MainFragment.Call
         MainFragment mainFragment = ((MainFragment)getSupportFragmentManager()
                 .findFragmentById(R.id.fragment_main));
         mainFragment.setUseTodayLayout(!mTwoPane);
-        SyncAdapter.initializeSyncAdapter(this);
+        initializeSyncAfterFirstFrame();
+    }
+
+    /**
+     * Setting up the sync account talks to the AccountManager and, on the first run, schedules
+     * the periodic sync. None of that is needed to draw the list, so wait until the first frame
+     * is on screen and then do it on a background thread.
+     */
+    private void initializeSyncAfterFirstFrame() {
+        final View decorView = getWindow().getDecorView();
+        final Context appContext = getApplicationContext();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        StartupTrace.markFirstFrame();
+                        // Posting from here runs once the frame being drawn has been handed off.
+                        decorView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                Runnable initialize = new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        SyncAdapter.initializeSyncAdapter(appContext);
+                                    }
+                                };
+                                try {
+                                    AppExecutors.get().execute(Lane.INGEST, initialize);
+                                } catch (RejectedExecutionException e) {
+                                    // A sync is storing many cities, don't wait behind it.
+                                    new Thread(initialize, "SyncInit").start();
+                                }
+                            }
+                        });
+                        return true;
+                    }
+                });
     }
 
     @Override
@@ -91,6 +135,10 @@ public class MainActivity extends AppCompatActivity implements MainFragment.Call
             startActivity(new Intent(MainActivity.this, SettingsActivity.class));
             return true;
         }
+        if (id == R.id.action_dashboard) {
+            startActivity(new Intent(MainActivity.this, DashboardActivity.class));
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -1,13 +1,16 @@
 package com.mhv.meteoapp;
 
+import android.content.ContentResolver;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -19,9 +22,15 @@ import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ListView;
 
+import com.mhv.meteoapp.concurrent.AppExecutors;
+import com.mhv.meteoapp.concurrent.Lane;
+import com.mhv.meteoapp.concurrent.LaneCursorLoader;
 import com.mhv.meteoapp.data.DatabaseContract;
+import com.mhv.meteoapp.data.TodaySummary;
 import com.mhv.meteoapp.sync.SyncAdapter;
 
+import java.util.concurrent.RejectedExecutionException;
+
 public class MainFragment extends Fragment
         implements LoaderManager.LoaderCallbacks<Cursor> {
 
@@ -29,10 +38,18 @@ public class MainFragment extends Fragment
 
     private CustomCursorAdapter mCustomCursorAdapter;
 
+    // Cursor read from the ForecastSnapshot, shown until the loader delivers the real data.
+    private Cursor mSnapshotCursor;
+
     private ListView mListView;
     private int mPosition = ListView.INVALID_POSITION;
     private boolean mUseTodayLayout;
 
+    // Today's row as kept by the provider, and the observer of its today URI while started.
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private TodaySummary mTodaySummary;
+    private ContentObserver mTodayObserver;
+
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
@@ -106,6 +123,76 @@ public class MainFragment extends Fragment
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        observeToday();
+    }
+
+    @Override
+    public void onStop() {
+        stopObservingToday();
+        super.onStop();
+    }
+
+    private void observeToday() {
+        mTodayObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                loadTodaySummary();
+            }
+        };
+        getActivity().getContentResolver().registerContentObserver(
+                DatabaseContract.TodayEntry.buildTodayUri(Utils.getPreferredLocation(getActivity())),
+                false, mTodayObserver);
+        loadTodaySummary();
+    }
+
+    private void stopObservingToday() {
+        if (mTodayObserver != null) {
+            getActivity().getContentResolver().unregisterContentObserver(mTodayObserver);
+            mTodayObserver = null;
+        }
+    }
+
+    /**
+     * Reads today's summary for the today layout. When the row shown is still the current one
+     * the version lookup is all it costs.
+     */
+    private void loadTodaySummary() {
+        if (!mUseTodayLayout) {
+            return;
+        }
+        final ContentResolver resolver = getActivity().getContentResolver();
+        final String locationSetting = Utils.getPreferredLocation(getActivity());
+        final long shownVersion = mTodaySummary == null ? 0 : mTodaySummary.version;
+        try {
+            AppExecutors.get().execute(Lane.UI_READ, new Runnable() {
+                @Override
+                public void run() {
+                    if (shownVersion != 0
+                            && TodaySummary.queryVersion(resolver, locationSetting) == shownVersion) {
+                        return;
+                    }
+                    final TodaySummary summary = TodaySummary.query(resolver, locationSetting);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (isAdded() && locationSetting.equals(
+                                    Utils.getPreferredLocation(getActivity()))) {
+                                mTodaySummary = summary;
+                                mCustomCursorAdapter.setTodaySummary(summary);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The list's own row of today is drawn meanwhile, the next change reads it again.
+            Log.w(TAG, "Skipping today summary, read lane is full");
+        }
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.menu_main_fragment, menu);
@@ -164,6 +251,14 @@ public class MainFragment extends Fragment
         mListView = (ListView) rootView.findViewById(R.id.listview_forecast);
         mListView.setAdapter(mCustomCursorAdapter);
 
+        // Draw the last shown forecast straight away, the database is opened by the loader later.
+        mSnapshotCursor = ForecastSnapshot.read(getActivity(),
+                Utils.getPreferredLocation(getActivity()));
+        if (mSnapshotCursor != null) {
+            mCustomCursorAdapter.swapCursor(mSnapshotCursor);
+            StartupTrace.markContent(true);
+        }
+
         mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
@@ -201,8 +296,15 @@ public class MainFragment extends Fragment
 
     // Since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
-        updateWeather();
+        // Usually prefetched from the settings already, in which case this fetches nothing.
+        SyncAdapter.prefetchLocation(getActivity(), Utils.getPreferredLocation(getActivity()));
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        mTodaySummary = null;
+        mCustomCursorAdapter.setTodaySummary(null);
+        if (mTodayObserver != null) {
+            stopObservingToday();
+            observeToday();
+        }
     }
 
     @Override
@@ -220,7 +322,7 @@ public class MainFragment extends Fragment
         Uri weatherForLocationUri = DatabaseContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        return new LaneCursorLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
                 null,
@@ -231,6 +333,13 @@ public class MainFragment extends Fragment
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         mCustomCursorAdapter.swapCursor(data);
+        closeSnapshotCursor();
+
+        if (data != null && data.getCount() > 0) {
+            StartupTrace.markContent(false);
+            ForecastSnapshot.fromCursor(Utils.getPreferredLocation(getActivity()), data)
+                    .saveAsync(getActivity());
+        }
         if (mPosition != ListView.INVALID_POSITION) {
             // If we don't need to restart the loader, and there's a desired position to restore
             // to, do so now.
@@ -241,6 +350,21 @@ public class MainFragment extends Fragment
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         mCustomCursorAdapter.swapCursor(null);
+        closeSnapshotCursor();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        closeSnapshotCursor();
+    }
+
+    // The loader owns the cursors it delivers, but the snapshot cursor is ours to close.
+    private void closeSnapshotCursor() {
+        if (mSnapshotCursor != null) {
+            mSnapshotCursor.close();
+            mSnapshotCursor = null;
+        }
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
@@ -248,5 +372,8 @@ public class MainFragment extends Fragment
         if (mCustomCursorAdapter != null) {
             mCustomCursorAdapter.setUseTodayLayout(mUseTodayLayout);
         }
+        if (mTodayObserver != null) {
+            loadTodaySummary();
+        }
     }
 }
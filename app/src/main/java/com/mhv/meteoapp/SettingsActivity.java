@@ -11,6 +11,8 @@ import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 
+import com.mhv.meteoapp.sync.SyncAdapter;
+
 public class SettingsActivity extends AppCompatActivity {
 
     @Override
@@ -57,6 +59,13 @@ public class SettingsActivity extends AppCompatActivity {
         public boolean onPreferenceChange(Preference preference, Object newValue) {
             String stringValue = newValue.toString();
 
+            if (preference.getKey().equals(getString(R.string.pref_location_key))
+                    && !stringValue.equals(Utils.getPreferredLocation(getActivity()))) {
+                // Fetch the new location while the user is still here, rather than on the
+                // return to an empty list.
+                SyncAdapter.prefetchLocation(getActivity(), stringValue);
+            }
+
             if (preference instanceof ListPreference) {
                 // For list preferences, look up the correct display value in
                 // the preference's 'entries' list (since they have separate labels/values).
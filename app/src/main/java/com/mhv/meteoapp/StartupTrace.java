@@ -0,0 +1,48 @@
+package com.mhv.meteoapp;
+
+import android.os.SystemClock;
+
+/**
+ * Records the two startup milestones of {@link MainActivity}: the first frame drawn and the
+ * first time the forecast list has content (from the snapshot or from the database).
+ * Times are {@link SystemClock#uptimeMillis()} values, 0 meaning "not reached yet".
+ */
+class StartupTrace {
+
+    private static volatile long sFirstFrameTime;
+    private static volatile long sContentTime;
+    private static volatile boolean sContentFromSnapshot;
+
+    private StartupTrace() {}
+
+    static void reset() {
+        sFirstFrameTime = 0;
+        sContentTime = 0;
+        sContentFromSnapshot = false;
+    }
+
+    static void markFirstFrame() {
+        if (sFirstFrameTime == 0) {
+            sFirstFrameTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    static void markContent(boolean fromSnapshot) {
+        if (sContentTime == 0) {
+            sContentTime = SystemClock.uptimeMillis();
+            sContentFromSnapshot = fromSnapshot;
+        }
+    }
+
+    static long getFirstFrameTime() {
+        return sFirstFrameTime;
+    }
+
+    static long getContentTime() {
+        return sContentTime;
+    }
+
+    static boolean isContentFromSnapshot() {
+        return sContentFromSnapshot;
+    }
+}
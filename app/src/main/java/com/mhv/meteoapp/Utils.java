@@ -3,11 +3,15 @@ package com.mhv.meteoapp;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
-import android.text.format.Time;
+
+import com.mhv.meteoapp.core.Condition;
+import com.mhv.meteoapp.core.DayDates;
+import com.mhv.meteoapp.core.Units;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 public class Utils {
 
@@ -29,7 +33,7 @@ public class Utils {
         // the values here.
         String suffix = "\u00B0";
         if (!isMetric(context)) {
-            temperature = (temperature * 1.8) + 32;
+            temperature = Units.celsiusToFahrenheit(temperature);
         }
 
         // For presentation, assume the user doesn't care about tenths of a degree.
@@ -56,22 +60,18 @@ public class Utils {
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
 
-        Time time = new Time();
-        time.setToNow();
-        long currentTime = System.currentTimeMillis();
-        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
-        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+        int days = DayDates.daysFromNow(dateInMillis, System.currentTimeMillis(), TimeZone.getDefault());
 
         // If the date we're building the String for is today's date, the format
         // is "Today, June 24"
-        if (julianDay == currentJulianDay) {
+        if (days == 0) {
             String today = context.getString(R.string.today);
             int formatId = R.string.format_full_friendly_date;
             return context.getString(
                     formatId,
                     today,
                     getFormattedMonthDay(context, dateInMillis));
-        } else if ( julianDay < currentJulianDay + 7 ) {
+        } else if ( days < 7 ) {
             // If the input date is less than a week in the future, just return the day name.
             return getDayName(context, dateInMillis);
         } else {
@@ -89,17 +89,12 @@ public class Utils {
         // If the date is today, return the localized version of "Today" instead of the actual
         // day name.
 
-        Time t = new Time();
-        t.setToNow();
-        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
-        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
-        if (julianDay == currentJulianDay) {
+        int days = DayDates.daysFromNow(dateInMillis, System.currentTimeMillis(), TimeZone.getDefault());
+        if (days == 0) {
             return context.getString(R.string.today);
-        } else if ( julianDay == currentJulianDay +1 ) {
+        } else if ( days == 1 ) {
             return context.getString(R.string.tomorrow);
         } else {
-            Time time = new Time();
-            time.setToNow();
             // Otherwise, the format is just the day of the week (e.g "Wednesday".
             SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
             return dayFormat.format(dateInMillis);
@@ -110,9 +105,6 @@ public class Utils {
      * Converts db date format to the format "Month day", e.g "June 24".
      */
     public static String getFormattedMonthDay(Context context, long dateInMillis ) {
-        Time time = new Time();
-        time.setToNow();
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utils.DATE_FORMAT);
         SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
         return monthDayFormat.format(dateInMillis);
     }
@@ -123,30 +115,11 @@ public class Utils {
             windFormat = R.string.format_wind_kmh;
         } else {
             windFormat = R.string.format_wind_mph;
-            windSpeed = .621371192237334f * windSpeed;
+            windSpeed = Units.kmhToMph(windSpeed);
         }
 
         // From wind direction in degrees, determine compass direction as a string (e.g NW)
-        // You know what's fun, writing really long if/else statements with tons of possible
-        // conditions.  Seriously, try it!
-        String direction = "Unknown";
-        if (degrees >= 337.5 || degrees < 22.5) {
-            direction = "N";
-        } else if (degrees >= 22.5 && degrees < 67.5) {
-            direction = "NE";
-        } else if (degrees >= 67.5 && degrees < 112.5) {
-            direction = "E";
-        } else if (degrees >= 112.5 && degrees < 157.5) {
-            direction = "SE";
-        } else if (degrees >= 157.5 && degrees < 202.5) {
-            direction = "S";
-        } else if (degrees >= 202.5 && degrees < 247.5) {
-            direction = "SW";
-        } else if (degrees >= 247.5 && degrees < 292.5) {
-            direction = "W";
-        } else if (degrees >= 292.5 && degrees < 337.5) {
-            direction = "NW";
-        }
+        String direction = Units.compassDirection(degrees);
         return String.format(context.getString(windFormat), windSpeed, direction);
     }
 
@@ -155,30 +128,28 @@ public class Utils {
      * by the OpenWeatherMap call.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_clouds;
+        Condition condition = Condition.forWeatherId(weatherId);
+        if (condition == null) {
+            return -1;
+        }
+        switch (condition) {
+            case STORM:
+                return R.drawable.ic_storm;
+            case LIGHT_RAIN:
+                return R.drawable.ic_light_rain;
+            case RAIN:
+                return R.drawable.ic_rain;
+            case FREEZING_RAIN:
+            case SNOW:
+                return R.drawable.ic_snow;
+            case FOG:
+                return R.drawable.ic_fog;
+            case CLEAR:
+                return R.drawable.ic_clear;
+            case LIGHT_CLOUDS:
+                return R.drawable.ic_light_clouds;
+            case CLOUDS:
+                return R.drawable.ic_clouds;
         }
         return -1;
     }
@@ -188,30 +159,29 @@ public class Utils {
      * by the OpenWeatherMap call.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.rain;
-        } else if (weatherId == 511) {
-            return R.drawable.snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.rain;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.storm;
-        } else if (weatherId == 800) {
-            return R.drawable.clear;
-        } else if (weatherId == 801) {
-            return R.drawable.light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.clouds;
+        Condition condition = Condition.forWeatherId(weatherId);
+        if (condition == null) {
+            return -1;
+        }
+        switch (condition) {
+            case STORM:
+                return R.drawable.storm;
+            case LIGHT_RAIN:
+                return R.drawable.light_rain;
+            case FREEZING_RAIN:
+                return R.drawable.snow;
+            case RAIN:
+            // The art has always drawn the 6xx snow codes as rain.
+            case SNOW:
+                return R.drawable.rain;
+            case FOG:
+                return R.drawable.fog;
+            case CLEAR:
+                return R.drawable.clear;
+            case LIGHT_CLOUDS:
+                return R.drawable.light_clouds;
+            case CLOUDS:
+                return R.drawable.clouds;
         }
         return -1;
     }
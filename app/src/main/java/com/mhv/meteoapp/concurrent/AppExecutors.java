@@ -0,0 +1,287 @@
+package com.mhv.meteoapp.concurrent;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * App-wide executor with one bounded queue per {@link Lane}, served by a small shared pool.
+ *
+ * Workers always take the highest lane that has work, with two exceptions:
+ * - one worker is kept free of background lanes, so a read never waits behind a sync;
+ * - a task that has waited longer than its lane's maxWaitMillis is taken first, so the
+ *   background lanes make progress even under a steady stream of reads.
+ */
+public class AppExecutors {
+
+    private static final String TAG = AppExecutors.class.getSimpleName();
+
+    private static final int WORKER_COUNT =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // How often idle workers re-check the background lanes for tasks that became overdue.
+    private static final long PROMOTION_CHECK_MILLIS = 100;
+
+    private static AppExecutors sInstance;
+
+    private final Object mLock = new Object();
+    private final Map<Lane, ArrayDeque<Task>> mQueues = new EnumMap<>(Lane.class);
+    private final Map<Lane, LaneMetrics> mMetrics = new EnumMap<>(Lane.class);
+
+    // Number of workers currently running a task from a lane other than UI_READ.
+    private int mBackgroundActive;
+    private boolean mShutdown;
+
+    public static synchronized AppExecutors get() {
+        if (sInstance == null) {
+            sInstance = new AppExecutors(WORKER_COUNT);
+        }
+        return sInstance;
+    }
+
+    AppExecutors(int workerCount) {
+        for (Lane lane : Lane.values()) {
+            mQueues.put(lane, new ArrayDeque<Task>(lane.capacity));
+            mMetrics.put(lane, new LaneMetrics(lane));
+        }
+        for (int i = 0; i < workerCount; i++) {
+            new Worker(workerCount, i).start();
+        }
+    }
+
+    private static class Task {
+        final Lane lane;
+        final Runnable runnable;
+        final long enqueuedAt;
+
+        Task(Lane lane, Runnable runnable) {
+            this.lane = lane;
+            this.runnable = runnable;
+            this.enqueuedAt = SystemClock.uptimeMillis();
+        }
+    }
+
+    /**
+     * Queues a task on the given lane.
+     *
+     * @throws RejectedExecutionException if the lane's queue is full.
+     */
+    public void execute(Lane lane, Runnable runnable) {
+        LaneMetrics metrics = mMetrics.get(lane);
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new RejectedExecutionException("AppExecutors is shut down");
+            }
+            ArrayDeque<Task> queue = mQueues.get(lane);
+            if (queue.size() >= lane.capacity) {
+                metrics.rejected.incrementAndGet();
+                throw new RejectedExecutionException(lane + " lane is full");
+            }
+            queue.addLast(new Task(lane, runnable));
+            metrics.submitted.incrementAndGet();
+            mLock.notifyAll();
+        }
+    }
+
+    public <T> Future<T> submit(Lane lane, Callable<T> callable) {
+        FutureTask<T> future = new FutureTask<>(callable);
+        execute(lane, future);
+        return future;
+    }
+
+    /**
+     * Runs the callable on the given lane and waits for its result. Calls made from one of our
+     * own workers run inline, so nested calls (a loader querying the provider, the sync
+     * inserting through it) can't deadlock the pool. A full lane runs the callable on the
+     * calling thread instead of failing it: the caller waits for it either way, and a sync
+     * storing its forecast itself slows down rather than losing it.
+     */
+    public <T> T runBlocking(Lane lane, Callable<T> callable) {
+        if (isWorkerThread()) {
+            return callInline(callable);
+        }
+
+        FutureTask<T> future = new FutureTask<>(callable);
+        try {
+            execute(lane, future);
+        } catch (RejectedExecutionException e) {
+            return callInline(callable);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Drops the queued tasks and lets every worker exit once its current task is done. Only
+     * for executors made by tests, the shared instance lives as long as the process.
+     */
+    void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            for (ArrayDeque<Task> queue : mQueues.values()) {
+                queue.clear();
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    public LaneMetrics getMetrics(Lane lane) {
+        return mMetrics.get(lane);
+    }
+
+    public void logMetrics() {
+        for (LaneMetrics metrics : mMetrics.values()) {
+            Log.d(TAG, metrics.toString());
+        }
+    }
+
+    public boolean isWorkerThread() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker && ((Worker) thread).getOwner() == this;
+    }
+
+    private static <T> T callInline(Callable<T> callable) {
+        try {
+            return callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Must be called with mLock held.
+    private Task nextTaskLocked(int workerCount) {
+        long now = SystemClock.uptimeMillis();
+        boolean backgroundAllowed = mBackgroundActive < workerCount - 1;
+        boolean higherLaneWaiting = false;
+
+        // Starvation protection first: an overdue background task jumps the line.
+        if (backgroundAllowed) {
+            for (Lane lane : Lane.values()) {
+                ArrayDeque<Task> queue = mQueues.get(lane);
+                Task head = queue.peekFirst();
+                if (head != null && lane.maxWaitMillis > 0
+                        && now - head.enqueuedAt >= lane.maxWaitMillis) {
+                    if (higherLaneWaiting) {
+                        mMetrics.get(lane).promoted.incrementAndGet();
+                    }
+                    return queue.pollFirst();
+                }
+                higherLaneWaiting |= head != null;
+            }
+        }
+
+        for (Lane lane : Lane.values()) {
+            if (lane != Lane.UI_READ && !backgroundAllowed) {
+                break;
+            }
+            Task task = mQueues.get(lane).pollFirst();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    // Must be called with mLock held.
+    private boolean hasQueuedTasksLocked() {
+        for (ArrayDeque<Task> queue : mQueues.values()) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void runTask(Task task) {
+        LaneMetrics metrics = mMetrics.get(task.lane);
+        long start = SystemClock.uptimeMillis();
+        metrics.recordWait(start - task.enqueuedAt);
+        Process.setThreadPriority(task.lane.threadPriority);
+        try {
+            task.runnable.run();
+            metrics.completed.incrementAndGet();
+        } catch (RuntimeException e) {
+            metrics.failed.incrementAndGet();
+            Log.e(TAG, "Task failed on " + task.lane + " lane", e);
+        } finally {
+            metrics.totalRunMillis.addAndGet(SystemClock.uptimeMillis() - start);
+        }
+    }
+
+    private class Worker extends Thread {
+        private final int mWorkerCount;
+
+        Worker(int workerCount, int index) {
+            super("AppExecutors-" + index);
+            mWorkerCount = workerCount;
+            setDaemon(true);
+        }
+
+        AppExecutors getOwner() {
+            return AppExecutors.this;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                synchronized (mLock) {
+                    while ((task = nextTaskLocked(mWorkerCount)) == null) {
+                        if (mShutdown) {
+                            return;
+                        }
+                        try {
+                            if (hasQueuedTasksLocked()) {
+                                // Only held back background work is left, check again for
+                                // overdue tasks or a free slot.
+                                mLock.wait(PROMOTION_CHECK_MILLIS);
+                            } else {
+                                mLock.wait();
+                            }
+                        } catch (InterruptedException e) {
+                            Log.w(TAG, "Worker interrupted, exiting", e);
+                            return;
+                        }
+                    }
+                    if (task.lane != Lane.UI_READ) {
+                        mBackgroundActive++;
+                    }
+                }
+
+                runTask(task);
+
+                synchronized (mLock) {
+                    if (task.lane != Lane.UI_READ) {
+                        mBackgroundActive--;
+                    }
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.mhv.meteoapp.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One writer thread draining a bounded queue of write batches, committing together as many
+ * of them as arrive within a latency budget.
+ *
+ * The writer takes the first batch, then whatever else is queued or arrives before the first
+ * one has waited latencyBudgetMillis, up to maxGroup batches, and hands them to the Committer
+ * as a group: one transaction, and one fsync, for all of them. If a group fails its batches
+ * are committed again one by one, so only the bad one fails for its producer.
+ *
+ * A batch that can't be applied twice, such as one reading a stream, goes through writeAlone()
+ * instead: it is committed in a group of its own, so a failing neighbour never makes the
+ * writer apply it again.
+ *
+ * Producers block in write() until their batch is committed, and while the queue is full,
+ * which holds them back when they write faster than the database can take it. A write from
+ * the writer thread itself, such as a batch of provider operations inserting through the
+ * provider, is committed inline as part of the group in progress.
+ */
+public class IngestQueue<T> {
+
+    /**
+     * Applies batches to the store.
+     */
+    public interface Committer<T> {
+        // Applies the group in one transaction, or throws to roll all of it back.
+        void commit(List<T> group) throws Exception;
+    }
+
+    private static class Entry<T> {
+        final T batch;
+        final boolean alone;
+        final long enqueuedAt = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable error;
+
+        Entry(T batch, boolean alone) {
+            this.batch = batch;
+            this.alone = alone;
+        }
+    }
+
+    private final BlockingQueue<Entry<T>> mQueue;
+    private final Committer<T> mCommitter;
+    private final long mLatencyBudgetNanos;
+    private final int mMaxGroup;
+    private final Thread mWriter;
+    // A batch to commit alone that ended the last group, the first of the next one.
+    // Only the writer touches it.
+    private Entry<T> mCarried;
+
+    private final AtomicLong mBatches = new AtomicLong();
+    private final AtomicLong mCommits = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mBackpressureWaits = new AtomicLong();
+    private final AtomicLong mLargestGroup = new AtomicLong();
+
+    /**
+     * @param capacity the number of batches that may wait, producers block beyond it
+     * @param latencyBudgetMillis how long a batch may wait for others to commit with
+     * @param maxGroup the most batches committed together
+     */
+    public IngestQueue(String name, int capacity, long latencyBudgetMillis, int maxGroup,
+                       Committer<T> committer) {
+        mQueue = new ArrayBlockingQueue<>(capacity);
+        mCommitter = committer;
+        mLatencyBudgetNanos = TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+        mMaxGroup = maxGroup;
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, name);
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Queues the batch and waits until it is committed.
+     *
+     * @throws RuntimeException with the cause the batch failed with, unless it is unchecked
+     */
+    public void write(T batch) {
+        enqueue(batch, false);
+    }
+
+    /**
+     * Like write(), for a batch the writer must not apply twice: it is committed in a group of
+     * its own, so it is never retried because another batch of its group failed.
+     */
+    public void writeAlone(T batch) {
+        enqueue(batch, true);
+    }
+
+    private void enqueue(T batch, boolean alone) {
+        if (isWriterThread()) {
+            commitInline(batch);
+            return;
+        }
+
+        Entry<T> entry = new Entry<>(batch, alone);
+        boolean interrupted = false;
+        if (!mQueue.offer(entry)) {
+            mBackpressureWaits.incrementAndGet();
+            while (true) {
+                try {
+                    mQueue.put(entry);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        // Once queued the batch will be committed, so wait for it even if interrupted.
+        while (true) {
+            try {
+                entry.done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        rethrow(entry.error);
+    }
+
+    public boolean isWriterThread() {
+        return Thread.currentThread() == mWriter;
+    }
+
+    private void commitInline(T batch) {
+        try {
+            mCommitter.commit(Collections.singletonList(batch));
+            mBatches.incrementAndGet();
+        } catch (Throwable t) {
+            mFailed.incrementAndGet();
+            rethrow(t);
+        }
+    }
+
+    private static void rethrow(Throwable error) {
+        if (error == null) {
+            return;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new RuntimeException(error);
+    }
+
+    private void drain() {
+        List<Entry<T>> group = new ArrayList<>(mMaxGroup);
+        while (true) {
+            try {
+                Entry<T> first = mCarried != null ? mCarried : mQueue.take();
+                mCarried = null;
+                group.add(first);
+                long deadline = first.enqueuedAt + mLatencyBudgetNanos;
+                while (!first.alone && group.size() < mMaxGroup) {
+                    Entry<T> next = mQueue.poll();
+                    if (next == null) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0 || (next = mQueue.poll(wait, TimeUnit.NANOSECONDS)) == null) {
+                            break;
+                        }
+                    }
+                    if (next.alone) {
+                        mCarried = next;
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Nothing interrupts the writer on purpose, commit what we have and go on.
+            }
+            if (!group.isEmpty()) {
+                commit(group);
+                group.clear();
+            }
+        }
+    }
+
+    private void commit(List<Entry<T>> group) {
+        List<T> batches = new ArrayList<>(group.size());
+        for (Entry<T> entry : group) {
+            batches.add(entry.batch);
+        }
+        try {
+            mCommitter.commit(batches);
+            mCommits.incrementAndGet();
+            mBatches.addAndGet(group.size());
+            long largest;
+            do {
+                largest = mLargestGroup.get();
+            } while (group.size() > largest && !mLargestGroup.compareAndSet(largest, group.size()));
+            for (Entry<T> entry : group) {
+                entry.done.countDown();
+            }
+        } catch (Throwable t) {
+            if (group.size() == 1) {
+                fail(group.get(0), t);
+                return;
+            }
+            // Find the bad batch by committing each on its own.
+            for (Entry<T> entry : group) {
+                try {
+                    mCommitter.commit(Collections.singletonList(entry.batch));
+                    mCommits.incrementAndGet();
+                    mBatches.incrementAndGet();
+                    entry.done.countDown();
+                } catch (Throwable single) {
+                    fail(entry, single);
+                }
+            }
+        }
+    }
+
+    private void fail(Entry<T> entry, Throwable error) {
+        mFailed.incrementAndGet();
+        entry.error = error;
+        entry.done.countDown();
+    }
+
+    // Batches committed, on their own or in a group.
+    public long getBatches() {
+        return mBatches.get();
+    }
+
+    // Transactions the writer committed, each one fsync of the journal.
+    public long getCommits() {
+        return mCommits.get();
+    }
+
+    public long getFailed() {
+        return mFailed.get();
+    }
+
+    // Writes that found the queue full and waited for room.
+    public long getBackpressureWaits() {
+        return mBackpressureWaits.get();
+    }
+
+    public long getLargestGroup() {
+        return mLargestGroup.get();
+    }
+
+    @Override
+    public String toString() {
+        return mWriter.getName() + ": batches=" + getBatches()
+                + " commits=" + getCommits()
+                + " largestGroup=" + getLargestGroup()
+                + " failed=" + getFailed()
+                + " backpressureWaits=" + getBackpressureWaits();
+    }
+}
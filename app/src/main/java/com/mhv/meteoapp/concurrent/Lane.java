@@ -0,0 +1,34 @@
+package com.mhv.meteoapp.concurrent;
+
+import android.os.Process;
+
+/**
+ * The kinds of work {@link AppExecutors} knows about, in priority order.
+ */
+public enum Lane {
+
+    // Reads the user is waiting on: provider queries and the loaders behind the visible screens.
+    UI_READ(64, 0, Process.THREAD_PRIORITY_DEFAULT),
+
+    // Work that warms data the user is likely to need soon.
+    PREFETCH(32, 500, Process.THREAD_PRIORITY_BACKGROUND),
+
+    // Sync, ingest and other background writes.
+    INGEST(16, 2000, Process.THREAD_PRIORITY_BACKGROUND);
+
+    // Maximum number of tasks waiting in this lane; further submissions are rejected.
+    final int capacity;
+
+    // A task that has waited this long is run ahead of higher lanes, so a steady stream of
+    // reads can't starve the background lanes forever. 0 means the lane is never promoted.
+    final long maxWaitMillis;
+
+    // Thread priority applied to a worker while it runs a task from this lane.
+    final int threadPriority;
+
+    Lane(int capacity, long maxWaitMillis, int threadPriority) {
+        this.capacity = capacity;
+        this.maxWaitMillis = maxWaitMillis;
+        this.threadPriority = threadPriority;
+    }
+}
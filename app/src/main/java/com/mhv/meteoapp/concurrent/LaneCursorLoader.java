@@ -0,0 +1,30 @@
+package com.mhv.meteoapp.concurrent;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link CursorLoader} whose query runs on the {@link Lane#UI_READ} lane of
+ * {@link AppExecutors} instead of competing with everything else on the AsyncTask pool.
+ */
+public class LaneCursorLoader extends CursorLoader {
+
+    public LaneCursorLoader(Context context, Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        return AppExecutors.get().runBlocking(Lane.UI_READ, new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return LaneCursorLoader.super.loadInBackground();
+            }
+        });
+    }
+}
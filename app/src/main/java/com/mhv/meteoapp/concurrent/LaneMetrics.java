@@ -0,0 +1,83 @@
+package com.mhv.meteoapp.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters kept by {@link AppExecutors} for one {@link Lane}.
+ */
+public class LaneMetrics {
+
+    private final Lane mLane;
+
+    final AtomicLong submitted = new AtomicLong();
+    final AtomicLong completed = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong promoted = new AtomicLong();
+    final AtomicLong totalWaitMillis = new AtomicLong();
+    final AtomicLong maxWaitMillis = new AtomicLong();
+    final AtomicLong totalRunMillis = new AtomicLong();
+
+    LaneMetrics(Lane lane) {
+        mLane = lane;
+    }
+
+    void recordWait(long waitMillis) {
+        totalWaitMillis.addAndGet(waitMillis);
+        long max;
+        do {
+            max = maxWaitMillis.get();
+        } while (waitMillis > max && !maxWaitMillis.compareAndSet(max, waitMillis));
+    }
+
+    public Lane getLane() {
+        return mLane;
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    // Tasks that were run ahead of a higher lane because they had waited too long.
+    public long getPromoted() {
+        return promoted.get();
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+
+    public long getAverageWaitMillis() {
+        long done = completed.get() + failed.get();
+        return done == 0 ? 0 : totalWaitMillis.get() / done;
+    }
+
+    public long getAverageRunMillis() {
+        long done = completed.get() + failed.get();
+        return done == 0 ? 0 : totalRunMillis.get() / done;
+    }
+
+    @Override
+    public String toString() {
+        return mLane + ": submitted=" + getSubmitted()
+                + " completed=" + getCompleted()
+                + " failed=" + getFailed()
+                + " rejected=" + getRejected()
+                + " promoted=" + getPromoted()
+                + " avgWait=" + getAverageWaitMillis() + "ms"
+                + " maxWait=" + getMaxWaitMillis() + "ms"
+                + " avgRun=" + getAverageRunMillis() + "ms";
+    }
+}
@@ -0,0 +1,372 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationAliasEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A batch of reads answered by a single {@link ContentResolver#call} to the provider, inside one
+ * read transaction, instead of one query() and one cursor window per read.
+ *
+ * Add the reads, run {@link #execute}, then read each one's answer from the {@link Result}
+ * with the index the add method returned:
+ *
+ *   BatchRead batch = new BatchRead();
+ *   int location = batch.location(locationSetting);
+ *   int today = batch.day(locationSetting, now);
+ *   BatchRead.Result result = batch.execute(resolver);
+ *   long[] dates = result.getDates(today);
+ *
+ * Results travel as primitive arrays in a Bundle, one array per column.
+ */
+public class BatchRead {
+
+    static final int OP_LOCATION = 1;
+    static final int OP_RANGE = 2;
+    static final int OP_DAY = 3;
+    static final int OP_AGGREGATE = 4;
+
+    // Request keys, one array entry per read.
+    static final String KEY_OPS = "ops";
+    static final String KEY_LOCATIONS = "locations";
+    static final String KEY_STARTS = "starts";
+    static final String KEY_ENDS = "ends";
+
+    // Result keys, suffixed with the index of the read.
+    private static final String RESULT_LOCATION_ID = "location_id.";
+    private static final String RESULT_LOCATION_SETTING = "location_setting.";
+    private static final String RESULT_CITY_NAME = "city_name.";
+    private static final String RESULT_LAT = "lat.";
+    private static final String RESULT_LON = "lon.";
+    private static final String RESULT_COUNT = "count.";
+    private static final String RESULT_DATES = "dates.";
+    private static final String RESULT_WEATHER_IDS = "weather_ids.";
+    private static final String RESULT_SHORT_DESCS = "short_descs.";
+    private static final String RESULT_MIN = "min.";
+    private static final String RESULT_MAX = "max.";
+    private static final String RESULT_HUMIDITY = "humidity.";
+    private static final String RESULT_PRESSURE = "pressure.";
+    private static final String RESULT_WIND = "wind.";
+    private static final String RESULT_DEGREES = "degrees.";
+    private static final String RESULT_MEAN = "mean.";
+
+    private final ArrayList<Integer> mOps = new ArrayList<>();
+    private final ArrayList<String> mLocations = new ArrayList<>();
+    private final ArrayList<Long> mStarts = new ArrayList<>();
+    private final ArrayList<Long> mEnds = new ArrayList<>();
+
+    private int add(int op, String locationSetting, long start, long end) {
+        mOps.add(op);
+        mLocations.add(locationSetting);
+        mStarts.add(start);
+        mEnds.add(end);
+        return mOps.size() - 1;
+    }
+
+    /**
+     * The location record: id, stored setting, city name and coordinates.
+     */
+    public int location(String locationSetting) {
+        return add(OP_LOCATION, locationSetting, 0, 0);
+    }
+
+    /**
+     * The days of a location from startDate to endDate, both included.
+     */
+    public int range(String locationSetting, long startDate, long endDate) {
+        return add(OP_RANGE, locationSetting,
+                DatabaseContract.normalizeDate(startDate), DatabaseContract.normalizeDate(endDate));
+    }
+
+    /**
+     * A single day, as a range of zero or one row.
+     */
+    public int day(String locationSetting, long date) {
+        long day = DatabaseContract.normalizeDate(date);
+        return add(OP_DAY, locationSetting, day, day);
+    }
+
+    /**
+     * Day count, lowest min, highest max and mean of (min + max) / 2 over a range of days.
+     */
+    public int aggregate(String locationSetting, long startDate, long endDate) {
+        return add(OP_AGGREGATE, locationSetting,
+                DatabaseContract.normalizeDate(startDate), DatabaseContract.normalizeDate(endDate));
+    }
+
+    public Bundle toExtras() {
+        int n = mOps.size();
+        int[] ops = new int[n];
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        for (int i = 0; i < n; i++) {
+            ops[i] = mOps.get(i);
+            starts[i] = mStarts.get(i);
+            ends[i] = mEnds.get(i);
+        }
+        Bundle extras = new Bundle();
+        extras.putIntArray(KEY_OPS, ops);
+        extras.putStringArray(KEY_LOCATIONS, mLocations.toArray(new String[n]));
+        extras.putLongArray(KEY_STARTS, starts);
+        extras.putLongArray(KEY_ENDS, ends);
+        return extras;
+    }
+
+    public Result execute(ContentResolver resolver) {
+        return new Result(resolver.call(DatabaseContract.BASE_CONTENT_URI,
+                DatabaseContract.METHOD_BATCH_READ, null, toExtras()));
+    }
+
+    /**
+     * The answers of a batch, looked up by the index of each read.
+     */
+    public static class Result {
+        private final Bundle mBundle;
+
+        public Result(Bundle bundle) {
+            mBundle = bundle;
+        }
+
+        // Location reads. The id is -1 when the location is not in the database.
+        public long getLocationId(int read) {
+            return mBundle.getLong(RESULT_LOCATION_ID + read, -1);
+        }
+
+        // The setting the location is stored under, an alias read gives the one it points to.
+        public String getLocationSetting(int read) {
+            return mBundle.getString(RESULT_LOCATION_SETTING + read);
+        }
+
+        public String getCityName(int read) {
+            return mBundle.getString(RESULT_CITY_NAME + read);
+        }
+
+        public double getLatitude(int read) {
+            return mBundle.getDouble(RESULT_LAT + read);
+        }
+
+        public double getLongitude(int read) {
+            return mBundle.getDouble(RESULT_LON + read);
+        }
+
+        // Number of days of a range, day or aggregate read.
+        public int getCount(int read) {
+            return mBundle.getInt(RESULT_COUNT + read);
+        }
+
+        // Columns of range and day reads, in date order.
+        public long[] getDates(int read) {
+            return mBundle.getLongArray(RESULT_DATES + read);
+        }
+
+        public int[] getWeatherIds(int read) {
+            return mBundle.getIntArray(RESULT_WEATHER_IDS + read);
+        }
+
+        public String[] getShortDescs(int read) {
+            return mBundle.getStringArray(RESULT_SHORT_DESCS + read);
+        }
+
+        public double[] getMinTemps(int read) {
+            return mBundle.getDoubleArray(RESULT_MIN + read);
+        }
+
+        public double[] getMaxTemps(int read) {
+            return mBundle.getDoubleArray(RESULT_MAX + read);
+        }
+
+        public double[] getHumidity(int read) {
+            return mBundle.getDoubleArray(RESULT_HUMIDITY + read);
+        }
+
+        public double[] getPressure(int read) {
+            return mBundle.getDoubleArray(RESULT_PRESSURE + read);
+        }
+
+        public double[] getWindSpeed(int read) {
+            return mBundle.getDoubleArray(RESULT_WIND + read);
+        }
+
+        public double[] getDegrees(int read) {
+            return mBundle.getDoubleArray(RESULT_DEGREES + read);
+        }
+
+        // Aggregate reads. Meaningless when getCount() is 0.
+        public double getLowest(int read) {
+            return mBundle.getDouble(RESULT_MIN + read);
+        }
+
+        public double getHighest(int read) {
+            return mBundle.getDouble(RESULT_MAX + read);
+        }
+
+        public double getMean(int read) {
+            return mBundle.getDouble(RESULT_MEAN + read);
+        }
+    }
+
+    private static final String SQL_LOCATION = "SELECT " + LocationEntry._ID + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG + ", " + LocationEntry.COLUMN_LOCATION_SETTING +
+            " FROM " + LocationEntry.TABLE_NAME +
+            " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ? OR " + LocationEntry._ID +
+            " = (SELECT " + LocationAliasEntry.COLUMN_LOC_KEY + " FROM " + LocationAliasEntry.TABLE_NAME +
+            " WHERE " + LocationAliasEntry.COLUMN_LOCATION_SETTING + " = ?)";
+
+    private static final String SQL_RANGE = "SELECT " + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " <= ?" +
+            " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC";
+
+    private static final String SQL_AGGREGATE = "SELECT COUNT(*), MIN(" + WeatherEntry.COLUMN_MIN_TEMP +
+            "), MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), AVG((" + WeatherEntry.COLUMN_MIN_TEMP + " + " +
+            WeatherEntry.COLUMN_MAX_TEMP + ") / 2.0) FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " <= ?";
+
+    /**
+     * Answers the reads of a request built by {@link #toExtras()}. Used by the provider.
+     */
+    static Bundle execute(SQLiteDatabase db, Bundle request) {
+        int[] ops = request.getIntArray(KEY_OPS);
+        String[] locations = request.getStringArray(KEY_LOCATIONS);
+        long[] starts = request.getLongArray(KEY_STARTS);
+        long[] ends = request.getLongArray(KEY_ENDS);
+        if (ops == null || locations == null || starts == null || ends == null
+                || locations.length != ops.length || starts.length != ops.length
+                || ends.length != ops.length) {
+            throw new IllegalArgumentException("Malformed batch read request");
+        }
+
+        Bundle result = new Bundle();
+        // Several reads usually share a location, look each one up only once.
+        Map<String, Long> locationIds = new HashMap<>();
+
+        // One transaction, so all the reads see the same state even while a sync is writing.
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < ops.length; i++) {
+                switch (ops[i]) {
+                    case OP_LOCATION:
+                        readLocation(db, locations[i], i, result, locationIds);
+                        break;
+                    case OP_RANGE:
+                    case OP_DAY:
+                        readRange(db, findLocationId(db, locations[i], locationIds),
+                                starts[i], ends[i], i, result);
+                        break;
+                    case OP_AGGREGATE:
+                        readAggregate(db, findLocationId(db, locations[i], locationIds),
+                                starts[i], ends[i], i, result);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown batch read " + ops[i]);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return result;
+    }
+
+    private static long findLocationId(SQLiteDatabase db, String locationSetting,
+                                       Map<String, Long> locationIds) {
+        Long id = locationIds.get(locationSetting);
+        if (id == null) {
+            Cursor cursor = db.rawQuery(SQL_LOCATION, new String[]{locationSetting, locationSetting});
+            id = cursor.moveToFirst() ? cursor.getLong(0) : -1L;
+            cursor.close();
+            locationIds.put(locationSetting, id);
+        }
+        return id;
+    }
+
+    private static void readLocation(SQLiteDatabase db, String locationSetting, int read,
+                                     Bundle result, Map<String, Long> locationIds) {
+        Cursor cursor = db.rawQuery(SQL_LOCATION, new String[]{locationSetting, locationSetting});
+        try {
+            if (cursor.moveToFirst()) {
+                result.putLong(RESULT_LOCATION_ID + read, cursor.getLong(0));
+                result.putString(RESULT_CITY_NAME + read, cursor.getString(1));
+                result.putDouble(RESULT_LAT + read, cursor.getDouble(2));
+                result.putDouble(RESULT_LON + read, cursor.getDouble(3));
+                result.putString(RESULT_LOCATION_SETTING + read, cursor.getString(4));
+                locationIds.put(locationSetting, cursor.getLong(0));
+            } else {
+                locationIds.put(locationSetting, -1L);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void readRange(SQLiteDatabase db, long locationId, long start, long end,
+                                  int read, Bundle result) {
+        Cursor cursor = db.rawQuery(SQL_RANGE, new String[]{
+                Long.toString(locationId), Long.toString(start), Long.toString(end)});
+        try {
+            int n = cursor.getCount();
+            long[] dates = new long[n];
+            int[] weatherIds = new int[n];
+            String[] shortDescs = new String[n];
+            double[] min = new double[n];
+            double[] max = new double[n];
+            double[] humidity = new double[n];
+            double[] pressure = new double[n];
+            double[] wind = new double[n];
+            double[] degrees = new double[n];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                dates[i] = cursor.getLong(0);
+                weatherIds[i] = cursor.getInt(1);
+                shortDescs[i] = cursor.getString(2);
+                min[i] = cursor.getDouble(3);
+                max[i] = cursor.getDouble(4);
+                humidity[i] = cursor.getDouble(5);
+                pressure[i] = cursor.getDouble(6);
+                wind[i] = cursor.getDouble(7);
+                degrees[i] = cursor.getDouble(8);
+            }
+            result.putInt(RESULT_COUNT + read, n);
+            result.putLongArray(RESULT_DATES + read, dates);
+            result.putIntArray(RESULT_WEATHER_IDS + read, weatherIds);
+            result.putStringArray(RESULT_SHORT_DESCS + read, shortDescs);
+            result.putDoubleArray(RESULT_MIN + read, min);
+            result.putDoubleArray(RESULT_MAX + read, max);
+            result.putDoubleArray(RESULT_HUMIDITY + read, humidity);
+            result.putDoubleArray(RESULT_PRESSURE + read, pressure);
+            result.putDoubleArray(RESULT_WIND + read, wind);
+            result.putDoubleArray(RESULT_DEGREES + read, degrees);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void readAggregate(SQLiteDatabase db, long locationId, long start, long end,
+                                      int read, Bundle result) {
+        Cursor cursor = db.rawQuery(SQL_AGGREGATE, new String[]{
+                Long.toString(locationId), Long.toString(start), Long.toString(end)});
+        try {
+            cursor.moveToFirst();
+            result.putInt(RESULT_COUNT + read, cursor.getInt(0));
+            result.putDouble(RESULT_MIN + read, cursor.getDouble(1));
+            result.putDouble(RESULT_MAX + read, cursor.getDouble(2));
+            result.putDouble(RESULT_MEAN + read, cursor.getDouble(3));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -2,25 +2,86 @@ package com.mhv.meteoapp.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.mhv.meteoapp.concurrent.AppExecutors;
+import com.mhv.meteoapp.concurrent.IngestQueue;
+import com.mhv.meteoapp.concurrent.Lane;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 public class CustomContentProvider extends ContentProvider {
 
+    private static final String LOG_TAG = CustomContentProvider.class.getSimpleName();
+
+    private static final int SNAPSHOT_BUFFER_SIZE = 64 * 1024;
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private DatabaseHelper mOpenHelper;
 
+    // Every write goes through one writer thread, which commits the writes that arrive within
+    // INGEST_LATENCY_MILLIS of each other in one transaction.
+    private static final int INGEST_CAPACITY = 32;
+    private static final long INGEST_LATENCY_MILLIS = 8;
+    private static final int INGEST_MAX_GROUP = 32;
+    private IngestQueue<IngestBatch> mIngest;
+    // Notifications of the group being committed, sent once it is. Only the writer touches it.
+    private final Set<Uri> mPendingNotifications = new LinkedHashSet<>();
+    // Locations whose today summary a read found stale and queued a rebuild for.
+    private final Set<String> mPendingTodayRefreshes = new HashSet<>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_ALIAS = 301;
+    static final int HOURLY = 400;
+    static final int HOURLY_WITH_LOCATION = 401;
+    static final int HISTORY = 500;
+    static final int HISTORY_WITH_LOCATION = 501;
+    static final int SNAPSHOT = 600;
+    static final int DASHBOARD = 700;
+    static final int DASHBOARD_WITH_LOCATION = 701;
+    static final int TODAY_WITH_LOCATION = 800;
+
+    // Above this many locations changed at once a dashboard is told to reload as a whole.
+    private static final int MAX_DASHBOARD_ROW_NOTIFICATIONS = 8;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
 
     // This describes the join between Weather and Location tables.
     // Static constructor.
@@ -35,6 +96,26 @@ public class CustomContentProvider extends ContentProvider {
                         "." + DatabaseContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + DatabaseContract.LocationEntry.TABLE_NAME +
                         "." + DatabaseContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                DatabaseContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        DatabaseContract.LocationEntry.TABLE_NAME +
+                        " ON " + DatabaseContract.HourlyEntry.TABLE_NAME +
+                        "." + DatabaseContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + DatabaseContract.LocationEntry.TABLE_NAME +
+                        "." + DatabaseContract.LocationEntry._ID);
+
+        //weather_history INNER JOIN location ON weather_history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                DatabaseContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        DatabaseContract.LocationEntry.TABLE_NAME +
+                        " ON " + DatabaseContract.HistoryEntry.TABLE_NAME +
+                        "." + DatabaseContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + DatabaseContract.LocationEntry.TABLE_NAME +
+                        "." + DatabaseContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -54,8 +135,141 @@ public class CustomContentProvider extends ContentProvider {
                     "." + DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     DatabaseContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND hourly.date >= ? AND hourly.date <= ?
+    private static final String sLocationSettingWithHourlyRangeSelection =
+            DatabaseContract.LocationEntry.TABLE_NAME +
+                    "." + DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    DatabaseContract.HourlyEntry.TABLE_NAME +
+                    "." + DatabaseContract.HourlyEntry.COLUMN_DATE + " >= ? AND " +
+                    DatabaseContract.HourlyEntry.TABLE_NAME +
+                    "." + DatabaseContract.HourlyEntry.COLUMN_DATE + " <= ? ";
+
+    //location.location_setting = ? AND weather_history.date >= ? AND weather_history.date <= ?
+    private static final String sLocationSettingWithHistoryRangeSelection =
+            DatabaseContract.LocationEntry.TABLE_NAME +
+                    "." + DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    DatabaseContract.HistoryEntry.TABLE_NAME +
+                    "." + DatabaseContract.HistoryEntry.COLUMN_DATE + " >= ? AND " +
+                    DatabaseContract.HistoryEntry.TABLE_NAME +
+                    "." + DatabaseContract.HistoryEntry.COLUMN_DATE + " <= ? ";
+
+    //... AND weather_history.tier = ?
+    private static final String sLocationSettingWithHistoryRangeAndTierSelection =
+            sLocationSettingWithHistoryRangeSelection + " AND " +
+                    DatabaseContract.HistoryEntry.TABLE_NAME +
+                    "." + DatabaseContract.HistoryEntry.COLUMN_TIER + " = ? ";
+
+    // Every location with today's row and the extremes of the week, in a single statement:
+    //location LEFT JOIN weather AS today ON today.location_id = location._id AND today.date = ?
+    //         LEFT JOIN weather AS week ON week.location_id = location._id AND week.date BETWEEN ? AND ?
+    // Both joins are lookups on the (location_id, date) index, so the cost per location is a
+    // handful of index probes.
+    private static final String sDashboardQuery = "SELECT " +
+            "location." + DatabaseContract.LocationEntry._ID + " AS " + DatabaseContract.DashboardEntry._ID + ", " +
+            "location." + DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING + " AS " + DatabaseContract.DashboardEntry.COLUMN_LOCATION_SETTING + ", " +
+            "location." + DatabaseContract.LocationEntry.COLUMN_CITY_NAME + " AS " + DatabaseContract.DashboardEntry.COLUMN_CITY_NAME + ", " +
+            "today." + DatabaseContract.WeatherEntry.COLUMN_WEATHER_ID + " AS " + DatabaseContract.DashboardEntry.COLUMN_WEATHER_ID + ", " +
+            "today." + DatabaseContract.WeatherEntry.COLUMN_SHORT_DESC + " AS " + DatabaseContract.DashboardEntry.COLUMN_SHORT_DESC + ", " +
+            "today." + DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP + " AS " + DatabaseContract.DashboardEntry.COLUMN_MIN_TEMP + ", " +
+            "today." + DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP + " AS " + DatabaseContract.DashboardEntry.COLUMN_MAX_TEMP + ", " +
+            "MIN(week." + DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS " + DatabaseContract.DashboardEntry.COLUMN_WEEK_LOW + ", " +
+            "MAX(week." + DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS " + DatabaseContract.DashboardEntry.COLUMN_WEEK_HIGH +
+            " FROM " + DatabaseContract.LocationEntry.TABLE_NAME + " AS location" +
+            " LEFT JOIN " + DatabaseContract.WeatherEntry.TABLE_NAME + " AS today" +
+            " ON today." + DatabaseContract.WeatherEntry.COLUMN_LOC_KEY + " = location." + DatabaseContract.LocationEntry._ID +
+            " AND today." + DatabaseContract.WeatherEntry.COLUMN_DATE + " = ?" +
+            " LEFT JOIN " + DatabaseContract.WeatherEntry.TABLE_NAME + " AS week" +
+            " ON week." + DatabaseContract.WeatherEntry.COLUMN_LOC_KEY + " = location." + DatabaseContract.LocationEntry._ID +
+            " AND week." + DatabaseContract.WeatherEntry.COLUMN_DATE + " >= ?" +
+            " AND week." + DatabaseContract.WeatherEntry.COLUMN_DATE + " <= ?";
+
+    private static final String sDashboardGroupAndOrder =
+            " GROUP BY location." + DatabaseContract.LocationEntry._ID +
+            " ORDER BY location." + DatabaseContract.LocationEntry.COLUMN_CITY_NAME + " ASC";
+
+    private Cursor getDashboard(Uri uri) {
+        long today = DatabaseContract.DashboardEntry.getTodayFromUri(uri);
+        long lastDay = DatabaseContract.normalizeDate(today + 6 * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+        String locationSetting = LocationAliases.canonicalSetting(mOpenHelper.getReadableDatabase(),
+                DatabaseContract.DashboardEntry.getLocationSettingFromUri(uri));
+
+        if (locationSetting == null) {
+            return mOpenHelper.getReadableDatabase().rawQuery(sDashboardQuery + sDashboardGroupAndOrder,
+                    new String[]{Long.toString(today), Long.toString(today), Long.toString(lastDay)});
+        }
+        return mOpenHelper.getReadableDatabase().rawQuery(sDashboardQuery +
+                        " WHERE location." + DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?" +
+                        sDashboardGroupAndOrder,
+                new String[]{Long.toString(today), Long.toString(today), Long.toString(lastDay), locationSetting});
+    }
+
+    private Cursor getToday(Uri uri, String[] projection) {
+        String locationSetting = DatabaseContract.TodayEntry.getLocationSettingFromUri(uri);
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(DatabaseContract.TodayEntry.TABLE_NAME,
+                projection,
+                TodaySummary.sLocationSettingSelection,
+                new String[]{LocationAliases.canonicalSetting(mOpenHelper.getReadableDatabase(), locationSetting)},
+                null,
+                null,
+                null);
+        if (isTodayCurrent(locationSetting)) {
+            return cursor;
+        }
+        final Bundle extras = new Bundle();
+        extras.putBoolean(DatabaseContract.EXTRA_STALE, true);
+        return new CursorWrapper(cursor) {
+            @Override
+            public Bundle getExtras() {
+                return extras;
+            }
+        };
+    }
+
+    // Checks, without writing, that a summary is today's and in the current units. A stale one
+    // is still served, and its rebuild is queued on the writer.
+    private boolean isTodayCurrent(String locationSetting) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        if (TodaySummary.isCurrent(db, getContext(), LocationAliases.canonicalSetting(db, locationSetting),
+                DatabaseContract.normalizeDate(System.currentTimeMillis()))) {
+            return true;
+        }
+        requestTodayRefresh(locationSetting);
+        return false;
+    }
+
+    // Queues one rebuild per location at a time. The write waits for its commit on an INGEST
+    // worker, not on the reader. When that lane is full the next read asks again.
+    private void requestTodayRefresh(final String locationSetting) {
+        synchronized (mPendingTodayRefreshes) {
+            if (!mPendingTodayRefreshes.add(locationSetting)) {
+                return;
+            }
+        }
+        try {
+            AppExecutors.get().execute(Lane.INGEST, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(IngestBatch.refreshToday(locationSetting));
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Today summary rebuild failed for " + locationSetting, e);
+                    } finally {
+                        synchronized (mPendingTodayRefreshes) {
+                            mPendingTodayRefreshes.remove(locationSetting);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (mPendingTodayRefreshes) {
+                mPendingTodayRefreshes.remove(locationSetting);
+            }
+        }
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = DatabaseContract.WeatherEntry.getLocationSettingFromUri(uri);
+        String locationSetting = LocationAliases.canonicalSetting(mOpenHelper.getReadableDatabase(),
+                DatabaseContract.WeatherEntry.getLocationSettingFromUri(uri));
         long startDate = DatabaseContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
@@ -81,7 +295,8 @@ public class CustomContentProvider extends ContentProvider {
 
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = DatabaseContract.WeatherEntry.getLocationSettingFromUri(uri);
+        String locationSetting = LocationAliases.canonicalSetting(mOpenHelper.getReadableDatabase(),
+                DatabaseContract.WeatherEntry.getLocationSettingFromUri(uri));
         long date = DatabaseContract.WeatherEntry.getDateFromUri(uri);
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
@@ -94,9 +309,56 @@ public class CustomContentProvider extends ContentProvider {
         );
     }
 
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = LocationAliases.canonicalSetting(mOpenHelper.getReadableDatabase(),
+                DatabaseContract.HourlyEntry.getLocationSettingFromUri(uri));
+        long startDate = DatabaseContract.HourlyEntry.getStartDateFromUri(uri);
+        long endDate = DatabaseContract.HourlyEntry.getEndDateFromUri(uri);
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithHourlyRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = LocationAliases.canonicalSetting(mOpenHelper.getReadableDatabase(),
+                DatabaseContract.HistoryEntry.getLocationSettingFromUri(uri));
+        long startDate = DatabaseContract.HistoryEntry.getStartDateFromUri(uri);
+        long endDate = DatabaseContract.HistoryEntry.getEndDateFromUri(uri);
+        int tier = DatabaseContract.HistoryEntry.getTierFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (tier < 0) {
+            selection = sLocationSettingWithHistoryRangeSelection;
+            selectionArgs = new String[]{locationSetting, Long.toString(startDate),
+                    Long.toString(endDate)};
+        } else {
+            selection = sLocationSettingWithHistoryRangeAndTierSelection;
+            selectionArgs = new String[]{locationSetting, Long.toString(startDate),
+                    Long.toString(endDate), Integer.toString(tier)};
+        }
+
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     /* This UriMatcher will
     match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
-    and LOCATION integer constants defined above.*/
+    LOCATION, LOCATION_ALIAS, HOURLY, HOURLY_WITH_LOCATION, HISTORY, HISTORY_WITH_LOCATION, SNAPSHOT, DASHBOARD
+    DASHBOARD_WITH_LOCATION and TODAY_WITH_LOCATION integer constants defined above.*/
     static UriMatcher buildUriMatcher() {
         final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
         final String authority = DatabaseContract.CONTENT_AUTHORITY;
@@ -107,12 +369,33 @@ public class CustomContentProvider extends ContentProvider {
         matcher.addURI(authority, DatabaseContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, DatabaseContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, DatabaseContract.PATH_LOCATION_ALIAS, LOCATION_ALIAS);
+
+        matcher.addURI(authority, DatabaseContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, DatabaseContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, DatabaseContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, DatabaseContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        matcher.addURI(authority, DatabaseContract.PATH_SNAPSHOT, SNAPSHOT);
+
+        matcher.addURI(authority, DatabaseContract.PATH_DASHBOARD, DASHBOARD);
+        matcher.addURI(authority, DatabaseContract.PATH_DASHBOARD + "/*", DASHBOARD_WITH_LOCATION);
+
+        matcher.addURI(authority, DatabaseContract.PATH_TODAY + "/*", TODAY_WITH_LOCATION);
         return matcher;
     }
 
     @Override
     public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
+        mIngest = new IngestQueue<>("ProviderIngest", INGEST_CAPACITY, INGEST_LATENCY_MILLIS,
+                INGEST_MAX_GROUP, new IngestQueue.Committer<IngestBatch>() {
+                    @Override
+                    public void commit(List<IngestBatch> group) throws Exception {
+                        CustomContentProvider.this.commit(group);
+                    }
+                });
         return true;
     }
 
@@ -125,20 +408,44 @@ public class CustomContentProvider extends ContentProvider {
         switch (match) {
             case LOCATION:
                 return DatabaseContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_ALIAS:
+                return DatabaseContract.LocationAliasEntry.CONTENT_TYPE;
             case WEATHER:
                 return DatabaseContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER_WITH_LOCATION:
                 return DatabaseContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER_WITH_LOCATION_AND_DATE:
                 return DatabaseContract.WeatherEntry.CONTENT_ITEM_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return DatabaseContract.HourlyEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return DatabaseContract.HistoryEntry.CONTENT_TYPE;
+            case DASHBOARD:
+            case DASHBOARD_WITH_LOCATION:
+                return DatabaseContract.DashboardEntry.CONTENT_TYPE;
+            case TODAY_WITH_LOCATION:
+                return DatabaseContract.TodayEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
     }
 
     @Override
-    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
-                        String sortOrder) {
+    public Cursor query(final Uri uri, final String[] projection, final String selection,
+                        final String[] selectionArgs, final String sortOrder) {
+        // Reads go through the UI_READ lane so they're served ahead of background work.
+        return AppExecutors.get().runBlocking(Lane.UI_READ, new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return queryInternal(uri, projection, selection, selectionArgs, sortOrder);
+            }
+        });
+    }
+
+    private Cursor queryInternal(Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
@@ -156,6 +463,19 @@ public class CustomContentProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location_alias"
+            case LOCATION_ALIAS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        DatabaseContract.LocationAliasEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
             // "weather"
             case WEATHER: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -179,6 +499,53 @@ public class CustomContentProvider extends ContentProvider {
                 retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
                 break;
             }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        DatabaseContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        DatabaseContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "dashboard" and "dashboard/*"
+            case DASHBOARD:
+            case DASHBOARD_WITH_LOCATION: {
+                retCursor = getDashboard(uri);
+                break;
+            }
+            // "today/*"
+            case TODAY_WITH_LOCATION: {
+                retCursor = getToday(uri, projection);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -189,6 +556,139 @@ public class CustomContentProvider extends ContentProvider {
 
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        return write(IngestBatch.insert(uri, values)).insertedUri;
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        return write(IngestBatch.bulkInsert(uri, values)).count;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return write(IngestBatch.update(uri, values, selection, selectionArgs)).count;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        return write(IngestBatch.delete(uri, selection, selectionArgs)).count;
+    }
+
+    /**
+     * Applies the operations in one transaction: they all take effect or, if one fails, none.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        try {
+            return write(IngestBatch.operations(operations)).results;
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof OperationApplicationException) {
+                throw (OperationApplicationException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Hands the batch to the writer thread and waits until it is committed.
+    private IngestBatch write(IngestBatch batch) {
+        mIngest.write(batch);
+        return batch;
+    }
+
+    // The same for a batch too big to apply twice, committed in a group of its own.
+    private IngestBatch writeAlone(IngestBatch batch) {
+        mIngest.writeAlone(batch);
+        return batch;
+    }
+
+    /**
+     * Applies a group of batches on the writer thread in one transaction, and sends their
+     * notifications once it is committed. The transactions the batches open themselves are
+     * nested in it. A batch the writer applies inline, such as an operation of an OPERATIONS
+     * batch, joins the transaction in progress and leaves the notifications to it.
+     */
+    private void commit(List<IngestBatch> group) throws Exception {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean outermost = !db.inTransaction();
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            for (IngestBatch batch : group) {
+                apply(db, batch);
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            if (outermost) {
+                List<Uri> notifications = new ArrayList<>(mPendingNotifications);
+                mPendingNotifications.clear();
+                if (committed) {
+                    for (Uri uri : notifications) {
+                        getContext().getContentResolver().notifyChange(uri, null);
+                    }
+                }
+            }
+        }
+    }
+
+    private void apply(SQLiteDatabase db, IngestBatch batch) throws Exception {
+        switch (batch.type) {
+            case INSERT:
+                batch.insertedUri = applyInsert(batch.uri, batch.values);
+                break;
+            case BULK_INSERT:
+                batch.count = applyBulkInsert(batch.uri, batch.rows);
+                break;
+            case UPDATE:
+                batch.count = applyUpdate(batch.uri, batch.values, batch.selection, batch.selectionArgs);
+                break;
+            case DELETE:
+                batch.count = applyDelete(batch.uri, batch.selection, batch.selectionArgs);
+                break;
+            case OPERATIONS:
+                // The operations call back into insert() and the others, inline on this thread.
+                batch.results = super.applyBatch(batch.operations);
+                break;
+            case ARCHIVE_HISTORY:
+                batch.count = archiveHistory();
+                break;
+            case IMPORT_SNAPSHOT: {
+                InputStream in = new BufferedInputStream(new FileInputStream(batch.snapshot),
+                        SNAPSHOT_BUFFER_SIZE);
+                try {
+                    batch.rowsImported = SnapshotTransfer.importFrom(db, in);
+                } finally {
+                    closeQuietly(in);
+                }
+                TodaySummary.prune(db);
+                refreshAllToday(db);
+                notifyChange(DatabaseContract.LocationEntry.CONTENT_URI);
+                notifyChange(DatabaseContract.WeatherEntry.CONTENT_URI);
+                notifyDashboard();
+                break;
+            }
+            case REFRESH_TODAY:
+                if (TodaySummary.ensureCurrent(db, getContext(),
+                        LocationAliases.canonicalSetting(db, batch.locationSetting),
+                        DatabaseContract.normalizeDate(System.currentTimeMillis()))) {
+                    notifyChange(DatabaseContract.TodayEntry.buildTodayUri(batch.locationSetting));
+                }
+                break;
+        }
+    }
+
+    // Sends a notification, or holds it until the group being written is committed.
+    private void notifyChange(Uri uri) {
+        if (mIngest.isWriterThread()) {
+            mPendingNotifications.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private Uri applyInsert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
@@ -198,31 +698,60 @@ public class CustomContentProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(DatabaseContract.WeatherEntry.TABLE_NAME, null, values);
+                Set<Long> locationIds = locationIds(new ContentValues[]{values});
+                Set<Long> changedToday;
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(DatabaseContract.WeatherEntry.TABLE_NAME, null, values);
+                    changedToday = TodaySummary.refresh(db, getContext(), locationIds,
+                            DatabaseContract.normalizeDate(System.currentTimeMillis()));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = DatabaseContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyToday(db, changedToday);
+                notifyDashboard(db, locationIds);
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(DatabaseContract.LocationEntry.TABLE_NAME, null, values);
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = LocationAliases.insertLocation(db, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = DatabaseContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyDashboard();
+                break;
+            }
+            case HOURLY: {
+                normalizeDate(values);
+                long _id = db.insert(DatabaseContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = DatabaseContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // We use a content resolver to notify our content observer.
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    private int applyDelete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 
         // Use the uriMatcher to match the WEATHER and LOCATION URI's we are going to
@@ -243,6 +772,16 @@ public class CustomContentProvider extends ContentProvider {
                         DatabaseContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             }
+            case HOURLY: {
+                rowsDeleted = db.delete(
+                        DatabaseContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            }
+            case HISTORY: {
+                rowsDeleted = db.delete(
+                        DatabaseContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -250,8 +789,18 @@ public class CustomContentProvider extends ContentProvider {
         // A null value deletes all rows. I only notified
         // the uri listeners (using the content resolver) if the rowsDeleted != 0 or the selection
         // is null.
-        if (rowsDeleted != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (rowsDeleted != 0) {
+            notifyChange(uri);
+            if (match == LOCATION) {
+                LocationAliases.prune(db);
+            }
+            if (match == WEATHER || match == LOCATION) {
+                if (TodaySummary.prune(db) != 0) {
+                    notifyChange(DatabaseContract.TodayEntry.CONTENT_URI);
+                }
+                notifyDashboard();
+            }
+        }
 
         return rowsDeleted;
     }
@@ -264,8 +813,7 @@ public class CustomContentProvider extends ContentProvider {
         }
     }
 
-    @Override
-    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int applyUpdate(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
@@ -281,40 +829,315 @@ public class CustomContentProvider extends ContentProvider {
                         DatabaseContract.LocationEntry.TABLE_NAME, values, selection, selectionArgs);
                 break;
             }
+            case HOURLY: {
+                rowsUpdated = db.update(
+                        DatabaseContract.HourlyEntry.TABLE_NAME, values, selection, selectionArgs);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        if (rowsUpdated != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+            if (match == WEATHER) {
+                refreshAllToday(db);
+            }
+            if (match == WEATHER || match == LOCATION) {
+                notifyDashboard();
+            }
+        }
 
         return rowsUpdated;
     }
 
-    @Override
-    public int bulkInsert(Uri uri, ContentValues[] values) {
+    private int applyBulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(DatabaseContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                return bulkInsert(db, uri, DatabaseContract.WeatherEntry.TABLE_NAME, values);
+            case HOURLY:
+                return bulkInsert(db, uri, DatabaseContract.HourlyEntry.TABLE_NAME, values);
+            default:
+                // Inserts one by one, each inline on the writer thread.
+                return super.bulkInsert(uri, values);
+        }
+    }
+
+    private int bulkInsert(SQLiteDatabase db, Uri uri, String table, ContentValues[] values) {
+        boolean weather = table.equals(DatabaseContract.WeatherEntry.TABLE_NAME);
+        Set<Long> locationIds = weather ? locationIds(values) : Collections.<Long>emptySet();
+        Set<Long> changedToday = Collections.emptySet();
+        db.beginTransaction();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                long _id = db.insert(table, null, value);
+                if (_id != -1) {
+                    returnCount++;
+                }
+            }
+            if (weather) {
+                // Readers of the summary never see it out of step with the weather rows.
+                changedToday = TodaySummary.refresh(db, getContext(), locationIds,
+                        DatabaseContract.normalizeDate(System.currentTimeMillis()));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyChange(uri);
+        if (weather) {
+            notifyToday(db, changedToday);
+            notifyDashboard(db, locationIds);
+        }
+        return returnCount;
+    }
+
+    private static Set<Long> locationIds(ContentValues[] weatherValues) {
+        Set<Long> locationIds = new HashSet<>();
+        for (ContentValues value : weatherValues) {
+            Long locationId = value.getAsLong(DatabaseContract.WeatherEntry.COLUMN_LOC_KEY);
+            if (locationId != null) {
+                locationIds.add(locationId);
+            }
+        }
+        return locationIds;
+    }
+
+    // For writes that can't tell which locations they touched.
+    private void refreshAllToday(SQLiteDatabase db) {
+        Set<Long> changed;
+        db.beginTransaction();
+        try {
+            changed = TodaySummary.refreshAll(db, getContext(),
+                    DatabaseContract.normalizeDate(System.currentTimeMillis()));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyToday(db, changed);
+    }
+
+    private void notifyToday(SQLiteDatabase db, Set<Long> locationIds) {
+        for (Long locationId : locationIds) {
+            for (String setting : LocationAliases.settingsOf(db, locationId)) {
+                notifyChange(DatabaseContract.TodayEntry.buildTodayUri(setting));
+            }
+        }
+    }
+
+    // Tells dashboards which of their rows changed: the rows of the locations whose weather
+    // was written, or the whole dashboard when more than a few locations changed at once.
+    private void notifyDashboard(SQLiteDatabase db, Set<Long> locationIds) {
+        if (locationIds.isEmpty()) {
+            return;
+        }
+        if (locationIds.size() > MAX_DASHBOARD_ROW_NOTIFICATIONS) {
+            notifyDashboard();
+            return;
+        }
+        for (Long locationId : locationIds) {
+            for (String setting : LocationAliases.settingsOf(db, locationId)) {
+                notifyChange(DatabaseContract.DashboardEntry.buildDashboardLocationUri(setting));
+            }
+        }
+    }
+
+    private void notifyDashboard() {
+        notifyChange(DatabaseContract.DashboardEntry.CONTENT_URI);
+    }
+
+    private int archiveHistory() {
+        long today = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        int changed = HistoryArchiver.run(mOpenHelper.getWritableDatabase(), today);
+        if (changed != 0) {
+            notifyChange(DatabaseContract.WeatherEntry.CONTENT_URI);
+            notifyChange(DatabaseContract.HistoryEntry.CONTENT_URI);
+            notifyDashboard();
+        }
+        return changed;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, final Bundle extras) {
+        if (DatabaseContract.METHOD_BATCH_READ.equals(method)) {
+            // Same lane as query(), a batch is a bunch of UI reads.
+            return AppExecutors.get().runBlocking(Lane.UI_READ, new Callable<Bundle>() {
+                @Override
+                public Bundle call() {
+                    return BatchRead.execute(mOpenHelper.getReadableDatabase(), extras);
+                }
+            });
+        }
+        if (DatabaseContract.METHOD_TODAY_VERSION.equals(method)) {
+            final String locationSetting = arg;
+            return AppExecutors.get().runBlocking(Lane.UI_READ, new Callable<Bundle>() {
+                @Override
+                public Bundle call() {
+                    Bundle result = new Bundle();
+                    result.putBoolean(DatabaseContract.EXTRA_STALE, !isTodayCurrent(locationSetting));
+                    result.putLong(DatabaseContract.EXTRA_VERSION, DatabaseUtils.longForQuery(
+                            mOpenHelper.getReadableDatabase(),
+                            "SELECT IFNULL((SELECT " + DatabaseContract.TodayEntry.COLUMN_VERSION +
+                                    " FROM " + DatabaseContract.TodayEntry.TABLE_NAME +
+                                    " WHERE " + TodaySummary.sLocationSettingSelection + "), 0)",
+                            new String[]{LocationAliases.canonicalSetting(
+                                    mOpenHelper.getReadableDatabase(), locationSetting)}));
+                    return result;
+                }
+            });
+        }
+        if (DatabaseContract.METHOD_ARCHIVE_HISTORY.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(DatabaseContract.EXTRA_ROWS_CHANGED, write(IngestBatch.archiveHistory()).count);
+            return result;
+        }
+        if (DatabaseContract.METHOD_INGEST_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(DatabaseContract.EXTRA_BATCHES, mIngest.getBatches());
+            result.putLong(DatabaseContract.EXTRA_COMMITS, mIngest.getCommits());
+            result.putLong(DatabaseContract.EXTRA_BACKPRESSURE_WAITS, mIngest.getBackpressureWaits());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != SNAPSHOT) {
+            throw new FileNotFoundException("No file for uri: " + uri);
+        }
+        // One end of a pipe goes to the caller and a transfer thread moves the snapshot through
+        // the other end. Either way the snapshot goes through a cache file, so neither the
+        // export's transaction nor the provider's writer ever waits on the caller.
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        if ("r".equals(mode)) {
+            final ParcelFileDescriptor writeEnd = pipe[1];
+            startTransfer("SnapshotExport", new Runnable() {
+                @Override
+                public void run() {
+                    OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(writeEnd);
+                    File spool = null;
+                    try {
+                        // The export's transaction holds the write lock, so it only ever writes to
+                        // a local file. The caller reads that file after the transaction ended.
+                        spool = createSpoolFile();
+                        OutputStream file = new BufferedOutputStream(new FileOutputStream(spool),
+                                SNAPSHOT_BUFFER_SIZE);
+                        try {
+                            SnapshotTransfer.export(db, file);
+                        } finally {
+                            file.close();
+                        }
+                        InputStream in = new FileInputStream(spool);
+                        try {
+                            copy(in, out);
+                        } finally {
+                            closeQuietly(in);
+                        }
+                    } catch (IOException e) {
+                        // Usually the reader closing its end early.
+                        Log.w(LOG_TAG, "Snapshot export aborted", e);
+                    } finally {
+                        closeQuietly(out);
+                        if (spool != null) {
+                            spool.delete();
                         }
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
-            default:
-                return super.bulkInsert(uri, values);
+            });
+            return pipe[0];
+        } else if ("w".equals(mode) || "wt".equals(mode)) {
+            final ParcelFileDescriptor readEnd = pipe[0];
+            startTransfer("SnapshotImport", new Runnable() {
+                @Override
+                public void run() {
+                    InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(readEnd);
+                    File spool = null;
+                    try {
+                        // However slowly the caller writes, the writer only ever reads a local file.
+                        spool = createSpoolFile();
+                        copy(in, new FileOutputStream(spool));
+                        long rows = writeAlone(IngestBatch.importSnapshot(spool)).rowsImported;
+                        Log.i(LOG_TAG, "Imported " + rows + " weather rows from a snapshot");
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Snapshot import failed, nothing was imported", e);
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Snapshot import failed, nothing was imported",
+                                e.getCause() instanceof IOException ? e.getCause() : e);
+                    } finally {
+                        closeQuietly(in);
+                        if (spool != null) {
+                            spool.delete();
+                        }
+                    }
+                }
+            });
+            return pipe[1];
+        }
+        closeQuietly(pipe[0]);
+        closeQuietly(pipe[1]);
+        throw new FileNotFoundException("Unsupported mode " + mode + " for uri: " + uri);
+    }
+
+    // A transfer can take seconds and blocks on the other end of the pipe, so it gets its own
+    // thread rather than holding one of the few AppExecutors workers for that long. The provider
+    // runs in the UI process, so whatever a transfer throws is logged rather than let through.
+    private static void startTransfer(final String name, final Runnable transfer) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    transfer.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, name + " failed", e);
+                }
+            }
+        }, name);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // A snapshot on its way between the database and the pipe, deleted once it got there.
+    private File createSpoolFile() throws IOException {
+        return File.createTempFile("snapshot", ".tmp", getContext().getCacheDir());
+    }
+
+    // Copies and closes out, leaves in open.
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buffer = new byte[SNAPSHOT_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ParcelFileDescriptor only implements Closeable from API 16 on.
+    private static void closeQuietly(ParcelFileDescriptor descriptor) {
+        try {
+            descriptor.close();
+        } catch (IOException ignored) {
         }
     }
 
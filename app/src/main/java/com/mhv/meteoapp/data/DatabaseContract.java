@@ -4,7 +4,11 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import com.mhv.meteoapp.core.DayDates;
+
+import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -24,15 +28,47 @@ public class DatabaseContract {
     // looking at weather data.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_LOCATION_ALIAS = "location_alias";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_SNAPSHOT = "snapshot";
+    public static final String PATH_DASHBOARD = "dashboard";
+    public static final String PATH_TODAY = "today";
+
+    // openFile() on this URI streams a binary snapshot of the location and weather tables:
+    // mode "r" exports the database, mode "w" imports into it (see SnapshotWriter).
+    public static final Uri SNAPSHOT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_SNAPSHOT).build();
+
+    // Provider call() that moves past days out of the weather table into the history archive
+    // and compacts the archive, a few small batches at a time.
+    public static final String METHOD_ARCHIVE_HISTORY = "archive_history";
+    // Key of the number of rows changed in the Bundle returned by METHOD_ARCHIVE_HISTORY.
+    public static final String EXTRA_ROWS_CHANGED = "rows_changed";
+
+    // Provider call() that answers several reads at once, see BatchRead.
+    public static final String METHOD_BATCH_READ = "batch_read";
+
+    // Provider call() returning the version of a location's today summary (arg is the location
+    // setting), so a consumer can skip reading a row it already has. See TodayEntry.
+    public static final String METHOD_TODAY_VERSION = "today_version";
+    // Key of the version in the Bundle returned by METHOD_TODAY_VERSION, 0 when there is none.
+    public static final String EXTRA_VERSION = "version";
+    // Set in that Bundle and in the extras of a today cursor when the row is from an earlier day
+    // or in other units. The rebuild is queued and the today URI notified once it is done.
+    public static final String EXTRA_STALE = "stale";
+
+    // Provider call() returning the counters of the provider's ingest queue since it started:
+    // write batches committed, the transactions they took and writes held back by a full queue.
+    public static final String METHOD_INGEST_STATS = "ingest_stats";
+    public static final String EXTRA_BATCHES = "batches";
+    public static final String EXTRA_COMMITS = "commits";
+    public static final String EXTRA_BACKPRESSURE_WAITS = "backpressure_waits";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        // normalize the start date to the beginning of the local day
+        return DayDates.normalize(startDate, TimeZone.getDefault());
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -61,11 +97,38 @@ public class DatabaseContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The provider's id of the city the location setting resolved to, null until a sync
+        // has resolved it. Locations with an id are fetched in group requests.
+        // Inserting a location with the city id of a stored one doesn't add a row: the new
+        // setting becomes an alias of the stored location, whose URI insert() returns.
+        public static final String COLUMN_CITY_ID = "city_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
     }
 
+    /* Inner class that defines the table contents of the location alias table. An alias is a
+       location setting that resolved to the same city as a stored location, e.g. "london,uk"
+       next to "London". It has no weather of its own: every URI taking a location setting
+       reads the rows of the location the alias points to. */
+    public static final class LocationAliasEntry implements BaseColumns {
+
+        /* content://com.mhv.meteoapp/location_alias */
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ALIAS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION_ALIAS;
+
+        public static final String TABLE_NAME = "location_alias";
+
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // The location the setting is an alias of.
+        public static final String COLUMN_LOC_KEY = "location_id";
+    }
+
     /* Inner class that defines the contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -80,6 +143,9 @@ public class DatabaseContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Index on (location_id, date) for the per-location date ranges.
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -146,4 +212,258 @@ public class DatabaseContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the contents of the hourly (3-hour step) forecast table.
+       Each row holds all the points of one day for one location, packed by HourlyPacker. */
+    public static final class HourlyEntry implements BaseColumns {
+
+        /* content://com.mhv.meteoapp/hourly */
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Normalized day the points belong to, stored as long in milliseconds since the epoch
+        public static final String COLUMN_DATE = "date";
+        // Number of points packed in this row
+        public static final String COLUMN_COUNT = "count";
+        // The packed points, see HourlyPacker for the layout
+        public static final String COLUMN_POINTS = "points";
+
+        // Query parameter holding the last day (inclusive) of a range query.
+        public static final String PARAM_END_DATE = "end_date";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        /* content://com.mhv.meteoapp/hourly/[locationSetting]?date=[startDate]&end_date=[endDate] */
+        public static Uri buildHourlyLocationWithDateRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(COLUMN_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /* Inner class that defines the contents of the weather history archive. Recent past days
+       are kept as they were forecast (TIER_DAILY), older ones are folded into one row per
+       week (TIER_WEEKLY) holding the min, max and mean of that week. */
+    public static final class HistoryEntry implements BaseColumns {
+
+        /* content://com.mhv.meteoapp/history */
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "weather_history";
+
+        public static final int TIER_DAILY = 0;
+        public static final int TIER_WEEKLY = 1;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Day of a daily row, or first day of the week bucket of a weekly row
+        public static final String COLUMN_DATE = "date";
+        // TIER_DAILY or TIER_WEEKLY
+        public static final String COLUMN_TIER = "tier";
+        // Condition of the day, or the most severe condition of the week
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // Lowest min and highest max of the row's days
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Mean of the daily (min + max) / 2 values
+        public static final String COLUMN_MEAN_TEMP = "mean";
+        // Averages over the row's days
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+        // Number of days folded into this row
+        public static final String COLUMN_SAMPLE_COUNT = "samples";
+
+        // Query parameters of the range query.
+        public static final String PARAM_END_DATE = "end_date";
+        public static final String PARAM_TIER = "tier";
+
+        /* content://com.mhv.meteoapp/history/[locationSetting]?date=[startDate]&end_date=[endDate] */
+        public static Uri buildHistoryLocationWithDateRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(endDate))
+                    .build();
+        }
+
+        /* content://com.mhv.meteoapp/history/[locationSetting]?date=[startDate]&end_date=[endDate]&tier=[tier] */
+        public static Uri buildHistoryLocationWithDateRange(
+                String locationSetting, long startDate, long endDate, int tier) {
+            return buildHistoryLocationWithDateRange(locationSetting, startDate, endDate)
+                    .buildUpon().appendQueryParameter(PARAM_TIER, Integer.toString(tier)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(COLUMN_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+
+        // Returns the requested tier, or -1 when both tiers are wanted.
+        public static int getTierFromUri(Uri uri) {
+            String tierString = uri.getQueryParameter(PARAM_TIER);
+            if (null != tierString && tierString.length() > 0)
+                return Integer.parseInt(tierString);
+            else
+                return -1;
+        }
+    }
+
+    /* Read-only view of every saved location with its forecast for today and the extremes of
+       the next 7 days, one row per location. Not a table: the provider computes it with a
+       single query over the location and weather tables. */
+    public static final class DashboardEntry implements BaseColumns {
+
+        /* content://com.mhv.meteoapp/dashboard */
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DASHBOARD).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DASHBOARD;
+
+        // _ID is the location id.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        public static final String COLUMN_CITY_NAME = "city_name";
+        // Today's forecast, null when there is no row for today yet.
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Lowest min and highest max from today to 6 days later.
+        public static final String COLUMN_WEEK_LOW = "week_low";
+        public static final String COLUMN_WEEK_HIGH = "week_high";
+
+        /* content://com.mhv.meteoapp/dashboard?date=[today] */
+        public static Uri buildDashboardUri(long today) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(WeatherEntry.COLUMN_DATE, Long.toString(normalizeDate(today)))
+                    .build();
+        }
+
+        /* content://com.mhv.meteoapp/dashboard/[locationSetting]?date=[today]
+           The row of a single location. Changes to one location's forecast are notified on
+           this URI (without the date), so a dashboard can refresh just that row. */
+        public static Uri buildDashboardLocationUri(String locationSetting, long today) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(WeatherEntry.COLUMN_DATE, Long.toString(normalizeDate(today)))
+                    .build();
+        }
+
+        public static Uri buildDashboardLocationUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        // Returns null for the URI of the whole dashboard.
+        public static String getLocationSettingFromUri(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            return segments.size() > 1 ? segments.get(1) : null;
+        }
+
+        public static long getTodayFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(WeatherEntry.COLUMN_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return normalizeDate(System.currentTimeMillis());
+        }
+    }
+
+    /* Today's forecast of each location, kept up to date by the provider in the same
+       transaction that stores a sync. Raw values come with ready-to-show strings, and a
+       version that changes whenever the row does. */
+    public static final class TodayEntry implements BaseColumns {
+
+        /* content://com.mhv.meteoapp/today */
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_TODAY).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TODAY;
+
+        public static final String TABLE_NAME = "today_summary";
+
+        // Column with the foreign key into the location table, one row per location.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Day of the forecast, as in the weather table
+        public static final String COLUMN_DATE = "date";
+        // Same meaning as the weather table columns of that day
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+        // Units preference the texts were formatted with, see TodaySummary.isCurrent()
+        public static final String COLUMN_UNITS = "units";
+        // Formatted temperatures, e.g. "21°"
+        public static final String COLUMN_HIGH_TEXT = "high_text";
+        public static final String COLUMN_LOW_TEXT = "low_text";
+        // The line of the daily notification
+        public static final String COLUMN_SUMMARY_TEXT = "summary_text";
+        // Increases on every change of any row, never repeats while the table has rows
+        public static final String COLUMN_VERSION = "version";
+
+        /* content://com.mhv.meteoapp/today/[locationSetting] */
+        public static Uri buildTodayUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
 }
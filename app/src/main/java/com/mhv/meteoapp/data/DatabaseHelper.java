@@ -2,9 +2,14 @@ package com.mhv.meteoapp.data;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.mhv.meteoapp.data.DatabaseContract.HistoryEntry;
+import com.mhv.meteoapp.data.DatabaseContract.HourlyEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationAliasEntry;
 import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.TodayEntry;
 import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
 
 /**
@@ -12,13 +17,27 @@ import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version manually.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version manually
+    // and add the step from the previous version to DatabaseMigrations.
+    static final int DATABASE_VERSION = 8;
 
     static final String DATABASE_NAME = "weather.db";
 
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging readers don't wait for the provider's writer, and a commit
+        // appends to the log instead of rewriting pages through a rollback journal.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     @Override
@@ -30,9 +49,18 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER " +
                 " );";
 
+        // Other location settings that resolved to the city of a location, see LocationAliases.
+        final String SQL_CREATE_LOCATION_ALIAS_TABLE = "CREATE TABLE " + LocationAliasEntry.TABLE_NAME + " (" +
+                LocationAliasEntry._ID + " INTEGER PRIMARY KEY," +
+                LocationAliasEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+                LocationAliasEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                " FOREIGN KEY (" + LocationAliasEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
@@ -64,20 +92,105 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_LOC_KEY +
                 ") ON CONFLICT REPLACE);";
 
+        // The 3-hour forecast is stored as one row per location and day, with all the points of
+        // that day packed into a single blob (see HourlyPacker). That keeps the row count at
+        // a few per location instead of ~40, which keeps both the file and the inserts small.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_COUNT + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_POINTS + " BLOB NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One packed row per day per location, a new sync replaces the old one.
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " + HourlyEntry.COLUMN_DATE +
+                ") ON CONFLICT REPLACE);";
+
+        // Past days end up here instead of being deleted, see HistoryArchiver.
+        final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_TIER + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                HistoryEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+
+                HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+
+                HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_SAMPLE_COUNT + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // Also serves as the index for the per-location range queries.
+                " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " + HistoryEntry.COLUMN_TIER + ", " +
+                HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // Materialized today's row of each location, see TodaySummary.
+        final String SQL_CREATE_TODAY_TABLE = "CREATE TABLE " + TodayEntry.TABLE_NAME + " (" +
+                TodayEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                TodayEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                TodayEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                TodayEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                TodayEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+
+                TodayEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                TodayEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                TodayEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                TodayEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                TodayEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                TodayEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                TodayEntry.COLUMN_UNITS + " TEXT NOT NULL, " +
+                TodayEntry.COLUMN_HIGH_TEXT + " TEXT NOT NULL, " +
+                TodayEntry.COLUMN_LOW_TEXT + " TEXT NOT NULL, " +
+                TodayEntry.COLUMN_SUMMARY_TEXT + " TEXT NOT NULL, " +
+                TodayEntry.COLUMN_VERSION + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + TodayEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + TodayEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+        // The UNIQUE constraint above indexes (date, location_id), which can't serve a date range
+        // of one location. The dashboard reads a week per location, so it gets its own index.
+        final String SQL_CREATE_WEATHER_LOCATION_INDEX = "CREATE INDEX " +
+                WeatherEntry.INDEX_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_ALIAS_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_TODAY_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // Schema changes are migrated step by step so the cache survives app updates and the
+        // first launch after one doesn't start with a full resync. See DatabaseMigrations.
+        // Only databases older than the first migration are still discarded and recreated.
+        if (oldVersion >= DatabaseMigrations.OLDEST_MIGRATABLE_VERSION) {
+            DatabaseMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationAliasEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TodayEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
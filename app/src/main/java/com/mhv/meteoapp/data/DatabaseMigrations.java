@@ -0,0 +1,229 @@
+package com.mhv.meteoapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Ordered schema migrations of weather.db, applied by {@link DatabaseHelper#onUpgrade}.
+ *
+ * Each step takes the schema from exactly one version to the next and keeps the data. A step
+ * spells out its own SQL instead of reusing the definitions in onCreate, since those move on
+ * with later versions while a step has to keep producing the schema of its target version.
+ */
+class DatabaseMigrations {
+
+    private static final String LOG_TAG = DatabaseMigrations.class.getSimpleName();
+
+    // Oldest version with a migration path. Older databases are dropped and recreated.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // A whole upgrade runs inside getWritableDatabase(), usually on the first query after an
+    // app update, so it is logged as a warning when it takes longer than this.
+    static final long UPGRADE_BUDGET_MILLIS = 500;
+
+    private DatabaseMigrations() {}
+
+    abstract static class Migration {
+        final int fromVersion;
+
+        Migration(int fromVersion) {
+            this.fromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // MIGRATIONS[i] upgrades version OLDEST_MIGRATABLE_VERSION + i to the next one.
+    private static final Migration[] MIGRATIONS = {
+
+            // 2 -> 3: the packed 3-hour forecast.
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE hourly (" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "count INTEGER NOT NULL, " +
+                            "points BLOB NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, date) ON CONFLICT REPLACE);");
+                }
+            },
+
+            // 3 -> 4: the weather history archive.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE weather_history (" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "tier INTEGER NOT NULL, " +
+                            "weather_id INTEGER NOT NULL," +
+                            "short_desc TEXT NOT NULL, " +
+                            "min REAL NOT NULL, " +
+                            "max REAL NOT NULL, " +
+                            "mean REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, " +
+                            "degrees REAL NOT NULL, " +
+                            "samples INTEGER NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, tier, date) ON CONFLICT REPLACE);");
+                }
+            },
+
+            // 4 -> 5: index for the per-location date ranges of the dashboard.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX weather_location_date ON weather (location_id, date);");
+                }
+            },
+
+            // 5 -> 6: the materialized today summary. It starts empty, the provider fills a
+            // location's row on the next sync or the first time it is read.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE today_summary (" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "weather_id INTEGER NOT NULL," +
+                            "short_desc TEXT NOT NULL, " +
+                            "min REAL NOT NULL, " +
+                            "max REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, " +
+                            "degrees REAL NOT NULL, " +
+                            "units TEXT NOT NULL, " +
+                            "high_text TEXT NOT NULL, " +
+                            "low_text TEXT NOT NULL, " +
+                            "summary_text TEXT NOT NULL, " +
+                            "version INTEGER NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id) ON CONFLICT REPLACE);");
+                }
+            },
+
+            // 6 -> 7: the provider's city id of each location, resolved again by the next sync.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE location ADD COLUMN city_id INTEGER");
+                }
+            },
+
+            // 7 -> 8: location aliases. Locations that are the same city, by city id or, for the
+            // ones not resolved yet, by name and coordinates, are merged into the oldest of
+            // them. Its rows win where both have a day, the others' settings become aliases.
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE location_alias (" +
+                            "_id INTEGER PRIMARY KEY," +
+                            "location_setting TEXT UNIQUE NOT NULL, " +
+                            "location_id INTEGER NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id));");
+
+                    db.execSQL("CREATE TEMP TABLE location_merge (" +
+                            "duplicate_id INTEGER PRIMARY KEY, canonical_id INTEGER NOT NULL)");
+                    db.execSQL("INSERT INTO location_merge SELECT l._id, (SELECT MIN(c._id) FROM location c" +
+                            " WHERE c.city_id = l.city_id OR (c.city_name = l.city_name" +
+                            " AND ROUND(c.coord_lat, 2) = ROUND(l.coord_lat, 2)" +
+                            " AND ROUND(c.coord_long, 2) = ROUND(l.coord_long, 2))) FROM location l");
+                    // A location can match an older one that itself matched an even older one.
+                    db.execSQL("UPDATE location_merge SET canonical_id = (SELECT m.canonical_id" +
+                            " FROM location_merge m WHERE m.duplicate_id = location_merge.canonical_id)");
+                    db.execSQL("DELETE FROM location_merge WHERE duplicate_id = canonical_id");
+
+                    db.execSQL("INSERT INTO location_alias (location_setting, location_id)" +
+                            " SELECT l.location_setting, m.canonical_id FROM location_merge m" +
+                            " JOIN location l ON l._id = m.duplicate_id");
+                    db.execSQL("UPDATE location SET city_id = (SELECT MAX(l.city_id) FROM location_merge m" +
+                            " JOIN location l ON l._id = m.duplicate_id WHERE m.canonical_id = location._id)" +
+                            " WHERE city_id IS NULL AND _id IN (SELECT canonical_id FROM location_merge)");
+                    for (String table : new String[]{"weather", "hourly", "weather_history"}) {
+                        db.execSQL("UPDATE OR IGNORE " + table + " SET location_id = (SELECT canonical_id" +
+                                " FROM location_merge WHERE duplicate_id = " + table + ".location_id)" +
+                                " WHERE location_id IN (SELECT duplicate_id FROM location_merge)");
+                        db.execSQL("DELETE FROM " + table +
+                                " WHERE location_id IN (SELECT duplicate_id FROM location_merge)");
+                    }
+                    // Rebuilt from the merged weather on the next read.
+                    db.execSQL("DELETE FROM today_summary WHERE location_id IN" +
+                            " (SELECT duplicate_id FROM location_merge UNION SELECT canonical_id FROM location_merge)");
+                    db.execSQL("DELETE FROM location WHERE _id IN (SELECT duplicate_id FROM location_merge)");
+                    db.execSQL("DROP TABLE location_merge");
+                }
+            },
+    };
+
+    /**
+     * Latest version reachable through the migrations.
+     */
+    static int latestVersion() {
+        return OLDEST_MIGRATABLE_VERSION + MIGRATIONS.length;
+    }
+
+    /**
+     * Runs every step from oldVersion up to newVersion, each in its own (nested) transaction.
+     * SQLiteOpenHelper already wraps onUpgrade in a transaction, so if any step fails the file
+     * stays at oldVersion with its data untouched.
+     *
+     * @return the time the whole upgrade took, in milliseconds.
+     */
+    static long migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION || newVersion > latestVersion()) {
+            throw new IllegalArgumentException("No migration path from version " + oldVersion
+                    + " to " + newVersion);
+        }
+        long upgradeStart = SystemClock.elapsedRealtime();
+        for (int version = oldVersion; version < newVersion; version++) {
+            Migration migration = MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION];
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(LOG_TAG, "Migrated weather.db from version " + migration.fromVersion + " to "
+                    + (migration.fromVersion + 1) + " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        long elapsed = SystemClock.elapsedRealtime() - upgradeStart;
+        if (elapsed > UPGRADE_BUDGET_MILLIS) {
+            Log.w(LOG_TAG, "Upgrade from version " + oldVersion + " to " + newVersion + " took "
+                    + elapsed + " ms, over the budget of " + UPGRADE_BUDGET_MILLIS + " ms");
+        }
+        return elapsed;
+    }
+
+    /**
+     * Rebuilds a table with a new definition and keeps its rows, for the changes ALTER TABLE
+     * can't do (dropping or retyping columns, changing constraints). This follows the order
+     * SQLite recommends: create the new table under a temporary name, copy, drop the old one,
+     * then rename. Renaming the old table first instead would make SQLite rewrite the foreign
+     * keys that point at it. Indexes created with CREATE INDEX have to be recreated afterwards.
+     *
+     * @param definition the column and constraint list of the new table, without parentheses.
+     * @param columns    the columns copied over, present in both the old and the new table.
+     */
+    static void rebuildTable(SQLiteDatabase db, String table, String definition, String[] columns) {
+        String newTable = table + "_new";
+        String columnList = TextUtils.join(", ", columns);
+        db.execSQL("DROP TABLE IF EXISTS " + newTable);
+        db.execSQL("CREATE TABLE " + newTable + " (" + definition + ")");
+        db.execSQL("INSERT INTO " + newTable + " (" + columnList + ") SELECT " + columnList
+                + " FROM " + table);
+        db.execSQL("DROP TABLE " + table);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table);
+    }
+}
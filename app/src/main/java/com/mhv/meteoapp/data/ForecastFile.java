@@ -0,0 +1,359 @@
+package com.mhv.meteoapp.data;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The current forecast of one location as an immutable, fixed layout file that readers map
+ * into memory, so they get the days without opening the database, taking a lock or
+ * allocating a cursor.
+ *
+ * The sync is the only writer. It writes the whole file next to the published one, syncs it
+ * to disk and renames it over the old file, so a reader either maps the old file or the new
+ * one and never a mix of both. A mapping stays valid after the file is replaced; readers ask
+ * {@link #isCurrent()} to learn whether a newer version has been published since.
+ *
+ *   int     magic
+ *   short   format version
+ *   short   record size in bytes
+ *   long    publish version, only moves when the days change
+ *   long    publish time
+ *   int     hash of the location setting
+ *   int     day count (n)
+ *   int     CRC32 of the bytes above and of the records
+ *   record[n], each of them
+ *     long     normalized date
+ *     int      weather id
+ *     float    min, max, humidity, pressure, wind speed, wind direction
+ *     byte[32] short description, UTF-8, zero padded
+ */
+public class ForecastFile {
+
+    static final int MAGIC = 0x4d464346;
+    static final short FORMAT_VERSION = 1;
+
+    private static final int VERSION_OFFSET = 8;
+    private static final int PUBLISHED_OFFSET = 16;
+    private static final int LOCATION_OFFSET = 24;
+    private static final int COUNT_OFFSET = 28;
+    private static final int CRC_OFFSET = 32;
+    static final int HEADER_BYTES = 36;
+
+    private static final int DESC_BYTES = 32;
+    static final int RECORD_BYTES = 8 + 4 + 6 * 4 + DESC_BYTES;
+
+    // The sync parses 14 days, anything far beyond that is not a file we wrote.
+    private static final int MAX_DAYS = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String FILE_PREFIX = "forecast_";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * One day as the writer takes it.
+     */
+    public static class Day {
+        public long date;
+        public int weatherId;
+        public float min;
+        public float max;
+        public float humidity;
+        public float pressure;
+        public float windSpeed;
+        public float degrees;
+        public String shortDesc;
+    }
+
+    private final File mFile;
+    private final ByteBuffer mBuffer;
+    private final long mVersion;
+    private final int mDayCount;
+
+    private ForecastFile(File file, ByteBuffer buffer) {
+        mFile = file;
+        mBuffer = buffer;
+        mVersion = buffer.getLong(VERSION_OFFSET);
+        mDayCount = buffer.getInt(COUNT_OFFSET);
+    }
+
+    public static File fileFor(File dir, String locationSetting) {
+        return new File(dir, FILE_PREFIX + String.format("%08x", locationSetting.hashCode()) + FILE_SUFFIX);
+    }
+
+    /**
+     * Maps the published file of a location.
+     *
+     * @return the file, or null if there is none or it isn't a complete file of this location,
+     * in which case the caller falls back to the provider.
+     */
+    public static ForecastFile open(File dir, String locationSetting) {
+        File file = fileFor(dir, locationSetting);
+        RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > HEADER_BYTES + MAX_DAYS * RECORD_BYTES) {
+                return null;
+            }
+            // The mapping outlives the channel, and the file it was taken from.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (!isValid(buffer, locationSetting.hashCode())) {
+                return null;
+            }
+            return new ForecastFile(file, buffer);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // Nothing was written, the mapping doesn't need the file to stay open.
+            }
+        }
+    }
+
+    /**
+     * Reads only the publish version of a location's file, without checking the records.
+     *
+     * @return the version, or -1 if there is no published file.
+     */
+    public static long readVersion(File dir, String locationSetting) {
+        return readVersion(fileFor(dir, locationSetting));
+    }
+
+    private static long readVersion(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            if (raf.length() < HEADER_BYTES || raf.readInt() != MAGIC) {
+                return -1;
+            }
+            raf.seek(VERSION_OFFSET);
+            return raf.readLong();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Read only, nothing to lose.
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes the days of a location, unless the published file already holds the same days.
+     * Must only be called from one thread at a time, which the sync guarantees.
+     *
+     * @return true if a new version was published.
+     */
+    public static boolean publish(File dir, String locationSetting, List<Day> days) throws IOException {
+        int count = Math.min(days.size(), MAX_DAYS);
+        byte[] bytes = new byte[HEADER_BYTES + count * RECORD_BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(HEADER_BYTES);
+        for (int i = 0; i < count; i++) {
+            putDay(buffer, days.get(i));
+        }
+
+        ForecastFile current = open(dir, locationSetting);
+        if (current != null && current.hasRecords(bytes)) {
+            return false;
+        }
+
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, FORMAT_VERSION);
+        buffer.putShort(6, (short) RECORD_BYTES);
+        buffer.putLong(VERSION_OFFSET, current == null ? 1 : current.mVersion + 1);
+        buffer.putLong(PUBLISHED_OFFSET, System.currentTimeMillis());
+        buffer.putInt(LOCATION_OFFSET, locationSetting.hashCode());
+        buffer.putInt(COUNT_OFFSET, count);
+        buffer.putInt(CRC_OFFSET, crc(bytes, bytes.length));
+
+        File file = fileFor(dir, locationSetting);
+        File tmp = new File(dir, file.getName() + TMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(bytes);
+            // The rename must not reach the disk before the data does.
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if no newer version of this file has been published since it was opened.
+     */
+    public boolean isCurrent() {
+        return readVersion(mFile) == mVersion;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public long getPublishedAt() {
+        return mBuffer.getLong(PUBLISHED_OFFSET);
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    public long getDate(int day) {
+        return mBuffer.getLong(record(day));
+    }
+
+    public int getWeatherId(int day) {
+        return mBuffer.getInt(record(day) + 8);
+    }
+
+    public float getMin(int day) {
+        return mBuffer.getFloat(record(day) + 12);
+    }
+
+    public float getMax(int day) {
+        return mBuffer.getFloat(record(day) + 16);
+    }
+
+    public float getHumidity(int day) {
+        return mBuffer.getFloat(record(day) + 20);
+    }
+
+    public float getPressure(int day) {
+        return mBuffer.getFloat(record(day) + 24);
+    }
+
+    public float getWindSpeed(int day) {
+        return mBuffer.getFloat(record(day) + 28);
+    }
+
+    public float getDegrees(int day) {
+        return mBuffer.getFloat(record(day) + 32);
+    }
+
+    public String getShortDesc(int day) {
+        int offset = record(day) + 36;
+        int length = 0;
+        while (length < DESC_BYTES && mBuffer.get(offset + length) != 0) {
+            length++;
+        }
+        byte[] desc = new byte[length];
+        for (int i = 0; i < length; i++) {
+            desc[i] = mBuffer.get(offset + i);
+        }
+        return new String(desc, UTF_8);
+    }
+
+    /**
+     * @return the index of the first day on or after the given date, or getDayCount() if none is.
+     */
+    public int indexOf(long date) {
+        int day = 0;
+        while (day < mDayCount && getDate(day) < date) {
+            day++;
+        }
+        return day;
+    }
+
+    private int record(int day) {
+        if (day < 0 || day >= mDayCount) {
+            throw new IndexOutOfBoundsException("Day " + day + " of " + mDayCount);
+        }
+        return HEADER_BYTES + day * RECORD_BYTES;
+    }
+
+    private boolean hasRecords(byte[] bytes) {
+        if (mBuffer.capacity() != bytes.length) {
+            return false;
+        }
+        for (int i = HEADER_BYTES; i < bytes.length; i++) {
+            if (mBuffer.get(i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putDay(ByteBuffer buffer, Day day) {
+        buffer.putLong(day.date);
+        buffer.putInt(day.weatherId);
+        buffer.putFloat(day.min);
+        buffer.putFloat(day.max);
+        buffer.putFloat(day.humidity);
+        buffer.putFloat(day.pressure);
+        buffer.putFloat(day.windSpeed);
+        buffer.putFloat(day.degrees);
+        byte[] desc = encodeDesc(day.shortDesc);
+        buffer.put(desc);
+        buffer.position(buffer.position() + DESC_BYTES - desc.length);
+    }
+
+    // Cut at a character boundary, so a long description never decodes to a broken character.
+    private static byte[] encodeDesc(String desc) {
+        if (desc == null) {
+            return new byte[0];
+        }
+        byte[] bytes = desc.getBytes(UTF_8);
+        int end = desc.length();
+        while (bytes.length > DESC_BYTES) {
+            end--;
+            if (Character.isLowSurrogate(desc.charAt(end))) {
+                end--;
+            }
+            bytes = desc.substring(0, end).getBytes(UTF_8);
+        }
+        return bytes;
+    }
+
+    private static boolean isValid(ByteBuffer buffer, int locationHash) {
+        int size = buffer.capacity();
+        if (buffer.getInt(0) != MAGIC
+                || buffer.getShort(4) != FORMAT_VERSION
+                || buffer.getShort(6) != RECORD_BYTES
+                || buffer.getInt(LOCATION_OFFSET) != locationHash) {
+            return false;
+        }
+        // A file cut short or padded out has the wrong size for its count.
+        int count = buffer.getInt(COUNT_OFFSET);
+        if (count < 0 || count > MAX_DAYS || size != HEADER_BYTES + count * RECORD_BYTES) {
+            return false;
+        }
+        byte[] bytes = new byte[size];
+        ByteBuffer all = buffer.duplicate();
+        all.position(0);
+        all.get(bytes);
+        return crc(bytes, size) == buffer.getInt(CRC_OFFSET);
+    }
+
+    private static int crc(byte[] bytes, int size) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, CRC_OFFSET);
+        crc.update(bytes, HEADER_BYTES, size - HEADER_BYTES);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,299 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.mhv.meteoapp.data.DatabaseContract.HistoryEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+/**
+ * Moves past days from the weather table into the weather_history archive and keeps the
+ * archive bounded:
+ *
+ * - days before today are moved from weather into history as TIER_DAILY rows;
+ * - daily rows older than DAILY_RETENTION_DAYS are folded into one TIER_WEEKLY row per week;
+ * - weekly rows older than WEEKLY_RETENTION_WEEKS are dropped.
+ *
+ * Every step works in batches of a few dozen rows, each batch in its own transaction nested
+ * in the provider's ingest commit, and a single run stops after MAX_BATCHES_PER_RUN batches.
+ * A backlog is simply picked up by the next sync, so no write transaction ever grows with the
+ * size of the archive.
+ */
+public class HistoryArchiver {
+
+    static final int DAILY_RETENTION_DAYS = 90;
+    static final int WEEKLY_RETENTION_WEEKS = 104;
+
+    static final int ARCHIVE_ROWS_PER_BATCH = 32;
+    static final int COMPACT_WEEKS_PER_BATCH = 4;
+    static final int EXPIRE_ROWS_PER_BATCH = 32;
+    static final int MAX_BATCHES_PER_RUN = 16;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long WEEK_IN_MILLIS = 7 * DAY_IN_MILLIS;
+
+    // Dates are local midnights, shifting them by half a day before bucketing keeps every day
+    // in the same week whatever the UTC offset or daylight saving time.
+    private static final long HALF_DAY_IN_MILLIS = DAY_IN_MILLIS / 2;
+    private static final String WEEK_OF_DATE = "((" + HistoryEntry.COLUMN_DATE + " + " +
+            HALF_DAY_IN_MILLIS + ") / " + WEEK_IN_MILLIS + ") * " + WEEK_IN_MILLIS;
+
+    private static final String SQL_ARCHIVE_BATCH = "INSERT INTO " + HistoryEntry.TABLE_NAME + " (" +
+            HistoryEntry.COLUMN_LOC_KEY + ", " +
+            HistoryEntry.COLUMN_DATE + ", " +
+            HistoryEntry.COLUMN_TIER + ", " +
+            HistoryEntry.COLUMN_WEATHER_ID + ", " +
+            HistoryEntry.COLUMN_SHORT_DESC + ", " +
+            HistoryEntry.COLUMN_MIN_TEMP + ", " +
+            HistoryEntry.COLUMN_MAX_TEMP + ", " +
+            HistoryEntry.COLUMN_MEAN_TEMP + ", " +
+            HistoryEntry.COLUMN_HUMIDITY + ", " +
+            HistoryEntry.COLUMN_PRESSURE + ", " +
+            HistoryEntry.COLUMN_WIND_SPEED + ", " +
+            HistoryEntry.COLUMN_DEGREES + ", " +
+            HistoryEntry.COLUMN_SAMPLE_COUNT + ") " +
+            "SELECT " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            HistoryEntry.TIER_DAILY + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            "(" + WeatherEntry.COLUMN_MIN_TEMP + " + " + WeatherEntry.COLUMN_MAX_TEMP + ") / 2.0, " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES + ", " +
+            "1 FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry._ID + " IN (" + selectPastWeatherIds() + ")";
+
+    private static final String SQL_DELETE_ARCHIVED = "DELETE FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry._ID + " IN (" + selectPastWeatherIds() + ")";
+
+    private static final String SQL_WEEKS_TO_COMPACT = "SELECT " +
+            HistoryEntry.COLUMN_LOC_KEY + ", " +
+            "week, " +
+            "MIN(" + HistoryEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + HistoryEntry.COLUMN_MAX_TEMP + "), " +
+            "SUM(" + HistoryEntry.COLUMN_MEAN_TEMP + " * " + HistoryEntry.COLUMN_SAMPLE_COUNT + "), " +
+            "SUM(" + HistoryEntry.COLUMN_SAMPLE_COUNT + "), " +
+            "AVG(" + HistoryEntry.COLUMN_HUMIDITY + "), " +
+            "AVG(" + HistoryEntry.COLUMN_PRESSURE + "), " +
+            "AVG(" + HistoryEntry.COLUMN_WIND_SPEED + "), " +
+            // OWM condition ids grow from storms through rain and snow to clear skies, so the
+            // lowest id of the week is a fair summary of its worst weather.
+            "MIN(" + HistoryEntry.COLUMN_WEATHER_ID + ") " +
+            "FROM (SELECT *, " + WEEK_OF_DATE + " AS week FROM " + HistoryEntry.TABLE_NAME +
+            " WHERE " + HistoryEntry.COLUMN_TIER + " = " + HistoryEntry.TIER_DAILY +
+            " AND " + WEEK_OF_DATE + " < CAST(? AS INTEGER)) " +
+            "GROUP BY " + HistoryEntry.COLUMN_LOC_KEY + ", week " +
+            "ORDER BY week LIMIT " + COMPACT_WEEKS_PER_BATCH;
+
+    // indices tied to SQL_WEEKS_TO_COMPACT
+    private static final int COL_LOC_KEY = 0;
+    private static final int COL_WEEK = 1;
+    private static final int COL_MIN = 2;
+    private static final int COL_MAX = 3;
+    private static final int COL_MEAN_SUM = 4;
+    private static final int COL_SAMPLES = 5;
+    private static final int COL_HUMIDITY = 6;
+    private static final int COL_PRESSURE = 7;
+    private static final int COL_WIND_SPEED = 8;
+    private static final int COL_WEATHER_ID = 9;
+
+    // The wind of the days of a week, averaged in Java: SQLite has no trigonometry.
+    private static final String SQL_WIND_OF_WEEK = "SELECT " + HistoryEntry.COLUMN_DEGREES + ", " +
+            HistoryEntry.COLUMN_WIND_SPEED + " FROM " + HistoryEntry.TABLE_NAME +
+            " WHERE " + HistoryEntry.COLUMN_TIER + " = " + HistoryEntry.TIER_DAILY +
+            " AND " + HistoryEntry.COLUMN_LOC_KEY + " = ?" +
+            " AND " + WEEK_OF_DATE + " = ?";
+
+    private static final String SQL_DESC_OF_WEEK = "SELECT " + HistoryEntry.COLUMN_SHORT_DESC +
+            " FROM " + HistoryEntry.TABLE_NAME +
+            " WHERE " + HistoryEntry.COLUMN_TIER + " = " + HistoryEntry.TIER_DAILY +
+            " AND " + HistoryEntry.COLUMN_LOC_KEY + " = ?" +
+            " AND " + HistoryEntry.COLUMN_WEATHER_ID + " = ?" +
+            " AND " + WEEK_OF_DATE + " = ? LIMIT 1";
+
+    private static final String SQL_DELETE_WEEK_DAYS = "DELETE FROM " + HistoryEntry.TABLE_NAME +
+            " WHERE " + HistoryEntry.COLUMN_TIER + " = " + HistoryEntry.TIER_DAILY +
+            " AND " + HistoryEntry.COLUMN_LOC_KEY + " = ?" +
+            " AND " + WEEK_OF_DATE + " = ?";
+
+    private static final String SQL_EXPIRE_BATCH = "DELETE FROM " + HistoryEntry.TABLE_NAME +
+            " WHERE " + HistoryEntry._ID + " IN (SELECT " + HistoryEntry._ID +
+            " FROM " + HistoryEntry.TABLE_NAME +
+            " WHERE " + HistoryEntry.COLUMN_TIER + " = " + HistoryEntry.TIER_WEEKLY +
+            " AND " + HistoryEntry.COLUMN_DATE + " < ? LIMIT " + EXPIRE_ROWS_PER_BATCH + ")";
+
+    private HistoryArchiver() {}
+
+    private static String selectPastWeatherIds() {
+        return "SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_DATE + " < ?" +
+                " ORDER BY " + WeatherEntry._ID + " LIMIT " + ARCHIVE_ROWS_PER_BATCH;
+    }
+
+    static long weekOf(long date) {
+        return ((date + HALF_DAY_IN_MILLIS) / WEEK_IN_MILLIS) * WEEK_IN_MILLIS;
+    }
+
+    /**
+     * Runs at most MAX_BATCHES_PER_RUN batches of archiving, compaction and expiry.
+     *
+     * @param today the normalized date of today, every earlier day is history.
+     * @return the number of rows moved, folded or dropped.
+     */
+    public static int run(SQLiteDatabase db, long today) {
+        int changed = 0;
+        int batches = 0;
+        int count;
+
+        while (batches < MAX_BATCHES_PER_RUN && (count = archiveBatch(db, today)) > 0) {
+            changed += count;
+            batches++;
+        }
+
+        // Only whole weeks are folded, so a weekly row never has to be merged with a later one.
+        long compactBefore = weekOf(today - DAILY_RETENTION_DAYS * DAY_IN_MILLIS);
+        while (batches < MAX_BATCHES_PER_RUN && (count = compactBatch(db, compactBefore)) > 0) {
+            changed += count;
+            batches++;
+        }
+
+        long expireBefore = compactBefore - WEEKLY_RETENTION_WEEKS * WEEK_IN_MILLIS;
+        while (batches < MAX_BATCHES_PER_RUN && (count = expireBatch(db, expireBefore)) > 0) {
+            changed += count;
+            batches++;
+        }
+        return changed;
+    }
+
+    // Moves up to ARCHIVE_ROWS_PER_BATCH past weather rows into the archive.
+    static int archiveBatch(SQLiteDatabase db, long today) {
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(SQL_ARCHIVE_BATCH);
+            insert.bindLong(1, today);
+            insert.executeUpdateDelete();
+            insert.close();
+
+            SQLiteStatement delete = db.compileStatement(SQL_DELETE_ARCHIVED);
+            delete.bindLong(1, today);
+            int moved = delete.executeUpdateDelete();
+            delete.close();
+
+            db.setTransactionSuccessful();
+            return moved;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Folds up to COMPACT_WEEKS_PER_BATCH weeks of daily rows into weekly rows.
+    static int compactBatch(SQLiteDatabase db, long compactBefore) {
+        db.beginTransaction();
+        Cursor weeks = null;
+        try {
+            weeks = db.rawQuery(SQL_WEEKS_TO_COMPACT, new String[]{Long.toString(compactBefore)});
+            if (!weeks.moveToFirst()) {
+                return 0;
+            }
+
+            SQLiteStatement desc = db.compileStatement(SQL_DESC_OF_WEEK);
+            SQLiteStatement delete = db.compileStatement(SQL_DELETE_WEEK_DAYS);
+            ContentValues values = new ContentValues();
+            int folded = 0;
+            do {
+                long locationId = weeks.getLong(COL_LOC_KEY);
+                long week = weeks.getLong(COL_WEEK);
+                int weatherId = weeks.getInt(COL_WEATHER_ID);
+                int samples = weeks.getInt(COL_SAMPLES);
+
+                desc.bindLong(1, locationId);
+                desc.bindLong(2, weatherId);
+                desc.bindLong(3, week);
+
+                values.clear();
+                values.put(HistoryEntry.COLUMN_LOC_KEY, locationId);
+                values.put(HistoryEntry.COLUMN_DATE, week);
+                values.put(HistoryEntry.COLUMN_TIER, HistoryEntry.TIER_WEEKLY);
+                values.put(HistoryEntry.COLUMN_WEATHER_ID, weatherId);
+                values.put(HistoryEntry.COLUMN_SHORT_DESC, desc.simpleQueryForString());
+                values.put(HistoryEntry.COLUMN_MIN_TEMP, weeks.getDouble(COL_MIN));
+                values.put(HistoryEntry.COLUMN_MAX_TEMP, weeks.getDouble(COL_MAX));
+                values.put(HistoryEntry.COLUMN_MEAN_TEMP, weeks.getDouble(COL_MEAN_SUM) / samples);
+                values.put(HistoryEntry.COLUMN_HUMIDITY, weeks.getDouble(COL_HUMIDITY));
+                values.put(HistoryEntry.COLUMN_PRESSURE, weeks.getDouble(COL_PRESSURE));
+                values.put(HistoryEntry.COLUMN_WIND_SPEED, weeks.getDouble(COL_WIND_SPEED));
+                values.put(HistoryEntry.COLUMN_DEGREES, meanWindDirection(db, locationId, week));
+                values.put(HistoryEntry.COLUMN_SAMPLE_COUNT, samples);
+                db.insert(HistoryEntry.TABLE_NAME, null, values);
+
+                delete.bindLong(1, locationId);
+                delete.bindLong(2, week);
+                folded += delete.executeUpdateDelete();
+            } while (weeks.moveToNext());
+            desc.close();
+            delete.close();
+
+            db.setTransactionSuccessful();
+            return folded;
+        } finally {
+            if (weeks != null) {
+                weeks.close();
+            }
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * The mean direction of a week's wind. Directions wrap around north, so their arithmetic
+     * mean is wrong (350 and 10 degrees would give 180): the days are added up as vectors
+     * weighted by their speed instead, or unweighted when the whole week was calm.
+     */
+    static double meanWindDirection(SQLiteDatabase db, long locationId, long week) {
+        double x = 0;
+        double y = 0;
+        double calmX = 0;
+        double calmY = 0;
+        Cursor days = db.rawQuery(SQL_WIND_OF_WEEK,
+                new String[]{Long.toString(locationId), Long.toString(week)});
+        try {
+            while (days.moveToNext()) {
+                double radians = Math.toRadians(days.getDouble(0));
+                double speed = days.getDouble(1);
+                x += speed * Math.cos(radians);
+                y += speed * Math.sin(radians);
+                calmX += Math.cos(radians);
+                calmY += Math.sin(radians);
+            }
+        } finally {
+            days.close();
+        }
+        if (x == 0 && y == 0) {
+            x = calmX;
+            y = calmY;
+        }
+        double degrees = Math.toDegrees(Math.atan2(y, x));
+        return degrees < 0 ? degrees + 360 : degrees;
+    }
+
+    // Drops up to EXPIRE_ROWS_PER_BATCH weekly rows that fell out of the retention window.
+    static int expireBatch(SQLiteDatabase db, long expireBefore) {
+        db.beginTransaction();
+        try {
+            SQLiteStatement delete = db.compileStatement(SQL_EXPIRE_BATCH);
+            delete.bindLong(1, expireBefore);
+            int expired = delete.executeUpdateDelete();
+            delete.close();
+            db.setTransactionSuccessful();
+            return expired;
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
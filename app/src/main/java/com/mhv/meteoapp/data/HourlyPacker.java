@@ -0,0 +1,101 @@
+package com.mhv.meteoapp.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Packs the 3-hour forecast points of one location and one day into a single BLOB, so the
+ * hourly table stores one row per day instead of one row per point.
+ *
+ * The blob is columnar: a small header followed by one primitive array per field.
+ *
+ *   byte    format version
+ *   short   point count (n)
+ *   short[n] minute of the day of each point, from the start of the stored day
+ *   float[n] temperature
+ *   short[n] weather id
+ *   float[n] humidity
+ *   float[n] pressure
+ *   float[n] wind speed
+ *   float[n] wind direction in degrees
+ */
+public class HourlyPacker {
+
+    static final byte FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 1 + 2;
+    private static final int POINT_BYTES = 2 + 4 + 2 + 4 + 4 + 4 + 4;
+
+    private HourlyPacker() {}
+
+    /**
+     * The points of one day as parallel arrays, all of the same length.
+     */
+    public static class Series {
+        public final int[] minutes;
+        public final float[] temperatures;
+        public final int[] weatherIds;
+        public final float[] humidity;
+        public final float[] pressure;
+        public final float[] windSpeed;
+        public final float[] degrees;
+
+        public Series(int size) {
+            minutes = new int[size];
+            temperatures = new float[size];
+            weatherIds = new int[size];
+            humidity = new float[size];
+            pressure = new float[size];
+            windSpeed = new float[size];
+            degrees = new float[size];
+        }
+
+        public int size() {
+            return minutes.length;
+        }
+    }
+
+    public static int packedSize(int points) {
+        return HEADER_BYTES + points * POINT_BYTES;
+    }
+
+    public static byte[] pack(Series series) {
+        int n = series.size();
+        ByteBuffer buffer = ByteBuffer.allocate(packedSize(n)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(FORMAT_VERSION);
+        buffer.putShort((short) n);
+        for (int i = 0; i < n; i++) buffer.putShort((short) series.minutes[i]);
+        for (int i = 0; i < n; i++) buffer.putFloat(series.temperatures[i]);
+        for (int i = 0; i < n; i++) buffer.putShort((short) series.weatherIds[i]);
+        for (int i = 0; i < n; i++) buffer.putFloat(series.humidity[i]);
+        for (int i = 0; i < n; i++) buffer.putFloat(series.pressure[i]);
+        for (int i = 0; i < n; i++) buffer.putFloat(series.windSpeed[i]);
+        for (int i = 0; i < n; i++) buffer.putFloat(series.degrees[i]);
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the blob was not written by this version of pack().
+     */
+    public static Series unpack(byte[] blob) {
+        ByteBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN);
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown hourly blob version " + version);
+        }
+        int n = buffer.getShort();
+        if (blob.length != packedSize(n)) {
+            throw new IllegalArgumentException("Hourly blob of " + blob.length
+                    + " bytes can't hold " + n + " points");
+        }
+        Series series = new Series(n);
+        for (int i = 0; i < n; i++) series.minutes[i] = buffer.getShort();
+        for (int i = 0; i < n; i++) series.temperatures[i] = buffer.getFloat();
+        for (int i = 0; i < n; i++) series.weatherIds[i] = buffer.getShort() & 0xffff;
+        for (int i = 0; i < n; i++) series.humidity[i] = buffer.getFloat();
+        for (int i = 0; i < n; i++) series.pressure[i] = buffer.getFloat();
+        for (int i = 0; i < n; i++) series.windSpeed[i] = buffer.getFloat();
+        for (int i = 0; i < n; i++) series.degrees[i] = buffer.getFloat();
+        return series;
+    }
+}
@@ -0,0 +1,99 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * One write to the database, queued for the provider's single writer thread. See
+ * {@link CustomContentProvider#commit}.
+ *
+ * The writer fills in the result fields before the producer's write() returns.
+ */
+class IngestBatch {
+
+    enum Type {
+        INSERT, BULK_INSERT, UPDATE, DELETE, OPERATIONS, ARCHIVE_HISTORY, IMPORT_SNAPSHOT,
+        REFRESH_TODAY
+    }
+
+    final Type type;
+    Uri uri;
+    ContentValues values;
+    ContentValues[] rows;
+    String selection;
+    String[] selectionArgs;
+    ArrayList<ContentProviderOperation> operations;
+    File snapshot;
+    String locationSetting;
+
+    // Results.
+    Uri insertedUri;
+    int count;
+    long rowsImported;
+    ContentProviderResult[] results;
+
+    private IngestBatch(Type type) {
+        this.type = type;
+    }
+
+    static IngestBatch insert(Uri uri, ContentValues values) {
+        IngestBatch batch = new IngestBatch(Type.INSERT);
+        batch.uri = uri;
+        batch.values = values;
+        return batch;
+    }
+
+    static IngestBatch bulkInsert(Uri uri, ContentValues[] rows) {
+        IngestBatch batch = new IngestBatch(Type.BULK_INSERT);
+        batch.uri = uri;
+        batch.rows = rows;
+        return batch;
+    }
+
+    static IngestBatch update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        IngestBatch batch = new IngestBatch(Type.UPDATE);
+        batch.uri = uri;
+        batch.values = values;
+        batch.selection = selection;
+        batch.selectionArgs = selectionArgs;
+        return batch;
+    }
+
+    static IngestBatch delete(Uri uri, String selection, String[] selectionArgs) {
+        IngestBatch batch = new IngestBatch(Type.DELETE);
+        batch.uri = uri;
+        batch.selection = selection;
+        batch.selectionArgs = selectionArgs;
+        return batch;
+    }
+
+    // Operations from applyBatch(), applied in one transaction.
+    static IngestBatch operations(ArrayList<ContentProviderOperation> operations) {
+        IngestBatch batch = new IngestBatch(Type.OPERATIONS);
+        batch.operations = operations;
+        return batch;
+    }
+
+    static IngestBatch archiveHistory() {
+        return new IngestBatch(Type.ARCHIVE_HISTORY);
+    }
+
+    // Rebuilds the today summary of a location that a read found stale.
+    static IngestBatch refreshToday(String locationSetting) {
+        IngestBatch batch = new IngestBatch(Type.REFRESH_TODAY);
+        batch.locationSetting = locationSetting;
+        return batch;
+    }
+
+    // A snapshot the caller already copied to a local file, so the writer never waits on a pipe.
+    static IngestBatch importSnapshot(File snapshot) {
+        IngestBatch batch = new IngestBatch(Type.IMPORT_SNAPSHOT);
+        batch.snapshot = snapshot;
+        return batch;
+    }
+}
@@ -0,0 +1,110 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationAliasEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps one location per city, whatever the settings that resolved to it.
+ *
+ * The location table holds the first setting a city was stored under, the location_alias table
+ * the others. Readers of the provider pass any of them: the provider swaps an alias for the
+ * setting of its location before running the query, so the joins on location_setting stay as
+ * they are and a city is stored and synced only once.
+ */
+class LocationAliases {
+
+    private static final String sCanonicalQuery = "SELECT " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING +
+            " FROM " + LocationAliasEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+            " ON " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " = " +
+            LocationAliasEntry.TABLE_NAME + "." + LocationAliasEntry.COLUMN_LOC_KEY +
+            " WHERE " + LocationAliasEntry.TABLE_NAME + "." + LocationAliasEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    private static final String sSettingsQuery = "SELECT " + LocationEntry.COLUMN_LOCATION_SETTING +
+            " FROM " + LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = ?" +
+            " UNION ALL SELECT " + LocationAliasEntry.COLUMN_LOCATION_SETTING +
+            " FROM " + LocationAliasEntry.TABLE_NAME + " WHERE " + LocationAliasEntry.COLUMN_LOC_KEY + " = ?";
+
+    private static final String sCityIdSelection = LocationEntry.COLUMN_CITY_ID + " = ?";
+
+    private LocationAliases() {}
+
+    /**
+     * @return the setting of the location the given setting is an alias of, or the setting
+     * itself when it isn't an alias.
+     */
+    static String canonicalSetting(SQLiteDatabase db, String locationSetting) {
+        if (locationSetting == null) {
+            return null;
+        }
+        Cursor cursor = db.rawQuery(sCanonicalQuery, new String[]{locationSetting});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : locationSetting;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores a location, unless its city id is already stored: then its setting becomes an
+     * alias of that location. Meant to run inside the caller's transaction.
+     *
+     * @return the id of the location the values ended up in, or -1 if the insert failed
+     */
+    static long insertLocation(SQLiteDatabase db, ContentValues values) {
+        Long cityId = values.getAsLong(LocationEntry.COLUMN_CITY_ID);
+        if (cityId != null) {
+            long locationId = -1;
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                    sCityIdSelection, new String[]{cityId.toString()}, null, null,
+                    LocationEntry._ID + " ASC", "1");
+            try {
+                if (cursor.moveToFirst()) {
+                    locationId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (locationId != -1) {
+                ContentValues alias = new ContentValues();
+                alias.put(LocationAliasEntry.COLUMN_LOCATION_SETTING,
+                        values.getAsString(LocationEntry.COLUMN_LOCATION_SETTING));
+                alias.put(LocationAliasEntry.COLUMN_LOC_KEY, locationId);
+                return db.insert(LocationAliasEntry.TABLE_NAME, null, alias) != -1 ? locationId : -1;
+            }
+        }
+        return db.insert(LocationEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * @return the setting of the location and those of its aliases.
+     */
+    static List<String> settingsOf(SQLiteDatabase db, long locationId) {
+        List<String> settings = new ArrayList<>(1);
+        String id = Long.toString(locationId);
+        Cursor cursor = db.rawQuery(sSettingsQuery, new String[]{id, id});
+        try {
+            while (cursor.moveToNext()) {
+                settings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return settings;
+    }
+
+    /**
+     * Drops the aliases of locations that are gone.
+     */
+    static int prune(SQLiteDatabase db) {
+        return db.delete(LocationAliasEntry.TABLE_NAME, LocationAliasEntry.COLUMN_LOC_KEY +
+                " NOT IN (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME + ")", null);
+    }
+}
@@ -0,0 +1,244 @@
+package com.mhv.meteoapp.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a snapshot written by {@link SnapshotWriter} and hands the rows to a {@link Visitor},
+ * one chunk at a time. The checksum is only known at the end of the stream, so a visitor that
+ * writes to a database should keep its work in a transaction until {@link #read()} returns.
+ */
+public class SnapshotReader {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_STRING_BYTES = 4 * 1024;
+
+    public interface Visitor {
+        // cityId is 0 when the snapshot doesn't know it.
+        void onLocation(long id, String locationSetting, String cityName, double lat, double lon,
+                        long cityId);
+
+        // Comes after every location, before the first weather row.
+        void onAlias(long locationId, String locationSetting);
+
+        void onWeather(long locationId, long date, int weatherId, String shortDesc,
+                       double min, double max, double humidity, double pressure,
+                       double wind, double degrees);
+    }
+
+    private final InputStream mIn;
+    private final Visitor mVisitor;
+    private long mVersion;
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+    private int mCrcStart;
+
+    private final int CHUNK_ROWS = SnapshotWriter.CHUNK_ROWS;
+    private final long[] mLongs = new long[CHUNK_ROWS];
+    private final long[] mDates = new long[CHUNK_ROWS];
+    private final int[] mWeatherIds = new int[CHUNK_ROWS];
+    private final String[] mDescs = new String[CHUNK_ROWS];
+    private final long[][] mMeasures = new long[6][CHUNK_ROWS];
+    private final String[] mSettings = new String[CHUNK_ROWS];
+    private final String[] mCityNames = new String[CHUNK_ROWS];
+
+    public SnapshotReader(InputStream in, Visitor visitor) {
+        mIn = in;
+        mVisitor = visitor;
+    }
+
+    /**
+     * Reads the whole stream.
+     *
+     * @return the number of weather rows read.
+     * @throws IOException if the stream is truncated, corrupt or of an unknown version.
+     */
+    public long read() throws IOException {
+        for (byte b : SnapshotWriter.MAGIC) {
+            if (readByte() != b) {
+                throw new IOException("Not a weather snapshot");
+            }
+        }
+        mVersion = readVarint();
+        if (mVersion < 1 || mVersion > SnapshotWriter.FORMAT_VERSION) {
+            throw new IOException("Unknown snapshot version " + mVersion);
+        }
+
+        long locationRows = 0;
+        long aliasRows = 0;
+        long weatherRows = 0;
+        while (true) {
+            int tag = readByte();
+            if (tag == SnapshotWriter.TAG_LOCATION) {
+                locationRows += readLocations();
+            } else if (tag == SnapshotWriter.TAG_ALIAS && mVersion >= 2) {
+                aliasRows += readAliases();
+            } else if (tag == SnapshotWriter.TAG_WEATHER) {
+                weatherRows += readWeather();
+            } else if (tag == SnapshotWriter.TAG_END) {
+                break;
+            } else {
+                throw new IOException("Unknown snapshot chunk " + tag);
+            }
+        }
+
+        // The checksum covers everything up to, but not including, the end tag.
+        mCrc.update(mBuffer, mCrcStart, mPosition - 1 - mCrcStart);
+        long expectedLocations = readVarint();
+        long expectedAliases = mVersion >= 2 ? readVarint() : 0;
+        long expectedWeather = readVarint();
+        long crc = ((long) readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        if (expectedLocations != locationRows || expectedAliases != aliasRows
+                || expectedWeather != weatherRows) {
+            throw new IOException("Snapshot row count mismatch");
+        }
+        if (crc != mCrc.getValue()) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        return weatherRows;
+    }
+
+    private int readLocations() throws IOException {
+        int n = readCount();
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += readZigzag();
+            mLongs[i] = previous;
+        }
+        for (int i = 0; i < n; i++) mSettings[i] = readString();
+        for (int i = 0; i < n; i++) mCityNames[i] = readString();
+        long[] lats = mMeasures[0];
+        long[] lons = mMeasures[1];
+        for (int i = 0; i < n; i++) lats[i] = readZigzag();
+        for (int i = 0; i < n; i++) lons[i] = readZigzag();
+        long[] cityIds = mMeasures[2];
+        for (int i = 0; i < n; i++) cityIds[i] = mVersion >= 2 ? readVarint() : 0;
+
+        for (int i = 0; i < n; i++) {
+            mVisitor.onLocation(mLongs[i], mSettings[i], mCityNames[i],
+                    lats[i] / SnapshotWriter.COORD_SCALE, lons[i] / SnapshotWriter.COORD_SCALE,
+                    cityIds[i]);
+        }
+        return n;
+    }
+
+    private int readAliases() throws IOException {
+        int n = readCount();
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += readZigzag();
+            mLongs[i] = previous;
+        }
+        for (int i = 0; i < n; i++) mSettings[i] = readString();
+
+        for (int i = 0; i < n; i++) {
+            mVisitor.onAlias(mLongs[i], mSettings[i]);
+        }
+        return n;
+    }
+
+    private int readWeather() throws IOException {
+        int n = readCount();
+        long dateUnit = readVarint() == 1 ? SnapshotWriter.MINUTE_IN_MILLIS : 1;
+        int dictSize = readCount();
+        String[] dict = new String[dictSize];
+        for (int i = 0; i < dictSize; i++) dict[i] = readString();
+
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += readZigzag();
+            mLongs[i] = previous;
+        }
+        previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += readZigzag();
+            mDates[i] = previous * dateUnit;
+        }
+        for (int i = 0; i < n; i++) mWeatherIds[i] = (int) readVarint();
+        for (int i = 0; i < n; i++) {
+            long index = readVarint();
+            if (index >= dictSize) {
+                throw new IOException("Snapshot description index out of range");
+            }
+            mDescs[i] = dict[(int) index];
+        }
+        for (long[] column : mMeasures) {
+            for (int i = 0; i < n; i++) column[i] = readZigzag();
+        }
+
+        long[] mins = mMeasures[0];
+        long[] maxs = mMeasures[1];
+        long[] pressures = mMeasures[2];
+        long[] winds = mMeasures[3];
+        long[] humidities = mMeasures[4];
+        long[] degrees = mMeasures[5];
+        for (int i = 0; i < n; i++) {
+            mVisitor.onWeather(mLongs[i], mDates[i], mWeatherIds[i], mDescs[i],
+                    mins[i] / SnapshotWriter.FINE_SCALE, maxs[i] / SnapshotWriter.FINE_SCALE,
+                    humidities[i] / SnapshotWriter.COARSE_SCALE,
+                    pressures[i] / SnapshotWriter.FINE_SCALE, winds[i] / SnapshotWriter.FINE_SCALE,
+                    degrees[i] / SnapshotWriter.COARSE_SCALE);
+        }
+        return n;
+    }
+
+    private int readCount() throws IOException {
+        long n = readVarint();
+        if (n > CHUNK_ROWS) {
+            throw new IOException("Snapshot chunk of " + n + " rows");
+        }
+        return (int) n;
+    }
+
+    private int readByte() throws IOException {
+        if (mPosition == mLimit) {
+            fill();
+        }
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    private void fill() throws IOException {
+        mCrc.update(mBuffer, mCrcStart, mLimit - mCrcStart);
+        mPosition = 0;
+        mLimit = 0;
+        mCrcStart = 0;
+        int read = mIn.read(mBuffer, 0, mBuffer.length);
+        if (read <= 0) {
+            throw new EOFException("Truncated snapshot");
+        }
+        mLimit = read;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in snapshot");
+    }
+
+    private long readZigzag() throws IOException {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private String readString() throws IOException {
+        long length = readVarint();
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("Snapshot string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[(int) length];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) readByte();
+        }
+        return new String(bytes, SnapshotWriter.UTF8);
+    }
+}
@@ -0,0 +1,216 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.mhv.meteoapp.data.DatabaseContract.LocationAliasEntry;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copies the location, alias and weather tables to and from the snapshot format of
+ * {@link SnapshotWriter}. Both directions stream: export walks a cursor, import feeds compiled
+ * statements, so neither holds more than a chunk of rows in memory.
+ */
+public class SnapshotTransfer {
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_CITY_ID
+    };
+
+    private static final String[] ALIAS_COLUMNS = {
+            LocationAliasEntry.COLUMN_LOC_KEY,
+            LocationAliasEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT_WEATHER = "INSERT INTO " + WeatherEntry.TABLE_NAME +
+            " (" + TextUtils.join(", ", WEATHER_COLUMNS) + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private SnapshotTransfer() {}
+
+    /**
+     * Writes every location, alias and weather row to out. The reads share one transaction so the
+     * snapshot is consistent even if a sync runs meanwhile. That transaction holds the database's
+     * write lock until the export returns, so out should be a local file rather than a pipe.
+     *
+     * @return the number of weather rows written.
+     */
+    public static long export(SQLiteDatabase db, OutputStream out) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter(out);
+        long rows = 0;
+        db.beginTransaction();
+        try {
+            Cursor locations = db.query(LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                    null, null, null, null, LocationEntry._ID + " ASC");
+            try {
+                while (locations.moveToNext()) {
+                    writer.writeLocation(locations.getLong(0), locations.getString(1),
+                            locations.getString(2), locations.getDouble(3), locations.getDouble(4),
+                            locations.isNull(5) ? 0 : locations.getLong(5));
+                }
+            } finally {
+                locations.close();
+            }
+
+            Cursor aliases = db.query(LocationAliasEntry.TABLE_NAME, ALIAS_COLUMNS,
+                    null, null, null, null, LocationAliasEntry.COLUMN_LOC_KEY + " ASC");
+            try {
+                while (aliases.moveToNext()) {
+                    writer.writeAlias(aliases.getLong(0), aliases.getString(1));
+                }
+            } finally {
+                aliases.close();
+            }
+
+            // Sorted by location and date, the delta encoded columns shrink to a byte or two.
+            Cursor weather = db.query(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS, null, null,
+                    null, null, WeatherEntry.COLUMN_LOC_KEY + " ASC, " + WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                while (weather.moveToNext()) {
+                    writer.writeWeather(weather.getLong(0), weather.getLong(1), weather.getInt(2),
+                            weather.getString(3), weather.getDouble(4), weather.getDouble(5),
+                            weather.getDouble(6), weather.getDouble(7), weather.getDouble(8),
+                            weather.getDouble(9));
+                    rows++;
+                }
+            } finally {
+                weather.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        writer.finish();
+        return rows;
+    }
+
+    /**
+     * Merges a snapshot into the database. Locations are matched by their location setting,
+     * whether it is stored here as a location or as an alias, then by city id through
+     * {@link LocationAliases#insertLocation}, so a city is never stored twice. Aliases missing
+     * here are added, weather rows replace the ones of the same location and day. The whole import is a single
+     * transaction, so a truncated or corrupt stream leaves the database untouched.
+     *
+     * @return the number of weather rows imported.
+     */
+    public static long importFrom(final SQLiteDatabase db, InputStream in) throws IOException {
+        final SQLiteStatement insertWeather = db.compileStatement(SQL_INSERT_WEATHER);
+        final SQLiteStatement findLocation = db.compileStatement("SELECT " + LocationEntry._ID +
+                " FROM " + LocationEntry.TABLE_NAME + " WHERE " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?");
+        // Location ids of the snapshot -> ids in this database.
+        final Map<Long, Long> locationIds = new HashMap<>();
+
+        long rows;
+        db.beginTransaction();
+        try {
+            rows = new SnapshotReader(in, new SnapshotReader.Visitor() {
+                @Override
+                public void onLocation(long id, String locationSetting, String cityName,
+                                       double lat, double lon, long cityId) {
+                    long localId = find(LocationAliases.canonicalSetting(db, locationSetting));
+                    if (localId == -1) {
+                        ContentValues values = new ContentValues();
+                        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+                        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+                        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+                        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+                        if (cityId != 0) {
+                            values.put(LocationEntry.COLUMN_CITY_ID, cityId);
+                        }
+                        localId = LocationAliases.insertLocation(db, values);
+                        if (localId == -1) {
+                            throw new IllegalArgumentException("Snapshot location " + locationSetting
+                                    + " could not be stored");
+                        }
+                    }
+                    locationIds.put(id, localId);
+                }
+
+                @Override
+                public void onAlias(long locationId, String locationSetting) {
+                    Long localId = locationIds.get(locationId);
+                    if (localId == null) {
+                        throw new IllegalArgumentException("Snapshot alias of unknown location "
+                                + locationId);
+                    }
+                    // A setting stored here already keeps the location it points to here.
+                    if (find(LocationAliases.canonicalSetting(db, locationSetting)) != -1) {
+                        return;
+                    }
+                    ContentValues alias = new ContentValues();
+                    alias.put(LocationAliasEntry.COLUMN_LOCATION_SETTING, locationSetting);
+                    alias.put(LocationAliasEntry.COLUMN_LOC_KEY, localId);
+                    db.insert(LocationAliasEntry.TABLE_NAME, null, alias);
+                }
+
+                private long find(String locationSetting) {
+                    findLocation.bindString(1, locationSetting);
+                    try {
+                        return findLocation.simpleQueryForLong();
+                    } catch (SQLiteDoneException e) {
+                        return -1;
+                    }
+                }
+
+                @Override
+                public void onWeather(long locationId, long date, int weatherId, String shortDesc,
+                                      double min, double max, double humidity, double pressure,
+                                      double wind, double degrees) {
+                    Long localId = locationIds.get(locationId);
+                    if (localId == null) {
+                        throw new IllegalArgumentException("Snapshot weather row of unknown location "
+                                + locationId);
+                    }
+                    insertWeather.bindLong(1, localId);
+                    insertWeather.bindLong(2, date);
+                    insertWeather.bindLong(3, weatherId);
+                    insertWeather.bindString(4, shortDesc);
+                    insertWeather.bindDouble(5, min);
+                    insertWeather.bindDouble(6, max);
+                    insertWeather.bindDouble(7, humidity);
+                    insertWeather.bindDouble(8, pressure);
+                    insertWeather.bindDouble(9, wind);
+                    insertWeather.bindDouble(10, degrees);
+                    insertWeather.executeInsert();
+                }
+            }).read();
+            db.setTransactionSuccessful();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            db.endTransaction();
+            insertWeather.close();
+            findLocation.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,322 @@
+package com.mhv.meteoapp.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Streams the location, alias and weather tables out in the compact snapshot format read by
+ * {@link SnapshotReader}. Rows are buffered into chunks of at most CHUNK_ROWS rows, each chunk is
+ * written column by column, so memory use does not depend on the size of the database.
+ *
+ * Layout (all integers are unsigned LEB128 varints unless said otherwise, "zigzag" marks signed
+ * values in zigzag encoding):
+ *
+ *   "MWSN" magic, format version
+ *   location chunks:  'L', row count, then the columns
+ *                     _id (zigzag delta), location_setting, city_name (length + UTF-8),
+ *                     lat, lon (zigzag, 1e-6 degrees), city_id (0 when unknown)
+ *   alias chunks:     'A', row count, then the columns
+ *                     location_id (zigzag delta), location_setting (length + UTF-8)
+ *   weather chunks:   'W', row count, date unit (1 = minutes, 0 = millis),
+ *                     dictionary of short_desc strings (count, then length + UTF-8), then the columns
+ *                     location_id (zigzag delta), date (zigzag delta, in the date unit),
+ *                     weather_id, short_desc (dictionary index),
+ *                     min, max, pressure, wind (zigzag, 1/100), humidity, degrees (zigzag, 1/10)
+ *   end:              'E', location rows, alias rows, weather rows,
+ *                     CRC32 of everything before 'E' (4 bytes)
+ *
+ * All locations must be written before the first alias, and aliases before the first weather
+ * row, so a reader can resolve the location ids while streaming. Version 1 had no city_id
+ * column, no alias chunks and no alias count.
+ */
+public class SnapshotWriter {
+
+    static final byte[] MAGIC = {'M', 'W', 'S', 'N'};
+    static final int FORMAT_VERSION = 2;
+
+    static final int CHUNK_ROWS = 1024;
+
+    static final byte TAG_LOCATION = 'L';
+    static final byte TAG_ALIAS = 'A';
+    static final byte TAG_WEATHER = 'W';
+    static final byte TAG_END = 'E';
+
+    // Fixed point scales of the quantized columns.
+    static final double COORD_SCALE = 1e6;
+    static final double FINE_SCALE = 100;
+    static final double COARSE_SCALE = 10;
+
+    static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final OutputStream mOut;
+    private final CRC32 mCrc = new CRC32();
+    // Bytes go through our own buffer so the checksum is computed in bulk, not per varint.
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition;
+
+    private long mLocationRows;
+    private long mAliasRows;
+    private long mWeatherRows;
+    private boolean mAliasesStarted;
+    private boolean mWeatherStarted;
+
+    // Location chunk being filled.
+    private int mLocationCount;
+    private final long[] mLocationIds = new long[CHUNK_ROWS];
+    private final String[] mSettings = new String[CHUNK_ROWS];
+    private final String[] mCityNames = new String[CHUNK_ROWS];
+    private final long[] mLats = new long[CHUNK_ROWS];
+    private final long[] mLons = new long[CHUNK_ROWS];
+    private final long[] mCityIds = new long[CHUNK_ROWS];
+
+    // Alias chunk being filled.
+    private int mAliasCount;
+    private final long[] mAliasLocKeys = new long[CHUNK_ROWS];
+    private final String[] mAliasSettings = new String[CHUNK_ROWS];
+
+    // Weather chunk being filled.
+    private int mWeatherCount;
+    private final long[] mLocKeys = new long[CHUNK_ROWS];
+    private final long[] mDates = new long[CHUNK_ROWS];
+    private final int[] mWeatherIds = new int[CHUNK_ROWS];
+    private final int[] mDescIndices = new int[CHUNK_ROWS];
+    private final long[] mMins = new long[CHUNK_ROWS];
+    private final long[] mMaxs = new long[CHUNK_ROWS];
+    private final long[] mPressures = new long[CHUNK_ROWS];
+    private final long[] mWinds = new long[CHUNK_ROWS];
+    private final long[] mHumidities = new long[CHUNK_ROWS];
+    private final long[] mDegrees = new long[CHUNK_ROWS];
+    private final Map<String, Integer> mDescIndex = new HashMap<>();
+    private final String[] mDescs = new String[CHUNK_ROWS];
+
+    public SnapshotWriter(OutputStream out) throws IOException {
+        mOut = out;
+        writeBytes(MAGIC, 0, MAGIC.length);
+        writeVarint(FORMAT_VERSION);
+    }
+
+    /**
+     * @param cityId the provider's id of the city, 0 when it isn't known.
+     */
+    public void writeLocation(long id, String locationSetting, String cityName,
+                              double lat, double lon, long cityId) throws IOException {
+        if (mAliasesStarted || mWeatherStarted) {
+            throw new IllegalStateException("Locations must be written before aliases and weather rows");
+        }
+        mLocationIds[mLocationCount] = id;
+        mSettings[mLocationCount] = locationSetting;
+        mCityNames[mLocationCount] = cityName;
+        mLats[mLocationCount] = Math.round(lat * COORD_SCALE);
+        mLons[mLocationCount] = Math.round(lon * COORD_SCALE);
+        mCityIds[mLocationCount] = cityId;
+        if (++mLocationCount == CHUNK_ROWS) {
+            flushLocations();
+        }
+    }
+
+    public void writeAlias(long locationId, String locationSetting) throws IOException {
+        if (mWeatherStarted) {
+            throw new IllegalStateException("Aliases must be written before weather rows");
+        }
+        if (!mAliasesStarted) {
+            flushLocations();
+            mAliasesStarted = true;
+        }
+        mAliasLocKeys[mAliasCount] = locationId;
+        mAliasSettings[mAliasCount] = locationSetting;
+        if (++mAliasCount == CHUNK_ROWS) {
+            flushAliases();
+        }
+    }
+
+    /**
+     * Weather rows compress best sorted by location and date, but any order is accepted.
+     */
+    public void writeWeather(long locationId, long date, int weatherId, String shortDesc,
+                             double min, double max, double humidity, double pressure,
+                             double wind, double degrees) throws IOException {
+        if (!mWeatherStarted) {
+            flushLocations();
+            flushAliases();
+            mWeatherStarted = true;
+        }
+        int i = mWeatherCount;
+        mLocKeys[i] = locationId;
+        mDates[i] = date;
+        mWeatherIds[i] = weatherId;
+        Integer descIndex = mDescIndex.get(shortDesc);
+        if (descIndex == null) {
+            descIndex = mDescIndex.size();
+            mDescIndex.put(shortDesc, descIndex);
+            mDescs[descIndex] = shortDesc;
+        }
+        mDescIndices[i] = descIndex;
+        mMins[i] = Math.round(min * FINE_SCALE);
+        mMaxs[i] = Math.round(max * FINE_SCALE);
+        mPressures[i] = Math.round(pressure * FINE_SCALE);
+        mWinds[i] = Math.round(wind * FINE_SCALE);
+        mHumidities[i] = Math.round(humidity * COARSE_SCALE);
+        mDegrees[i] = Math.round(degrees * COARSE_SCALE);
+        if (++mWeatherCount == CHUNK_ROWS) {
+            flushWeather();
+        }
+    }
+
+    /**
+     * Writes the last chunks and the end marker. The underlying stream is flushed, not closed.
+     */
+    public void finish() throws IOException {
+        flushLocations();
+        flushAliases();
+        flushWeather();
+        flushBuffer();
+        long crc = mCrc.getValue();
+        writeByte(TAG_END);
+        writeVarint(mLocationRows);
+        writeVarint(mAliasRows);
+        writeVarint(mWeatherRows);
+        mOut.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+        mOut.write((int) (crc >>> 24));
+        mOut.write((int) (crc >>> 16));
+        mOut.write((int) (crc >>> 8));
+        mOut.write((int) crc);
+        mOut.flush();
+    }
+
+    private void flushLocations() throws IOException {
+        int n = mLocationCount;
+        if (n == 0) {
+            return;
+        }
+        writeByte(TAG_LOCATION);
+        writeVarint(n);
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            writeZigzag(mLocationIds[i] - previous);
+            previous = mLocationIds[i];
+        }
+        for (int i = 0; i < n; i++) writeString(mSettings[i]);
+        for (int i = 0; i < n; i++) writeString(mCityNames[i]);
+        for (int i = 0; i < n; i++) writeZigzag(mLats[i]);
+        for (int i = 0; i < n; i++) writeZigzag(mLons[i]);
+        for (int i = 0; i < n; i++) writeVarint(mCityIds[i]);
+        mLocationRows += n;
+        mLocationCount = 0;
+    }
+
+    private void flushAliases() throws IOException {
+        int n = mAliasCount;
+        if (n == 0) {
+            return;
+        }
+        writeByte(TAG_ALIAS);
+        writeVarint(n);
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            writeZigzag(mAliasLocKeys[i] - previous);
+            previous = mAliasLocKeys[i];
+        }
+        for (int i = 0; i < n; i++) writeString(mAliasSettings[i]);
+        mAliasRows += n;
+        mAliasCount = 0;
+    }
+
+    private void flushWeather() throws IOException {
+        int n = mWeatherCount;
+        if (n == 0) {
+            return;
+        }
+        // Local midnights are whole minutes everywhere but in a few historical time zones.
+        boolean minutes = true;
+        for (int i = 0; i < n && minutes; i++) {
+            minutes = mDates[i] % MINUTE_IN_MILLIS == 0;
+        }
+
+        writeByte(TAG_WEATHER);
+        writeVarint(n);
+        writeVarint(minutes ? 1 : 0);
+        int dictSize = mDescIndex.size();
+        writeVarint(dictSize);
+        for (int i = 0; i < dictSize; i++) writeString(mDescs[i]);
+
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            writeZigzag(mLocKeys[i] - previous);
+            previous = mLocKeys[i];
+        }
+        previous = 0;
+        for (int i = 0; i < n; i++) {
+            long date = minutes ? mDates[i] / MINUTE_IN_MILLIS : mDates[i];
+            writeZigzag(date - previous);
+            previous = date;
+        }
+        for (int i = 0; i < n; i++) writeVarint(mWeatherIds[i]);
+        for (int i = 0; i < n; i++) writeVarint(mDescIndices[i]);
+        for (int i = 0; i < n; i++) writeZigzag(mMins[i]);
+        for (int i = 0; i < n; i++) writeZigzag(mMaxs[i]);
+        for (int i = 0; i < n; i++) writeZigzag(mPressures[i]);
+        for (int i = 0; i < n; i++) writeZigzag(mWinds[i]);
+        for (int i = 0; i < n; i++) writeZigzag(mHumidities[i]);
+        for (int i = 0; i < n; i++) writeZigzag(mDegrees[i]);
+
+        mWeatherRows += n;
+        mWeatherCount = 0;
+        mDescIndex.clear();
+    }
+
+    private void flushBuffer() throws IOException {
+        mCrc.update(mBuffer, 0, mPosition);
+        mOut.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (mPosition == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        mBuffer[mPosition++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > BUFFER_SIZE - mPosition) {
+            flushBuffer();
+            if (length > BUFFER_SIZE) {
+                mCrc.update(bytes, offset, length);
+                mOut.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, mBuffer, mPosition, length);
+        mPosition += length;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        if (BUFFER_SIZE - mPosition < 10) {
+            flushBuffer();
+        }
+        while ((value & ~0x7FL) != 0) {
+            mBuffer[mPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    private void writeZigzag(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        writeVarint(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+}
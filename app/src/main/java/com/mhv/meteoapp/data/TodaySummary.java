@@ -0,0 +1,337 @@
+package com.mhv.meteoapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.mhv.meteoapp.R;
+import com.mhv.meteoapp.Utils;
+import com.mhv.meteoapp.data.DatabaseContract.LocationEntry;
+import com.mhv.meteoapp.data.DatabaseContract.TodayEntry;
+import com.mhv.meteoapp.data.DatabaseContract.WeatherEntry;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Today's forecast of one location, as kept in the today_summary table.
+ *
+ * The provider maintains the table. Every weather bulk insert refreshes the rows of the
+ * locations it touched, inside its own transaction. A row that is missing, from an earlier day
+ * or formatted in the other units is still returned when it is read, flagged as stale, and the
+ * provider queues its rebuild from the weather table on its writer. A row is
+ * only rewritten when something in it changed, and every rewrite takes a new version, so a
+ * consumer that kept the version of what it shows can call {@link #queryVersion} and skip
+ * the read, as MainFragment does for its today row.
+ */
+public class TodaySummary {
+
+    public static final String[] COLUMNS = {
+            TodayEntry.COLUMN_LOC_KEY,
+            TodayEntry.COLUMN_DATE,
+            TodayEntry.COLUMN_WEATHER_ID,
+            TodayEntry.COLUMN_SHORT_DESC,
+            TodayEntry.COLUMN_MIN_TEMP,
+            TodayEntry.COLUMN_MAX_TEMP,
+            TodayEntry.COLUMN_HUMIDITY,
+            TodayEntry.COLUMN_PRESSURE,
+            TodayEntry.COLUMN_WIND_SPEED,
+            TodayEntry.COLUMN_DEGREES,
+            TodayEntry.COLUMN_HIGH_TEXT,
+            TodayEntry.COLUMN_LOW_TEXT,
+            TodayEntry.COLUMN_SUMMARY_TEXT,
+            TodayEntry.COLUMN_VERSION
+    };
+
+    // These indices are tied to COLUMNS.  If COLUMNS changes, these must change.
+    static final int COL_LOCATION_ID = 0;
+    static final int COL_DATE = 1;
+    static final int COL_WEATHER_ID = 2;
+    static final int COL_SHORT_DESC = 3;
+    static final int COL_MIN_TEMP = 4;
+    static final int COL_MAX_TEMP = 5;
+    static final int COL_HUMIDITY = 6;
+    static final int COL_PRESSURE = 7;
+    static final int COL_WIND_SPEED = 8;
+    static final int COL_DEGREES = 9;
+    static final int COL_HIGH_TEXT = 10;
+    static final int COL_LOW_TEXT = 11;
+    static final int COL_SUMMARY_TEXT = 12;
+    static final int COL_VERSION = 13;
+
+    // The weather columns a summary row is built from.
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String sLocationIdSelection = TodayEntry.COLUMN_LOC_KEY + " = ?";
+
+    private static final String sWeatherOfDaySelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?";
+
+    // location._id, with the date, units and version of its summary when there is one.
+    private static final String sStateQuery = "SELECT " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID + ", " +
+            TodayEntry.TABLE_NAME + "." + TodayEntry.COLUMN_DATE + ", " +
+            TodayEntry.TABLE_NAME + "." + TodayEntry.COLUMN_UNITS +
+            " FROM " + LocationEntry.TABLE_NAME + " LEFT JOIN " + TodayEntry.TABLE_NAME +
+            " ON " + TodayEntry.TABLE_NAME + "." + TodayEntry.COLUMN_LOC_KEY + " = " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+            " WHERE " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    // Selection of the summary row of a location setting, without joining the location table.
+    static final String sLocationSettingSelection = TodayEntry.COLUMN_LOC_KEY + " = (SELECT " +
+            LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME + " WHERE " +
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ?)";
+
+    public final long locationId;
+    public final long date;
+    public final int weatherId;
+    public final String shortDesc;
+    public final double min;
+    public final double max;
+    public final double humidity;
+    public final double pressure;
+    public final double windSpeed;
+    public final double degrees;
+    public final String highText;
+    public final String lowText;
+    public final String summaryText;
+    public final long version;
+    // From an earlier day or in other units, the provider notifies the today URI once rebuilt.
+    public final boolean stale;
+
+    /**
+     * Reads the current row of a cursor over {@link #COLUMNS}.
+     */
+    public TodaySummary(Cursor cursor) {
+        locationId = cursor.getLong(COL_LOCATION_ID);
+        date = cursor.getLong(COL_DATE);
+        weatherId = cursor.getInt(COL_WEATHER_ID);
+        shortDesc = cursor.getString(COL_SHORT_DESC);
+        min = cursor.getDouble(COL_MIN_TEMP);
+        max = cursor.getDouble(COL_MAX_TEMP);
+        humidity = cursor.getDouble(COL_HUMIDITY);
+        pressure = cursor.getDouble(COL_PRESSURE);
+        windSpeed = cursor.getDouble(COL_WIND_SPEED);
+        degrees = cursor.getDouble(COL_DEGREES);
+        highText = cursor.getString(COL_HIGH_TEXT);
+        lowText = cursor.getString(COL_LOW_TEXT);
+        summaryText = cursor.getString(COL_SUMMARY_TEXT);
+        version = cursor.getLong(COL_VERSION);
+        stale = cursor.getExtras().getBoolean(DatabaseContract.EXTRA_STALE);
+    }
+
+    /**
+     * @return today's summary of the location, or null when there is no forecast for today.
+     */
+    public static TodaySummary query(ContentResolver resolver, String locationSetting) {
+        Cursor cursor = resolver.query(TodayEntry.buildTodayUri(locationSetting), COLUMNS,
+                null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? new TodaySummary(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the version of the location's summary, 0 when there is no forecast for today.
+     */
+    public static long queryVersion(ContentResolver resolver, String locationSetting) {
+        Bundle result = resolver.call(DatabaseContract.BASE_CONTENT_URI,
+                DatabaseContract.METHOD_TODAY_VERSION, locationSetting, null);
+        return result == null ? 0 : result.getLong(DatabaseContract.EXTRA_VERSION);
+    }
+
+    /**
+     * Rebuilds the summary rows of the given locations from their weather row of today, and
+     * drops the rows of locations without one. Meant to run inside the caller's transaction.
+     *
+     * @return the ids of the locations whose row changed.
+     */
+    static Set<Long> refresh(SQLiteDatabase db, Context context, Collection<Long> locationIds, long today) {
+        Set<Long> changed = new HashSet<>();
+        String units = currentUnits(context);
+        for (Long locationId : locationIds) {
+            String[] locationArgs = new String[]{locationId.toString()};
+            ContentValues values = null;
+            Cursor day = db.query(WeatherEntry.TABLE_NAME, WEATHER_COLUMNS, sWeatherOfDaySelection,
+                    new String[]{locationId.toString(), Long.toString(today)}, null, null, null);
+            try {
+                if (day.moveToFirst()) {
+                    values = fromWeather(context, locationId, units, day);
+                }
+            } finally {
+                day.close();
+            }
+
+            if (values == null) {
+                if (db.delete(TodayEntry.TABLE_NAME, sLocationIdSelection, locationArgs) > 0) {
+                    changed.add(locationId);
+                }
+                continue;
+            }
+
+            Cursor current = db.query(TodayEntry.TABLE_NAME, null, sLocationIdSelection,
+                    locationArgs, null, null, null);
+            boolean unchanged;
+            try {
+                unchanged = current.moveToFirst() && sameValues(current, values);
+            } finally {
+                current.close();
+            }
+            if (!unchanged) {
+                values.put(TodayEntry.COLUMN_VERSION, DatabaseUtils.longForQuery(db,
+                        "SELECT IFNULL(MAX(" + TodayEntry.COLUMN_VERSION + "), 0) + 1 FROM " +
+                                TodayEntry.TABLE_NAME, null));
+                db.insert(TodayEntry.TABLE_NAME, null, values);
+                changed.add(locationId);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Refreshes every location that has a summary row, for changes that can't tell which
+     * locations they touched.
+     */
+    static Set<Long> refreshAll(SQLiteDatabase db, Context context, long today) {
+        Set<Long> locationIds = new HashSet<>();
+        Cursor cursor = db.query(TodayEntry.TABLE_NAME, new String[]{TodayEntry.COLUMN_LOC_KEY},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return refresh(db, context, locationIds, today);
+    }
+
+    /**
+     * Tells whether the summary of a location is the one of today and in the current units,
+     * without writing. The common case costs one indexed lookup.
+     *
+     * @return true also for an unknown location, which has nothing to summarize.
+     */
+    static boolean isCurrent(SQLiteDatabase db, Context context, String locationSetting, long today) {
+        return findStale(db, context, locationSetting, today) == -1;
+    }
+
+    /**
+     * Makes sure the summary of a location is the one of today and in the current units,
+     * rebuilding it when it isn't. Only for the provider's writer, readers check isCurrent().
+     *
+     * @return true if the row was rewritten.
+     */
+    static boolean ensureCurrent(SQLiteDatabase db, Context context, String locationSetting, long today) {
+        long locationId = findStale(db, context, locationSetting, today);
+        if (locationId == -1) {
+            return false;
+        }
+
+        db.beginTransaction();
+        try {
+            Set<Long> changed = refresh(db, context, Collections.singleton(locationId), today);
+            db.setTransactionSuccessful();
+            return !changed.isEmpty();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // The id of the location if its summary needs a rebuild, -1 if it doesn't or is unknown.
+    private static long findStale(SQLiteDatabase db, Context context, String locationSetting, long today) {
+        Cursor state = db.rawQuery(sStateQuery, new String[]{locationSetting});
+        try {
+            if (!state.moveToFirst()) {
+                return -1;
+            }
+            if (!state.isNull(1) && state.getLong(1) == today
+                    && currentUnits(context).equals(state.getString(2))) {
+                return -1;
+            }
+            return state.getLong(0);
+        } finally {
+            state.close();
+        }
+    }
+
+    /**
+     * Drops the rows whose weather row is gone, after weather or locations were deleted.
+     */
+    static int prune(SQLiteDatabase db) {
+        return db.delete(TodayEntry.TABLE_NAME, "NOT EXISTS (SELECT 1 FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                TodayEntry.TABLE_NAME + "." + TodayEntry.COLUMN_LOC_KEY + " AND " +
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " = " +
+                TodayEntry.TABLE_NAME + "." + TodayEntry.COLUMN_DATE + ")", null);
+    }
+
+    private static String currentUnits(Context context) {
+        return context.getString(Utils.isMetric(context)
+                ? R.string.pref_units_metric : R.string.pref_units_imperial);
+    }
+
+    private static ContentValues fromWeather(Context context, long locationId, String units, Cursor day) {
+        String shortDesc = day.getString(2);
+        double min = day.getDouble(3);
+        double max = day.getDouble(4);
+        String highText = Utils.formatTemperature(context, max);
+        String lowText = Utils.formatTemperature(context, min);
+
+        ContentValues values = new ContentValues();
+        values.put(TodayEntry.COLUMN_LOC_KEY, locationId);
+        values.put(TodayEntry.COLUMN_DATE, day.getLong(0));
+        values.put(TodayEntry.COLUMN_WEATHER_ID, day.getInt(1));
+        values.put(TodayEntry.COLUMN_SHORT_DESC, shortDesc);
+        values.put(TodayEntry.COLUMN_MIN_TEMP, min);
+        values.put(TodayEntry.COLUMN_MAX_TEMP, max);
+        values.put(TodayEntry.COLUMN_HUMIDITY, day.getDouble(5));
+        values.put(TodayEntry.COLUMN_PRESSURE, day.getDouble(6));
+        values.put(TodayEntry.COLUMN_WIND_SPEED, day.getDouble(7));
+        values.put(TodayEntry.COLUMN_DEGREES, day.getDouble(8));
+        values.put(TodayEntry.COLUMN_UNITS, units);
+        values.put(TodayEntry.COLUMN_HIGH_TEXT, highText);
+        values.put(TodayEntry.COLUMN_LOW_TEXT, lowText);
+        values.put(TodayEntry.COLUMN_SUMMARY_TEXT, String.format(
+                context.getString(R.string.format_notification), shortDesc, highText, lowText));
+        return values;
+    }
+
+    // Compares by type, a REAL read back as a string doesn't always print like the double.
+    private static boolean sameValues(Cursor current, ContentValues values) {
+        for (String column : values.keySet()) {
+            int index = current.getColumnIndex(column);
+            Object value = values.get(column);
+            if (value instanceof Double) {
+                if (current.getDouble(index) != (Double) value) return false;
+            } else if (value instanceof Long || value instanceof Integer) {
+                if (current.getLong(index) != ((Number) value).longValue()) return false;
+            } else if (!value.equals(current.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+package com.mhv.meteoapp.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Runs the deferred refresh of the background locations once the device is on an unmetered
+ * network or charging, whichever comes first, or at the latest when the deadline is reached.
+ *
+ * JobInfo can't express "unmetered or charging", so there is one job for each and the first
+ * to start cancels the other. Either way it is a single background-only sync for all of the
+ * locations that are due, one radio wake-up for the whole batch.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class BackgroundSyncJobService extends JobService {
+
+    private static final String LOG_TAG = BackgroundSyncJobService.class.getSimpleName();
+
+    private static final int JOB_UNMETERED = 1;
+    private static final int JOB_CHARGING = 2;
+
+    /**
+     * Schedules the deferred pass, replacing the one a previous sync scheduled.
+     *
+     * @param deadlineMillis how long from now it may wait for an unmetered network
+     */
+    static void schedule(Context context, long deadlineMillis) {
+        JobScheduler scheduler = getScheduler(context);
+        ComponentName service = new ComponentName(context, BackgroundSyncJobService.class);
+        scheduler.schedule(new JobInfo.Builder(JOB_UNMETERED, service)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setOverrideDeadline(deadlineMillis)
+                .build());
+        scheduler.schedule(new JobInfo.Builder(JOB_CHARGING, service)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(true)
+                .build());
+    }
+
+    /**
+     * Cancels the deferred pass, once a sync has refreshed the background locations itself.
+     */
+    static void cancel(Context context) {
+        JobScheduler scheduler = getScheduler(context);
+        scheduler.cancel(JOB_UNMETERED);
+        scheduler.cancel(JOB_CHARGING);
+    }
+
+    private static JobScheduler getScheduler(Context context) {
+        return (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Log.d(LOG_TAG, "Starting deferred background sync, job " + params.getJobId());
+        getScheduler(this).cancel(params.getJobId() == JOB_UNMETERED ? JOB_CHARGING : JOB_UNMETERED);
+        // The SyncManager runs it right away and holds its own wake lock, nothing is left for us.
+        SyncAdapter.requestBackgroundSync(this);
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The sync was handed over in onStartJob already.
+        return false;
+    }
+}
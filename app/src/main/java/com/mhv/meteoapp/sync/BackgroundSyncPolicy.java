@@ -0,0 +1,71 @@
+package com.mhv.meteoapp.sync;
+
+/**
+ * Decides whether a periodic sync refreshes the background locations right away, or leaves
+ * them to a deferred job that waits for an unmetered network or a charger.
+ *
+ * The preferred location is not its concern, it is synced on time whatever the conditions.
+ * The background locations are only worth waking the radio on mobile data for once they
+ * have waited the max deferral, counted from the last pass in a {@link QuotaManager.Store}.
+ */
+public class BackgroundSyncPolicy {
+
+    private static final String LAST_RUN = "last_background_run";
+
+    /**
+     * The state of the device a sync runs in.
+     */
+    public static class Conditions {
+        public final boolean unmetered;
+        public final boolean charging;
+
+        public Conditions(boolean unmetered, boolean charging) {
+            this.unmetered = unmetered;
+            this.charging = charging;
+        }
+
+        // Whether a pass now costs neither mobile data nor battery.
+        public boolean isCheap() {
+            return unmetered || charging;
+        }
+    }
+
+    private final long mMaxDeferralMillis;
+    private final QuotaManager.Store mStore;
+
+    /**
+     * @param maxDeferralMillis how long background locations wait at most for cheap conditions
+     */
+    public BackgroundSyncPolicy(long maxDeferralMillis, QuotaManager.Store store) {
+        mMaxDeferralMillis = maxDeferralMillis;
+        mStore = store;
+    }
+
+    /**
+     * @return true if the background pass should run along with the sync at now, false if it
+     * is to be deferred until {@link #getDeadline(long)}
+     */
+    public synchronized boolean shouldRunNow(Conditions conditions, long now) {
+        return conditions.isCheap() || getDeadline(now) == 0;
+    }
+
+    /**
+     * @return the time from now a deferred pass may still wait, 0 if it is overdue
+     */
+    public synchronized long getDeadline(long now) {
+        long lastRun = getLastRun();
+        if (lastRun == 0 || lastRun > now) {
+            // Never ran, or the clock went back: don't wait on a time we can't trust.
+            return 0;
+        }
+        return Math.max(0, lastRun + mMaxDeferralMillis - now);
+    }
+
+    public synchronized void recordRun(long now) {
+        mStore.put(LAST_RUN, now);
+    }
+
+    public synchronized long getLastRun() {
+        return mStore.get(LAST_RUN, 0);
+    }
+}
@@ -0,0 +1,103 @@
+package com.mhv.meteoapp.sync;
+
+/**
+ * Stops the sync from calling an endpoint that keeps failing.
+ *
+ * After a number of failed attempts in a row the breaker opens and refuses every request for a
+ * while. Once that time is up it lets a single trial request through: if it succeeds the breaker
+ * closes, if it fails the breaker opens again for twice as long, up to a maximum. The caller
+ * passes the time in, so the breaker keeps no clock of its own.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final long mMaxOpenMillis;
+
+    private State mState = State.CLOSED;
+    private int mFailures;
+    private long mOpenUntil;
+    private long mNextOpenMillis;
+
+    /**
+     * @param failureThreshold failed attempts in a row that open the breaker
+     * @param openMillis how long it first stays open
+     * @param maxOpenMillis the longest it stays open after failed trials
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+        mMaxOpenMillis = maxOpenMillis;
+        mNextOpenMillis = openMillis;
+    }
+
+    /**
+     * @return whether a request may be made now, false while the breaker is open or its trial
+     * request is still out
+     */
+    public synchronized boolean allowRequest(long now) {
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now < mOpenUntil) {
+                    return false;
+                }
+                mState = State.HALF_OPEN;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Like {@link #allowRequest} without letting the trial request through, for callers that
+     * have more to check before making the request.
+     */
+    public synchronized boolean isRefusing(long now) {
+        return mState == State.HALF_OPEN || (mState == State.OPEN && now < mOpenUntil);
+    }
+
+    public synchronized void onSuccess() {
+        mState = State.CLOSED;
+        mFailures = 0;
+        mNextOpenMillis = mOpenMillis;
+    }
+
+    public synchronized void onFailure(long now) {
+        mFailures++;
+        if (mState == State.HALF_OPEN || mFailures >= mFailureThreshold) {
+            open(now + mNextOpenMillis);
+            mNextOpenMillis = Math.min(mNextOpenMillis * 2, mMaxOpenMillis);
+        }
+    }
+
+    /**
+     * Opens the breaker until the given time at least, as a server asking to be left alone for
+     * longer than the caller is willing to wait does.
+     */
+    public synchronized void openUntil(long until) {
+        open(Math.max(until, mState == State.OPEN ? mOpenUntil : 0));
+    }
+
+    private void open(long until) {
+        mState = State.OPEN;
+        mOpenUntil = until;
+        mFailures = 0;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    // When an open breaker lets the next request through.
+    public synchronized long getOpenUntil() {
+        return mOpenUntil;
+    }
+}
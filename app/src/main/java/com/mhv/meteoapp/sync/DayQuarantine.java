@@ -0,0 +1,64 @@
+package com.mhv.meteoapp.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The days of each location's forecast that came in incomplete, so they are fetched again.
+ *
+ * The parser leaves such days out and the sync stores the others, which keeps whatever was
+ * stored for the quarantined dates before. A location with quarantined days is not counted
+ * as synced, so the next sync or prefetch fetches it again rather than waiting its turn, and
+ * the days are counted as recovered once a forecast brings them back whole.
+ *
+ * The dates are kept in a {@link QuotaManager.Store}, with a count per location.
+ */
+public class DayQuarantine {
+
+    private static final String COUNT_PREFIX = "quarantine_count_";
+    private static final String DAY_PREFIX = "quarantine_day_";
+
+    private final QuotaManager.Store mStore;
+
+    public DayQuarantine(QuotaManager.Store store) {
+        mStore = store;
+    }
+
+    /**
+     * Replaces the quarantined days of a location with those of the forecast just stored.
+     *
+     * @param quarantined the dates the forecast had to leave out
+     * @param stored the dates it stored
+     * @return the number of days quarantined before that the forecast stored
+     */
+    public synchronized int update(String locationSetting, List<Long> quarantined, List<Long> stored) {
+        int recovered = 0;
+        for (long date : get(locationSetting)) {
+            if (stored.contains(date)) {
+                recovered++;
+            }
+        }
+        for (int i = 0; i < quarantined.size(); i++) {
+            mStore.put(DAY_PREFIX + locationSetting + "_" + i, quarantined.get(i));
+        }
+        // Keys past the count are stale and read again only once overwritten.
+        mStore.put(COUNT_PREFIX + locationSetting, quarantined.size());
+        return recovered;
+    }
+
+    /**
+     * @return the dates of the location's days to fetch again, in the order they came in
+     */
+    public synchronized List<Long> get(String locationSetting) {
+        int count = (int) mStore.get(COUNT_PREFIX + locationSetting, 0);
+        List<Long> days = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            days.add(mStore.get(DAY_PREFIX + locationSetting + "_" + i, 0));
+        }
+        return days;
+    }
+
+    public synchronized boolean isQuarantined(String locationSetting) {
+        return mStore.get(COUNT_PREFIX + locationSetting, 0) > 0;
+    }
+}
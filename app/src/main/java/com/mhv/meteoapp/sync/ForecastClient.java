@@ -0,0 +1,329 @@
+package com.mhv.meteoapp.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads forecast documents for the sync, retrying what is worth retrying.
+ *
+ * Connections are left to the HttpURLConnection keep-alive pool: every response, errors included,
+ * is read to its end and closed rather than disconnected, so the next request to the same host
+ * reuses the socket. Timeouts, 429 and 5xx responses and broken or short bodies are retried with
+ * full-jitter exponential backoff, or after the Retry-After the server sent when that is sooner
+ * than the longest wait the client accepts. Every failed attempt counts against the
+ * {@link CircuitBreaker}, which fails requests fast while it is open. Other 4xx responses are the
+ * request's fault and are not retried. With a {@link QuotaManager} set, every attempt takes a call
+ * from the API quota first.
+ */
+public class ForecastClient {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 1000;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30000;
+    public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = 60000;
+
+    // Waits between attempts, replaced in tests to record the waits instead.
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    /**
+     * A response the client gave up on, with its status code.
+     */
+    public static class HttpException extends IOException {
+        private final int mStatus;
+        private final long mRetryAfterMillis;
+
+        HttpException(int status, long retryAfterMillis) {
+            super("HTTP " + status);
+            mStatus = status;
+            mRetryAfterMillis = retryAfterMillis;
+        }
+
+        public int getStatus() {
+            return mStatus;
+        }
+
+        // How long the server asked to be left alone for, or -1 if it didn't.
+        public long getRetryAfterMillis() {
+            return mRetryAfterMillis;
+        }
+
+        // Whether trying again later may succeed, as opposed to a request that is wrong.
+        public boolean isTransient() {
+            return isRetryable(mStatus);
+        }
+    }
+
+    /**
+     * Thrown without a request being made while the circuit breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        private final long mOpenUntil;
+
+        CircuitOpenException(long openUntil) {
+            super("Circuit open until " + openUntil);
+            mOpenUntil = openUntil;
+        }
+
+        public long getOpenUntil() {
+            return mOpenUntil;
+        }
+    }
+
+    private final CircuitBreaker mBreaker;
+    private volatile QuotaManager mQuota;
+    private final Random mRandom;
+    private Sleeper mSleeper = new Sleeper() {
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+    private volatile int mConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private volatile int mReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private volatile int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long mBaseBackoffMillis = DEFAULT_BASE_BACKOFF_MILLIS;
+    private volatile long mMaxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private volatile long mMaxRetryAfterMillis = DEFAULT_MAX_RETRY_AFTER_MILLIS;
+
+    private final AtomicLong mAttempts = new AtomicLong();
+    private final AtomicLong mRetries = new AtomicLong();
+    private final AtomicLong mBytesRead = new AtomicLong();
+
+    public ForecastClient(CircuitBreaker breaker) {
+        this(breaker, new Random());
+    }
+
+    ForecastClient(CircuitBreaker breaker, Random random) {
+        mBreaker = breaker;
+        mRandom = random;
+    }
+
+    void setSleeper(Sleeper sleeper) {
+        mSleeper = sleeper;
+    }
+
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @param maxAttempts attempts per fetch, the first one included
+     * @param baseBackoffMillis the cap of the first wait, doubled for every retry
+     * @param maxBackoffMillis the largest cap of a wait
+     */
+    public void setRetries(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mBaseBackoffMillis = baseBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * @param millis the longest Retry-After the client waits for, longer ones open the breaker
+     */
+    public void setMaxRetryAfterMillis(long millis) {
+        mMaxRetryAfterMillis = millis;
+    }
+
+    public void setQuota(QuotaManager quota) {
+        mQuota = quota;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mBreaker;
+    }
+
+    public long getAttempts() {
+        return mAttempts.get();
+    }
+
+    public long getRetries() {
+        return mRetries.get();
+    }
+
+    public long getBytesRead() {
+        return mBytesRead.get();
+    }
+
+    public String fetch(String url) throws IOException {
+        return fetch(url, QuotaManager.Priority.PREFERRED);
+    }
+
+    /**
+     * @param priority the priority the attempts take their calls from the quota at
+     * @return the body of the first successful response
+     * @throws HttpException if the server answered with an error, after retrying the ones worth it
+     * @throws CircuitOpenException if the breaker is open, before or between attempts
+     * @throws QuotaManager.QuotaExceededException if the quota has no call left for an attempt
+     * @throws IOException if the last attempt failed to connect or to read the body
+     */
+    public String fetch(String url, QuotaManager.Priority priority) throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt < mMaxAttempts; attempt++) {
+            long now = System.currentTimeMillis();
+            // Checked before the quota so an open breaker doesn't use it up, and let through
+            // only after so its trial request isn't lost to an empty quota.
+            if (mBreaker.isRefusing(now)) {
+                throw new CircuitOpenException(mBreaker.getOpenUntil());
+            }
+            QuotaManager quota = mQuota;
+            if (quota != null) {
+                quota.acquire(priority, now);
+            }
+            if (!mBreaker.allowRequest(now)) {
+                throw new CircuitOpenException(mBreaker.getOpenUntil());
+            }
+            if (attempt > 0) {
+                mRetries.incrementAndGet();
+            }
+            mAttempts.incrementAndGet();
+
+            long retryAfter = -1;
+            try {
+                String body = request(url);
+                mBreaker.onSuccess();
+                return body;
+            } catch (HttpException e) {
+                if (!e.isTransient()) {
+                    // The server is up, it just won't take this request.
+                    mBreaker.onSuccess();
+                    throw e;
+                }
+                failure = e;
+                retryAfter = e.getRetryAfterMillis();
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            long failedAt = System.currentTimeMillis();
+            mBreaker.onFailure(failedAt);
+            if (retryAfter > mMaxRetryAfterMillis) {
+                mBreaker.openUntil(failedAt + retryAfter);
+                break;
+            }
+            if (attempt + 1 < mMaxAttempts) {
+                try {
+                    mSleeper.sleep(Math.max(retryAfter, backoff(attempt)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        throw failure;
+    }
+
+    // A random wait up to the attempt's cap, so clients that failed together retry apart.
+    long backoff(int attempt) {
+        long cap = mBaseBackoffMillis << Math.min(attempt, 30);
+        if (cap <= 0 || cap > mMaxBackoffMillis) {
+            cap = mMaxBackoffMillis;
+        }
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * cap);
+        }
+    }
+
+    static boolean isRetryable(int status) {
+        return status == HTTP_TOO_MANY_REQUESTS || status >= 500;
+    }
+
+    private String request(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        connection.setRequestMethod("GET");
+
+        int status;
+        try {
+            status = connection.getResponseCode();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+
+        if (status != HttpURLConnection.HTTP_OK) {
+            long retryAfter = parseRetryAfter(connection.getHeaderField("Retry-After"),
+                    System.currentTimeMillis());
+            // Draining the error body hands the socket back to the pool.
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                try {
+                    readBody(error, connection.getContentLength());
+                } catch (IOException e) {
+                    connection.disconnect();
+                }
+            }
+            throw new HttpException(status, retryAfter);
+        }
+
+        try {
+            byte[] body = readBody(connection.getInputStream(), connection.getContentLength());
+            mBytesRead.addAndGet(body.length);
+            return new String(body, UTF_8);
+        } catch (IOException e) {
+            // A broken socket must not go back to the pool.
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    // Reads and closes the stream, failing if it ends before the announced length.
+    private static byte[] readBody(InputStream in, int contentLength) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(contentLength > 0 ? contentLength : 8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            if (contentLength >= 0 && out.size() != contentLength) {
+                throw new IOException("Short response, " + out.size() + " of " + contentLength + " bytes");
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param value the header, in seconds or as an HTTP date
+     * @return the wait it asks for in milliseconds, or -1 without a header that makes sense
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // Not seconds, try a date.
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - now);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
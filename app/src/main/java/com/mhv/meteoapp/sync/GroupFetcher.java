@@ -0,0 +1,183 @@
+package com.mhv.meteoapp.sync;
+
+import com.mhv.meteoapp.core.Forecast;
+import com.mhv.meteoapp.core.ForecastParser;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches the daily forecasts of many locations in as few requests as the source allows.
+ *
+ * Locations whose city id is known go in group requests of up to MAX_GROUP_SIZE ids. The others
+ * are fetched by their location setting one at a time, which also tells the caller their city
+ * id for the next sync. So are the members of a group the response left out, their id may have
+ * changed. A source that answers the group endpoint with 404 doesn't have one: the fetcher falls
+ * back to single requests and doesn't ask again.
+ */
+public class GroupFetcher {
+
+    public static final int MAX_GROUP_SIZE = 20;
+
+    private static final String DAILY_PATH = "forecast/daily";
+    private static final String DAILY_GROUP_PATH = "forecast/daily/group";
+
+    /**
+     * A location to fetch, with the city id it resolved to, or 0 if it hasn't yet.
+     */
+    public static class Location {
+        public final String setting;
+        public final long cityId;
+
+        public Location(String setting, long cityId) {
+            this.setting = setting;
+            this.cityId = cityId;
+        }
+    }
+
+    /**
+     * Told about every location fetched, on the calling thread, as the responses come in.
+     */
+    public interface Listener {
+        void onForecast(String locationSetting, Forecast forecast);
+
+        void onError(String locationSetting, IOException e);
+    }
+
+    private final ForecastClient mClient;
+    private final String mAppId;
+    private volatile boolean mGroupSupported;
+
+    private final AtomicLong mGroupRequests = new AtomicLong();
+    private final AtomicLong mSingleRequests = new AtomicLong();
+
+    /**
+     * @param appId the API key sent with every request
+     * @param groupSupported whether to try the group endpoint at all
+     */
+    public GroupFetcher(ForecastClient client, String appId, boolean groupSupported) {
+        mClient = client;
+        mAppId = appId;
+        mGroupSupported = groupSupported;
+    }
+
+    public boolean isGroupSupported() {
+        return mGroupSupported;
+    }
+
+    public long getGroupRequests() {
+        return mGroupRequests.get();
+    }
+
+    public long getSingleRequests() {
+        return mSingleRequests.get();
+    }
+
+    /**
+     * Fetches the locations, groups first, until they are all done or maxRequests were made.
+     * The ones left over are neither reported nor fetched.
+     *
+     * @param baseUrl the API root, ending in a slash
+     * @return the number of requests made
+     * @throws QuotaManager.QuotaExceededException once the quota has no call left
+     * @throws ForecastClient.CircuitOpenException once the circuit breaker opens
+     */
+    public int fetch(String baseUrl, List<Location> locations, int days, QuotaManager.Priority priority,
+                     ForecastParser parser, int maxRequests, Listener listener) throws IOException {
+        List<Location> known = new ArrayList<>();
+        List<Location> singles = new ArrayList<>();
+        for (Location location : locations) {
+            (mGroupSupported && location.cityId > 0 ? known : singles).add(location);
+        }
+
+        int requests = 0;
+        for (int start = 0; start < known.size() && requests < maxRequests; start += MAX_GROUP_SIZE) {
+            List<Location> group = known.subList(start, Math.min(start + MAX_GROUP_SIZE, known.size()));
+            requests++;
+            mGroupRequests.incrementAndGet();
+            List<Forecast> forecasts;
+            try {
+                forecasts = parser.parseGroup(mClient.fetch(groupUrl(baseUrl, group, days), priority));
+            } catch (ForecastClient.HttpException e) {
+                if (e.getStatus() == 404) {
+                    mGroupSupported = false;
+                    singles.addAll(0, known.subList(start, known.size()));
+                    break;
+                }
+                reportAll(group, e, listener);
+                continue;
+            } catch (QuotaManager.QuotaExceededException | ForecastClient.CircuitOpenException e) {
+                throw e;
+            } catch (IOException e) {
+                reportAll(group, e, listener);
+                continue;
+            }
+
+            Map<Long, Forecast> byId = new HashMap<>();
+            for (Forecast forecast : forecasts) {
+                byId.put(forecast.cityId, forecast);
+            }
+            for (Location location : group) {
+                Forecast forecast = byId.get(location.cityId);
+                if (forecast != null) {
+                    listener.onForecast(location.setting, forecast);
+                } else {
+                    singles.add(location);
+                }
+            }
+        }
+
+        for (int i = 0; i < singles.size() && requests < maxRequests; i++) {
+            Location location = singles.get(i);
+            requests++;
+            mSingleRequests.incrementAndGet();
+            Forecast forecast;
+            try {
+                forecast = parser.parse(mClient.fetch(singleUrl(baseUrl, location.setting, days), priority));
+            } catch (QuotaManager.QuotaExceededException | ForecastClient.CircuitOpenException e) {
+                throw e;
+            } catch (IOException e) {
+                listener.onError(location.setting, e);
+                continue;
+            }
+            listener.onForecast(location.setting, forecast);
+        }
+        return requests;
+    }
+
+    private static void reportAll(List<Location> group, IOException e, Listener listener) {
+        for (Location location : group) {
+            listener.onError(location.setting, e);
+        }
+    }
+
+    private String groupUrl(String baseUrl, List<Location> group, int days) {
+        StringBuilder ids = new StringBuilder(group.size() * 8);
+        for (Location location : group) {
+            ids.append(ids.length() == 0 ? "" : ",").append(location.cityId);
+        }
+        return baseUrl + DAILY_GROUP_PATH + "?id=" + ids + commonParams(days);
+    }
+
+    private String singleUrl(String baseUrl, String locationSetting, int days) {
+        return baseUrl + DAILY_PATH + "?q=" + encode(locationSetting) + commonParams(days);
+    }
+
+    private String commonParams(int days) {
+        return "&mode=json&units=metric&cnt=" + days + "&APPID=" + encode(mAppId);
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.mhv.meteoapp.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Shares the OWM API key's per-minute and per-day call limits between every sync, whatever
+ * started it: the periodic sync, syncImmediately or a prefetch.
+ *
+ * Each limit is a {@link TokenBucket} and every request, retries included, takes a token from
+ * both. The preferred location may use all of them. Background locations leave a reserve in each
+ * bucket, so the location the user looks at can still be refreshed when the others have used up
+ * the rest. Background locations are synced least recently synced first, which under pressure
+ * gives each of them its turn.
+ *
+ * The state lives in a {@link Store}, persisted by the app so a restart doesn't hand out a fresh
+ * quota. Times are passed in, the manager keeps no clock of its own.
+ */
+public class QuotaManager {
+
+    public enum Priority {
+        PREFERRED,
+        BACKGROUND
+    }
+
+    /**
+     * Where the buckets and the last sync of each location are kept.
+     */
+    public interface Store {
+        long get(String key, long defaultValue);
+
+        void put(String key, long value);
+    }
+
+    /**
+     * Thrown instead of making a request the quota has no room for.
+     */
+    public static class QuotaExceededException extends IOException {
+        private final long mRetryAt;
+
+        QuotaExceededException(long retryAt) {
+            super("API quota used up until " + retryAt);
+            mRetryAt = retryAt;
+        }
+
+        public long getRetryAt() {
+            return mRetryAt;
+        }
+    }
+
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * MINUTE_IN_MILLIS;
+    private static final String LAST_SYNC_PREFIX = "last_sync_";
+
+    // Calls background locations leave in the minute bucket: one full sync of the preferred one.
+    static final int MINUTE_RESERVE = 2;
+    // And the share of the day bucket they leave.
+    static final int DAY_RESERVE_PERCENT = 10;
+
+    private final TokenBucket mMinute;
+    private final TokenBucket mDay;
+    private final Store mStore;
+
+    public QuotaManager(int callsPerMinute, int callsPerDay, Store store) {
+        mMinute = new TokenBucket("minute", callsPerMinute, MINUTE_IN_MILLIS, store);
+        mDay = new TokenBucket("day", callsPerDay, DAY_IN_MILLIS, store);
+        mStore = store;
+    }
+
+    private int minuteReserve(Priority priority) {
+        return priority == Priority.PREFERRED ? 0 : Math.min(MINUTE_RESERVE, mMinute.getCapacity() - 1);
+    }
+
+    private int dayReserve(Priority priority) {
+        return priority == Priority.PREFERRED ? 0 : mDay.getCapacity() * DAY_RESERVE_PERCENT / 100;
+    }
+
+    /**
+     * Takes one call from both limits.
+     *
+     * @return whether the call may be made now
+     */
+    public synchronized boolean tryAcquire(Priority priority, long now) {
+        if (!mMinute.tryTake(now, minuteReserve(priority))) {
+            return false;
+        }
+        if (!mDay.tryTake(now, dayReserve(priority))) {
+            mMinute.giveBack(now);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @throws QuotaExceededException if the call may not be made now
+     */
+    public void acquire(Priority priority, long now) throws QuotaExceededException {
+        if (!tryAcquire(priority, now)) {
+            throw new QuotaExceededException(nextAvailable(priority, now));
+        }
+    }
+
+    // When a call at this priority could next be made.
+    public synchronized long nextAvailable(Priority priority, long now) {
+        return Math.max(mMinute.nextTokenAt(now, minuteReserve(priority)),
+                mDay.nextTokenAt(now, dayReserve(priority)));
+    }
+
+    public synchronized int getRemainingPerMinute(long now) {
+        return (int) mMinute.available(now);
+    }
+
+    public synchronized int getRemainingPerDay(long now) {
+        return (int) mDay.available(now);
+    }
+
+    public synchronized void recordSync(String locationSetting, long now) {
+        mStore.put(LAST_SYNC_PREFIX + locationSetting, now);
+    }
+
+    public synchronized long getLastSync(String locationSetting) {
+        return mStore.get(LAST_SYNC_PREFIX + locationSetting, 0);
+    }
+
+    /**
+     * The background locations due for a sync, in the order to sync them: those not synced for
+     * staleAfterMillis, least recently synced first. The preferred location is left out, it is
+     * synced first and at its own priority.
+     */
+    public synchronized List<String> scheduleBackground(String preferred, Collection<String> locations,
+                                                        long staleAfterMillis, long now) {
+        final List<String> due = new ArrayList<>(locations.size());
+        final List<Long> lastSyncs = new ArrayList<>(locations.size());
+        for (String location : locations) {
+            if (location.equals(preferred) || due.contains(location)) {
+                continue;
+            }
+            long lastSync = getLastSync(location);
+            if (now - lastSync >= staleAfterMillis) {
+                due.add(location);
+                lastSyncs.add(lastSync);
+            }
+        }
+        List<Integer> order = new ArrayList<>(due.size());
+        for (int i = 0; i < due.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long lastA = lastSyncs.get(a);
+                long lastB = lastSyncs.get(b);
+                if (lastA != lastB) {
+                    return lastA < lastB ? -1 : 1;
+                }
+                return due.get(a).compareTo(due.get(b));
+            }
+        });
+        List<String> scheduled = new ArrayList<>(due.size());
+        for (int i : order) {
+            scheduled.add(due.get(i));
+        }
+        return scheduled;
+    }
+}
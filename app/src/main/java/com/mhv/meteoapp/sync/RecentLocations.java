@@ -0,0 +1,83 @@
+package com.mhv.meteoapp.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The locations the user picked last, so switching back to one of them finds its forecast
+ * stored and fresh.
+ *
+ * Each location keeps the time it was last made the preferred one in a {@link QuotaManager.Store}.
+ * The capacity most recently used of the stored locations are warm: background syncs refresh them
+ * ahead of the others.
+ */
+public class RecentLocations {
+
+    private static final String LAST_USED_PREFIX = "last_used_";
+
+    private final int mCapacity;
+    private final QuotaManager.Store mStore;
+
+    /**
+     * @param capacity how many of the most recently used locations are kept warm
+     */
+    public RecentLocations(int capacity, QuotaManager.Store store) {
+        mCapacity = capacity;
+        mStore = store;
+    }
+
+    public synchronized void touch(String locationSetting, long now) {
+        mStore.put(LAST_USED_PREFIX + locationSetting, now);
+    }
+
+    public synchronized long getLastUsed(String locationSetting) {
+        return mStore.get(LAST_USED_PREFIX + locationSetting, 0);
+    }
+
+    /**
+     * @return the locations with the warm ones first, most recently used first, and the others
+     * after them in the order they came in
+     */
+    public synchronized List<String> warmFirst(List<String> locations) {
+        final List<String> used = new ArrayList<>();
+        final List<Long> lastUsed = new ArrayList<>();
+        for (String location : locations) {
+            long time = getLastUsed(location);
+            if (time > 0) {
+                used.add(location);
+                lastUsed.add(time);
+            }
+        }
+        List<Integer> order = new ArrayList<>(used.size());
+        for (int i = 0; i < used.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long lastA = lastUsed.get(a);
+                long lastB = lastUsed.get(b);
+                if (lastA != lastB) {
+                    return lastA > lastB ? -1 : 1;
+                }
+                return a - b;
+            }
+        });
+
+        List<String> ordered = new ArrayList<>(locations.size());
+        for (int i = 0; i < order.size() && i < mCapacity; i++) {
+            ordered.add(used.get(order.get(i)));
+        }
+        Set<String> warm = new HashSet<>(ordered);
+        for (String location : locations) {
+            if (!warm.contains(location)) {
+                ordered.add(location);
+            }
+        }
+        return ordered;
+    }
+}
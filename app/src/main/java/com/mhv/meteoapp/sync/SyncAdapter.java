@@ -2,6 +2,7 @@ package com.mhv.meteoapp.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -11,6 +12,7 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -18,32 +20,46 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.ConnectivityManager;
 import android.net.Uri;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.mhv.meteoapp.Utils;
+import com.mhv.meteoapp.concurrent.AppExecutors;
+import com.mhv.meteoapp.concurrent.Lane;
+import com.mhv.meteoapp.core.DayForecast;
+import com.mhv.meteoapp.core.Forecast;
+import com.mhv.meteoapp.core.ForecastParser;
 import com.mhv.meteoapp.data.DatabaseContract;
+import com.mhv.meteoapp.data.ForecastFile;
+import com.mhv.meteoapp.data.HourlyPacker;
 import com.mhv.meteoapp.BuildConfig;
 import com.mhv.meteoapp.MainActivity;
 import com.mhv.meteoapp.R;
+import com.mhv.meteoapp.widget.WidgetUpdater;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 public class SyncAdapter extends AbstractThreadedSyncAdapter {
 
@@ -54,20 +70,57 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int NUM_DAYS = 14;
+
+    private static final String DAILY_FORECAST_PATH = "forecast/daily?";
+    // The 5 day forecast with a point every 3 hours.
+    private static final String HOURLY_FORECAST_PATH = "forecast?";
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            DatabaseContract.WeatherEntry.COLUMN_WEATHER_ID,
-            DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP,
-            DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP,
-            DatabaseContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
+    // The OWM API root, BuildConfig.OWM_BASE_URL unless a test points it elsewhere.
+    private static volatile String sBaseUrl = BuildConfig.OWM_BASE_URL;
+
+    private static final SyncMetrics sMetrics = new SyncMetrics();
+
+    // One client for the process, so its connections and its circuit breaker outlive a sync.
+    // Five failed attempts in a row stop requests for a minute, doubling up to an hour.
+    private static final ForecastClient sClient = new ForecastClient(
+            new CircuitBreaker(5, 60 * 1000, 60 * 60 * 1000));
+
+    // Shared by every sync of the process and kept in QUOTA_PREFS across processes.
+    private static QuotaManager sQuota;
+    private static final String QUOTA_PREFS = "sync_quota";
+    // Locations the user picked last, refreshed by background syncs ahead of the others.
+    private static RecentLocations sRecentLocations;
+    private static final String RECENT_PREFS = "sync_recent";
+    private static final int WARM_LOCATIONS = 5;
+
+    // Days that came in incomplete, per location, kept in QUARANTINE_PREFS until fetched whole.
+    private static DayQuarantine sDayQuarantine;
+    private static final String QUARANTINE_PREFS = "sync_quarantine";
+
+    // Extra of a sync that only fetches the location given, see prefetchLocation().
+    static final String EXTRA_PREFETCH_LOCATION = "prefetch_location";
+    // A prefetch leaves alone a location synced this recently.
+    private static final long PREFETCH_FRESH_MILLIS = 10 * 60 * 1000;
+
+    // Extra of a sync that only refreshes the background locations, see requestBackgroundSync().
+    static final String EXTRA_BACKGROUND_ONLY = "background_only";
+    // On metered data and battery, background locations wait up to this long for a better time.
+    private static final long MAX_BACKGROUND_DEFERRAL = SYNC_INTERVAL * 4 * 1000L;
+    private static BackgroundSyncPolicy sBackgroundPolicy;
+    private static final String BACKGROUND_PREFS = "sync_background";
 
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // When the last daily notification was shown. Kept apart from the settings, which the UI
+    // process writes whole and would overwrite it with what it read before.
+    private static final String NOTIFICATION_PREFS = "sync_notification";
+
+    // Requests made at most for background locations per sync, the rest wait for the next one.
+    private static final int MAX_BACKGROUND_REQUESTS = 10;
+
+    // Fetches the background locations by city id, in groups where the server has them.
+    private static final GroupFetcher sGroupFetcher = new GroupFetcher(sClient,
+            BuildConfig.OPEN_WEATHER_MAP_API_KEY, BuildConfig.OWM_GROUP_FETCH);
 
     public SyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
@@ -76,234 +129,649 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        sMetrics.syncs.incrementAndGet();
+        long commitsBefore = getIngestCommits();
+        performSync(extras, syncResult);
+        if (syncResult.stats.numInserts > 0) {
+            // Once per sync rather than once per location stored.
+            archiveHistory();
+        }
+        sMetrics.commits.addAndGet(getIngestCommits() - commitsBefore);
+        Log.d(LOG_TAG, "Sync done, " + sMetrics);
+    }
+
+    private void performSync(Bundle extras, SyncResult syncResult) {
+        reloadSettings(getContext());
         String locationQuery = Utils.getPreferredLocation(getContext());
+        QuotaManager quota = getQuota(getContext());
+
+        String prefetch = extras.getString(EXTRA_PREFETCH_LOCATION);
+        if (prefetch != null) {
+            // Just the location the user picked, the others wait for the next periodic sync.
+            getRecentLocations(getContext()).touch(prefetch, System.currentTimeMillis());
+            if (isFresh(quota, prefetch)) {
+                sMetrics.prefetchesSkipped.incrementAndGet();
+            } else {
+                sMetrics.prefetches.incrementAndGet();
+                syncLocation(prefetch, prefetch.equals(locationQuery), quota, syncResult);
+            }
+            Log.d(LOG_TAG, "Prefetch of " + prefetch + " done");
+            return;
+        }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        boolean backgroundOnly = extras.getBoolean(EXTRA_BACKGROUND_ONLY);
+        if (backgroundOnly) {
+            // The deferred job found a good time, the preferred location had its sync already.
+            sMetrics.backgroundJobs.incrementAndGet();
+        } else {
+            getRecentLocations(getContext()).touch(locationQuery, System.currentTimeMillis());
+            if (!syncLocation(locationQuery, true, quota, syncResult)) {
+                return;
+            }
+        }
+        if (backgroundOnly || shouldSyncBackgroundNow()) {
+            syncBackgroundLocations(locationQuery, quota, syncResult);
+            getBackgroundPolicy(getContext()).recordRun(System.currentTimeMillis());
+        }
+        long now = System.currentTimeMillis();
+        sMetrics.quotaPerMinute.set(quota.getRemainingPerMinute(now));
+        sMetrics.quotaPerDay.set(quota.getRemainingPerDay(now));
+    }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr;
+    // Moves past days into the history archive, which keeps itself bounded.
+    private void archiveHistory() {
+        long writeStart = System.nanoTime();
+        getContext().getContentResolver().call(DatabaseContract.BASE_CONTENT_URI,
+                DatabaseContract.METHOD_ARCHIVE_HISTORY, null, null);
+        sMetrics.writeNanos.addAndGet(System.nanoTime() - writeStart);
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    // The transactions the provider has committed, to count those of a sync.
+    private long getIngestCommits() {
+        Bundle stats = getContext().getContentResolver().call(DatabaseContract.BASE_CONTENT_URI,
+                DatabaseContract.METHOD_INGEST_STATS, null, null);
+        return stats != null ? stats.getLong(DatabaseContract.EXTRA_COMMITS) : 0;
+    }
 
+    /**
+     * Fetches and stores the daily and the 3-hour forecast of a location the user looks at.
+     *
+     * @param preferred whether it is the preferred location, which alone updates the widgets
+     *                  and the notification
+     * @return false if the daily forecast couldn't be stored
+     */
+    private boolean syncLocation(String locationQuery, boolean preferred, QuotaManager quota,
+                                 SyncResult syncResult) {
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuilder buffer = new StringBuilder();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            String forecastJsonStr = fetchForecastJson(sBaseUrl + DAILY_FORECAST_PATH, locationQuery,
+                    NUM_DAYS, QuotaManager.Priority.PREFERRED);
+            int inserted = ingest(forecastJsonStr, locationQuery, preferred);
+            if (inserted < 0) {
+                // Retrying won't fix a document we can't read.
+                syncResult.stats.numParseExceptions++;
+                return false;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                buffer.append(line);
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                return;
+            syncResult.stats.numInserts += inserted;
+            List<Long> quarantined = getDayQuarantine(getContext()).get(locationQuery);
+            if (quarantined.isEmpty()) {
+                quota.recordSync(locationQuery, System.currentTimeMillis());
+            } else {
+                // Not counted as synced, so the next sync or prefetch asks for the days again.
+                syncResult.stats.numSkippedEntries += quarantined.size();
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
+            reportFetchError(e, syncResult);
+            return false;
+        }
+
+        // The 3-hour series comes from a second endpoint. Failing to get it must not
+        // throw away the daily forecast we already stored.
+        try {
+            String hourlyJsonStr = fetchForecastJson(sBaseUrl + HOURLY_FORECAST_PATH, locationQuery,
+                    0, QuotaManager.Priority.PREFERRED);
+            ingestHourly(hourlyJsonStr, locationQuery);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching hourly forecast", e);
+            reportFetchError(e, syncResult);
+        }
+        return true;
+    }
+
+    /**
+     * Before Lollipop there is no JobScheduler to defer to, so the background locations are
+     * always synced along with the preferred one. From it on they wait for an unmetered network
+     * or a charger, up to MAX_BACKGROUND_DEFERRAL.
+     *
+     * @return true to refresh the background locations in this sync
+     */
+    private boolean shouldSyncBackgroundNow() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        BackgroundSyncPolicy policy = getBackgroundPolicy(getContext());
+        if (policy.shouldRunNow(getConditions(getContext()), now)) {
+            BackgroundSyncJobService.cancel(getContext());
+            return true;
+        }
+        BackgroundSyncJobService.schedule(getContext(), policy.getDeadline(now));
+        sMetrics.backgroundDeferred.incrementAndGet();
+        return false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static BackgroundSyncPolicy.Conditions getConditions(Context context) {
+        ConnectivityManager connectivity =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        // A null receiver just reads the sticky battery broadcast.
+        Intent battery = context.getApplicationContext().registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = battery != null
+                && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        return new BackgroundSyncPolicy.Conditions(!connectivity.isActiveNetworkMetered(), charging);
+    }
+
+    /**
+     * Refreshes the daily forecast of the other stored locations that are due, least recently
+     * synced first, for as long as the quota leaves room beside the preferred location. Their
+     * failures are logged rather than reported, the preferred location is what the sync is for.
+     *
+     * Each forecast is stored on the INGEST lane while the next ones are fetched, so the writes
+     * of several locations reach the provider together and share its commits.
+     */
+    private void syncBackgroundLocations(String preferred, final QuotaManager quota,
+                                         final SyncResult syncResult) {
+        // When the preferred setting is an alias, its city was just synced under that name.
+        Map<String, Long> stored = getStoredLocations(findAlias(preferred));
+        List<String> due = getRecentLocations(getContext()).warmFirst(quota.scheduleBackground(
+                preferred, stored.keySet(), SYNC_INTERVAL * 1000L, System.currentTimeMillis()));
+        if (due.isEmpty()) {
+            return;
+        }
+        List<GroupFetcher.Location> locations = new ArrayList<>(due.size());
+        for (String setting : due) {
+            locations.add(new GroupFetcher.Location(setting, stored.get(setting)));
+        }
+
+        final List<Future<Integer>> stores = new ArrayList<>();
+        long groupsBefore = sGroupFetcher.getGroupRequests();
+        try {
+            int requests = sGroupFetcher.fetch(sBaseUrl, locations, NUM_DAYS,
+                    QuotaManager.Priority.BACKGROUND,
+                    new ForecastParser(System.currentTimeMillis(), TimeZone.getDefault()),
+                    MAX_BACKGROUND_REQUESTS, new GroupFetcher.Listener() {
+                        @Override
+                        public void onForecast(String locationSetting, Forecast forecast) {
+                            if (forecast.days.isEmpty() && !forecast.quarantinedDays.isEmpty()) {
+                                onError(locationSetting, new IOException("Every day incomplete"));
+                                return;
+                            }
+                            Callable<Integer> store = storeBackground(forecast, locationSetting, quota);
+                            try {
+                                stores.add(AppExecutors.get().submit(Lane.INGEST, store));
+                            } catch (RejectedExecutionException e) {
+                                // The lane is busy, store it here and fetch the next ones after.
+                                FutureTask<Integer> inline = new FutureTask<>(store);
+                                inline.run();
+                                stores.add(inline);
+                            }
+                        }
+
+                        @Override
+                        public void onError(String locationSetting, IOException e) {
+                            Log.e(LOG_TAG, "Error syncing " + locationSetting, e);
+                            // Even a forecast we couldn't get waits its turn again, rather than
+                            // using the quota on every sync.
+                            quota.recordSync(locationSetting, System.currentTimeMillis());
+                        }
+                    });
+            sMetrics.fetches.addAndGet(requests);
+        } catch (QuotaManager.QuotaExceededException e) {
+            sMetrics.quotaDenied.incrementAndGet();
+        } catch (ForecastClient.CircuitOpenException e) {
+            Log.d(LOG_TAG, "Circuit open, background locations wait");
+        } catch (IOException e) {
+            // The fetcher reports everything else per location.
+            Log.e(LOG_TAG, "Error syncing background locations", e);
+        }
+        sMetrics.groupRequests.addAndGet(sGroupFetcher.getGroupRequests() - groupsBefore);
+
+        int synced = 0;
+        for (Future<Integer> store : stores) {
+            try {
+                syncResult.stats.numInserts += store.get();
+                synced++;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error storing a background location", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Log.d(LOG_TAG, "Synced " + synced + " of " + due.size() + " background locations");
+    }
+
+    /**
+     * Stores a background location's forecast and, unless days of it were quarantined, counts
+     * the location as synced.
+     *
+     * @return the number of days stored
+     */
+    private Callable<Integer> storeBackground(final Forecast forecast, final String locationSetting,
+                                              final QuotaManager quota) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int inserted = storeForecast(forecast, locationSetting, false);
+                if (!getDayQuarantine(getContext()).isQuarantined(locationSetting)) {
+                    quota.recordSync(locationSetting, System.currentTimeMillis());
+                }
+                return inserted;
+            }
+        };
+    }
+
+    /**
+     * @param excludedId the id of a location to leave out, or -1
+     * @return the setting of every stored location, with the city id it resolved to or 0
+     */
+    private Map<String, Long> getStoredLocations(long excludedId) {
+        Map<String, Long> locations = new LinkedHashMap<>();
+        Cursor cursor = getContext().getContentResolver().query(
+                DatabaseContract.LocationEntry.CONTENT_URI,
+                new String[]{DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        DatabaseContract.LocationEntry.COLUMN_CITY_ID},
+                DatabaseContract.LocationEntry._ID + " != ?",
+                new String[]{Long.toString(excludedId)},
+                null);
+        if (cursor == null) {
+            return locations;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                // getLong reads a NULL city id as 0.
+                locations.put(cursor.getString(0), cursor.getLong(1));
+            }
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            cursor.close();
+        }
+        return locations;
+    }
+
+    /**
+     * Replaces the quota, for tests that make more calls than the key allows.
+     *
+     * @param quota the quota to use, or null to go back to the persisted one
+     */
+    static synchronized void setQuota(QuotaManager quota) {
+        sQuota = quota;
+        sClient.setQuota(quota);
+    }
+
+    /**
+     * The quota of the API key, with its limits from BuildConfig and its state in QUOTA_PREFS.
+     */
+    static synchronized QuotaManager getQuota(Context context) {
+        if (sQuota == null) {
+            sQuota = new QuotaManager(BuildConfig.OWM_CALLS_PER_MINUTE, BuildConfig.OWM_CALLS_PER_DAY,
+                    prefsStore(context, QUOTA_PREFS));
+            sClient.setQuota(sQuota);
+        }
+        return sQuota;
+    }
+
+    static synchronized RecentLocations getRecentLocations(Context context) {
+        if (sRecentLocations == null) {
+            sRecentLocations = new RecentLocations(WARM_LOCATIONS, prefsStore(context, RECENT_PREFS));
+        }
+        return sRecentLocations;
+    }
+
+    static synchronized DayQuarantine getDayQuarantine(Context context) {
+        if (sDayQuarantine == null) {
+            sDayQuarantine = new DayQuarantine(prefsStore(context, QUARANTINE_PREFS));
+        }
+        return sDayQuarantine;
+    }
+
+    static synchronized BackgroundSyncPolicy getBackgroundPolicy(Context context) {
+        if (sBackgroundPolicy == null) {
+            sBackgroundPolicy = new BackgroundSyncPolicy(MAX_BACKGROUND_DEFERRAL,
+                    prefsStore(context, BACKGROUND_PREFS));
+        }
+        return sBackgroundPolicy;
+    }
+
+    /**
+     * In its own process (BuildConfig.SYNC_PROCESS) the sync would go on reading the settings
+     * as they were when it first loaded them. MODE_MULTI_PROCESS reloads them if the UI
+     * process changed them since, for every later read of the default preferences too.
+     */
+    @SuppressWarnings("deprecation")
+    public static void reloadSettings(Context context) {
+        if (BuildConfig.SYNC_PROCESS) {
+            context.getSharedPreferences(context.getPackageName() + "_preferences",
+                    Context.MODE_MULTI_PROCESS);
+        }
+    }
+
+    private static QuotaManager.Store prefsStore(Context context, String name) {
+        final SharedPreferences prefs = context.getApplicationContext()
+                .getSharedPreferences(name, Context.MODE_PRIVATE);
+        return new QuotaManager.Store() {
+            @Override
+            public long get(String key, long defaultValue) {
+                return prefs.getLong(key, defaultValue);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+
+            @Override
+            public void put(String key, long value) {
+                prefs.edit().putLong(key, value).apply();
+            }
+        };
+    }
+
+    private static boolean isFresh(QuotaManager quota, String locationSetting) {
+        return System.currentTimeMillis() - quota.getLastSync(locationSetting) < PREFETCH_FRESH_MILLIS;
+    }
+
+    /**
+     * Tells the SyncManager how a download failed, so its own backoff can do the rest: soft
+     * errors are retried by it later, hard ones wait for the next periodic sync.
+     */
+    private static void reportFetchError(IOException e, SyncResult syncResult) {
+        long delayUntil = 0;
+        if (e instanceof QuotaManager.QuotaExceededException) {
+            sMetrics.quotaDenied.incrementAndGet();
+            delayUntil = ((QuotaManager.QuotaExceededException) e).getRetryAt();
+            syncResult.stats.numIoExceptions++;
+        } else if (e instanceof ForecastClient.CircuitOpenException) {
+            delayUntil = ((ForecastClient.CircuitOpenException) e).getOpenUntil();
+            syncResult.stats.numIoExceptions++;
+        } else if (e instanceof ForecastClient.HttpException) {
+            ForecastClient.HttpException httpError = (ForecastClient.HttpException) e;
+            int status = httpError.getStatus();
+            if (httpError.isTransient()) {
+                syncResult.stats.numIoExceptions++;
+                if (httpError.getRetryAfterMillis() > 0) {
+                    delayUntil = System.currentTimeMillis() + httpError.getRetryAfterMillis();
                 }
+            } else if (status == 401 || status == 403) {
+                // The API key was refused.
+                syncResult.stats.numAuthExceptions++;
+            } else {
+                // Most likely a location OWM doesn't know, there's nothing to sync for it.
+                syncResult.stats.numSkippedEntries++;
             }
+        } else {
+            syncResult.stats.numIoExceptions++;
+        }
+        if (delayUntil > 0) {
+            // In seconds since the epoch.
+            syncResult.delayUntil = Math.max(syncResult.delayUntil, delayUntil / 1000);
         }
-        return;
+    }
+
+    public static SyncMetrics getMetrics() {
+        return sMetrics;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Points the sync at another server with the OWM API, such as the loadgen stand-in.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param baseUrl the API root ending in a slash, or null for BuildConfig.OWM_BASE_URL
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+    static void setBaseUrl(String baseUrl) {
+        sBaseUrl = baseUrl != null ? baseUrl : BuildConfig.OWM_BASE_URL;
+    }
+
+    /**
+     * Downloads one forecast document from OpenWeatherMap through the shared ForecastClient.
+     *
+     * @param baseUrl the endpoint, daily or 3-hour forecast
+     * @param numDays the number of days to ask for, or 0 to leave it to the endpoint
+     * @param priority the priority to take the calls from the API quota at
+     * @return the raw JSON response
+     */
+    private String fetchForecastJson(String baseUrl, String locationQuery, int numDays,
+                                     QuotaManager.Priority priority) throws IOException {
+        String format = "json";
+        String units = "metric";
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units);
+        if (numDays > 0) {
+            uriBuilder.appendQueryParameter(DAYS_PARAM, Integer.toString(numDays));
+        }
+        Uri builtUri = uriBuilder
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        String body = sClient.fetch(builtUri.toString(), priority);
+        sMetrics.fetches.incrementAndGet();
+        sMetrics.bytesRead.addAndGet(body.length());
+        return body;
+    }
 
-        // These are the names of the JSON objects that need to be extracted.
+    /**
+     * Parses and stores the downloaded forecast on the INGEST lane, so it is scheduled behind
+     * the reads of the visible screens rather than competing with them.
+     *
+     * @param preferred whether this is the preferred location, which alone updates the widgets
+     *                  and the notification
+     * @return the number of days stored, or -1 if the forecast couldn't be parsed
+     */
+    private int ingest(final String forecastJsonStr, final String locationSetting,
+                       final boolean preferred) {
+        return AppExecutors.get().runBlocking(Lane.INGEST, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try {
+                    return getWeatherDataFromJson(forecastJsonStr, locationSetting, preferred);
+                } catch (IOException e) {
+                    // Malformed or incomplete JSON, keep what we stored last time.
+                    Log.e(LOG_TAG, e.getMessage(), e);
+                    return -1;
+                }
+            }
+        });
+    }
+
+    /**
+     * Parses the forecast with the core ForecastParser, which quarantines incomplete days, and
+     * stores it.
+     *
+     * @return the number of days stored
+     */
+    private int getWeatherDataFromJson(String forecastJsonStr,
+                                       String locationSetting, boolean preferred)
+            throws IOException {
+
+        Forecast forecast = new ForecastParser(System.currentTimeMillis(), TimeZone.getDefault())
+                .parse(forecastJsonStr);
+        return storeForecast(forecast, locationSetting, preferred);
+    }
+
+    /**
+     * Stores a parsed forecast, along with the location and city id it was resolved to. The
+     * days the parser quarantined keep what was stored for them before, and are remembered in
+     * the DayQuarantine until a forecast brings them back.
+     *
+     * @return the number of days stored
+     */
+    private int storeForecast(Forecast forecast, String locationSetting, boolean preferred) {
+        long locationId = addLocation(locationSetting, forecast.cityName,
+                forecast.latitude, forecast.longitude, forecast.cityId);
+
+        // Insert the new weather information into the database
+        Vector<ContentValues> cVVector = new Vector<>(forecast.days.size());
+        for (DayForecast day : forecast.days) {
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_DATE, day.date);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_DEGREES, day.degrees);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP, day.max);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP, day.min);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+            weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+            cVVector.add(weatherValues);
+        }
+
+        // add to database
+        if ( cVVector.size() > 0 ) {
+            ContentValues[] cvArray = new ContentValues[cVVector.size()];
+            cVVector.toArray(cvArray);
+            long writeStart = System.nanoTime();
+            getContext().getContentResolver().bulkInsert(DatabaseContract.WeatherEntry.CONTENT_URI, cvArray);
+            sMetrics.writeNanos.addAndGet(System.nanoTime() - writeStart);
+            sMetrics.rowsWritten.addAndGet(cvArray.length);
+
+            if (preferred) {
+                notifyWeather(findToday(cVVector));
+                // Redraws the widgets from the parsed days, only if the days shown changed.
+                WidgetUpdater.onSync(getContext(), locationSetting, cVVector);
+            }
+            publishForecastFile(locationSetting, cVVector);
+        }
+
+        List<Long> storedDates = new ArrayList<>(forecast.days.size());
+        for (DayForecast day : forecast.days) {
+            storedDates.add(day.date);
+        }
+        int recovered = getDayQuarantine(getContext())
+                .update(locationSetting, forecast.quarantinedDays, storedDates);
+        sMetrics.daysRecovered.addAndGet(recovered);
+        if (!forecast.quarantinedDays.isEmpty()) {
+            sMetrics.daysQuarantined.addAndGet(forecast.quarantinedDays.size());
+            Log.w(LOG_TAG, "Quarantined " + forecast.quarantinedDays.size()
+                    + " incomplete days of " + locationSetting);
+        }
+
+        Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+        return cVVector.size();
+    }
+
+    private void ingestHourly(final String hourlyJsonStr, final String locationSetting) {
+        AppExecutors.get().runBlocking(Lane.INGEST, new Callable<Void>() {
+            @Override
+            public Void call() throws JSONException {
+                getHourlyDataFromJson(hourlyJsonStr, locationSetting);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Parses the 3-hour forecast and stores it as one packed row per day, see HourlyPacker.
+     */
+    private void getHourlyDataFromJson(String hourlyJsonStr, String locationSetting)
+            throws JSONException {
 
         // Location information
         final String OWM_CITY = "city";
         final String OWM_CITY_NAME = "name";
         final String OWM_COORD = "coord";
-
-        // Location coordinate
         final String OWM_LATITUDE = "lat";
         final String OWM_LONGITUDE = "lon";
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
+        // Each 3-hour point is an element of the "list" array.
         final String OWM_LIST = "list";
+        final String OWM_DATE_TIME = "dt";
 
+        // Measurements are children of the "main" object, except for the wind.
+        final String OWM_MAIN = "main";
+        final String OWM_TEMPERATURE = "temp";
         final String OWM_PRESSURE = "pressure";
         final String OWM_HUMIDITY = "humidity";
+        final String OWM_WIND = "wind";
         final String OWM_WINDSPEED = "speed";
         final String OWM_WIND_DIRECTION = "deg";
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
         final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
         final String OWM_WEATHER_ID = "id";
 
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+            JSONObject hourlyJson = new JSONObject(hourlyJsonStr);
+            JSONArray pointArray = hourlyJson.getJSONArray(OWM_LIST);
 
+            JSONObject cityJson = hourlyJson.getJSONObject(OWM_CITY);
             JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(DatabaseContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+            long locationId = addLocation(locationSetting, cityJson.getString(OWM_CITY_NAME),
+                    cityCoord.getDouble(OWM_LATITUDE), cityCoord.getDouble(OWM_LONGITUDE));
+
+            // Points arrive in time order, so grouping them by day only needs to watch for
+            // the day changing.
+            Vector<ContentValues> cVVector = new Vector<>();
+            int dayStart = 0;
+            long currentDay = 0;
+            for (int i = 0; i <= pointArray.length(); i++) {
+                long day = i < pointArray.length()
+                        ? DatabaseContract.normalizeDate(pointArray.getJSONObject(i).getLong(OWM_DATE_TIME) * 1000)
+                        : -1;
+                if (i > 0 && day != currentDay) {
+                    HourlyPacker.Series series = new HourlyPacker.Series(i - dayStart);
+                    for (int j = dayStart; j < i; j++) {
+                        JSONObject point = pointArray.getJSONObject(j);
+                        JSONObject main = point.getJSONObject(OWM_MAIN);
+                        JSONObject wind = point.getJSONObject(OWM_WIND);
+                        int k = j - dayStart;
+                        long time = point.getLong(OWM_DATE_TIME) * 1000;
+                        series.minutes[k] = (int) ((time - currentDay) / (60 * 1000));
+                        series.temperatures[k] = (float) main.getDouble(OWM_TEMPERATURE);
+                        series.humidity[k] = (float) main.getDouble(OWM_HUMIDITY);
+                        series.pressure[k] = (float) main.getDouble(OWM_PRESSURE);
+                        series.windSpeed[k] = (float) wind.getDouble(OWM_WINDSPEED);
+                        series.degrees[k] = (float) wind.getDouble(OWM_WIND_DIRECTION);
+                        series.weatherIds[k] = point.getJSONArray(OWM_WEATHER)
+                                .getJSONObject(0).getInt(OWM_WEATHER_ID);
+                    }
+
+                    ContentValues hourlyValues = new ContentValues();
+                    hourlyValues.put(DatabaseContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+                    hourlyValues.put(DatabaseContract.HourlyEntry.COLUMN_DATE, currentDay);
+                    hourlyValues.put(DatabaseContract.HourlyEntry.COLUMN_COUNT, series.size());
+                    hourlyValues.put(DatabaseContract.HourlyEntry.COLUMN_POINTS, HourlyPacker.pack(series));
+                    cVVector.add(hourlyValues);
+                    dayStart = i;
+                }
+                currentDay = day;
             }
 
-            // add to database
             if ( cVVector.size() > 0 ) {
                 ContentValues[] cvArray = new ContentValues[cVVector.size()];
                 cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(DatabaseContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(DatabaseContract.WeatherEntry.CONTENT_URI,
-                        DatabaseContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                notifyWeather();
+                long writeStart = System.nanoTime();
+                getContext().getContentResolver().bulkInsert(DatabaseContract.HourlyEntry.CONTENT_URI, cvArray);
+
+                // the 3-hour points of past days are of no use anymore
+                getContext().getContentResolver().delete(DatabaseContract.HourlyEntry.CONTENT_URI,
+                        DatabaseContract.HourlyEntry.COLUMN_DATE + " < ?",
+                        new String[] {Long.toString(DatabaseContract.normalizeDate(System.currentTimeMillis()))});
+                sMetrics.writeNanos.addAndGet(System.nanoTime() - writeStart);
+                sMetrics.rowsWritten.addAndGet(cvArray.length);
             }
 
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+            Log.d(LOG_TAG, "Hourly sync Complete. " + pointArray.length() + " points in "
+                    + cVVector.size() + " rows");
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
@@ -311,7 +779,53 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private void notifyWeather() {
+    /**
+     * Publishes the parsed days as the location's {@link ForecastFile}, for the readers that
+     * would otherwise query the provider for them.
+     */
+    private void publishForecastFile(String locationSetting, Vector<ContentValues> cVVector) {
+        List<ForecastFile.Day> days = new ArrayList<>(cVVector.size());
+        for (ContentValues values : cVVector) {
+            ForecastFile.Day day = new ForecastFile.Day();
+            day.date = DatabaseContract.normalizeDate(
+                    values.getAsLong(DatabaseContract.WeatherEntry.COLUMN_DATE));
+            day.weatherId = values.getAsInteger(DatabaseContract.WeatherEntry.COLUMN_WEATHER_ID);
+            day.min = values.getAsFloat(DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP);
+            day.max = values.getAsFloat(DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP);
+            day.humidity = values.getAsFloat(DatabaseContract.WeatherEntry.COLUMN_HUMIDITY);
+            day.pressure = values.getAsFloat(DatabaseContract.WeatherEntry.COLUMN_PRESSURE);
+            day.windSpeed = values.getAsFloat(DatabaseContract.WeatherEntry.COLUMN_WIND_SPEED);
+            day.degrees = values.getAsFloat(DatabaseContract.WeatherEntry.COLUMN_DEGREES);
+            day.shortDesc = values.getAsString(DatabaseContract.WeatherEntry.COLUMN_SHORT_DESC);
+            days.add(day);
+        }
+        try {
+            if (ForecastFile.publish(getContext().getFilesDir(), locationSetting, days)) {
+                Log.d(LOG_TAG, "Published forecast file for " + locationSetting);
+            }
+        } catch (IOException e) {
+            // Readers keep the previous file, or fall back to the provider.
+            Log.e(LOG_TAG, "Error publishing forecast file", e);
+        }
+    }
+
+    // The parsed day that is today, or null if the forecast doesn't include it.
+    private static ContentValues findToday(Vector<ContentValues> days) {
+        long today = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        for (ContentValues day : days) {
+            if (DatabaseContract.normalizeDate(
+                    day.getAsLong(DatabaseContract.WeatherEntry.COLUMN_DATE)) == today) {
+                return day;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Shows today's forecast once a day. Takes the day just parsed by the sync rather than
+     * reading back the row that was stored from it.
+     */
+    private void notifyWeather(ContentValues todayValues) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -319,76 +833,70 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
         boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
                 Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
 
-        if ( displayNotifications ) {
+        if ( displayNotifications && todayValues != null ) {
 
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
+            SharedPreferences notificationPrefs =
+                    context.getSharedPreferences(NOTIFICATION_PREFS, Context.MODE_PRIVATE);
+            // Older versions kept it with the settings.
+            long lastSync = notificationPrefs.getLong(lastNotificationKey,
+                    prefs.getLong(lastNotificationKey, 0));
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utils.getPreferredLocation(context);
-
-                Uri weatherUri = DatabaseContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utils.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    Bitmap largeIcon = BitmapFactory.decodeResource(resources,
-                            Utils.getArtResourceForWeatherCondition(weatherId));
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utils.formatTemperature(context, high),
-                            Utils.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.grey))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.apply();
-                }
-                cursor.close();
+                int weatherId = todayValues.getAsInteger(DatabaseContract.WeatherEntry.COLUMN_WEATHER_ID);
+                double high = todayValues.getAsDouble(DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP);
+                double low = todayValues.getAsDouble(DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP);
+                String desc = todayValues.getAsString(DatabaseContract.WeatherEntry.COLUMN_SHORT_DESC);
+
+                int iconId = Utils.getIconResourceForWeatherCondition(weatherId);
+                Resources resources = context.getResources();
+                Bitmap largeIcon = BitmapFactory.decodeResource(resources,
+                        Utils.getArtResourceForWeatherCondition(weatherId));
+                String title = context.getString(R.string.app_name);
+
+                // Define the text of the forecast.
+                String contentText = String.format(context.getString(R.string.format_notification),
+                        desc,
+                        Utils.formatTemperature(context, high),
+                        Utils.formatTemperature(context, low));
+
+                // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                // notifications.  Just throw in some data.
+                NotificationCompat.Builder mBuilder =
+                        new NotificationCompat.Builder(getContext())
+                                .setColor(resources.getColor(R.color.grey))
+                                .setSmallIcon(iconId)
+                                .setLargeIcon(largeIcon)
+                                .setContentTitle(title)
+                                .setContentText(contentText);
+
+                // Make something interesting happen when the user clicks on the notification.
+                // In this case, opening the app is sufficient.
+                Intent resultIntent = new Intent(context, MainActivity.class);
+
+                // The stack builder object will contain an artificial back stack for the
+                // started Activity.
+                // This ensures that navigating backward from the Activity leads out of
+                // your application to the Home screen.
+                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                stackBuilder.addNextIntent(resultIntent);
+                PendingIntent resultPendingIntent =
+                        stackBuilder.getPendingIntent(
+                                0,
+                                PendingIntent.FLAG_UPDATE_CURRENT
+                        );
+                mBuilder.setContentIntent(resultPendingIntent);
+
+                NotificationManager mNotificationManager =
+                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+                //refreshing last sync
+                SharedPreferences.Editor editor = notificationPrefs.edit();
+                editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                editor.apply();
             }
         }
     }
@@ -403,19 +911,39 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
+        return addLocation(locationSetting, cityName, lat, lon, 0);
+    }
+
+    /**
+     * @param cityId the id the server knows the city by, or 0 if the response had none.
+     *               Recorded once, or again if the server changed it.
+     */
+    long addLocation(String locationSetting, String cityName, double lat, double lon, long cityId) {
         long locationId;
 
         // First, check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
                 DatabaseContract.LocationEntry.CONTENT_URI,
-                new String[]{DatabaseContract.LocationEntry._ID},
+                new String[]{DatabaseContract.LocationEntry._ID,
+                        DatabaseContract.LocationEntry.COLUMN_CITY_ID},
                 DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
                 new String[]{locationSetting},
                 null);
 
+        long aliasOf;
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(DatabaseContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
+            if (cityId > 0 && locationCursor.getLong(1) != cityId) {
+                ContentValues cityValues = new ContentValues();
+                cityValues.put(DatabaseContract.LocationEntry.COLUMN_CITY_ID, cityId);
+                getContext().getContentResolver().update(DatabaseContract.LocationEntry.CONTENT_URI,
+                        cityValues, DatabaseContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+            }
+        } else if ((aliasOf = findAlias(locationSetting)) != -1) {
+            // Another setting of a city we already store.
+            locationId = aliasOf;
         } else {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
@@ -427,8 +955,12 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
             locationValues.put(DatabaseContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
             locationValues.put(DatabaseContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(DatabaseContract.LocationEntry.COLUMN_COORD_LONG, lon);
+            if (cityId > 0) {
+                locationValues.put(DatabaseContract.LocationEntry.COLUMN_CITY_ID, cityId);
+            }
 
-            // Finally, insert location data into the database.
+            // Finally, insert location data into the database. If the city id is stored
+            // already, the provider keeps the setting as an alias and returns that location.
             Uri insertedUri = getContext().getContentResolver().insert(
                     DatabaseContract.LocationEntry.CONTENT_URI,
                     locationValues
@@ -443,6 +975,66 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
         return locationId;
     }
 
+    /**
+     * @return the id of the location the setting is an alias of, or -1 if it isn't one
+     */
+    private long findAlias(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                DatabaseContract.LocationAliasEntry.CONTENT_URI,
+                new String[]{DatabaseContract.LocationAliasEntry.COLUMN_LOC_KEY},
+                DatabaseContract.LocationAliasEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Has the sync adapter fetch one location right away, such as the one just picked in the
+     * settings, so its forecast is stored by the time the user is back on the main screen. A
+     * location synced in the last PREFETCH_FRESH_MILLIS is left alone, so asking again when
+     * the main screen sees the new location costs nothing. The request goes through the
+     * AccountManager, so it is made on the PREFETCH lane rather than the caller's thread.
+     */
+    public static void prefetchLocation(Context context, String locationSetting) {
+        final Context appContext = context.getApplicationContext();
+        final Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putString(EXTRA_PREFETCH_LOCATION, locationSetting);
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                ContentResolver.requestSync(getSyncAccount(appContext),
+                        appContext.getString(R.string.content_authority), bundle);
+            }
+        };
+        try {
+            AppExecutors.get().execute(Lane.PREFETCH, request);
+        } catch (RejectedExecutionException e) {
+            request.run();
+        }
+    }
+
+    /**
+     * Has the sync refresh the background locations and nothing else, for the deferred job once
+     * conditions allow it.
+     */
+    static void requestBackgroundSync(Context context) {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(EXTRA_BACKGROUND_ONLY, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
     /**
      * Helper method to have the sync adapter sync immediately
      * @param context The context used to access the account service
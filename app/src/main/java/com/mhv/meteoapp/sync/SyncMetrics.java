@@ -0,0 +1,122 @@
+package com.mhv.meteoapp.sync;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters kept by {@link SyncAdapter} across every sync of the process.
+ */
+public class SyncMetrics {
+
+    final AtomicLong syncs = new AtomicLong();
+    final AtomicLong fetches = new AtomicLong();
+    final AtomicLong bytesRead = new AtomicLong();
+    final AtomicLong rowsWritten = new AtomicLong();
+    final AtomicLong writeNanos = new AtomicLong();
+    final AtomicLong commits = new AtomicLong();
+    final AtomicLong groupRequests = new AtomicLong();
+    final AtomicLong prefetches = new AtomicLong();
+    final AtomicLong prefetchesSkipped = new AtomicLong();
+    final AtomicLong backgroundDeferred = new AtomicLong();
+    final AtomicLong daysQuarantined = new AtomicLong();
+    final AtomicLong daysRecovered = new AtomicLong();
+    final AtomicLong backgroundJobs = new AtomicLong();
+    final AtomicLong quotaDenied = new AtomicLong();
+    final AtomicLong quotaPerMinute = new AtomicLong();
+    final AtomicLong quotaPerDay = new AtomicLong();
+
+    SyncMetrics() {
+    }
+
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    // Forecast documents downloaded, daily and 3-hour.
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    // Characters of the downloaded documents, the same as bytes for the ASCII JSON OWM sends.
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    // Time spent in the provider storing forecasts and trimming past days.
+    public long getWriteMicros() {
+        return writeNanos.get() / 1000;
+    }
+
+    // Transactions the provider committed while syncing, each one fsync of the database log.
+    // Writes stored at about the same time share one.
+    public long getCommits() {
+        return commits.get();
+    }
+
+    // Of the fetches, the ones for a group of background locations at once.
+    public long getGroupRequests() {
+        return groupRequests.get();
+    }
+
+    // Syncs of a location just picked in the settings, and those it was fresh enough to skip.
+    public long getPrefetches() {
+        return prefetches.get();
+    }
+
+    public long getPrefetchesSkipped() {
+        return prefetchesSkipped.get();
+    }
+
+    // Syncs that left the background locations to the deferred job, and the jobs that ran.
+    public long getBackgroundDeferred() {
+        return backgroundDeferred.get();
+    }
+
+    public long getBackgroundJobs() {
+        return backgroundJobs.get();
+    }
+
+    // Days left out of a forecast because they were incomplete, and those a later one brought back.
+    public long getDaysQuarantined() {
+        return daysQuarantined.get();
+    }
+
+    public long getDaysRecovered() {
+        return daysRecovered.get();
+    }
+
+    // Requests not made because the API quota had no room for them.
+    public long getQuotaDenied() {
+        return quotaDenied.get();
+    }
+
+    // API calls left at the end of the last sync.
+    public long getQuotaPerMinute() {
+        return quotaPerMinute.get();
+    }
+
+    public long getQuotaPerDay() {
+        return quotaPerDay.get();
+    }
+
+    @Override
+    public String toString() {
+        return "syncs=" + getSyncs()
+                + " fetches=" + getFetches()
+                + " groupRequests=" + getGroupRequests()
+                + " prefetches=" + getPrefetches() + "/" + (getPrefetches() + getPrefetchesSkipped())
+                + " backgroundDeferred=" + getBackgroundDeferred()
+                + " backgroundJobs=" + getBackgroundJobs()
+                + " daysQuarantined=" + getDaysQuarantined()
+                + " daysRecovered=" + getDaysRecovered()
+                + " bytesRead=" + getBytesRead()
+                + " rowsWritten=" + getRowsWritten()
+                + " write=" + getWriteMicros() + "us"
+                + " commits=" + getCommits()
+                + " quotaDenied=" + getQuotaDenied()
+                + " quotaLeft=" + getQuotaPerMinute() + "/min," + getQuotaPerDay() + "/day";
+    }
+}
@@ -0,0 +1,76 @@
+package com.mhv.meteoapp.sync;
+
+/**
+ * A token bucket kept in a {@link QuotaManager.Store}, so it survives the process.
+ *
+ * The bucket holds up to its capacity and refills continuously, a full capacity per period.
+ * Tokens are kept in thousandths so slow refills aren't lost to rounding.
+ */
+class TokenBucket {
+
+    private static final long SCALE = 1000;
+
+    private final String mTokensKey;
+    private final String mUpdatedKey;
+    private final int mCapacity;
+    private final long mPeriodMillis;
+    private final QuotaManager.Store mStore;
+
+    TokenBucket(String name, int capacity, long periodMillis, QuotaManager.Store store) {
+        mTokensKey = name + "_tokens";
+        mUpdatedKey = name + "_updated";
+        mCapacity = capacity;
+        mPeriodMillis = periodMillis;
+        mStore = store;
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    // Thousandths of a token in the bucket at now, a new bucket starts full.
+    private long scaledTokens(long now) {
+        long full = mCapacity * SCALE;
+        long tokens = mStore.get(mTokensKey, full);
+        long updated = mStore.get(mUpdatedKey, now);
+        // A clock set back doesn't refill anything.
+        long elapsed = Math.max(0, now - updated);
+        long refill = elapsed >= mPeriodMillis ? full : elapsed * full / mPeriodMillis;
+        return Math.min(full, tokens + refill);
+    }
+
+    double available(long now) {
+        return scaledTokens(now) / (double) SCALE;
+    }
+
+    /**
+     * Takes one token if there are more than the reserve left.
+     */
+    boolean tryTake(long now, int reserve) {
+        long tokens = scaledTokens(now);
+        if (tokens < (reserve + 1) * SCALE) {
+            return false;
+        }
+        mStore.put(mTokensKey, tokens - SCALE);
+        mStore.put(mUpdatedKey, now);
+        return true;
+    }
+
+    /**
+     * Gives a token taken by {@link #tryTake} back, when the other bucket refused the call.
+     */
+    void giveBack(long now) {
+        mStore.put(mTokensKey, Math.min(mCapacity * SCALE, scaledTokens(now) + SCALE));
+        mStore.put(mUpdatedKey, now);
+    }
+
+    // When a token above the reserve will be there.
+    long nextTokenAt(long now, int reserve) {
+        long missing = (reserve + 1) * SCALE - scaledTokens(now);
+        if (missing <= 0) {
+            return now;
+        }
+        long full = mCapacity * SCALE;
+        return now + (missing * mPeriodMillis + full - 1) / full;
+    }
+}
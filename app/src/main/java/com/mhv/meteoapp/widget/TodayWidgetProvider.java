@@ -0,0 +1,24 @@
+package com.mhv.meteoapp.widget;
+
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.Context;
+
+import com.mhv.meteoapp.sync.SyncAdapter;
+
+/**
+ * Home-screen widget with today and the next days of the preferred location.
+ *
+ * The widget has no update period: the sync pushes new days through {@link WidgetUpdater}
+ * when they changed. onUpdate only runs when an instance is added or the launcher asks again,
+ * and draws from the days cached by the last sync.
+ */
+public class TodayWidgetProvider extends AppWidgetProvider {
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // Runs in the sync's process, which may have read the preferred location long ago.
+        SyncAdapter.reloadSettings(context);
+        WidgetUpdater.update(context, appWidgetManager, appWidgetIds);
+    }
+}
@@ -0,0 +1,92 @@
+package com.mhv.meteoapp.widget;
+
+/**
+ * The few days a widget shows, in the form they are cached between syncs.
+ *
+ * The sync writes it from the days it just parsed and the widget draws from it, so neither
+ * side queries the database. The encoded form doubles as the fingerprint of what is on screen:
+ * a sync whose encoding is the same as the cached one has nothing to redraw.
+ */
+public class WidgetForecast {
+
+    public static final int DAYS = 4;
+
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final char DAY_SEPARATOR = '\n';
+
+    public final String locationSetting;
+    // Units the temperatures are shown in, part of the fingerprint so a change redraws.
+    public final String units;
+    public final long[] dates;
+    public final int[] weatherIds;
+    public final double[] highs;
+    public final double[] lows;
+    public final String[] descriptions;
+
+    public WidgetForecast(String locationSetting, String units, int days) {
+        this.locationSetting = locationSetting;
+        this.units = units;
+        dates = new long[days];
+        weatherIds = new int[days];
+        highs = new double[days];
+        lows = new double[days];
+        descriptions = new String[days];
+    }
+
+    public int getDayCount() {
+        return dates.length;
+    }
+
+    public String encode() {
+        StringBuilder builder = new StringBuilder(64 + dates.length * 48);
+        builder.append(clean(locationSetting)).append(FIELD_SEPARATOR).append(clean(units));
+        for (int i = 0; i < dates.length; i++) {
+            builder.append(DAY_SEPARATOR)
+                    .append(dates[i]).append(FIELD_SEPARATOR)
+                    .append(weatherIds[i]).append(FIELD_SEPARATOR)
+                    .append(highs[i]).append(FIELD_SEPARATOR)
+                    .append(lows[i]).append(FIELD_SEPARATOR)
+                    .append(clean(descriptions[i]));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the decoded forecast, or null if encoded is null or not something encode() wrote.
+     */
+    public static WidgetForecast decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        String[] lines = encoded.split(String.valueOf(DAY_SEPARATOR), -1);
+        String[] header = lines[0].split(String.valueOf(FIELD_SEPARATOR), -1);
+        if (header.length != 2) {
+            return null;
+        }
+        WidgetForecast forecast = new WidgetForecast(header[0], header[1], lines.length - 1);
+        try {
+            for (int i = 1; i < lines.length; i++) {
+                String[] fields = lines[i].split(String.valueOf(FIELD_SEPARATOR), -1);
+                if (fields.length != 5) {
+                    return null;
+                }
+                forecast.dates[i - 1] = Long.parseLong(fields[0]);
+                forecast.weatherIds[i - 1] = Integer.parseInt(fields[1]);
+                forecast.highs[i - 1] = Double.parseDouble(fields[2]);
+                forecast.lows[i - 1] = Double.parseDouble(fields[3]);
+                forecast.descriptions[i - 1] = fields[4];
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return forecast;
+    }
+
+    // Separators can't appear inside a field, OWM descriptions never have them anyway.
+    private static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace(FIELD_SEPARATOR, ' ').replace(DAY_SEPARATOR, ' ');
+    }
+}
@@ -0,0 +1,162 @@
+package com.mhv.meteoapp.widget;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Log;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import com.mhv.meteoapp.MainActivity;
+import com.mhv.meteoapp.R;
+import com.mhv.meteoapp.Utils;
+import com.mhv.meteoapp.data.DatabaseContract;
+import com.mhv.meteoapp.data.ForecastFile;
+
+import java.util.List;
+
+/**
+ * Keeps the today widgets in step with the sync without touching the database.
+ *
+ * After each sync {@link #onSync} takes the first days of the forecast that was just parsed
+ * and compares them with what the widgets already show. Only when they differ is a single
+ * RemoteViews built and pushed to every widget instance in one call. The cached days also
+ * serve {@link TodayWidgetProvider#onUpdate} when a widget is added or the launcher restarts.
+ */
+public class WidgetUpdater {
+
+    public static final String LOG_TAG = WidgetUpdater.class.getSimpleName();
+
+    static final String PREFS_NAME = "widget";
+    private static final String KEY_FORECAST = "forecast";
+
+    // Views of the day cells, in order.
+    private static final int[] DAY_IDS = {R.id.widget_day_0, R.id.widget_day_1,
+            R.id.widget_day_2, R.id.widget_day_3};
+    private static final int[] NAME_IDS = {R.id.widget_day_name_0, R.id.widget_day_name_1,
+            R.id.widget_day_name_2, R.id.widget_day_name_3};
+    private static final int[] ICON_IDS = {R.id.widget_icon_0, R.id.widget_icon_1,
+            R.id.widget_icon_2, R.id.widget_icon_3};
+    private static final int[] HIGH_IDS = {R.id.widget_high_0, R.id.widget_high_1,
+            R.id.widget_high_2, R.id.widget_high_3};
+    private static final int[] LOW_IDS = {R.id.widget_low_0, R.id.widget_low_1,
+            R.id.widget_low_2, R.id.widget_low_3};
+
+    private WidgetUpdater() {}
+
+    /**
+     * Called by the sync with the days it parsed, in date order.
+     *
+     * @return true if the widgets were redrawn.
+     */
+    public static boolean onSync(Context context, String locationSetting, List<ContentValues> days) {
+        long start = System.nanoTime();
+        WidgetForecast forecast = fromDays(context, locationSetting, days);
+        String encoded = forecast.encode();
+
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (encoded.equals(prefs.getString(KEY_FORECAST, null))) {
+            Log.d(LOG_TAG, "Widget days unchanged, skipped in " + (System.nanoTime() - start) / 1000 + " us");
+            return false;
+        }
+        prefs.edit().putString(KEY_FORECAST, encoded).apply();
+
+        AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = manager.getAppWidgetIds(new ComponentName(context, TodayWidgetProvider.class));
+        if (appWidgetIds.length == 0) {
+            return false;
+        }
+        // One RemoteViews for every instance, they all show the preferred location.
+        manager.updateAppWidget(appWidgetIds, buildViews(context, forecast));
+        Log.d(LOG_TAG, "Redrew " + appWidgetIds.length + " widgets in "
+                + (System.nanoTime() - start) / 1000 + " us");
+        return true;
+    }
+
+    /**
+     * Draws the cached days on the given widgets, for the framework's update requests.
+     */
+    static void update(Context context, AppWidgetManager manager, int[] appWidgetIds) {
+        String encoded = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_FORECAST, null);
+        WidgetForecast forecast = WidgetForecast.decode(encoded);
+        if (forecast == null) {
+            // Nothing cached yet, the last sync may still have left its forecast file.
+            String locationSetting = Utils.getPreferredLocation(context);
+            ForecastFile file = ForecastFile.open(context.getFilesDir(), locationSetting);
+            if (file != null) {
+                forecast = fromFile(context, locationSetting, file);
+            }
+        }
+        manager.updateAppWidget(appWidgetIds, buildViews(context, forecast));
+    }
+
+    // The first DAYS days from today on, out of everything the sync parsed.
+    static WidgetForecast fromDays(Context context, String locationSetting, List<ContentValues> days) {
+        long today = DatabaseContract.normalizeDate(System.currentTimeMillis());
+        int first = 0;
+        while (first < days.size() && DatabaseContract.normalizeDate(
+                days.get(first).getAsLong(DatabaseContract.WeatherEntry.COLUMN_DATE)) < today) {
+            first++;
+        }
+        int count = Math.min(WidgetForecast.DAYS, days.size() - first);
+        WidgetForecast forecast = new WidgetForecast(locationSetting, context.getString(
+                Utils.isMetric(context) ? R.string.pref_units_metric : R.string.pref_units_imperial),
+                count);
+        for (int i = 0; i < count; i++) {
+            ContentValues day = days.get(first + i);
+            forecast.dates[i] = DatabaseContract.normalizeDate(
+                    day.getAsLong(DatabaseContract.WeatherEntry.COLUMN_DATE));
+            forecast.weatherIds[i] = day.getAsInteger(DatabaseContract.WeatherEntry.COLUMN_WEATHER_ID);
+            forecast.highs[i] = day.getAsDouble(DatabaseContract.WeatherEntry.COLUMN_MAX_TEMP);
+            forecast.lows[i] = day.getAsDouble(DatabaseContract.WeatherEntry.COLUMN_MIN_TEMP);
+            forecast.descriptions[i] = day.getAsString(DatabaseContract.WeatherEntry.COLUMN_SHORT_DESC);
+        }
+        return forecast;
+    }
+
+    static WidgetForecast fromFile(Context context, String locationSetting, ForecastFile file) {
+        int first = file.indexOf(DatabaseContract.normalizeDate(System.currentTimeMillis()));
+        int count = Math.min(WidgetForecast.DAYS, file.getDayCount() - first);
+        WidgetForecast forecast = new WidgetForecast(locationSetting, context.getString(
+                Utils.isMetric(context) ? R.string.pref_units_metric : R.string.pref_units_imperial),
+                count);
+        for (int i = 0; i < count; i++) {
+            forecast.dates[i] = file.getDate(first + i);
+            forecast.weatherIds[i] = file.getWeatherId(first + i);
+            forecast.highs[i] = file.getMax(first + i);
+            forecast.lows[i] = file.getMin(first + i);
+            forecast.descriptions[i] = file.getShortDesc(first + i);
+        }
+        return forecast;
+    }
+
+    static RemoteViews buildViews(Context context, WidgetForecast forecast) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_today);
+
+        int days = forecast == null ? 0 : Math.min(forecast.getDayCount(), DAY_IDS.length);
+        views.setViewVisibility(R.id.widget_empty, days == 0 ? View.VISIBLE : View.GONE);
+        for (int i = 0; i < DAY_IDS.length; i++) {
+            if (i >= days) {
+                views.setViewVisibility(DAY_IDS[i], View.GONE);
+                continue;
+            }
+            views.setViewVisibility(DAY_IDS[i], View.VISIBLE);
+            views.setTextViewText(NAME_IDS[i], Utils.getDayName(context, forecast.dates[i]));
+            views.setImageViewResource(ICON_IDS[i],
+                    Utils.getIconResourceForWeatherCondition(forecast.weatherIds[i]));
+            views.setContentDescription(ICON_IDS[i], forecast.descriptions[i]);
+            views.setTextViewText(HIGH_IDS[i], Utils.formatTemperature(context, forecast.highs[i]));
+            views.setTextViewText(LOW_IDS[i], Utils.formatTemperature(context, forecast.lows[i]));
+        }
+
+        Intent launchIntent = new Intent(context, MainActivity.class);
+        views.setOnClickPendingIntent(R.id.widget,
+                PendingIntent.getActivity(context, 0, launchIntent, 0));
+        return views;
+    }
+}
@@ -0,0 +1,237 @@
+package com.mhv.meteoapp.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IngestQueueTest {
+
+    // Stands in for the database, keeping what was committed in order.
+    private static class Store implements IngestQueue.Committer<String> {
+        final List<String> committed = Collections.synchronizedList(new ArrayList<String>());
+        volatile long commitMillis;
+        volatile CountDownLatch gate;
+
+        @Override
+        public void commit(List<String> group) throws Exception {
+            if (gate != null) {
+                gate.await();
+            }
+            if (group.contains("bad")) {
+                throw new IllegalStateException("bad batch");
+            }
+            Thread.sleep(commitMillis);
+            committed.addAll(group);
+        }
+    }
+
+    private static Thread writer(final IngestQueue<String> queue, final String prefix, final int count,
+                                 final AtomicInteger errors) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    try {
+                        queue.write(prefix + i);
+                    } catch (RuntimeException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void write_waitsForCommit() {
+        Store store = new Store();
+        IngestQueue<String> queue = new IngestQueue<>("test", 4, 0, 8, store);
+        queue.write("a");
+        assertEquals("Error: write() should return once committed", Collections.singletonList("a"),
+                store.committed);
+        assertEquals(1, queue.getCommits());
+    }
+
+    @Test
+    public void concurrentWriters_shareCommits() throws Exception {
+        Store store = new Store();
+        store.commitMillis = 5;
+        IngestQueue<String> queue = new IngestQueue<>("test", 16, 10, 32, store);
+        AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 6; t++) {
+            threads.add(writer(queue, "w" + t + "-", 20, errors));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals("Error: Every batch should be committed", 120, store.committed.size());
+        assertEquals(120, queue.getBatches());
+        assertTrue("Error: Expected fewer commits than batches, got " + queue.getCommits(),
+                queue.getCommits() < 60);
+        assertTrue(queue.getLargestGroup() > 1);
+        // Each producer's batches are committed in the order it wrote them.
+        for (int t = 0; t < 6; t++) {
+            int last = -1;
+            for (String batch : new ArrayList<>(store.committed)) {
+                if (batch.startsWith("w" + t + "-")) {
+                    int index = Integer.parseInt(batch.substring(batch.indexOf('-') + 1));
+                    assertTrue("Error: Out of order for writer " + t, index > last);
+                    last = index;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void failingBatch_onlyItsProducerFails() throws Exception {
+        Store store = new Store();
+        store.gate = new CountDownLatch(1);
+        final IngestQueue<String> queue = new IngestQueue<>("test", 16, 100, 32, store);
+        AtomicInteger errors = new AtomicInteger();
+        // The writer is held on the first batch so the others queue up into one group.
+        Thread first = writer(queue, "first", 1, errors);
+        Thread.sleep(50);
+        Thread good = writer(queue, "good", 3, errors);
+        Thread bad = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.write("bad");
+                    fail("Error: The bad batch should fail");
+                } catch (IllegalStateException expected) {
+                    // The error the committer threw for it.
+                }
+            }
+        });
+        bad.start();
+        Thread.sleep(50);
+        store.gate.countDown();
+        first.join();
+        good.join();
+        bad.join();
+        assertEquals("Error: Only the bad batch should fail", 0, errors.get());
+        assertEquals(1, queue.getFailed());
+        assertTrue(store.committed.contains("good0"));
+        assertFalse(store.committed.contains("bad"));
+    }
+
+    @Test
+    public void failingNeighbour_aloneBatchAppliedOnce() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<String> applied = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> committed = Collections.synchronizedList(new ArrayList<String>());
+        final IngestQueue<String> queue = new IngestQueue<>("test", 16, 100, 32,
+                new IngestQueue.Committer<String>() {
+                    @Override
+                    public void commit(List<String> group) throws Exception {
+                        gate.await();
+                        for (String batch : group) {
+                            // Like a stream, the "once" batch has nothing left to apply the second time.
+                            if (batch.equals("once") && applied.contains("once")) {
+                                throw new IllegalStateException("once applied twice");
+                            }
+                            applied.add(batch);
+                        }
+                        if (group.contains("bad0")) {
+                            throw new IllegalStateException("bad batch");
+                        }
+                        committed.addAll(group);
+                    }
+                });
+        final AtomicInteger errors = new AtomicInteger();
+        // The writer is held on the first batch so the others queue up behind it.
+        Thread first = writer(queue, "first", 1, errors);
+        Thread.sleep(50);
+        Thread bad = writer(queue, "bad", 1, errors);
+        Thread.sleep(20);
+        Thread once = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.writeAlone("once");
+                } catch (RuntimeException e) {
+                    errors.incrementAndGet();
+                }
+            }
+        });
+        once.start();
+        Thread.sleep(20);
+        Thread good = writer(queue, "good", 1, errors);
+        Thread.sleep(50);
+        gate.countDown();
+        first.join();
+        bad.join();
+        once.join();
+        good.join();
+
+        assertEquals("Error: Only the bad batch should fail", 1, errors.get());
+        assertEquals("Error: The alone batch was applied again", 1,
+                Collections.frequency(applied, "once"));
+        assertTrue(committed.contains("once"));
+        assertTrue(committed.contains("good0"));
+        assertFalse(committed.contains("bad0"));
+    }
+
+    @Test
+    public void fullQueue_holdsProducersBack() throws Exception {
+        Store store = new Store();
+        store.gate = new CountDownLatch(1);
+        IngestQueue<String> queue = new IngestQueue<>("test", 2, 0, 1, store);
+        AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 5; t++) {
+            threads.add(writer(queue, "w" + t + "-", 1, errors));
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (queue.getBackpressureWaits() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Error: Producers should wait for room", queue.getBackpressureWaits() > 0);
+        store.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(5, store.committed.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void writeFromWriterThread_runsInline() throws Exception {
+        final List<String> committed = Collections.synchronizedList(new ArrayList<String>());
+        final IngestQueue<String>[] holder = new IngestQueue[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        holder[0] = new IngestQueue<>("test", 4, 0, 8, new IngestQueue.Committer<String>() {
+            @Override
+            public void commit(List<String> group) {
+                for (String batch : group) {
+                    if (batch.equals("outer")) {
+                        // Would deadlock if it were queued behind the group in progress.
+                        holder[0].write("inner");
+                    }
+                    committed.add(batch);
+                }
+            }
+        });
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                holder[0].write("outer");
+                done.countDown();
+            }
+        });
+        thread.start();
+        assertTrue("Error: Nested write deadlocked", done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("inner", "outer"), committed);
+    }
+}
@@ -0,0 +1,213 @@
+package com.mhv.meteoapp.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ForecastFileTest {
+
+    private static final String LOCATION = "94043";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = 1451606400000L;
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("forecast", "");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private static List<ForecastFile.Day> createDays(int count, float firstHigh) {
+        List<ForecastFile.Day> days = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ForecastFile.Day day = new ForecastFile.Day();
+            day.date = FIRST_DAY + i * DAY_IN_MILLIS;
+            day.weatherId = 800 + i;
+            day.min = -3.5f + i;
+            day.max = (i == 0 ? firstHigh : 10) + i;
+            day.humidity = 60 + i;
+            day.pressure = 1013.25f - i;
+            day.windSpeed = 4.5f;
+            day.degrees = 15 * i;
+            day.shortDesc = "clear sky";
+            days.add(day);
+        }
+        return days;
+    }
+
+    private File publishedFile() {
+        return ForecastFile.fileFor(mDir, LOCATION);
+    }
+
+    @Test
+    public void publishThenOpen_returnsSameDays() throws Exception {
+        List<ForecastFile.Day> days = createDays(14, 21);
+        assertTrue(ForecastFile.publish(mDir, LOCATION, days));
+
+        ForecastFile file = ForecastFile.open(mDir, LOCATION);
+        assertNotNull(file);
+        assertEquals(1, file.getVersion());
+        assertEquals(14, file.getDayCount());
+        assertEquals(ForecastFile.HEADER_BYTES + 14 * ForecastFile.RECORD_BYTES, publishedFile().length());
+        for (int i = 0; i < 14; i++) {
+            ForecastFile.Day day = days.get(i);
+            assertEquals(day.date, file.getDate(i));
+            assertEquals(day.weatherId, file.getWeatherId(i));
+            assertEquals(day.min, file.getMin(i), 0f);
+            assertEquals(day.max, file.getMax(i), 0f);
+            assertEquals(day.humidity, file.getHumidity(i), 0f);
+            assertEquals(day.pressure, file.getPressure(i), 0f);
+            assertEquals(day.windSpeed, file.getWindSpeed(i), 0f);
+            assertEquals(day.degrees, file.getDegrees(i), 0f);
+            assertEquals(day.shortDesc, file.getShortDesc(i));
+        }
+        assertEquals(3, file.indexOf(FIRST_DAY + 3 * DAY_IN_MILLIS));
+        assertEquals(14, file.indexOf(FIRST_DAY + 20 * DAY_IN_MILLIS));
+        assertFalse("Error: temporary file left behind",
+                new File(mDir, publishedFile().getName() + ".tmp").exists());
+    }
+
+    @Test
+    public void longDescription_isCutAtACharacter() throws Exception {
+        List<ForecastFile.Day> days = createDays(1, 21);
+        days.get(0).shortDesc = "heavy intensity shower rain with \u00e9\u00e9\u00e9";
+        ForecastFile.publish(mDir, LOCATION, days);
+        String desc = ForecastFile.open(mDir, LOCATION).getShortDesc(0);
+        assertTrue(days.get(0).shortDesc.startsWith(desc));
+        assertTrue(desc.length() > 20);
+    }
+
+    @Test
+    public void missingFile_opensAsNull() throws Exception {
+        assertNull(ForecastFile.open(mDir, LOCATION));
+        assertEquals(-1, ForecastFile.readVersion(mDir, LOCATION));
+    }
+
+    @Test
+    public void sameDays_keepTheVersion() throws Exception {
+        assertTrue(ForecastFile.publish(mDir, LOCATION, createDays(14, 21)));
+        assertFalse("Error: identical days published a new version",
+                ForecastFile.publish(mDir, LOCATION, createDays(14, 21)));
+        assertEquals(1, ForecastFile.readVersion(mDir, LOCATION));
+
+        assertTrue(ForecastFile.publish(mDir, LOCATION, createDays(14, 22)));
+        assertEquals(2, ForecastFile.readVersion(mDir, LOCATION));
+        assertTrue(ForecastFile.publish(mDir, LOCATION, createDays(13, 22)));
+        assertEquals(3, ForecastFile.readVersion(mDir, LOCATION));
+    }
+
+    // A reader keeps its mapping of the old file after a publish, and learns from the version.
+    @Test
+    public void republish_leavesOldMappingReadable() throws Exception {
+        ForecastFile.publish(mDir, LOCATION, createDays(14, 21));
+        ForecastFile old = ForecastFile.open(mDir, LOCATION);
+        assertTrue(old.isCurrent());
+
+        ForecastFile.publish(mDir, LOCATION, createDays(14, 30));
+        assertFalse("Error: reader not told about the new version", old.isCurrent());
+        assertEquals(21f, old.getMax(0), 0f);
+
+        ForecastFile current = ForecastFile.open(mDir, LOCATION);
+        assertTrue(current.isCurrent());
+        assertEquals(30f, current.getMax(0), 0f);
+        assertEquals(old.getVersion() + 1, current.getVersion());
+    }
+
+    // What a reader would see if the file were written in place and it came in half way through.
+    @Test
+    public void truncatedFile_opensAsNull() throws Exception {
+        ForecastFile.publish(mDir, LOCATION, createDays(14, 21));
+        long length = publishedFile().length();
+        for (long cut : new long[]{0, 4, ForecastFile.HEADER_BYTES - 1, ForecastFile.HEADER_BYTES,
+                length - ForecastFile.RECORD_BYTES, length - 1}) {
+            RandomAccessFile raf = new RandomAccessFile(publishedFile(), "rw");
+            raf.setLength(cut);
+            raf.close();
+            assertNull("Error: file cut at " + cut + " bytes was opened",
+                    ForecastFile.open(mDir, LOCATION));
+        }
+    }
+
+    @Test
+    public void corruptRecord_opensAsNull() throws Exception {
+        ForecastFile.publish(mDir, LOCATION, createDays(14, 21));
+        RandomAccessFile raf = new RandomAccessFile(publishedFile(), "rw");
+        raf.seek(ForecastFile.HEADER_BYTES + 5 * ForecastFile.RECORD_BYTES + 12);
+        int b = raf.read();
+        raf.seek(ForecastFile.HEADER_BYTES + 5 * ForecastFile.RECORD_BYTES + 12);
+        raf.write(b ^ 0x01);
+        raf.close();
+        assertNull("Error: file with a flipped bit was opened", ForecastFile.open(mDir, LOCATION));
+    }
+
+    @Test
+    public void garbageFile_opensAsNull() throws Exception {
+        FileOutputStream out = new FileOutputStream(publishedFile());
+        out.write(new byte[ForecastFile.HEADER_BYTES + ForecastFile.RECORD_BYTES]);
+        out.close();
+        assertNull(ForecastFile.open(mDir, LOCATION));
+        assertEquals(-1, ForecastFile.readVersion(mDir, LOCATION));
+    }
+
+    // A writer that died before the rename leaves only the temporary file behind.
+    @Test
+    public void leftoverTemporaryFile_isIgnoredThenReplaced() throws Exception {
+        ForecastFile.publish(mDir, LOCATION, createDays(14, 21));
+        File tmp = new File(mDir, publishedFile().getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        ForecastFile file = ForecastFile.open(mDir, LOCATION);
+        assertNotNull(file);
+        assertEquals(21f, file.getMax(0), 0f);
+
+        assertTrue(ForecastFile.publish(mDir, LOCATION, createDays(14, 25)));
+        assertEquals(25f, ForecastFile.open(mDir, LOCATION).getMax(0), 0f);
+        assertFalse(tmp.exists());
+    }
+
+    @Test
+    public void fileOfAnotherLocation_opensAsNull() throws Exception {
+        ForecastFile.publish(mDir, "London,uk", createDays(14, 21));
+        assertTrue(ForecastFile.fileFor(mDir, "London,uk").renameTo(publishedFile()));
+        assertNull(ForecastFile.open(mDir, LOCATION));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void dayPastTheEnd_throws() throws Exception {
+        ForecastFile.publish(mDir, LOCATION, createDays(3, 21));
+        ForecastFile.open(mDir, LOCATION).getMax(3);
+    }
+
+    @Test
+    public void corruptPublishedFile_isReplacedOnPublish() throws IOException {
+        FileOutputStream out = new FileOutputStream(publishedFile());
+        out.write(new byte[]{0, 1, 2});
+        out.close();
+        assertTrue(ForecastFile.publish(mDir, LOCATION, createDays(14, 21)));
+        assertNotNull(ForecastFile.open(mDir, LOCATION));
+    }
+}
@@ -0,0 +1,52 @@
+package com.mhv.meteoapp.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HourlyPackerTest {
+
+    private static HourlyPacker.Series createSeries(int size) {
+        HourlyPacker.Series series = new HourlyPacker.Series(size);
+        for (int i = 0; i < size; i++) {
+            series.minutes[i] = i * 180;
+            series.temperatures[i] = -5.25f + i;
+            series.weatherIds[i] = 800 + i;
+            series.humidity[i] = 60 + i;
+            series.pressure[i] = 1013.5f - i;
+            series.windSpeed[i] = 3.5f + i;
+            series.degrees[i] = 45 * i;
+        }
+        return series;
+    }
+
+    @Test
+    public void packThenUnpack_returnsSamePoints() throws Exception {
+        HourlyPacker.Series series = createSeries(8);
+        byte[] blob = HourlyPacker.pack(series);
+        assertEquals(HourlyPacker.packedSize(8), blob.length);
+
+        HourlyPacker.Series unpacked = HourlyPacker.unpack(blob);
+        assertArrayEquals(series.minutes, unpacked.minutes);
+        assertArrayEquals(series.temperatures, unpacked.temperatures, 0f);
+        assertArrayEquals(series.weatherIds, unpacked.weatherIds);
+        assertArrayEquals(series.humidity, unpacked.humidity, 0f);
+        assertArrayEquals(series.pressure, unpacked.pressure, 0f);
+        assertArrayEquals(series.windSpeed, unpacked.windSpeed, 0f);
+        assertArrayEquals(series.degrees, unpacked.degrees, 0f);
+    }
+
+    @Test
+    public void packEmptySeries() throws Exception {
+        HourlyPacker.Series unpacked = HourlyPacker.unpack(HourlyPacker.pack(createSeries(0)));
+        assertEquals(0, unpacked.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unpackTruncatedBlob_throws() throws Exception {
+        byte[] blob = HourlyPacker.pack(createSeries(8));
+        byte[] truncated = new byte[blob.length - 4];
+        System.arraycopy(blob, 0, truncated, 0, truncated.length);
+        HourlyPacker.unpack(truncated);
+    }
+}
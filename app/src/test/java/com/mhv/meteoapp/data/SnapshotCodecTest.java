@@ -0,0 +1,184 @@
+package com.mhv.meteoapp.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotCodecTest {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // Local midnight of April 3rd, 2016 in UTC+2.
+    private static final long FIRST_DAY = 1459641600000L - 2 * 60 * 60 * 1000;
+
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow"};
+
+    private static class Collector implements SnapshotReader.Visitor {
+        final List<String> locations = new ArrayList<>();
+        final List<String> aliases = new ArrayList<>();
+        final List<double[]> weather = new ArrayList<>();
+        final List<String> descriptions = new ArrayList<>();
+
+        @Override
+        public void onLocation(long id, String locationSetting, String cityName, double lat, double lon,
+                               long cityId) {
+            locations.add(id + "|" + locationSetting + "|" + cityName + "|" + lat + "|" + lon + "|" + cityId);
+        }
+
+        @Override
+        public void onAlias(long locationId, String locationSetting) {
+            aliases.add(locationId + "|" + locationSetting);
+        }
+
+        @Override
+        public void onWeather(long locationId, long date, int weatherId, String shortDesc,
+                              double min, double max, double humidity, double pressure,
+                              double wind, double degrees) {
+            weather.add(new double[]{locationId, date, weatherId, min, max, humidity, pressure, wind, degrees});
+            descriptions.add(shortDesc);
+        }
+    }
+
+    // Three locations with 2.5 chunks of days each, so chunks split in the middle of a location.
+    private static byte[] writeSnapshot(int days) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(out);
+        for (int location = 1; location <= 3; location++) {
+            writer.writeLocation(location * 10, "setting" + location, "Zürich " + location,
+                    47.376887 + location, -8.541694, 0);
+        }
+        for (int location = 1; location <= 3; location++) {
+            for (int day = 0; day < days; day++) {
+                writer.writeWeather(location * 10, FIRST_DAY + day * DAY_IN_MILLIS,
+                        800 + day % 4, DESCRIPTIONS[day % 4],
+                        -12.34 + day % 30, 21.5 + day % 10, 65, 1013.25, 4.1, 247.5);
+            }
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writeThenRead_returnsSameRows() throws Exception {
+        int days = SnapshotWriter.CHUNK_ROWS * 5 / 2;
+        Collector collector = new Collector();
+        long rows = new SnapshotReader(new ByteArrayInputStream(writeSnapshot(days)), collector).read();
+
+        assertEquals(3 * days, rows);
+        assertEquals("10|setting1|Zürich 1|48.376887|-8.541694|0", collector.locations.get(0));
+        assertEquals(3, collector.locations.size());
+
+        double[] first = collector.weather.get(0);
+        assertEquals(10, first[0], 0);
+        assertEquals(FIRST_DAY, (long) first[1]);
+        assertEquals(800, first[2], 0);
+        assertEquals(-12.34, first[3], 1e-9);
+        assertEquals(21.5, first[4], 1e-9);
+        assertEquals(65, first[5], 1e-9);
+        assertEquals(1013.25, first[6], 1e-9);
+        assertEquals(4.1, first[7], 1e-9);
+        assertEquals(247.5, first[8], 1e-9);
+
+        double[] last = collector.weather.get(3 * days - 1);
+        assertEquals(30, last[0], 0);
+        assertEquals(FIRST_DAY + (days - 1) * DAY_IN_MILLIS, (long) last[1]);
+        assertEquals(DESCRIPTIONS[(days - 1) % 4], collector.descriptions.get(3 * days - 1));
+    }
+
+    @Test
+    public void temperaturesAreQuantizedToHundredths() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(out);
+        writer.writeLocation(1, "a", "a", 0, 0, 0);
+        writer.writeWeather(1, FIRST_DAY, 800, "Clear", 1.23456, -0.004, 0, 0, 0, 0);
+        writer.finish();
+
+        Collector collector = new Collector();
+        new SnapshotReader(new ByteArrayInputStream(out.toByteArray()), collector).read();
+        assertEquals(1.23, collector.weather.get(0)[3], 1e-9);
+        assertEquals(0, collector.weather.get(0)[4], 1e-9);
+    }
+
+    @Test
+    public void datesThatAreNotWholeMinutes_areKeptExactly() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(out);
+        writer.writeLocation(1, "a", "a", 0, 0, 0);
+        writer.writeWeather(1, FIRST_DAY + 1234, 800, "Clear", 0, 0, 0, 0, 0, 0);
+        writer.finish();
+
+        Collector collector = new Collector();
+        new SnapshotReader(new ByteArrayInputStream(out.toByteArray()), collector).read();
+        assertEquals(FIRST_DAY + 1234, (long) collector.weather.get(0)[1]);
+    }
+
+    @Test
+    public void sortedRows_takeFewBytes() throws Exception {
+        int days = 1000;
+        byte[] snapshot = writeSnapshot(days);
+        assertTrue("Error: " + snapshot.length + " bytes for " + 3 * days + " rows",
+                snapshot.length < 3 * days * 20);
+    }
+
+    @Test(expected = EOFException.class)
+    public void readTruncatedSnapshot_throws() throws Exception {
+        byte[] snapshot = writeSnapshot(100);
+        byte[] truncated = new byte[snapshot.length / 2];
+        System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+        new SnapshotReader(new ByteArrayInputStream(truncated), new Collector()).read();
+    }
+
+    @Test
+    public void readCorruptSnapshot_throws() throws Exception {
+        byte[] snapshot = writeSnapshot(100);
+        // A temperature byte in the last chunk: still decodes, only the checksum catches it.
+        snapshot[snapshot.length - 40] ^= 0x01;
+        try {
+            new SnapshotReader(new ByteArrayInputStream(snapshot), new Collector()).read();
+            fail("Error: a corrupt snapshot was read without error");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void aliasesAndCityIds_areKept() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(out);
+        writer.writeLocation(1, "London", "London", 51.51, -0.13, 2643743);
+        writer.writeLocation(2, "a", "a", 0, 0, 0);
+        writer.writeAlias(1, "london,uk");
+        writer.writeAlias(1, "London, GB");
+        writer.writeWeather(1, FIRST_DAY, 800, "Clear", 0, 0, 0, 0, 0, 0);
+        writer.finish();
+
+        Collector collector = new Collector();
+        new SnapshotReader(new ByteArrayInputStream(out.toByteArray()), collector).read();
+        assertEquals("1|London|London|51.51|-0.13|2643743", collector.locations.get(0));
+        assertEquals("2|a|a|0.0|0.0|0", collector.locations.get(1));
+        assertEquals(2, collector.aliases.size());
+        assertEquals("1|london,uk", collector.aliases.get(0));
+        assertEquals("1|London, GB", collector.aliases.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeLocationAfterAlias_throws() throws Exception {
+        SnapshotWriter writer = new SnapshotWriter(new ByteArrayOutputStream());
+        writer.writeLocation(1, "a", "a", 0, 0, 0);
+        writer.writeAlias(1, "b");
+        writer.writeLocation(2, "c", "c", 0, 0, 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeLocationAfterWeather_throws() throws Exception {
+        SnapshotWriter writer = new SnapshotWriter(new ByteArrayOutputStream());
+        writer.writeLocation(1, "a", "a", 0, 0, 0);
+        writer.writeWeather(1, FIRST_DAY, 800, "Clear", 0, 0, 0, 0, 0, 0);
+        writer.writeLocation(2, "b", "b", 0, 0, 0);
+    }
+}
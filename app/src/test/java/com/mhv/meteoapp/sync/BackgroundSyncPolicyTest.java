@@ -0,0 +1,177 @@
+package com.mhv.meteoapp.sync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BackgroundSyncPolicyTest {
+
+    private static final long START = 1463223600000L;
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long MAX_DEFERRAL = 12 * HOUR;
+
+    private static final BackgroundSyncPolicy.Conditions MOBILE =
+            new BackgroundSyncPolicy.Conditions(false, false);
+    private static final BackgroundSyncPolicy.Conditions WIFI =
+            new BackgroundSyncPolicy.Conditions(true, false);
+    private static final BackgroundSyncPolicy.Conditions CHARGING_ON_MOBILE =
+            new BackgroundSyncPolicy.Conditions(false, true);
+
+    private static class MemoryStore implements QuotaManager.Store {
+        final Map<String, Long> values = new HashMap<>();
+
+        @Override
+        public long get(String key, long defaultValue) {
+            Long value = values.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        @Override
+        public void put(String key, long value) {
+            values.put(key, value);
+        }
+    }
+
+    /**
+     * Plays the periodic sync every 3 hours against conditions that change by the hour, with
+     * the deferred job of BackgroundSyncJobService run as JobScheduler would: as soon as the
+     * conditions allow it, or at its deadline.
+     */
+    private static class Simulation {
+        final BackgroundSyncPolicy policy = new BackgroundSyncPolicy(MAX_DEFERRAL, new MemoryStore());
+        final BackgroundSyncPolicy.Conditions[] hours;
+        // Hours at which the background locations were refreshed, and those on mobile data.
+        final List<Integer> passes = new ArrayList<>();
+        int meteredPasses;
+        int deferrals;
+
+        Simulation(BackgroundSyncPolicy.Conditions... hours) {
+            this.hours = hours;
+        }
+
+        Simulation run() {
+            long jobDeadline = -1;
+            for (int hour = 0; hour < hours.length; hour++) {
+                long now = START + hour * HOUR;
+                BackgroundSyncPolicy.Conditions conditions = hours[hour];
+                if (jobDeadline >= 0 && (conditions.isCheap() || now >= jobDeadline)) {
+                    pass(hour, conditions);
+                    jobDeadline = -1;
+                }
+                if (hour % 3 == 0) {
+                    // The preferred location is synced here whatever the conditions.
+                    if (policy.shouldRunNow(conditions, now)) {
+                        pass(hour, conditions);
+                        jobDeadline = -1;
+                    } else {
+                        // Scheduling again replaces the job, as with the same job id.
+                        jobDeadline = now + policy.getDeadline(now);
+                        deferrals++;
+                    }
+                }
+            }
+            return this;
+        }
+
+        private void pass(int hour, BackgroundSyncPolicy.Conditions conditions) {
+            policy.recordRun(START + hour * HOUR);
+            passes.add(hour);
+            if (!conditions.unmetered) {
+                meteredPasses++;
+            }
+        }
+    }
+
+    // Repeats each conditions for the number of hours before it.
+    private static BackgroundSyncPolicy.Conditions[] hours(Object... spans) {
+        List<BackgroundSyncPolicy.Conditions> hours = new ArrayList<>();
+        for (int i = 0; i < spans.length; i += 2) {
+            for (int j = 0; j < (Integer) spans[i]; j++) {
+                hours.add((BackgroundSyncPolicy.Conditions) spans[i + 1]);
+            }
+        }
+        return hours.toArray(new BackgroundSyncPolicy.Conditions[hours.size()]);
+    }
+
+    @Test
+    public void shouldRunNow_neverRan_runs() {
+        BackgroundSyncPolicy policy = new BackgroundSyncPolicy(MAX_DEFERRAL, new MemoryStore());
+        assertTrue("Error: A first pass shouldn't wait", policy.shouldRunNow(MOBILE, START));
+    }
+
+    @Test
+    public void shouldRunNow_unmeteredOrCharging_runs() {
+        BackgroundSyncPolicy policy = new BackgroundSyncPolicy(MAX_DEFERRAL, new MemoryStore());
+        policy.recordRun(START);
+        assertTrue("Error: Wi-Fi should run the pass", policy.shouldRunNow(WIFI, START + HOUR));
+        assertTrue("Error: A charger should run the pass",
+                policy.shouldRunNow(CHARGING_ON_MOBILE, START + HOUR));
+    }
+
+    @Test
+    public void shouldRunNow_meteredOnBattery_defersUntilDeadline() {
+        BackgroundSyncPolicy policy = new BackgroundSyncPolicy(MAX_DEFERRAL, new MemoryStore());
+        policy.recordRun(START);
+        assertFalse("Error: Mobile data on battery should defer",
+                policy.shouldRunNow(MOBILE, START + 3 * HOUR));
+        assertEquals("Error: Wrong deadline", 9 * HOUR, policy.getDeadline(START + 3 * HOUR));
+        assertTrue("Error: An overdue pass should run on mobile data",
+                policy.shouldRunNow(MOBILE, START + MAX_DEFERRAL));
+    }
+
+    @Test
+    public void getDeadline_clockWentBack_isZero() {
+        BackgroundSyncPolicy policy = new BackgroundSyncPolicy(MAX_DEFERRAL, new MemoryStore());
+        policy.recordRun(START + HOUR);
+        assertEquals("Error: A last run in the future shouldn't be trusted", 0,
+                policy.getDeadline(START));
+    }
+
+    @Test
+    public void simulation_alwaysWifi_runsWithEverySync() {
+        Simulation simulation = new Simulation(hours(24, WIFI)).run();
+        assertEquals("Error: Every periodic sync should refresh the background locations",
+                Arrays.asList(0, 3, 6, 9, 12, 15, 18, 21), simulation.passes);
+        assertEquals("Error: Nothing should be deferred", 0, simulation.deferrals);
+    }
+
+    @Test
+    public void simulation_alwaysMobile_runsAtDeadlineOnly() {
+        Simulation simulation = new Simulation(hours(48, MOBILE)).run();
+        assertEquals("Error: On mobile data the pass should only run when overdue",
+                Arrays.asList(0, 12, 24, 36), simulation.passes);
+    }
+
+    @Test
+    public void simulation_wifiComesBack_jobRunsOnce() {
+        // Away on mobile data, back on Wi-Fi between two periodic syncs.
+        Simulation simulation = new Simulation(hours(1, WIFI, 6, MOBILE, 5, WIFI)).run();
+        assertEquals("Error: The job should run once, as Wi-Fi comes back",
+                Arrays.asList(0, 7, 9), simulation.passes);
+        assertEquals("Error: Nothing should run on mobile data", 0, simulation.meteredPasses);
+    }
+
+    @Test
+    public void simulation_chargerPluggedIn_jobRuns() {
+        Simulation simulation = new Simulation(
+                hours(1, WIFI, 3, MOBILE, 1, CHARGING_ON_MOBILE, 1, MOBILE)).run();
+        assertEquals("Error: The job should run on the charger",
+                Arrays.asList(0, 4), simulation.passes);
+    }
+
+    @Test
+    public void simulation_commuterDay_batchesAwayFromMobileData() {
+        // On Wi-Fi at home in the evening and night, mobile data through the day.
+        Simulation simulation = new Simulation(hours(7, WIFI, 11, MOBILE, 6, WIFI,
+                7, WIFI, 11, MOBILE, 6, WIFI)).run();
+        assertEquals("Error: The day's refreshes should wait for Wi-Fi", 0, simulation.meteredPasses);
+        assertTrue("Error: Fewer passes than periodic syncs expected", simulation.passes.size() < 16);
+        assertTrue("Error: Syncs on mobile data should defer", simulation.deferrals > 0);
+    }
+}
@@ -0,0 +1,69 @@
+package com.mhv.meteoapp.sync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 1000;
+
+    private static CircuitBreaker tripped(long now) {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS, 4 * OPEN_MILLIS);
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(now);
+        }
+        return breaker;
+    }
+
+    @Test
+    public void failuresBelowThreshold_stayClosed() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS, 4 * OPEN_MILLIS);
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        breaker.onSuccess();
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        assertEquals("Error: A success should reset the count", CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue("Error: A closed breaker should allow requests", breaker.allowRequest(0));
+    }
+
+    @Test
+    public void thresholdReached_refusesUntilOpenTimePassed() {
+        CircuitBreaker breaker = tripped(0);
+        assertEquals("Error: The breaker should be open", CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse("Error: An open breaker should refuse requests", breaker.allowRequest(OPEN_MILLIS - 1));
+        assertTrue("Error: The trial request should be let through", breaker.allowRequest(OPEN_MILLIS));
+        assertFalse("Error: Only one trial request should be let through", breaker.allowRequest(OPEN_MILLIS));
+    }
+
+    @Test
+    public void trialSucceeds_closes() {
+        CircuitBreaker breaker = tripped(0);
+        breaker.allowRequest(OPEN_MILLIS);
+        breaker.onSuccess();
+        assertEquals("Error: The breaker should close", CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void trialFails_reopensForLongerUpToMaximum() {
+        CircuitBreaker breaker = tripped(0);
+        long now = OPEN_MILLIS;
+        long[] expectedOpen = {2 * OPEN_MILLIS, 4 * OPEN_MILLIS, 4 * OPEN_MILLIS};
+        for (long open : expectedOpen) {
+            assertTrue("Error: The trial request should be let through", breaker.allowRequest(now));
+            breaker.onFailure(now);
+            assertEquals("Error: Wrong time to reopen", now + open, breaker.getOpenUntil());
+            now += open;
+        }
+    }
+
+    @Test
+    public void openUntil_keepsLaterTime() {
+        CircuitBreaker breaker = tripped(0);
+        breaker.openUntil(500);
+        assertEquals("Error: An earlier time shouldn't shorten the wait", OPEN_MILLIS, breaker.getOpenUntil());
+        breaker.openUntil(10 * OPEN_MILLIS);
+        assertEquals("Error: A later time should lengthen it", 10 * OPEN_MILLIS, breaker.getOpenUntil());
+    }
+}
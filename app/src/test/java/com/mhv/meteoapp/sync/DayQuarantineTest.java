@@ -0,0 +1,136 @@
+package com.mhv.meteoapp.sync;
+
+import com.mhv.meteoapp.core.DayForecast;
+import com.mhv.meteoapp.core.Forecast;
+import com.mhv.meteoapp.core.ForecastParser;
+import com.mhv.meteoapp.loadgen.FakeForecastServer;
+import com.mhv.meteoapp.loadgen.ForecastGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class DayQuarantineTest {
+
+    private static final int DAYS = 14;
+
+    private FakeForecastServer mServer;
+    private ForecastClient mClient;
+    private DayQuarantine mQuarantine;
+
+    private static class MemoryStore implements QuotaManager.Store {
+        final Map<String, Long> values = new HashMap<>();
+
+        @Override
+        public long get(String key, long defaultValue) {
+            Long value = values.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        @Override
+        public void put(String key, long value) {
+            values.put(key, value);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeForecastServer(new ForecastGenerator(1), 1);
+        mServer.start(0);
+        mClient = new ForecastClient(new CircuitBreaker(5, 60000, 60000), new Random(1));
+        mClient.setTimeouts(1000, 1000);
+        mQuarantine = new DayQuarantine(new MemoryStore());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    // Fetches, parses and "stores" a location's forecast the way the sync does.
+    private Forecast sync(String location) throws IOException {
+        String json = mClient.fetch(mServer.getBaseUrl() + "forecast/daily?q=" + location
+                + "&mode=json&units=metric&cnt=" + DAYS);
+        Forecast forecast = new ForecastParser(System.currentTimeMillis(), TimeZone.getTimeZone("UTC"))
+                .parse(json);
+        mQuarantine.update(location, forecast.quarantinedDays, dates(forecast));
+        return forecast;
+    }
+
+    private static List<Long> dates(Forecast forecast) {
+        List<Long> dates = new ArrayList<>();
+        for (DayForecast day : forecast.days) {
+            dates.add(day.date);
+        }
+        return dates;
+    }
+
+    @Test
+    public void update_remembersQuarantinedDays() {
+        mQuarantine.update("a", Arrays.asList(3L, 5L), Arrays.asList(1L, 2L, 4L));
+        assertTrue(mQuarantine.isQuarantined("a"));
+        assertEquals(Arrays.asList(3L, 5L), mQuarantine.get("a"));
+        assertFalse("Error: Other locations should be unaffected", mQuarantine.isQuarantined("b"));
+    }
+
+    @Test
+    public void update_countsRecoveredDays() {
+        mQuarantine.update("a", Arrays.asList(3L, 5L), Arrays.asList(1L, 2L, 4L));
+        assertEquals("Error: Only day 3 came back", 1,
+                mQuarantine.update("a", Collections.singletonList(5L), Arrays.asList(1L, 2L, 3L, 4L)));
+        assertEquals(Collections.singletonList(5L), mQuarantine.get("a"));
+        assertEquals(1, mQuarantine.update("a", Collections.<Long>emptyList(), Arrays.asList(3L, 4L, 5L)));
+        assertFalse(mQuarantine.isQuarantined("a"));
+        assertTrue(mQuarantine.get("a").isEmpty());
+    }
+
+    @Test
+    public void faultInjected_validDaysKept() throws Exception {
+        mServer.setCorruptDayRate(0.3);
+        int quarantined = 0;
+        int stored = 0;
+        for (int i = 0; i < 10; i++) {
+            Forecast forecast = sync("city" + i);
+            assertEquals("Error: Every day should be stored or quarantined", DAYS,
+                    forecast.days.size() + forecast.quarantinedDays.size());
+            quarantined += forecast.quarantinedDays.size();
+            stored += forecast.days.size();
+            assertEquals(forecast.quarantinedDays, mQuarantine.get("city" + i));
+        }
+        assertEquals("Error: Wrong quarantined count", mServer.getCorruptedDayCount(), quarantined);
+        assertTrue("Error: Expected some days of each kind", quarantined > 0 && stored > 0);
+    }
+
+    @Test
+    public void faultInjected_refetchRecoversDays() throws Exception {
+        mServer.setCorruptDayRate(0.5);
+        Forecast first = sync("Madrid");
+        assertTrue("Error: Expected quarantined days", mQuarantine.isQuarantined("Madrid"));
+
+        mServer.setCorruptDayRate(0);
+        String json = mClient.fetch(mServer.getBaseUrl() + "forecast/daily?q=Madrid&cnt=" + DAYS);
+        Forecast second = new ForecastParser(System.currentTimeMillis(), TimeZone.getTimeZone("UTC"))
+                .parse(json);
+        assertEquals("Error: Every quarantined day should come back", first.quarantinedDays.size(),
+                mQuarantine.update("Madrid", second.quarantinedDays, dates(second)));
+        assertFalse(mQuarantine.isQuarantined("Madrid"));
+    }
+
+    @Test(expected = IOException.class)
+    public void faultInjected_everyDayBad_rejected() throws Exception {
+        mServer.setCorruptDayRate(1);
+        sync("Madrid");
+    }
+}
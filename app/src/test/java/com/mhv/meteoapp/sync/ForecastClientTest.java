@@ -0,0 +1,220 @@
+package com.mhv.meteoapp.sync;
+
+import com.mhv.meteoapp.loadgen.FakeForecastServer;
+import com.mhv.meteoapp.loadgen.ForecastGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ForecastClientTest {
+
+    private FakeForecastServer mServer;
+    private ForecastClient mClient;
+    private final List<Long> mSleeps = new ArrayList<>();
+    private String mDailyUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeForecastServer(new ForecastGenerator(1), 1);
+        mServer.start(0);
+        mDailyUrl = mServer.getBaseUrl() + "forecast/daily?q=94043&cnt=7";
+
+        mClient = new ForecastClient(new CircuitBreaker(5, 60000, 60000), new Random(1));
+        mClient.setTimeouts(1000, 1000);
+        mClient.setRetries(3, 100, 1000);
+        mClient.setSleeper(new ForecastClient.Sleeper() {
+            @Override
+            public void sleep(long millis) {
+                mSleeps.add(millis);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void fetch_returnsBody() throws IOException {
+        String body = mClient.fetch(mDailyUrl);
+        assertTrue("Error: Expected the daily forecast", body.contains("\"list\""));
+        assertEquals("Error: Wrong byte count", body.length(), mClient.getBytesRead());
+        assertEquals("Error: Nothing should be retried", 0, mClient.getRetries());
+    }
+
+    @Test
+    public void fetch_reusesConnection() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            mClient.fetch(mDailyUrl);
+        }
+        assertEquals("Error: Fetches should share one connection", 1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void fetch_throttled_waitsRetryAfterThenSucceeds() throws IOException {
+        mServer.setRetryAfterSeconds(2);
+        mServer.failNext(1, 429);
+        assertNotNull(mClient.fetch(mDailyUrl));
+        assertEquals("Error: Wrong number of requests", 2, mServer.getRequestCount());
+        assertEquals("Error: Should have waited the Retry-After", 2000L, (long) mSleeps.get(0));
+    }
+
+    @Test
+    public void fetch_serverErrors_backsOffWithJitter() throws IOException {
+        mServer.failNext(2, 500);
+        assertNotNull(mClient.fetch(mDailyUrl));
+        assertEquals("Error: Wrong number of waits", 2, mSleeps.size());
+        assertTrue("Error: First wait above its cap", mSleeps.get(0) < 100);
+        assertTrue("Error: Second wait above its cap", mSleeps.get(1) < 200);
+        assertEquals("Error: Wrong retry count", 2, mClient.getRetries());
+        assertEquals("Error: Failures should still share one connection", 1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void fetch_givesUpAfterMaxAttempts() {
+        mServer.failNext(10, 503);
+        try {
+            mClient.fetch(mDailyUrl);
+            fail("Error: Expected the fetch to fail");
+        } catch (ForecastClient.HttpException e) {
+            assertEquals("Error: Wrong status", 503, e.getStatus());
+            assertTrue("Error: 503 should be transient", e.isTransient());
+        } catch (IOException e) {
+            fail("Error: Unexpected " + e);
+        }
+        assertEquals("Error: Wrong number of requests", 3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void fetch_notFound_isNotRetried() {
+        try {
+            mClient.fetch(mServer.getBaseUrl() + "weather?q=94043");
+            fail("Error: Expected the fetch to fail");
+        } catch (ForecastClient.HttpException e) {
+            assertEquals("Error: Wrong status", 404, e.getStatus());
+            assertFalse("Error: 404 shouldn't be transient", e.isTransient());
+        } catch (IOException e) {
+            fail("Error: Unexpected " + e);
+        }
+        assertEquals("Error: A 404 shouldn't be retried", 1, mServer.getRequestCount());
+        assertEquals("Error: A 404 shouldn't count against the breaker",
+                CircuitBreaker.State.CLOSED, mClient.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void fetch_truncatedBody_isRetried() throws IOException {
+        mServer.setTruncateRate(1);
+        try {
+            mClient.fetch(mDailyUrl);
+            fail("Error: Expected the fetch to fail");
+        } catch (ForecastClient.HttpException e) {
+            fail("Error: Unexpected " + e);
+        } catch (IOException e) {
+            // Expected, every body was short.
+        }
+        assertEquals("Error: Short bodies should be retried", 3, mServer.getRequestCount());
+
+        mServer.setTruncateRate(0);
+        assertNotNull(mClient.fetch(mDailyUrl));
+    }
+
+    @Test
+    public void fetch_slowServer_timesOut() {
+        mServer.setLatencyMillis(1500);
+        mClient.setRetries(1, 100, 1000);
+        try {
+            mClient.fetch(mDailyUrl);
+            fail("Error: Expected a timeout");
+        } catch (SocketTimeoutException e) {
+            // Expected.
+        } catch (IOException e) {
+            fail("Error: Unexpected " + e);
+        }
+    }
+
+    @Test
+    public void fetch_longRetryAfter_opensBreakerWithoutWaiting() throws IOException {
+        mClient.setMaxRetryAfterMillis(10000);
+        mServer.setRetryAfterSeconds(3600);
+        mServer.failNext(1, 429);
+        try {
+            mClient.fetch(mDailyUrl);
+            fail("Error: Expected the fetch to fail");
+        } catch (ForecastClient.HttpException e) {
+            assertEquals("Error: Wrong status", 429, e.getStatus());
+        }
+        assertTrue("Error: Shouldn't wait an hour", mSleeps.isEmpty());
+
+        try {
+            mClient.fetch(mDailyUrl);
+            fail("Error: Expected the breaker to be open");
+        } catch (ForecastClient.CircuitOpenException e) {
+            assertTrue("Error: Should stay open for the Retry-After",
+                    e.getOpenUntil() >= System.currentTimeMillis() + 3500 * 1000);
+        }
+        assertEquals("Error: No request should be made while open", 1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void fetch_repeatedFailures_openBreaker() throws IOException {
+        mServer.failNext(100, 500);
+        for (int i = 0; i < 2; i++) {
+            try {
+                mClient.fetch(mDailyUrl);
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+        assertEquals("Error: The breaker should open after 5 failures",
+                CircuitBreaker.State.OPEN, mClient.getCircuitBreaker().getState());
+        assertEquals("Error: No request should be made once open", 5, mServer.getRequestCount());
+    }
+
+    @Test
+    public void fetch_quotaUsedUp_makesNoRequest() throws IOException {
+        final Map<String, Long> state = new HashMap<>();
+        mClient.setQuota(new QuotaManager(1, 100, new QuotaManager.Store() {
+            @Override
+            public long get(String key, long defaultValue) {
+                Long value = state.get(key);
+                return value != null ? value : defaultValue;
+            }
+
+            @Override
+            public void put(String key, long value) {
+                state.put(key, value);
+            }
+        }));
+        assertNotNull(mClient.fetch(mDailyUrl));
+        try {
+            mClient.fetch(mDailyUrl);
+            fail("Error: Expected the quota to be used up");
+        } catch (QuotaManager.QuotaExceededException e) {
+            assertTrue("Error: The next call should be within the minute",
+                    e.getRetryAt() <= System.currentTimeMillis() + 60 * 1000);
+        }
+        assertEquals("Error: No request should be made over the quota", 1, mServer.getRequestCount());
+        assertEquals("Error: The quota shouldn't count against the breaker",
+                CircuitBreaker.State.CLOSED, mClient.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void parseRetryAfter_readsSecondsAndDates() {
+        assertEquals(120000, ForecastClient.parseRetryAfter("120", 0));
+        assertEquals(30000, ForecastClient.parseRetryAfter("Thu, 01 Jan 1970 00:00:30 GMT", 0));
+        assertEquals(-1, ForecastClient.parseRetryAfter("soon", 0));
+        assertEquals(-1, ForecastClient.parseRetryAfter(null, 0));
+    }
+}
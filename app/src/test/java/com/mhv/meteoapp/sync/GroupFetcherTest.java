@@ -0,0 +1,156 @@
+package com.mhv.meteoapp.sync;
+
+import com.mhv.meteoapp.core.Forecast;
+import com.mhv.meteoapp.core.ForecastParser;
+import com.mhv.meteoapp.loadgen.FakeForecastServer;
+import com.mhv.meteoapp.loadgen.ForecastGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class GroupFetcherTest {
+
+    private static final int LOCATIONS = 45;
+    private static final int DAYS = 7;
+
+    private FakeForecastServer mServer;
+    private ForecastClient mClient;
+    private ForecastParser mParser;
+    private final Map<String, Forecast> mForecasts = new HashMap<>();
+    private final Map<String, IOException> mErrors = new HashMap<>();
+    private final GroupFetcher.Listener mListener = new GroupFetcher.Listener() {
+        @Override
+        public void onForecast(String locationSetting, Forecast forecast) {
+            assertNull("Error: " + locationSetting + " reported twice", mForecasts.put(locationSetting, forecast));
+        }
+
+        @Override
+        public void onError(String locationSetting, IOException e) {
+            mErrors.put(locationSetting, e);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeForecastServer(new ForecastGenerator(1), 1);
+        mServer.start(0);
+        mClient = new ForecastClient(new CircuitBreaker(5, 60000, 60000), new Random(1));
+        mClient.setTimeouts(1000, 1000);
+        mParser = new ForecastParser(System.currentTimeMillis(), TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    private static List<GroupFetcher.Location> locations(Map<String, Long> cityIds) {
+        List<GroupFetcher.Location> locations = new ArrayList<>();
+        for (int i = 0; i < LOCATIONS; i++) {
+            String setting = "city" + i;
+            Long cityId = cityIds.get(setting);
+            locations.add(new GroupFetcher.Location(setting, cityId != null ? cityId : 0));
+        }
+        return locations;
+    }
+
+    // Fetches every location, then again with the city ids the first fetch resolved.
+    private int resolveThenFetch(GroupFetcher fetcher) throws IOException {
+        fetcher.fetch(mServer.getBaseUrl(), locations(new HashMap<String, Long>()), DAYS,
+                QuotaManager.Priority.BACKGROUND, mParser, Integer.MAX_VALUE, mListener);
+        assertEquals("Error: Every location should be resolved", LOCATIONS, mForecasts.size());
+        Map<String, Long> cityIds = new HashMap<>();
+        for (Map.Entry<String, Forecast> entry : mForecasts.entrySet()) {
+            assertTrue("Error: No city id for " + entry.getKey(), entry.getValue().cityId > 0);
+            cityIds.put(entry.getKey(), entry.getValue().cityId);
+        }
+        mForecasts.clear();
+
+        int before = mServer.getRequestCount();
+        fetcher.fetch(mServer.getBaseUrl(), locations(cityIds), DAYS,
+                QuotaManager.Priority.BACKGROUND, mParser, Integer.MAX_VALUE, mListener);
+        assertEquals("Error: Every location should be fetched", LOCATIONS, mForecasts.size());
+        assertTrue("Error: Nothing should fail", mErrors.isEmpty());
+        return mServer.getRequestCount() - before;
+    }
+
+    @Test
+    public void fetch_knownCityIds_groupsRequests() throws IOException {
+        GroupFetcher fetcher = new GroupFetcher(mClient, "key", true);
+        int requests = resolveThenFetch(fetcher);
+
+        // 45 locations in groups of 20.
+        assertEquals("Error: Expected one request per group", 3, requests);
+        assertEquals("Error: Expected group requests only", 3, mServer.getGroupRequestCount());
+        assertEquals("Error: Wrong forecast for a location", "City5", mForecasts.get("city5").cityName);
+        assertEquals("Error: Wrong number of days", DAYS, mForecasts.get("city44").days.size());
+    }
+
+    @Test
+    public void fetch_unknownCityIds_fetchesSingly() throws IOException {
+        GroupFetcher fetcher = new GroupFetcher(mClient, "key", true);
+        int requests = fetcher.fetch(mServer.getBaseUrl(), locations(new HashMap<String, Long>()),
+                DAYS, QuotaManager.Priority.BACKGROUND, mParser, Integer.MAX_VALUE, mListener);
+
+        assertEquals("Error: Expected one request per location", LOCATIONS, requests);
+        assertEquals("Error: Nothing to group yet", 0, mServer.getGroupRequestCount());
+        assertEquals("Error: Every location should be fetched", LOCATIONS, mForecasts.size());
+    }
+
+    @Test
+    public void fetch_groupUnsupported_fallsBackToSingles() throws IOException {
+        mServer.setGroupSupported(false);
+        GroupFetcher fetcher = new GroupFetcher(mClient, "key", true);
+        int requests = resolveThenFetch(fetcher);
+
+        assertFalse("Error: Groups should be given up on", fetcher.isGroupSupported());
+        assertEquals("Error: Expected the refused group and then singles", 1 + LOCATIONS, requests);
+
+        mForecasts.clear();
+        int before = mServer.getRequestCount();
+        Map<String, Long> cityIds = new HashMap<>();
+        cityIds.put("city0", mServer.addCity("city0"));
+        fetcher.fetch(mServer.getBaseUrl(), locations(cityIds), DAYS,
+                QuotaManager.Priority.BACKGROUND, mParser, Integer.MAX_VALUE, mListener);
+        assertEquals("Error: The group endpoint shouldn't be asked again", 1, mServer.getGroupRequestCount());
+        assertEquals("Error: Expected singles only", LOCATIONS, mServer.getRequestCount() - before);
+    }
+
+    @Test
+    public void fetch_memberMissingFromGroup_fetchedSingly() throws IOException {
+        GroupFetcher fetcher = new GroupFetcher(mClient, "key", true);
+        List<GroupFetcher.Location> locations = new ArrayList<>();
+        locations.add(new GroupFetcher.Location("known", mServer.addCity("known")));
+        // An id the server never saw, as when a city is renumbered.
+        locations.add(new GroupFetcher.Location("renumbered", 42));
+
+        int requests = fetcher.fetch(mServer.getBaseUrl(), locations, DAYS,
+                QuotaManager.Priority.BACKGROUND, mParser, Integer.MAX_VALUE, mListener);
+
+        assertEquals("Error: Expected the group and one single", 2, requests);
+        assertEquals("Error: Both locations should be fetched", 2, mForecasts.size());
+        assertEquals("Error: The single fetch should resolve the new id",
+                new ForecastGenerator(1).cityId("renumbered"), mForecasts.get("renumbered").cityId);
+    }
+
+    @Test
+    public void fetch_stopsAtMaxRequests() throws IOException {
+        GroupFetcher fetcher = new GroupFetcher(mClient, "key", true);
+        int requests = fetcher.fetch(mServer.getBaseUrl(), locations(new HashMap<String, Long>()),
+                DAYS, QuotaManager.Priority.BACKGROUND, mParser, 10, mListener);
+
+        assertEquals("Error: Wrong number of requests", 10, requests);
+        assertEquals("Error: Only the fetched locations should be reported", 10, mForecasts.size());
+    }
+}
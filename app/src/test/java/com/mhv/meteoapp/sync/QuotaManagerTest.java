@@ -0,0 +1,177 @@
+package com.mhv.meteoapp.sync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class QuotaManagerTest {
+
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+    private static final long HOUR_IN_MILLIS = 60 * MINUTE_IN_MILLIS;
+    private static final long START = 1463223600000L;
+
+    private static class MemoryStore implements QuotaManager.Store {
+        final Map<String, Long> values = new HashMap<>();
+
+        @Override
+        public long get(String key, long defaultValue) {
+            Long value = values.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        @Override
+        public void put(String key, long value) {
+            values.put(key, value);
+        }
+    }
+
+    @Test
+    public void tryAcquire_stopsAtMinuteLimitAndRefills() {
+        QuotaManager quota = new QuotaManager(5, 1000, new MemoryStore());
+        for (int i = 0; i < 5; i++) {
+            assertTrue("Error: Call " + i + " should be allowed",
+                    quota.tryAcquire(QuotaManager.Priority.PREFERRED, START));
+        }
+        assertFalse("Error: The sixth call in a minute should be refused",
+                quota.tryAcquire(QuotaManager.Priority.PREFERRED, START));
+        assertEquals("Error: Wrong time of the next call", START + MINUTE_IN_MILLIS / 5,
+                quota.nextAvailable(QuotaManager.Priority.PREFERRED, START));
+        assertTrue("Error: A fifth of a minute later a call should be allowed",
+                quota.tryAcquire(QuotaManager.Priority.PREFERRED, START + MINUTE_IN_MILLIS / 5));
+    }
+
+    @Test
+    public void tryAcquire_stopsAtDayLimit() {
+        QuotaManager quota = new QuotaManager(100, 10, new MemoryStore());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(quota.tryAcquire(QuotaManager.Priority.PREFERRED, START));
+        }
+        assertFalse("Error: The day limit should apply", quota.tryAcquire(QuotaManager.Priority.PREFERRED, START));
+        assertEquals("Error: A refused call shouldn't use the minute limit",
+                90, quota.getRemainingPerMinute(START));
+    }
+
+    @Test
+    public void background_leavesReserveForPreferred() {
+        QuotaManager quota = new QuotaManager(10, 1000, new MemoryStore());
+        int background = 0;
+        while (quota.tryAcquire(QuotaManager.Priority.BACKGROUND, START)) {
+            background++;
+        }
+        assertEquals("Error: Background should leave the reserve", 10 - QuotaManager.MINUTE_RESERVE, background);
+        for (int i = 0; i < QuotaManager.MINUTE_RESERVE; i++) {
+            assertTrue("Error: The reserve should be left to the preferred location",
+                    quota.tryAcquire(QuotaManager.Priority.PREFERRED, START));
+        }
+    }
+
+    @Test
+    public void state_survivesNewManager() {
+        MemoryStore store = new MemoryStore();
+        QuotaManager quota = new QuotaManager(3, 1000, store);
+        for (int i = 0; i < 3; i++) {
+            quota.tryAcquire(QuotaManager.Priority.PREFERRED, START);
+        }
+        quota.recordSync("94043", START);
+
+        QuotaManager restarted = new QuotaManager(3, 1000, store);
+        assertFalse("Error: A restart shouldn't refill the quota",
+                restarted.tryAcquire(QuotaManager.Priority.PREFERRED, START));
+        assertEquals("Error: The last sync should be kept", START, restarted.getLastSync("94043"));
+    }
+
+    @Test
+    public void scheduleBackground_ordersLeastRecentlySyncedFirst() {
+        QuotaManager quota = new QuotaManager(60, 1000, new MemoryStore());
+        quota.recordSync("a", START - 3 * HOUR_IN_MILLIS);
+        quota.recordSync("b", START - 5 * HOUR_IN_MILLIS);
+        quota.recordSync("c", START - MINUTE_IN_MILLIS);
+        List<String> scheduled = quota.scheduleBackground("home", Arrays.asList("a", "b", "c", "d", "home"),
+                HOUR_IN_MILLIS, START);
+        assertEquals("Error: Wrong order", Arrays.asList("d", "b", "a"), scheduled);
+    }
+
+    /*
+        A day of syncs every five minutes, with a burst of manual refreshes every hour, for one
+        preferred and 40 background locations. The minute limit only has room for a couple of
+        background locations per sync, far fewer than are due, and every one of them must still
+        get its turn while the preferred location is never refused.
+     */
+    @Test
+    public void simulation_preferredAlwaysServed_backgroundServedFairly() {
+        final int backgroundCount = 40;
+        final long staleAfter = 30 * MINUTE_IN_MILLIS;
+        QuotaManager quota = new QuotaManager(6, 1000, new MemoryStore());
+
+        List<String> locations = new ArrayList<>();
+        locations.add("home");
+        for (int i = 0; i < backgroundCount; i++) {
+            locations.add("city" + i);
+        }
+        Map<String, Integer> synced = new HashMap<>();
+        Map<String, Long> longestWait = new HashMap<>();
+        int preferredRefused = 0;
+        int backgroundRefused = 0;
+
+        List<Long> syncTimes = new ArrayList<>();
+        for (long t = START; t < START + 24 * HOUR_IN_MILLIS; t += 5 * MINUTE_IN_MILLIS) {
+            syncTimes.add(t);
+            if ((t - START) % HOUR_IN_MILLIS == 2 * MINUTE_IN_MILLIS) {
+                // The user pulls to refresh three times in a row.
+                syncTimes.add(t + 20 * 1000);
+                syncTimes.add(t + 40 * 1000);
+                syncTimes.add(t + 60 * 1000);
+            }
+        }
+
+        for (long now : syncTimes) {
+            // The preferred location's daily and 3-hour forecasts.
+            for (int call = 0; call < 2; call++) {
+                if (!quota.tryAcquire(QuotaManager.Priority.PREFERRED, now)) {
+                    preferredRefused++;
+                }
+            }
+            quota.recordSync("home", now);
+
+            int done = 0;
+            for (String location : quota.scheduleBackground("home", locations, staleAfter, now)) {
+                if (done == 10) {
+                    break;
+                }
+                if (!quota.tryAcquire(QuotaManager.Priority.BACKGROUND, now)) {
+                    backgroundRefused++;
+                    break;
+                }
+                long last = quota.getLastSync(location);
+                long wait = last == 0 ? now - START : now - last;
+                Long longest = longestWait.get(location);
+                longestWait.put(location, longest == null ? wait : Math.max(longest, wait));
+                quota.recordSync(location, now);
+                Integer count = synced.get(location);
+                synced.put(location, count == null ? 1 : count + 1);
+                done++;
+            }
+        }
+
+        assertEquals("Error: The preferred location should never be refused", 0, preferredRefused);
+        assertTrue("Error: The simulation should put background syncs under pressure", backgroundRefused > 0);
+        assertEquals("Error: Every background location should be synced", backgroundCount, synced.size());
+        int fewest = Integer.MAX_VALUE;
+        int most = 0;
+        for (int count : synced.values()) {
+            fewest = Math.min(fewest, count);
+            most = Math.max(most, count);
+        }
+        assertTrue("Error: Unfair sharing, from " + fewest + " to " + most + " syncs", most - fewest <= 1);
+        for (Map.Entry<String, Long> wait : longestWait.entrySet()) {
+            assertTrue("Error: " + wait.getKey() + " waited " + wait.getValue() / MINUTE_IN_MILLIS + " min",
+                    wait.getValue() <= 2 * HOUR_IN_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.mhv.meteoapp.sync;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RecentLocationsTest {
+
+    private static final long START = 1463223600000L;
+
+    private static class MemoryStore implements QuotaManager.Store {
+        final Map<String, Long> values = new HashMap<>();
+
+        @Override
+        public long get(String key, long defaultValue) {
+            Long value = values.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        @Override
+        public void put(String key, long value) {
+            values.put(key, value);
+        }
+    }
+
+    @Test
+    public void warmFirst_neverUsed_keepsOrder() {
+        RecentLocations recent = new RecentLocations(2, new MemoryStore());
+        List<String> locations = Arrays.asList("a", "b", "c");
+        assertEquals("Error: Nothing is warm yet", locations, recent.warmFirst(locations));
+    }
+
+    @Test
+    public void warmFirst_mostRecentlyUsedFirst() {
+        RecentLocations recent = new RecentLocations(2, new MemoryStore());
+        recent.touch("c", START);
+        recent.touch("b", START + 1);
+        assertEquals("Error: Wrong order", Arrays.asList("b", "c", "a", "d"),
+                recent.warmFirst(Arrays.asList("a", "b", "c", "d")));
+    }
+
+    @Test
+    public void warmFirst_onlyCapacityAreWarm() {
+        RecentLocations recent = new RecentLocations(2, new MemoryStore());
+        recent.touch("a", START);
+        recent.touch("b", START + 1);
+        recent.touch("c", START + 2);
+        assertEquals("Error: The least recently used should lose its place",
+                Arrays.asList("c", "b", "d", "a"), recent.warmFirst(Arrays.asList("d", "a", "b", "c")));
+    }
+
+    @Test
+    public void touch_movesLocationToFront() {
+        MemoryStore store = new MemoryStore();
+        RecentLocations recent = new RecentLocations(2, store);
+        recent.touch("a", START);
+        recent.touch("b", START + 1);
+        recent.touch("a", START + 2);
+        assertEquals("Error: Wrong last use", START + 2, recent.getLastUsed("a"));
+        // Kept in the store, like the quota.
+        assertEquals("Error: Wrong order after a restart", Arrays.asList("a", "b", "c"),
+                new RecentLocations(2, store).warmFirst(Arrays.asList("c", "b", "a")));
+    }
+}
@@ -0,0 +1,71 @@
+package com.mhv.meteoapp.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WidgetForecastTest {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = 1459641600000L;
+
+    private static WidgetForecast sample(double firstHigh) {
+        WidgetForecast forecast = new WidgetForecast("20540", "metric", WidgetForecast.DAYS);
+        for (int i = 0; i < WidgetForecast.DAYS; i++) {
+            forecast.dates[i] = FIRST_DAY + i * DAY_IN_MILLIS;
+            forecast.weatherIds[i] = 800 + i;
+            forecast.highs[i] = 20.25 + i;
+            forecast.lows[i] = -3.5 + i;
+            forecast.descriptions[i] = "Clear";
+        }
+        forecast.highs[0] = firstHigh;
+        return forecast;
+    }
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        WidgetForecast decoded = WidgetForecast.decode(sample(21.75).encode());
+        assertNotNull(decoded);
+        assertEquals("20540", decoded.locationSetting);
+        assertEquals("metric", decoded.units);
+        assertEquals(WidgetForecast.DAYS, decoded.getDayCount());
+        assertEquals(FIRST_DAY + 3 * DAY_IN_MILLIS, decoded.dates[3]);
+        assertEquals(803, decoded.weatherIds[3]);
+        assertEquals(21.75, decoded.highs[0], 0);
+        assertEquals(-0.5, decoded.lows[3], 0);
+        assertEquals("Clear", decoded.descriptions[2]);
+    }
+
+    @Test
+    public void encodingChangesWithWhatIsShown() {
+        assertEquals(sample(21).encode(), sample(21).encode());
+        assertNotEquals("Error: a new high kept the same encoding", sample(21).encode(), sample(22).encode());
+
+        WidgetForecast imperial = new WidgetForecast("20540", "imperial", 0);
+        assertNotEquals(new WidgetForecast("20540", "metric", 0).encode(), imperial.encode());
+    }
+
+    @Test
+    public void separatorsInsideFieldsAreReplaced() {
+        WidgetForecast forecast = sample(21);
+        forecast.descriptions[1] = "Light\train\nshowers";
+        WidgetForecast decoded = WidgetForecast.decode(forecast.encode());
+        assertNotNull(decoded);
+        assertEquals("Light rain showers", decoded.descriptions[1]);
+    }
+
+    @Test
+    public void garbageDecodesToNull() {
+        assertNull(WidgetForecast.decode(null));
+        assertNull(WidgetForecast.decode("no header"));
+        assertNull(WidgetForecast.decode("20540\tmetric\nnot\ta\tday"));
+        assertNull(WidgetForecast.decode("20540\tmetric\nx\t800\t1\t2\tClear"));
+    }
+
+    @Test
+    public void noDays() {
+        WidgetForecast decoded = WidgetForecast.decode(new WidgetForecast("20540", "metric", 0).encode());
+        assertNotNull(decoded);
+        assertEquals(0, decoded.getDayCount());
+    }
+}
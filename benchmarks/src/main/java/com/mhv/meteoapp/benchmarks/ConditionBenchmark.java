@@ -0,0 +1,50 @@
+package com.mhv.meteoapp.benchmarks;
+
+import com.mhv.meteoapp.core.Condition;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    The weather id lookup behind every icon and art drawn, over ids in the mix OWM sends:
+    mostly clear and clouds, some rain and the odd id with no drawing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConditionBenchmark {
+
+    private static final int[] COMMON_IDS = {800, 800, 800, 801, 802, 803, 804, 500, 501, 300,
+            211, 600, 701, 741, 511, 906};
+    private static final int IDS = 1024;
+
+    private final int[] mIds = new int[IDS];
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < IDS; i++) {
+            mIds[i] = COMMON_IDS[random.nextInt(COMMON_IDS.length)];
+        }
+    }
+
+    @Benchmark
+    public Condition forWeatherId() {
+        return Condition.forWeatherId(mIds[mNext++ & (IDS - 1)]);
+    }
+}
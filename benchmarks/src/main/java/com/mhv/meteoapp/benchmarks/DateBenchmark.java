@@ -0,0 +1,72 @@
+package com.mhv.meteoapp.benchmarks;
+
+import com.mhv.meteoapp.core.DayDates;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Date normalization as every provider URI builder and the sync do it, against the
+    Calendar based version a pure Java port would reach for first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DateBenchmark {
+
+    private static final int DATES = 1024;
+
+    private final long[] mDates = new long[DATES];
+    private TimeZone mZone;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mZone = TimeZone.getTimeZone("America/New_York");
+        long start = 1451606400000L;
+        for (int i = 0; i < DATES; i++) {
+            // Spread over a year, so both sides of the DST changes are hit.
+            mDates[i] = start + i * (365L * DayDates.DAY_IN_MILLIS / DATES) + i * 7919;
+        }
+    }
+
+    private long nextDate() {
+        return mDates[mNext++ & (DATES - 1)];
+    }
+
+    @Benchmark
+    public long normalize() {
+        return DayDates.normalize(nextDate(), mZone);
+    }
+
+    @Benchmark
+    public long normalizeWithCalendar() {
+        Calendar calendar = Calendar.getInstance(mZone);
+        calendar.setTimeInMillis(nextDate());
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    @Benchmark
+    public int daysFromNow() {
+        return DayDates.daysFromNow(nextDate(), mDates[0], mZone);
+    }
+}
@@ -0,0 +1,54 @@
+package com.mhv.meteoapp.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Builds OWM daily forecast documents of a given length, with the same fields and
+ * formatting the API sends, so the parsers are measured on realistic input.
+ */
+class ForecastJson {
+
+    private static final int[] WEATHER_IDS = {200, 301, 500, 511, 601, 741, 800, 801, 803};
+    private static final String[] MAINS = {"Thunderstorm", "Drizzle", "Rain", "Rain", "Snow",
+            "Fog", "Clear", "Clouds", "Clouds"};
+
+    private ForecastJson() {}
+
+    static String create(int days, long seed) {
+        Random random = new Random(seed);
+        StringBuilder json = new StringBuilder(512 + days * 400);
+        json.append("{\"city\":{\"id\":3117735,\"name\":\"Madrid\",\"coord\":{\"lon\":-3.70256,")
+                .append("\"lat\":40.4165},\"country\":\"ES\",\"population\":0},\"cod\":\"200\",")
+                .append("\"message\":0.0123,\"cnt\":").append(days).append(",\"list\":[");
+        long dt = 1463223600L;
+        for (int i = 0; i < days; i++) {
+            int condition = random.nextInt(WEATHER_IDS.length);
+            double min = round(random.nextDouble() * 20 - 5);
+            double max = round(min + random.nextDouble() * 15);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(dt + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(round((min + max) / 2))
+                    .append(",\"min\":").append(min)
+                    .append(",\"max\":").append(max)
+                    .append(",\"night\":").append(min)
+                    .append(",\"eve\":").append(round(max - 2))
+                    .append(",\"morn\":").append(round(min + 2))
+                    .append("},\"pressure\":").append(round(930 + random.nextDouble() * 30))
+                    .append(",\"humidity\":").append(30 + random.nextInt(60))
+                    .append(",\"weather\":[{\"id\":").append(WEATHER_IDS[condition])
+                    .append(",\"main\":\"").append(MAINS[condition])
+                    .append("\",\"description\":\"").append(MAINS[condition].toLowerCase())
+                    .append("\",\"icon\":\"10d\"}],\"speed\":").append(round(random.nextDouble() * 10))
+                    .append(",\"deg\":").append(random.nextInt(360))
+                    .append(",\"clouds\":").append(random.nextInt(100))
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
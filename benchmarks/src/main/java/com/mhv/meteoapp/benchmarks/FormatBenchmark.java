@@ -0,0 +1,90 @@
+package com.mhv.meteoapp.benchmarks;
+
+import com.mhv.meteoapp.core.DayDates;
+import com.mhv.meteoapp.core.Units;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/*
+    What Utils does for every list row and detail screen, minus the Context: temperature,
+    wind and day formatting. The format strings are the ones in res/values/strings.xml.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatBenchmark {
+
+    private static final String FORMAT_TEMPERATURE = "%1.0f\u00B0";
+    private static final String FORMAT_WIND_MPH = "Wind: %1$1.0f mph %2$s";
+    private static final int VALUES = 256;
+
+    private final double[] mTemperatures = new double[VALUES];
+    private final float[] mSpeeds = new float[VALUES];
+    private final float[] mDegrees = new float[VALUES];
+    private final long[] mDates = new long[VALUES];
+    private long mNow;
+    private TimeZone mZone;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mNow = System.currentTimeMillis();
+        mZone = TimeZone.getDefault();
+        for (int i = 0; i < VALUES; i++) {
+            mTemperatures[i] = -20 + i * 0.23;
+            mSpeeds[i] = i * 0.17f;
+            mDegrees[i] = (i * 37) % 360;
+            mDates[i] = DayDates.dayAfter(mNow, i % 14, mZone);
+        }
+    }
+
+    private int next() {
+        return mNext++ & (VALUES - 1);
+    }
+
+    @Benchmark
+    public String temperatureFahrenheit() {
+        return String.format(FORMAT_TEMPERATURE, Units.celsiusToFahrenheit(mTemperatures[next()]));
+    }
+
+    @Benchmark
+    public String windMph() {
+        int i = next();
+        return String.format(FORMAT_WIND_MPH, Units.kmhToMph(mSpeeds[i]),
+                Units.compassDirection(mDegrees[i]));
+    }
+
+    @Benchmark
+    public String compassDirection() {
+        return Units.compassDirection(mDegrees[next()]);
+    }
+
+    // Utils.getDayName: today and tomorrow are labels, other days format their weekday.
+    @Benchmark
+    public String dayName() {
+        long date = mDates[next()];
+        int days = DayDates.daysFromNow(date, mNow, mZone);
+        if (days == 0) {
+            return "Today";
+        } else if (days == 1) {
+            return "Tomorrow";
+        }
+        return new SimpleDateFormat("EEEE").format(date);
+    }
+}
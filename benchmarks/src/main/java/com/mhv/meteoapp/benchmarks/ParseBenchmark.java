@@ -0,0 +1,87 @@
+package com.mhv.meteoapp.benchmarks;
+
+import com.mhv.meteoapp.core.DayDates;
+import com.mhv.meteoapp.core.DayForecast;
+import com.mhv.meteoapp.core.Forecast;
+import com.mhv.meteoapp.core.ForecastParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Parses a daily forecast document into days, once by building the org.json tree the way
+    the sync used to, once with the streaming ForecastParser that replaced it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"7", "14", "16"})
+    public int days;
+
+    private String mJson;
+    private long mNow;
+    private TimeZone mZone;
+
+    @Setup
+    public void setUp() {
+        mJson = ForecastJson.create(days, 42);
+        mNow = System.currentTimeMillis();
+        mZone = TimeZone.getTimeZone("Europe/Madrid");
+    }
+
+    @Benchmark
+    public Forecast streaming() throws IOException {
+        return new ForecastParser(mNow, mZone).parse(mJson);
+    }
+
+    @Benchmark
+    public Forecast tree() throws JSONException {
+        JSONObject forecastJson = new JSONObject(mJson);
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        JSONObject cityCoord = cityJson.getJSONObject("coord");
+
+        Forecast forecast = new Forecast();
+        forecast.cityName = cityJson.getString("name");
+        forecast.latitude = cityCoord.getDouble("lat");
+        forecast.longitude = cityCoord.getDouble("lon");
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            DayForecast day = new DayForecast();
+            day.date = DayDates.dayAfter(mNow, i, mZone);
+            day.pressure = dayForecast.getDouble("pressure");
+            day.humidity = dayForecast.getInt("humidity");
+            day.windSpeed = dayForecast.getDouble("speed");
+            day.degrees = dayForecast.getDouble("deg");
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            day.description = weatherObject.getString("main");
+            day.weatherId = weatherObject.getInt("id");
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            day.max = temperatureObject.getDouble("max");
+            day.min = temperatureObject.getDouble("min");
+            forecast.days.add(day);
+        }
+        return forecast;
+    }
+}
@@ -0,0 +1,68 @@
+package com.mhv.meteoapp.core;
+
+import java.util.TimeZone;
+
+/**
+ * Day arithmetic in a given time zone, done with plain offsets instead of calendar objects.
+ *
+ * Days are numbered as Julian days, like android.text.format.Time does, and a day is stored
+ * as the millisecond at which it starts in the zone. Every method takes the zone so the same
+ * code runs on the device, where it is the default zone, and in tests with a fixed one.
+ */
+public class DayDates {
+
+    public static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The Julian day of January 1st, 1970.
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private DayDates() {}
+
+    /**
+     * @return the Julian day the given instant falls on in the zone.
+     */
+    public static int julianDay(long millis, TimeZone zone) {
+        long local = millis + zone.getOffset(millis);
+        return (int) floorDiv(local, DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the instant at which the given Julian day starts in the zone.
+     */
+    public static long startOfJulianDay(int julianDay, TimeZone zone) {
+        long local = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // The offset depends on the instant we are looking for, guess it from the local time
+        // first. Only a day that starts inside a DST transition needs the second look.
+        long guess = local - zone.getOffset(local);
+        return local - zone.getOffset(guess);
+    }
+
+    /**
+     * @return the start of the day the given instant falls on, which is how days are stored.
+     */
+    public static long normalize(long millis, TimeZone zone) {
+        return startOfJulianDay(julianDay(millis, zone), zone);
+    }
+
+    /**
+     * @return the start of the day that is the given number of days after the one of now.
+     */
+    public static long dayAfter(long now, int days, TimeZone zone) {
+        return startOfJulianDay(julianDay(now, zone) + days, zone);
+    }
+
+    /**
+     * @return how many days the given instant is after now, negative for the past.
+     */
+    public static int daysFromNow(long millis, long now, TimeZone zone) {
+        return julianDay(millis, zone) - julianDay(now, zone);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            q--;
+        }
+        return q;
+    }
+}
@@ -0,0 +1,18 @@
+package com.mhv.meteoapp.core;
+
+/**
+ * One day of the daily forecast, in the units OWM sends with units=metric.
+ */
+public class DayForecast {
+    // Start of the day in the zone the forecast was parsed in, see DayDates.normalize.
+    public long date;
+    public int weatherId;
+    // Main group of the condition, e.g "Rain".
+    public String description;
+    public double min;
+    public double max;
+    public int humidity;
+    public double pressure;
+    public double windSpeed;
+    public double degrees;
+}
@@ -0,0 +1,18 @@
+package com.mhv.meteoapp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed daily forecast: the city OWM resolved the location to and its days in date order.
+ */
+public class Forecast {
+    // OWM's id of the city, 0 if the document didn't carry one.
+    public long cityId;
+    public String cityName;
+    public double latitude;
+    public double longitude;
+    public final List<DayForecast> days = new ArrayList<>(16);
+    // Dates of the days left out because they were incomplete, see ForecastParser.
+    public final List<Long> quarantinedDays = new ArrayList<>(0);
+}
@@ -0,0 +1,297 @@
+package com.mhv.meteoapp.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Parses the OWM daily forecast as it streams in, without building a tree of the document.
+ *
+ * OWM returns daily forecasts based upon the local time of the city that is being asked for,
+ * in order and starting with the current day. So rather than translating each "dt", the days
+ * are dated from today on in the zone the caller passes, which gives the same normalized date
+ * for all of our weather.
+ *
+ * A group response holds several of these documents in its "list", one per city asked for.
+ *
+ * A day that lacks a field, or has one of the wrong type, is quarantined: it is left out of
+ * the days and its date goes to Forecast.quarantinedDays, so one bad element doesn't cost the
+ * whole forecast. Only a document that is not JSON, or has no day left at all, is rejected.
+ */
+public class ForecastParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    // Fields every day must have, one bit each.
+    private static final int HAS_PRESSURE = 1;
+    private static final int HAS_HUMIDITY = 1 << 1;
+    private static final int HAS_WINDSPEED = 1 << 2;
+    private static final int HAS_WIND_DIRECTION = 1 << 3;
+    private static final int HAS_MAX = 1 << 4;
+    private static final int HAS_MIN = 1 << 5;
+    private static final int HAS_DESCRIPTION = 1 << 6;
+    private static final int HAS_WEATHER_ID = 1 << 7;
+    private static final int HAS_ALL = (1 << 8) - 1;
+
+    private final long mNow;
+    private final TimeZone mZone;
+
+    /**
+     * @param now the current time, the first day of the forecast is the day it falls on
+     * @param zone the zone days start in, the default zone on the device
+     */
+    public ForecastParser(long now, TimeZone zone) {
+        mNow = now;
+        mZone = zone;
+    }
+
+    public Forecast parse(String json) throws IOException {
+        return parse(new StringReader(json));
+    }
+
+    /**
+     * @throws JsonReader.MalformedJsonException if the document isn't JSON, lacks the city or
+     * the list, or every one of its days had to be quarantined.
+     */
+    public Forecast parse(Reader in) throws IOException {
+        Forecast forecast = readForecast(new JsonReader(in));
+        if (forecast.days.isEmpty() && !forecast.quarantinedDays.isEmpty()) {
+            throw new JsonReader.MalformedJsonException("Every day incomplete");
+        }
+        return forecast;
+    }
+
+    public List<Forecast> parseGroup(String json) throws IOException {
+        return parseGroup(new StringReader(json));
+    }
+
+    /**
+     * @return the forecast of each city in the group response, in the order they came in, some
+     * of them possibly with all of their days quarantined
+     * @throws JsonReader.MalformedJsonException if the response or one of its forecasts isn't
+     * complete
+     */
+    public List<Forecast> parseGroup(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        List<Forecast> forecasts = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(OWM_LIST)) {
+                forecasts = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    forecasts.add(readForecast(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (forecasts == null) {
+            throw new JsonReader.MalformedJsonException("No value for " + OWM_LIST);
+        }
+        return forecasts;
+    }
+
+    private Forecast readForecast(JsonReader reader) throws IOException {
+        Forecast forecast = new Forecast();
+        boolean hasCity = false;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(OWM_CITY)) {
+                readCity(reader, forecast);
+                hasCity = true;
+            } else if (name.equals(OWM_LIST)) {
+                reader.beginArray();
+                // Days are dated by their position, quarantined ones included.
+                for (int position = 0; reader.hasNext(); position++) {
+                    long date = DayDates.dayAfter(mNow, position, mZone);
+                    DayForecast day = readDay(reader);
+                    if (day != null) {
+                        day.date = date;
+                        forecast.days.add(day);
+                    } else {
+                        forecast.quarantinedDays.add(date);
+                    }
+                }
+                reader.endArray();
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasCity) {
+            throw new JsonReader.MalformedJsonException("No value for " + OWM_CITY);
+        }
+        if (!hasList) {
+            throw new JsonReader.MalformedJsonException("No value for " + OWM_LIST);
+        }
+        return forecast;
+    }
+
+    private static void readCity(JsonReader reader, Forecast forecast) throws IOException {
+        boolean hasName = false;
+        int coords = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(OWM_CITY_NAME)) {
+                forecast.cityName = reader.nextString();
+                hasName = true;
+            } else if (name.equals(OWM_CITY_ID)) {
+                forecast.cityId = reader.nextLong();
+            } else if (name.equals(OWM_COORD)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coord = reader.nextName();
+                    if (coord.equals(OWM_LATITUDE)) {
+                        forecast.latitude = reader.nextDouble();
+                        coords |= 1;
+                    } else if (coord.equals(OWM_LONGITUDE)) {
+                        forecast.longitude = reader.nextDouble();
+                        coords |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasName || coords != 3) {
+            throw new JsonReader.MalformedJsonException("Incomplete " + OWM_CITY);
+        }
+    }
+
+    /**
+     * @return the day, or null if it lacked a field or had one of the wrong type. Either way the
+     * whole element is read, so the reader is ready for the next day.
+     */
+    private static DayForecast readDay(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        DayForecast day = new DayForecast();
+        int found = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(OWM_PRESSURE)) {
+                day.pressure = readNumber(reader);
+                found |= isNumber(day.pressure) ? HAS_PRESSURE : 0;
+            } else if (name.equals(OWM_HUMIDITY)) {
+                double humidity = readNumber(reader);
+                day.humidity = (int) humidity;
+                found |= isNumber(humidity) ? HAS_HUMIDITY : 0;
+            } else if (name.equals(OWM_WINDSPEED)) {
+                day.windSpeed = readNumber(reader);
+                found |= isNumber(day.windSpeed) ? HAS_WINDSPEED : 0;
+            } else if (name.equals(OWM_WIND_DIRECTION)) {
+                day.degrees = readNumber(reader);
+                found |= isNumber(day.degrees) ? HAS_WIND_DIRECTION : 0;
+            } else if (name.equals(OWM_TEMPERATURE) && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperature = reader.nextName();
+                    if (temperature.equals(OWM_MAX)) {
+                        day.max = readNumber(reader);
+                        found |= isNumber(day.max) ? HAS_MAX : 0;
+                    } else if (temperature.equals(OWM_MIN)) {
+                        day.min = readNumber(reader);
+                        found |= isNumber(day.min) ? HAS_MIN : 0;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (name.equals(OWM_WEATHER) && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if (field.equals(OWM_DESCRIPTION) && reader.peek() == JsonReader.Token.STRING) {
+                            day.description = reader.nextString();
+                            found |= HAS_DESCRIPTION;
+                        } else if (field.equals(OWM_WEATHER_ID)) {
+                            double weatherId = readNumber(reader);
+                            day.weatherId = (int) weatherId;
+                            found |= weatherId == day.weatherId ? HAS_WEATHER_ID : 0;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return found == HAS_ALL ? day : null;
+    }
+
+    // Reads a number, or a string holding one. Anything else is skipped and read as NaN.
+    private static double readNumber(JsonReader reader) throws IOException {
+        JsonReader.Token token = reader.peek();
+        if (token != JsonReader.Token.NUMBER && token != JsonReader.Token.STRING) {
+            reader.skipValue();
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(reader.nextString());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean isNumber(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+}
@@ -0,0 +1,378 @@
+package com.mhv.meteoapp.core;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A pull parser for JSON that reads one token at a time from a stream.
+ *
+ * It follows the API of android.util.JsonReader, which isn't available off the device, and
+ * only as far as the forecast parser needs: the caller walks the document with begin/end
+ * calls, reads the values it wants and skips the rest without building them.
+ */
+public class JsonReader {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL,
+        END_DOCUMENT
+    }
+
+    // What the innermost open scope expects next.
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader mIn;
+    private final char[] mBuffer = new char[1024];
+    private int mPos;
+    private int mLimit;
+
+    private int[] mStack = new int[16];
+    private int mStackSize;
+
+    // The token found by peek() and not consumed yet, with its text for names and values.
+    private Token mToken;
+    private String mValue;
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    public JsonReader(Reader in) {
+        mIn = in;
+        mStack[mStackSize++] = EMPTY_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        mStackSize--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        mStackSize--;
+    }
+
+    /**
+     * @return true if the current object or array has another element.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return mValue;
+    }
+
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw syntaxError("Expected a string but was " + token);
+        }
+        mToken = null;
+        return mValue;
+    }
+
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw syntaxError("Expected a number but was " + token);
+        }
+        mToken = null;
+        try {
+            return Double.parseDouble(mValue);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Not a number: " + mValue);
+        }
+    }
+
+    public long nextLong() throws IOException {
+        double value = nextDouble();
+        long result = (long) value;
+        if (result != value) {
+            throw syntaxError("Not a whole number: " + mValue);
+        }
+        return result;
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if ((int) value != value) {
+            throw syntaxError("Out of range: " + mValue);
+        }
+        return (int) value;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return mValue.equals("true");
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Skips the next value, with everything nested in it.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            if (token == Token.BEGIN_OBJECT) {
+                beginObject();
+                depth++;
+            } else if (token == Token.BEGIN_ARRAY) {
+                beginArray();
+                depth++;
+            } else if (token == Token.END_OBJECT) {
+                endObject();
+                depth--;
+            } else if (token == Token.END_ARRAY) {
+                endArray();
+                depth--;
+            } else if (token == Token.END_DOCUMENT) {
+                throw syntaxError("Unexpected end of document");
+            } else {
+                mToken = null;
+            }
+        } while (depth > 0);
+    }
+
+    public Token peek() throws IOException {
+        if (mToken != null) {
+            return mToken;
+        }
+
+        int scope = mStack[mStackSize - 1];
+        switch (scope) {
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') {
+                    return mToken = Token.END_ARRAY;
+                }
+                mPos--;
+                return mToken = readValue();
+            case NONEMPTY_ARRAY:
+                switch (nextNonWhitespace()) {
+                    case ']':
+                        return mToken = Token.END_ARRAY;
+                    case ',':
+                        return mToken = readValue();
+                    default:
+                        throw syntaxError("Unterminated array");
+                }
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                int c = nextNonWhitespace();
+                if (c == '}') {
+                    return mToken = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Unterminated object");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                mValue = readString();
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                return mToken = Token.NAME;
+            case DANGLING_NAME:
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                return mToken = readValue();
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                return mToken = readValue();
+            default:
+                if (nextNonWhitespaceOrEnd() != -1) {
+                    throw syntaxError("Expected end of document");
+                }
+                return mToken = Token.END_DOCUMENT;
+        }
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        mToken = null;
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] stack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, stack, 0, mStackSize);
+            mStack = stack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private Token readValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                mValue = readString();
+                return Token.STRING;
+            default:
+                mPos--;
+                mValue = readLiteral();
+                if (mValue.equals("true") || mValue.equals("false")) {
+                    return Token.BOOLEAN;
+                } else if (mValue.equals("null")) {
+                    return Token.NULL;
+                } else if (mValue.length() > 0 && (mValue.charAt(0) == '-'
+                        || (mValue.charAt(0) >= '0' && mValue.charAt(0) <= '9'))) {
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected value: " + mValue);
+        }
+    }
+
+    // Reads up to the closing quote, the opening one has been consumed.
+    private String readString() throws IOException {
+        mBuilder.setLength(0);
+        while (true) {
+            int start = mPos;
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos++];
+                if (c == '"') {
+                    mBuilder.append(mBuffer, start, mPos - start - 1);
+                    return mBuilder.toString();
+                } else if (c == '\\') {
+                    mBuilder.append(mBuffer, start, mPos - start - 1);
+                    mBuilder.append(readEscape());
+                    start = mPos;
+                }
+            }
+            mBuilder.append(mBuffer, start, mPos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Bad \\u escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Bad escape \\" + (char) c);
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        mBuilder.setLength(0);
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                return mBuilder.toString();
+            }
+            char c = mBuffer[mPos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t'
+                    || c == '\n' || c == '\r' || c == '{' || c == '[' || c == '"') {
+                return mBuilder.toString();
+            }
+            mBuilder.append(c);
+            mPos++;
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = nextNonWhitespaceOrEnd();
+        if (c == -1) {
+            throw syntaxError("Unexpected end of document");
+        }
+        return c;
+    }
+
+    private int nextNonWhitespaceOrEnd() throws IOException {
+        while (mPos < mLimit || fill()) {
+            char c = mBuffer[mPos++];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private int read() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            throw syntaxError("Unexpected end of document");
+        }
+        return mBuffer[mPos++];
+    }
+
+    private boolean fill() throws IOException {
+        mPos = 0;
+        mLimit = 0;
+        int read = mIn.read(mBuffer, 0, mBuffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        mLimit = read;
+        return true;
+    }
+
+    private MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message);
+    }
+
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    /**
+     * Thrown when the stream isn't well formed JSON, or doesn't hold what the caller expected.
+     */
+    public static class MalformedJsonException extends IOException {
+        public MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.mhv.meteoapp.core;
+
+/**
+ * Unit conversion for the values OWM sends in metric, and the compass names of wind directions.
+ */
+public class Units {
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    // Compass points, each covering the 45 degrees centered on it.
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+
+    public static final String UNKNOWN_DIRECTION = "Unknown";
+
+    private Units() {}
+
+    public static double celsiusToFahrenheit(double celsius) {
+        return (celsius * 1.8) + 32;
+    }
+
+    public static float kmhToMph(float kmh) {
+        return KMH_TO_MPH * kmh;
+    }
+
+    /**
+     * @return the compass point the wind comes from, e.g "NW", or UNKNOWN_DIRECTION if the
+     * degrees are not a number.
+     */
+    public static String compassDirection(float degrees) {
+        if (Float.isNaN(degrees)) {
+            return UNKNOWN_DIRECTION;
+        }
+        if (degrees >= 337.5f || degrees < 22.5f) {
+            return DIRECTIONS[0];
+        }
+        return DIRECTIONS[(int) ((degrees + 22.5f) / 45)];
+    }
+}
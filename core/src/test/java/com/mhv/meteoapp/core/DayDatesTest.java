@@ -0,0 +1,70 @@
+package com.mhv.meteoapp.core;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class DayDatesTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+    private static final TimeZone KOLKATA = TimeZone.getTimeZone("Asia/Kolkata");
+
+    private static long midnight(TimeZone zone, int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void julianDayOfTheEpoch() {
+        assertEquals(DayDates.EPOCH_JULIAN_DAY, DayDates.julianDay(0, UTC));
+        assertEquals(DayDates.EPOCH_JULIAN_DAY - 1, DayDates.julianDay(-1, UTC));
+        // 19:00 on December 31st in New York.
+        assertEquals(DayDates.EPOCH_JULIAN_DAY - 1, DayDates.julianDay(0, NEW_YORK));
+    }
+
+    @Test
+    public void normalize_returnsLocalMidnight() {
+        for (TimeZone zone : new TimeZone[]{UTC, NEW_YORK, KOLKATA}) {
+            long midnight = midnight(zone, 2016, Calendar.MAY, 14);
+            assertEquals(midnight, DayDates.normalize(midnight, zone));
+            assertEquals(midnight, DayDates.normalize(midnight + 13 * 60 * 60 * 1000, zone));
+            assertEquals(midnight, DayDates.normalize(midnight + DayDates.DAY_IN_MILLIS - 1, zone));
+        }
+    }
+
+    // Both days the clocks change on in New York, which are 23 and 25 hours long.
+    @Test
+    public void normalize_acrossDaylightSaving() {
+        long spring = midnight(NEW_YORK, 2016, Calendar.MARCH, 13);
+        long afterSpring = midnight(NEW_YORK, 2016, Calendar.MARCH, 14);
+        assertEquals(23 * 60 * 60 * 1000, afterSpring - spring);
+        assertEquals(spring, DayDates.normalize(afterSpring - 1, NEW_YORK));
+        assertEquals(afterSpring, DayDates.dayAfter(spring, 1, NEW_YORK));
+
+        long fall = midnight(NEW_YORK, 2016, Calendar.NOVEMBER, 6);
+        long afterFall = midnight(NEW_YORK, 2016, Calendar.NOVEMBER, 7);
+        assertEquals(fall, DayDates.normalize(afterFall - 1, NEW_YORK));
+        assertEquals(afterFall, DayDates.dayAfter(fall + 1, 1, NEW_YORK));
+    }
+
+    @Test
+    public void dayAfter_countsCalendarDays() {
+        long now = midnight(KOLKATA, 2016, Calendar.DECEMBER, 30) + 22 * 60 * 60 * 1000;
+        assertEquals(midnight(KOLKATA, 2017, Calendar.JANUARY, 2), DayDates.dayAfter(now, 3, KOLKATA));
+        assertEquals(midnight(KOLKATA, 2016, Calendar.DECEMBER, 30), DayDates.dayAfter(now, 0, KOLKATA));
+    }
+
+    @Test
+    public void daysFromNow() {
+        long now = midnight(UTC, 2016, Calendar.MAY, 14) + 60 * 1000;
+        assertEquals(0, DayDates.daysFromNow(now - 60 * 1000, now, UTC));
+        assertEquals(1, DayDates.daysFromNow(now + DayDates.DAY_IN_MILLIS, now, UTC));
+        assertEquals(-1, DayDates.daysFromNow(now - 2 * 60 * 1000, now, UTC));
+    }
+}
@@ -0,0 +1,168 @@
+package com.mhv.meteoapp.core;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class ForecastParserTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Europe/Madrid");
+
+    // Trimmed from a real response, with the fields the parser skips left in.
+    static final String FORECAST_JSON = "{\"city\":{\"id\":3117735,\"name\":\"Madrid\","
+            + "\"coord\":{\"lon\":-3.70256,\"lat\":40.4165},\"country\":\"ES\",\"population\":0},"
+            + "\"cod\":\"200\",\"message\":0.0123,\"cnt\":2,\"list\":["
+            + "{\"dt\":1463223600,\"temp\":{\"day\":21.5,\"min\":9.87,\"max\":22.73,\"night\":9.87,"
+            + "\"eve\":19.9,\"morn\":14.2},\"pressure\":942.62,\"humidity\":53,"
+            + "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],"
+            + "\"speed\":2.86,\"deg\":261,\"clouds\":36,\"rain\":0.83},"
+            + "{\"dt\":1463310000,\"temp\":{\"day\":18.21,\"min\":7.1,\"max\":19.5,\"night\":7.1,"
+            + "\"eve\":16.78,\"morn\":12.02},\"pressure\":944.1,\"humidity\":48.0,"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+            + "\"speed\":4.12,\"deg\":310,\"clouds\":0}]}";
+
+    private static long now() {
+        Calendar calendar = Calendar.getInstance(ZONE);
+        calendar.clear();
+        calendar.set(2016, Calendar.MAY, 14, 23, 30);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void parse_readsCityAndDays() throws Exception {
+        Forecast forecast = new ForecastParser(now(), ZONE).parse(FORECAST_JSON);
+        assertEquals("Madrid", forecast.cityName);
+        assertEquals(40.4165, forecast.latitude, 0);
+        assertEquals(-3.70256, forecast.longitude, 0);
+        assertEquals(2, forecast.days.size());
+
+        DayForecast first = forecast.days.get(0);
+        assertEquals(500, first.weatherId);
+        assertEquals("Rain", first.description);
+        assertEquals(9.87, first.min, 0);
+        assertEquals(22.73, first.max, 0);
+        assertEquals(53, first.humidity);
+        assertEquals(942.62, first.pressure, 0);
+        assertEquals(2.86, first.windSpeed, 0);
+        assertEquals(261, first.degrees, 0);
+
+        DayForecast second = forecast.days.get(1);
+        assertEquals(800, second.weatherId);
+        assertEquals(48, second.humidity);
+    }
+
+    // Days are dated from the local day of now on, whatever "dt" says.
+    @Test
+    public void parse_datesDaysFromToday() throws Exception {
+        Forecast forecast = new ForecastParser(now(), ZONE).parse(FORECAST_JSON);
+        long today = DayDates.normalize(now(), ZONE);
+        assertEquals(today, forecast.days.get(0).date);
+        assertEquals(DayDates.dayAfter(today, 1, ZONE), forecast.days.get(1).date);
+    }
+
+    @Test
+    public void parse_readsCityId() throws Exception {
+        assertEquals(3117735, new ForecastParser(now(), ZONE).parse(FORECAST_JSON).cityId);
+    }
+
+    @Test
+    public void parseGroup_readsEveryCity() throws Exception {
+        String other = FORECAST_JSON.replace("3117735", "2643743").replace("Madrid", "London");
+        List<Forecast> forecasts = new ForecastParser(now(), ZONE)
+                .parseGroup("{\"cnt\":2,\"list\":[" + FORECAST_JSON + "," + other + "]}");
+        assertEquals(2, forecasts.size());
+        assertEquals(3117735, forecasts.get(0).cityId);
+        assertEquals("London", forecasts.get(1).cityName);
+        assertEquals(2, forecasts.get(1).days.size());
+        long today = DayDates.normalize(now(), ZONE);
+        assertEquals("Error: Every city's days should start today", today, forecasts.get(1).days.get(0).date);
+    }
+
+    @Test(expected = JsonReader.MalformedJsonException.class)
+    public void parseGroup_withoutList_throws() throws Exception {
+        new ForecastParser(now(), ZONE).parseGroup("{\"cnt\":0}");
+    }
+
+    @Test
+    public void parse_fieldsInAnyOrder() throws Exception {
+        String json = "{\"list\":[{\"deg\":10,\"speed\":1,\"weather\":[{\"main\":\"Clouds\",\"id\":803}],"
+                + "\"humidity\":70,\"pressure\":1000,\"temp\":{\"max\":5,\"min\":1}}],"
+                + "\"city\":{\"coord\":{\"lat\":1,\"lon\":2},\"name\":\"X\"}}";
+        Forecast forecast = new ForecastParser(now(), ZONE).parse(json);
+        assertEquals("X", forecast.cityName);
+        assertEquals(803, forecast.days.get(0).weatherId);
+        assertEquals(5, forecast.days.get(0).max, 0);
+    }
+
+    // Dropping a field from one day keeps the other, dated by its position.
+    @Test
+    public void parse_dayWithoutDirection_quarantinesIt() throws Exception {
+        Forecast forecast = new ForecastParser(now(), ZONE)
+                .parse(FORECAST_JSON.replace("\"deg\":261,", ""));
+        long today = DayDates.normalize(now(), ZONE);
+        assertEquals(1, forecast.days.size());
+        assertEquals(DayDates.dayAfter(today, 1, ZONE), forecast.days.get(0).date);
+        assertEquals(310, forecast.days.get(0).degrees, 0);
+        assertEquals("Error: Today should be quarantined", today, (long) forecast.quarantinedDays.get(0));
+    }
+
+    @Test
+    public void parse_fieldOfWrongType_quarantinesDay() throws Exception {
+        Forecast forecast = new ForecastParser(now(), ZONE)
+                .parse(FORECAST_JSON.replace("\"pressure\":944.1", "\"pressure\":null"));
+        long today = DayDates.normalize(now(), ZONE);
+        assertEquals(1, forecast.days.size());
+        assertEquals(today, forecast.days.get(0).date);
+        assertEquals(DayDates.dayAfter(today, 1, ZONE), (long) forecast.quarantinedDays.get(0));
+    }
+
+    @Test
+    public void parse_weatherIdNotANumber_quarantinesDay() throws Exception {
+        Forecast forecast = new ForecastParser(now(), ZONE)
+                .parse(FORECAST_JSON.replace("\"id\":500", "\"id\":\"rain\""));
+        assertEquals(1, forecast.days.size());
+        assertEquals(800, forecast.days.get(0).weatherId);
+        assertEquals(1, forecast.quarantinedDays.size());
+    }
+
+    @Test
+    public void parse_dayNotAnObject_quarantinesIt() throws Exception {
+        String json = FORECAST_JSON.replace("\"list\":[", "\"list\":[null,");
+        Forecast forecast = new ForecastParser(now(), ZONE).parse(json);
+        long today = DayDates.normalize(now(), ZONE);
+        assertEquals(2, forecast.days.size());
+        assertEquals(DayDates.dayAfter(today, 1, ZONE), forecast.days.get(0).date);
+        assertEquals(1, forecast.quarantinedDays.size());
+    }
+
+    @Test
+    public void parseGroup_cityWithEveryDayBad_keepsTheOthers() throws Exception {
+        String bad = FORECAST_JSON.replace("\"temp\"", "\"tmp\"");
+        List<Forecast> forecasts = new ForecastParser(now(), ZONE)
+                .parseGroup("{\"cnt\":2,\"list\":[" + bad + "," + FORECAST_JSON + "]}");
+        assertEquals(2, forecasts.size());
+        assertEquals(0, forecasts.get(0).days.size());
+        assertEquals(2, forecasts.get(0).quarantinedDays.size());
+        assertEquals(2, forecasts.get(1).days.size());
+    }
+
+    // Both days lack it, so nothing is left to keep.
+    @Test(expected = JsonReader.MalformedJsonException.class)
+    public void parse_dayWithoutTemperature_throws() throws Exception {
+        new ForecastParser(now(), ZONE).parse(FORECAST_JSON.replace("\"temp\"", "\"tmp\""));
+    }
+
+    @Test(expected = JsonReader.MalformedJsonException.class)
+    public void parse_withoutCity_throws() throws Exception {
+        new ForecastParser(now(), ZONE).parse("{\"cod\":\"200\",\"list\":[]}");
+    }
+
+    @Test(expected = JsonReader.MalformedJsonException.class)
+    public void parse_truncated_throws() throws Exception {
+        new ForecastParser(now(), ZONE).parse(FORECAST_JSON.substring(0, FORECAST_JSON.length() / 2));
+    }
+}
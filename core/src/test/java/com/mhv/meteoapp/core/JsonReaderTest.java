@@ -0,0 +1,97 @@
+package com.mhv.meteoapp.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class JsonReaderTest {
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+
+    @Test
+    public void readsNestedValues() throws Exception {
+        JsonReader reader = reader(" {\"a\": [1, -2.5e1, \"x\\ty\\u00e9\"], \"b\": {\"c\": true, \"d\": null}} ");
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertEquals(1, reader.nextInt());
+        assertEquals(-25.0, reader.nextDouble(), 0);
+        assertEquals("x\ty\u00e9", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("b", reader.nextName());
+        reader.beginObject();
+        assertEquals("c", reader.nextName());
+        assertTrue(reader.nextBoolean());
+        assertEquals("d", reader.nextName());
+        reader.nextNull();
+        reader.endObject();
+        reader.endObject();
+        assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void skipsNestedValues() throws Exception {
+        JsonReader reader = reader("{\"skip\": {\"a\": [1, {\"b\": []}, \"]\"]}, \"keep\": 7}");
+        reader.beginObject();
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("keep", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        reader.endObject();
+    }
+
+    // Strings and literals that straddle the reader's buffer.
+    @Test
+    public void readsValuesLongerThanTheBuffer() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 500; i++) {
+            json.append(i).append(".25,");
+        }
+        json.append('"').append(text).append("\"]");
+
+        JsonReader reader = reader(json.toString());
+        reader.beginArray();
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i + .25, reader.nextDouble(), 0);
+        }
+        assertEquals(text.toString(), reader.nextString());
+        reader.endArray();
+    }
+
+    @Test(expected = JsonReader.MalformedJsonException.class)
+    public void truncatedDocument_throws() throws Exception {
+        JsonReader reader = reader("{\"a\": [1, 2");
+        reader.beginObject();
+        reader.nextName();
+        reader.skipValue();
+    }
+
+    @Test(expected = JsonReader.MalformedJsonException.class)
+    public void wrongType_throws() throws Exception {
+        JsonReader reader = reader("{\"a\": \"b\"}");
+        reader.beginObject();
+        reader.nextName();
+        reader.beginArray();
+    }
+
+    @Test
+    public void fractionAsInt_throws() throws Exception {
+        JsonReader reader = reader("[1.5]");
+        reader.beginArray();
+        try {
+            reader.nextInt();
+            fail("Error: 1.5 read as an int");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.mhv.meteoapp.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UnitsTest {
+
+    @Test
+    public void celsiusToFahrenheit() {
+        assertEquals(32, Units.celsiusToFahrenheit(0), 1e-9);
+        assertEquals(212, Units.celsiusToFahrenheit(100), 1e-9);
+        assertEquals(-40, Units.celsiusToFahrenheit(-40), 1e-9);
+    }
+
+    @Test
+    public void kmhToMph() {
+        assertEquals(62.137f, Units.kmhToMph(100), 1e-3f);
+    }
+
+    @Test
+    public void compassDirection() {
+        assertEquals("N", Units.compassDirection(0));
+        assertEquals("N", Units.compassDirection(22.4f));
+        assertEquals("NE", Units.compassDirection(22.5f));
+        assertEquals("E", Units.compassDirection(90));
+        assertEquals("SE", Units.compassDirection(157.4f));
+        assertEquals("S", Units.compassDirection(180));
+        assertEquals("SW", Units.compassDirection(225));
+        assertEquals("W", Units.compassDirection(270));
+        assertEquals("NW", Units.compassDirection(337.4f));
+        assertEquals("N", Units.compassDirection(337.5f));
+        assertEquals("N", Units.compassDirection(360));
+        assertEquals(Units.UNKNOWN_DIRECTION, Units.compassDirection(Float.NaN));
+    }
+
+    @Test
+    public void conditionForWeatherId() {
+        assertEquals(Condition.STORM, Condition.forWeatherId(211));
+        assertEquals(Condition.LIGHT_RAIN, Condition.forWeatherId(301));
+        assertEquals(Condition.RAIN, Condition.forWeatherId(502));
+        assertEquals(Condition.FREEZING_RAIN, Condition.forWeatherId(511));
+        assertEquals(Condition.RAIN, Condition.forWeatherId(521));
+        assertEquals(Condition.SNOW, Condition.forWeatherId(601));
+        assertEquals(Condition.FOG, Condition.forWeatherId(761));
+        assertEquals(Condition.STORM, Condition.forWeatherId(781));
+        assertEquals(Condition.CLEAR, Condition.forWeatherId(800));
+        assertEquals(Condition.LIGHT_CLOUDS, Condition.forWeatherId(801));
+        assertEquals(Condition.CLOUDS, Condition.forWeatherId(804));
+        assertNull(Condition.forWeatherId(900));
+        assertNull(Condition.forWeatherId(0));
+    }
+}
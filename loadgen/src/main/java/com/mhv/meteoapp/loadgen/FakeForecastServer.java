@@ -0,0 +1,520 @@
+package com.mhv.meteoapp.loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the two OWM endpoints the sync calls, serving documents from a
+ * {@link ForecastGenerator} over plain HTTP/1.1 on the loopback interface.
+ *
+ *   GET /data/2.5/forecast/daily?q=...&cnt=...   the daily forecast
+ *   GET /data/2.5/forecast?q=...                 the 3-hour forecast
+ *   GET /data/2.5/forecast/daily/group?id=...    the daily forecasts of up to 20 city ids
+ *
+ * A city id is known to the group endpoint once its query was served by one of the others, the
+ * way a client learns it. Unknown ids are left out of the group response.
+ *
+ * Faults are injected at the configured rates, decided by a random seeded like the generator:
+ * a delay before every response, 429 responses with a Retry-After header, and responses cut
+ * off half way through the body after a full Content-Length was announced, and days of the
+ * daily forecasts that lack their wind direction. Connections are
+ * kept alive unless the client asks otherwise or the response was cut off. For tests that need
+ * an exact sequence, {@link #failNext} answers the next few requests with a given error.
+ */
+public class FakeForecastServer implements Closeable {
+
+    public static final String DAILY_PATH = "/data/2.5/forecast/daily";
+    public static final String HOURLY_PATH = "/data/2.5/forecast";
+    public static final String DAILY_GROUP_PATH = "/data/2.5/forecast/daily/group";
+    public static final int MAX_GROUP_IDS = 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int DEFAULT_DAYS = 7;
+    private static final int IDLE_TIMEOUT_MILLIS = 15000;
+    private static final int MAX_LINE = 8192;
+    // The wind direction of a day, the field the corrupted days lose.
+    private static final Pattern DAY_DIRECTION = Pattern.compile(",\"deg\":\\d+(?=,\"clouds\")");
+
+    private final ForecastGenerator mGenerator;
+    private final Random mFaults;
+
+    private volatile int mLatencyMillis;
+    private volatile double mThrottleRate;
+    private volatile int mRetryAfterSeconds = 1;
+    private volatile double mTruncateRate;
+    private volatile double mCorruptDayRate;
+    private volatile int mRun;
+    private volatile boolean mAdvancePerFetch;
+    private final AtomicInteger mFailNext = new AtomicInteger();
+    private volatile int mFailStatus;
+
+    // Daily fetches per query, for the runs to advance on when mAdvancePerFetch is set.
+    private final Map<String, Integer> mFetches = new HashMap<>();
+    // City ids served so far, with the query they came from.
+    private final Map<Long, String> mCities = new HashMap<>();
+    private volatile boolean mGroupSupported = true;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mThrottled = new AtomicInteger();
+    private final AtomicInteger mTruncated = new AtomicInteger();
+    private final AtomicInteger mCorruptedDays = new AtomicInteger();
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private final AtomicInteger mGroupRequests = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+
+    public FakeForecastServer(ForecastGenerator generator, long seed) {
+        mGenerator = generator;
+        mFaults = new Random(seed);
+    }
+
+    public void setLatencyMillis(int latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param rate the share of requests, from 0 to 1, answered with 429 Too Many Requests
+     */
+    public void setThrottleRate(double rate) {
+        mThrottleRate = rate;
+    }
+
+    public void setRetryAfterSeconds(int seconds) {
+        mRetryAfterSeconds = seconds;
+    }
+
+    /**
+     * @param rate the share of responses, from 0 to 1, whose body is cut off half way
+     */
+    public void setTruncateRate(double rate) {
+        mTruncateRate = rate;
+    }
+
+    /**
+     * @param rate the share of days, from 0 to 1, of the daily and group forecasts served
+     *             without their "deg" field
+     */
+    public void setCorruptDayRate(double rate) {
+        mCorruptDayRate = rate;
+    }
+
+    /**
+     * Serves the given run of the generator to every request.
+     */
+    public void setRun(int run) {
+        mRun = run;
+    }
+
+    /**
+     * Serves each daily fetch of a query the run after the previous fetch of it, so repeated
+     * syncs of one location see its forecast drift.
+     */
+    public void setAdvancePerFetch(boolean advance) {
+        mAdvancePerFetch = advance;
+    }
+
+    /**
+     * @param supported false to answer the group endpoint with 404, as a source without one
+     */
+    public void setGroupSupported(boolean supported) {
+        mGroupSupported = supported;
+    }
+
+    /**
+     * Makes a city id known to the group endpoint without serving its query first.
+     *
+     * @return the id of the query's city
+     */
+    public long addCity(String query) {
+        long id = mGenerator.cityId(query);
+        synchronized (mCities) {
+            mCities.put(id, query);
+        }
+        return id;
+    }
+
+    /**
+     * Answers the next requests with an error, before any other fault is decided.
+     *
+     * @param count the number of requests to fail
+     * @param status 429 or 503 come with the Retry-After header, anything else without it
+     */
+    public void failNext(int count, int status) {
+        mFailStatus = status;
+        mFailNext.set(count);
+    }
+
+    /**
+     * @param port the port to listen on, 0 for any free one
+     * @return the port the server listens on
+     */
+    public synchronized int start(int port) throws IOException {
+        if (mServerSocket != null) {
+            throw new IllegalStateException("Already started");
+        }
+        mServerSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FakeForecastServer-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final ServerSocket serverSocket = mServerSocket;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop(serverSocket);
+            }
+        });
+        return mServerSocket.getLocalPort();
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    /**
+     * @return the base URL to use in place of http://api.openweathermap.org/data/2.5/
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + getPort() + "/data/2.5/";
+    }
+
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    // Requests to the group endpoint, the ones it answered with 404 included.
+    public int getGroupRequestCount() {
+        return mGroupRequests.get();
+    }
+
+    public int getThrottledCount() {
+        return mThrottled.get();
+    }
+
+    public int getTruncatedCount() {
+        return mTruncated.get();
+    }
+
+    public int getCorruptedDayCount() {
+        return mCorruptedDays.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnections.get();
+    }
+
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mServerSocket == null) {
+            return;
+        }
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+        mServerSocket = null;
+    }
+
+    private void acceptLoop(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // Closed by close(), or the socket broke and there is nothing left to serve.
+                return;
+            }
+            mConnections.incrementAndGet();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            boolean keepAlive = true;
+            while (keepAlive) {
+                String requestLine = readLine(in);
+                if (requestLine == null) {
+                    return;
+                }
+                String header;
+                while ((header = readLine(in)) != null && !header.isEmpty()) {
+                    if (header.toLowerCase().startsWith("connection:")
+                            && header.toLowerCase().contains("close")) {
+                        keepAlive = false;
+                    }
+                }
+                if (header == null) {
+                    return;
+                }
+                keepAlive &= respond(requestLine, out);
+            }
+        } catch (IOException e) {
+            // An idle client timed out, or one went away mid response.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already broken.
+            }
+        }
+    }
+
+    // Writes the response to one request. Returns false if the connection must be closed.
+    private boolean respond(String requestLine, OutputStream out)
+            throws IOException, InterruptedException {
+        mRequests.incrementAndGet();
+        if (mLatencyMillis > 0) {
+            Thread.sleep(mLatencyMillis);
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[0].equals("GET")) {
+            return send(out, 405, "Method Not Allowed", null, "{\"cod\":405}", false);
+        }
+        String target = parts[1];
+        int question = target.indexOf('?');
+        String path = question < 0 ? target : target.substring(0, question);
+        Map<String, String> params = parseQuery(question < 0 ? "" : target.substring(question + 1));
+        String query = params.get("q");
+
+        boolean daily = path.equals(DAILY_PATH);
+        boolean group = path.equals(DAILY_GROUP_PATH);
+        if (group) {
+            mGroupRequests.incrementAndGet();
+        }
+        if ((!daily && !group && !path.equals(HOURLY_PATH)) || (group && !mGroupSupported)) {
+            return send(out, 404, "Not Found", null, "{\"cod\":\"404\",\"message\":\"Not found\"}", false);
+        }
+        String ids = params.get("id");
+        if (group ? ids == null || ids.isEmpty() : query == null || query.isEmpty()) {
+            return send(out, 400, "Bad Request", null,
+                    "{\"cod\":\"400\",\"message\":\"Nothing to geocode\"}", false);
+        }
+
+        if (takeFailure()) {
+            int status = mFailStatus;
+            String retryAfter = status == 429 || status == 503
+                    ? "Retry-After: " + mRetryAfterSeconds : null;
+            if (status == 429) {
+                mThrottled.incrementAndGet();
+            }
+            return send(out, status, reason(status), retryAfter, "{\"cod\":" + status + "}", false);
+        }
+
+        boolean throttle;
+        boolean truncate;
+        synchronized (mFaults) {
+            throttle = mFaults.nextDouble() < mThrottleRate;
+            truncate = mFaults.nextDouble() < mTruncateRate;
+        }
+        if (throttle) {
+            mThrottled.incrementAndGet();
+            return send(out, 429, "Too Many Requests", "Retry-After: " + mRetryAfterSeconds,
+                    "{\"cod\":429,\"message\":\"Your account is temporary blocked\"}", false);
+        }
+
+        long now = System.currentTimeMillis();
+        int days = DEFAULT_DAYS;
+        try {
+            if (params.containsKey("cnt")) {
+                days = Integer.parseInt(params.get("cnt"));
+            }
+        } catch (NumberFormatException e) {
+            return send(out, 400, "Bad Request", null, "{\"cod\":\"400\"}", false);
+        }
+        String body;
+        if (group) {
+            body = group(ids.split(","), days, now);
+            if (body == null) {
+                return send(out, 400, "Bad Request", null,
+                        "{\"cod\":\"400\",\"message\":\"Bad or too many ids\"}", false);
+            }
+        } else {
+            addCity(query);
+            body = daily ? mGenerator.daily(query, days, runFor(query), now)
+                    : mGenerator.hourly(query, mRun, now);
+        }
+        if ((daily || group) && mCorruptDayRate > 0) {
+            body = corruptDays(body);
+        }
+        if (truncate) {
+            mTruncated.incrementAndGet();
+        }
+        return send(out, 200, "OK", null, body, truncate);
+    }
+
+    // The daily forecasts of the known ids, or null if the ids are not a valid group.
+    private String group(String[] ids, int days, long now) {
+        if (ids.length > MAX_GROUP_IDS) {
+            return null;
+        }
+        StringBuilder json = new StringBuilder(ids.length * (512 + days * 420));
+        int count = 0;
+        for (String id : ids) {
+            String query;
+            try {
+                synchronized (mCities) {
+                    query = mCities.get(Long.parseLong(id.trim()));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (query == null) {
+                continue;
+            }
+            json.append(count++ == 0 ? "" : ",").append(mGenerator.daily(query, days, runFor(query), now));
+        }
+        return "{\"cnt\":" + count + ",\"list\":[" + json + "]}";
+    }
+
+    // Drops the wind direction of days at the corrupt day rate, leaving the document valid JSON.
+    private String corruptDays(String body) {
+        Matcher matcher = DAY_DIRECTION.matcher(body);
+        StringBuffer corrupted = new StringBuffer(body.length());
+        while (matcher.find()) {
+            boolean corrupt;
+            synchronized (mFaults) {
+                corrupt = mFaults.nextDouble() < mCorruptDayRate;
+            }
+            if (corrupt) {
+                mCorruptedDays.incrementAndGet();
+                matcher.appendReplacement(corrupted, "");
+            }
+        }
+        matcher.appendTail(corrupted);
+        return corrupted.toString();
+    }
+
+    private boolean takeFailure() {
+        int left;
+        do {
+            left = mFailNext.get();
+            if (left <= 0) {
+                return false;
+            }
+        } while (!mFailNext.compareAndSet(left, left - 1));
+        return true;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 429:
+                return "Too Many Requests";
+            case 500:
+                return "Internal Server Error";
+            case 502:
+                return "Bad Gateway";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Error";
+        }
+    }
+
+    private int runFor(String query) {
+        if (!mAdvancePerFetch) {
+            return mRun;
+        }
+        synchronized (mFetches) {
+            Integer fetches = mFetches.get(query);
+            int run = fetches == null ? mRun : fetches;
+            mFetches.put(query, run + 1);
+            return run;
+        }
+    }
+
+    private boolean send(OutputStream out, int status, String reason, String extraHeader,
+                         String body, boolean truncate) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        StringBuilder head = new StringBuilder(160);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n")
+                .append("Content-Type: application/json; charset=utf-8\r\n")
+                .append("Content-Length: ").append(bytes.length).append("\r\n");
+        if (extraHeader != null) {
+            head.append(extraHeader).append("\r\n");
+        }
+        head.append("\r\n");
+        byte[] headBytes = head.toString().getBytes(ASCII);
+
+        int length = truncate ? bytes.length / 2 : bytes.length;
+        out.write(headBytes);
+        out.write(bytes, 0, length);
+        out.flush();
+        mBytesSent.addAndGet(headBytes.length + length);
+        return !truncate;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+
+    // Reads a CRLF terminated line, or returns null at the end of the stream.
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE) {
+                throw new IOException("Line too long");
+            }
+            line.append((char) c);
+        }
+        return null;
+    }
+}
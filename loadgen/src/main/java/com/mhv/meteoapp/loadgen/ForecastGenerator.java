@@ -0,0 +1,214 @@
+package com.mhv.meteoapp.loadgen;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Produces OWM forecast documents, daily and 3-hour, for any city query and any number of days.
+ *
+ * Everything is derived from the seed, the query and the position in the forecast, so two
+ * generators with the same seed write byte for byte the same documents. Each run after the
+ * first changes a share of the values given by the drift, on top of the previous run, so
+ * successive syncs see forecasts that change the way real ones do: mostly the same, a few
+ * days revised.
+ */
+public class ForecastGenerator {
+
+    private static final long DAY_IN_SECONDS = 60 * 60 * 24;
+    private static final long THREE_HOURS_IN_SECONDS = 60 * 60 * 3;
+    public static final int HOURLY_POINTS = 40;
+    public static final int MAX_DAYS = 16;
+
+    private static final int[] WEATHER_IDS = {200, 211, 301, 500, 501, 511, 601, 701, 741, 800,
+            800, 800, 801, 802, 803, 804};
+    private static final String[] MAINS = {"Thunderstorm", "Thunderstorm", "Drizzle", "Rain",
+            "Rain", "Rain", "Snow", "Mist", "Fog", "Clear", "Clear", "Clear", "Clouds", "Clouds",
+            "Clouds", "Clouds"};
+    private static final String[] DESCRIPTIONS = {"thunderstorm with light rain", "thunderstorm",
+            "drizzle", "light rain", "moderate rain", "freezing rain", "snow", "mist", "fog",
+            "sky is clear", "clear sky", "sky is clear", "few clouds", "scattered clouds",
+            "broken clouds", "overcast clouds"};
+
+    private final long mSeed;
+    private volatile double mDrift = 0.1;
+
+    public ForecastGenerator(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * @param drift the chance, from 0 to 1, that a value changes from one run to the next
+     */
+    public void setDrift(double drift) {
+        mDrift = drift;
+    }
+
+    // The id the city of a query is known by, stable across runs and generators.
+    public long cityId(String query) {
+        return 1000000 + (query.hashCode() & 0x7fffff);
+    }
+
+    public String cityName(String query) {
+        String name = query.split(",")[0].trim();
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+            return "City " + name;
+        }
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * The forecast/daily document for a query.
+     *
+     * @param days number of days, as the cnt parameter asks, at most MAX_DAYS
+     * @param run 0 for the first fetch, each later run drifts from the one before it
+     * @param now the time of the request, the first day is the one it falls on in UTC
+     */
+    public String daily(String query, int days, int run, long now) {
+        days = Math.max(1, Math.min(days, MAX_DAYS));
+        long firstDay = (now / 1000 / DAY_IN_SECONDS) * DAY_IN_SECONDS;
+        StringBuilder json = new StringBuilder(512 + days * 420);
+        json.append('{');
+        appendCity(json, query);
+        json.append(",\"cod\":\"200\",\"message\":0.0087,\"cnt\":").append(days).append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            Point day = point(query, i, run, false);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(firstDay + i * DAY_IN_SECONDS + DAY_IN_SECONDS / 2)
+                    .append(",\"temp\":{\"day\":").append(format((day.min + day.max) / 2))
+                    .append(",\"min\":").append(format(day.min))
+                    .append(",\"max\":").append(format(day.max))
+                    .append(",\"night\":").append(format(day.min + 1))
+                    .append(",\"eve\":").append(format(day.max - 2))
+                    .append(",\"morn\":").append(format(day.min + 2))
+                    .append("},\"pressure\":").append(format(day.pressure))
+                    .append(",\"humidity\":").append(day.humidity);
+            appendWeather(json, day.condition);
+            json.append(",\"speed\":").append(format(day.windSpeed))
+                    .append(",\"deg\":").append(day.degrees)
+                    .append(",\"clouds\":").append(day.clouds)
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * The 3-hour forecast document for a query, HOURLY_POINTS points from the slot of now on.
+     */
+    public String hourly(String query, int run, long now) {
+        long firstPoint = (now / 1000 / THREE_HOURS_IN_SECONDS) * THREE_HOURS_IN_SECONDS;
+        StringBuilder json = new StringBuilder(512 + HOURLY_POINTS * 360);
+        json.append("{\"cod\":\"200\",\"message\":0.0052,\"cnt\":").append(HOURLY_POINTS)
+                .append(",\"list\":[");
+        for (int i = 0; i < HOURLY_POINTS; i++) {
+            Point point = point(query, i, run, true);
+            double temperature = point.min + (point.max - point.min) * (i % 8) / 8;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(firstPoint + i * THREE_HOURS_IN_SECONDS)
+                    .append(",\"main\":{\"temp\":").append(format(temperature))
+                    .append(",\"temp_min\":").append(format(point.min))
+                    .append(",\"temp_max\":").append(format(point.max))
+                    .append(",\"pressure\":").append(format(point.pressure))
+                    .append(",\"humidity\":").append(point.humidity)
+                    .append('}');
+            appendWeather(json, point.condition);
+            json.append(",\"clouds\":{\"all\":").append(point.clouds)
+                    .append("},\"wind\":{\"speed\":").append(format(point.windSpeed))
+                    .append(",\"deg\":").append(point.degrees)
+                    .append("}}");
+        }
+        json.append("],");
+        appendCity(json, query);
+        return json.append('}').toString();
+    }
+
+    private static class Point {
+        int condition;
+        double min;
+        double max;
+        double pressure;
+        int humidity;
+        double windSpeed;
+        int degrees;
+        int clouds;
+    }
+
+    // The values of one day or 3-hour point as of the given run.
+    private Point point(String query, int index, int run, boolean hourly) {
+        long key = mix(mSeed, query.hashCode(), hourly ? index + 1000 : index);
+        Random random = new Random(key);
+        Point point = new Point();
+        point.condition = random.nextInt(WEATHER_IDS.length);
+        point.min = -5 + random.nextDouble() * 20;
+        point.max = point.min + 2 + random.nextDouble() * 12;
+        point.pressure = 990 + random.nextDouble() * 40;
+        point.humidity = 30 + random.nextInt(65);
+        point.windSpeed = random.nextDouble() * 12;
+        point.degrees = random.nextInt(360);
+        point.clouds = random.nextInt(101);
+
+        double drift = mDrift;
+        for (int r = 1; r <= run; r++) {
+            Random change = new Random(mix(key, r, 7));
+            if (change.nextDouble() >= drift) {
+                continue;
+            }
+            double delta = change.nextDouble() * 4 - 2;
+            point.min += delta;
+            point.max += delta + change.nextDouble() - .5;
+            if (point.max < point.min) {
+                point.max = point.min;
+            }
+            point.humidity = Math.max(5, Math.min(100, point.humidity + change.nextInt(11) - 5));
+            point.windSpeed = Math.max(0, point.windSpeed + change.nextDouble() * 2 - 1);
+            if (change.nextInt(4) == 0) {
+                point.condition = change.nextInt(WEATHER_IDS.length);
+            }
+        }
+        return point;
+    }
+
+    private void appendCity(StringBuilder json, String query) {
+        Random random = new Random(mix(mSeed, query.hashCode(), -1));
+        json.append("\"city\":{\"id\":").append(cityId(query))
+                .append(",\"name\":\"").append(escape(cityName(query)))
+                .append("\",\"coord\":{\"lon\":").append(format(random.nextDouble() * 360 - 180))
+                .append(",\"lat\":").append(format(random.nextDouble() * 160 - 80))
+                .append("},\"country\":\"XX\",\"population\":0}");
+    }
+
+    private static void appendWeather(StringBuilder json, int condition) {
+        json.append(",\"weather\":[{\"id\":").append(WEATHER_IDS[condition])
+                .append(",\"main\":\"").append(MAINS[condition])
+                .append("\",\"description\":\"").append(DESCRIPTIONS[condition])
+                .append("\",\"icon\":\"10d\"}]");
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static long mix(long a, long b, long c) {
+        long h = a * 0x9E3779B97F4A7C15L + b;
+        h = (h ^ (h >>> 31)) * 0xBF58476D1CE4E5B9L + c;
+        return h ^ (h >>> 29);
+    }
+}
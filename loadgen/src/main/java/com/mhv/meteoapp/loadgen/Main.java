@@ -0,0 +1,96 @@
+package com.mhv.meteoapp.loadgen;
+
+import java.io.IOException;
+
+/**
+ * Runs the {@link FakeForecastServer} from the command line until it is killed.
+ *
+ *   --port N          port to listen on, default 8089
+ *   --seed N          seed of the forecasts and of the faults, default 1
+ *   --drift X         chance that a value changes between runs, default 0.1
+ *   --latency MS      delay before every response, default 0
+ *   --throttle X      share of requests answered with 429, default 0
+ *   --retry-after S   Retry-After of the 429 responses, default 1
+ *   --truncate X      share of responses cut off half way, default 0
+ *   --corrupt-days X  share of daily forecast days served without a field, default 0
+ *   --advance         advance the run on every daily fetch of a location
+ */
+public class Main {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = 8089;
+        long seed = 1;
+        double drift = 0.1;
+        int latency = 0;
+        double throttle = 0;
+        int retryAfter = 1;
+        double truncate = 0;
+        double corruptDays = 0;
+        boolean advance = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--advance")) {
+                advance = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                usage("Missing value for " + arg);
+            }
+            String value = args[++i];
+            try {
+                if (arg.equals("--port")) {
+                    port = Integer.parseInt(value);
+                } else if (arg.equals("--seed")) {
+                    seed = Long.parseLong(value);
+                } else if (arg.equals("--drift")) {
+                    drift = Double.parseDouble(value);
+                } else if (arg.equals("--latency")) {
+                    latency = Integer.parseInt(value);
+                } else if (arg.equals("--throttle")) {
+                    throttle = Double.parseDouble(value);
+                } else if (arg.equals("--retry-after")) {
+                    retryAfter = Integer.parseInt(value);
+                } else if (arg.equals("--truncate")) {
+                    truncate = Double.parseDouble(value);
+                } else if (arg.equals("--corrupt-days")) {
+                    corruptDays = Double.parseDouble(value);
+                } else {
+                    usage("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                usage("Bad value for " + arg + ": " + value);
+            }
+        }
+
+        ForecastGenerator generator = new ForecastGenerator(seed);
+        generator.setDrift(drift);
+        FakeForecastServer server = new FakeForecastServer(generator, seed);
+        server.setLatencyMillis(latency);
+        server.setThrottleRate(throttle);
+        server.setRetryAfterSeconds(retryAfter);
+        server.setTruncateRate(truncate);
+        server.setCorruptDayRate(corruptDays);
+        server.setAdvancePerFetch(advance);
+        server.start(port);
+        System.out.println("Serving forecasts at " + server.getBaseUrl());
+
+        // The emulator reaches the host's loopback as 10.0.2.2, adb reverse maps it as is.
+        System.out.println("From the emulator: -PowmBaseUrl=http://10.0.2.2:" + server.getPort() + "/data/2.5/");
+        while (true) {
+            Thread.sleep(60000);
+            System.out.println(server.getRequestCount() + " requests, " + server.getThrottledCount()
+                    + " throttled, " + server.getTruncatedCount() + " truncated, "
+                    + server.getCorruptedDayCount() + " corrupted days, "
+                    + server.getBytesSent() + " bytes sent");
+        }
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: loadgen [--port N] [--seed N] [--drift X] [--latency MS]"
+                + " [--throttle X] [--retry-after S] [--truncate X] [--corrupt-days X]"
+                + " [--advance]");
+        System.exit(2);
+    }
+}
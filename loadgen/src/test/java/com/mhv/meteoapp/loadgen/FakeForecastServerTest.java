@@ -0,0 +1,179 @@
+package com.mhv.meteoapp.loadgen;
+
+import com.mhv.meteoapp.core.Forecast;
+import com.mhv.meteoapp.core.ForecastParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class FakeForecastServerTest {
+
+    private FakeForecastServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeForecastServer(new ForecastGenerator(1), 1);
+        mServer.start(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mServer.getBaseUrl() + path)
+                .openConnection();
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void daily_returnsParsableForecast() throws Exception {
+        HttpURLConnection connection = open("forecast/daily?q=94043&mode=json&units=metric&cnt=14");
+        assertEquals("Error: Wrong status", 200, connection.getResponseCode());
+        Forecast forecast = new ForecastParser(System.currentTimeMillis(), TimeZone.getDefault())
+                .parse(read(connection.getInputStream()));
+        assertEquals("Error: Wrong number of days", 14, forecast.days.size());
+        assertEquals("Error: Wrong request count", 1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void hourly_returnsForecast() throws Exception {
+        HttpURLConnection connection = open("forecast?q=94043&mode=json&units=metric");
+        assertEquals("Error: Wrong status", 200, connection.getResponseCode());
+        assertTrue("Error: Expected a 3-hour forecast",
+                read(connection.getInputStream()).contains("\"temp_min\""));
+    }
+
+    @Test
+    public void throttled_returns429WithRetryAfter() throws Exception {
+        mServer.setThrottleRate(1);
+        mServer.setRetryAfterSeconds(30);
+        HttpURLConnection connection = open("forecast/daily?q=94043&cnt=7");
+        assertEquals("Error: Expected a 429", 429, connection.getResponseCode());
+        assertEquals("Error: Wrong Retry-After", "30", connection.getHeaderField("Retry-After"));
+        assertEquals("Error: Wrong throttled count", 1, mServer.getThrottledCount());
+    }
+
+    @Test
+    public void truncated_endsBodyEarly() throws Exception {
+        mServer.setTruncateRate(1);
+        HttpURLConnection connection = open("forecast/daily?q=94043&cnt=7");
+        assertEquals("Error: Wrong status", 200, connection.getResponseCode());
+        int announced = connection.getContentLength();
+        int read = 0;
+        try {
+            read = read(connection.getInputStream()).length();
+        } catch (IOException e) {
+            // Some clients report the short body as an error, which is as good.
+        }
+        assertTrue("Error: Body should be shorter than announced", read < announced);
+        assertEquals("Error: Wrong truncated count", 1, mServer.getTruncatedCount());
+    }
+
+    @Test
+    public void corruptDays_dropsDirectionOfDailyDaysOnly() throws Exception {
+        mServer.setCorruptDayRate(1);
+        String daily = read(open("forecast/daily?q=94043&cnt=7").getInputStream());
+        assertFalse("Error: Every day should lack its direction", daily.contains("\"deg\""));
+        assertEquals("Error: Wrong corrupted count", 7, mServer.getCorruptedDayCount());
+        String hourly = read(open("forecast?q=94043").getInputStream());
+        assertTrue("Error: The 3-hour forecast should be left alone", hourly.contains("\"deg\""));
+    }
+
+    @Test
+    public void group_returnsKnownCitiesOnly() throws Exception {
+        long madrid = mServer.addCity("Madrid");
+        long london = mServer.addCity("London");
+        HttpURLConnection connection = open("forecast/daily/group?id=" + madrid + "," + london + ",42&cnt=7");
+        assertEquals("Error: Wrong status", 200, connection.getResponseCode());
+        List<Forecast> forecasts = new ForecastParser(System.currentTimeMillis(), TimeZone.getDefault())
+                .parseGroup(read(connection.getInputStream()));
+        assertEquals("Error: Unknown ids should be left out", 2, forecasts.size());
+        assertEquals("Error: Wrong city", london, forecasts.get(1).cityId);
+        assertEquals("Error: Wrong group count", 1, mServer.getGroupRequestCount());
+    }
+
+    @Test
+    public void group_learnsIdsFromQueries() throws Exception {
+        read(open("forecast/daily?q=Bilbao&cnt=7").getInputStream());
+        long bilbao = new ForecastGenerator(1).cityId("Bilbao");
+        String body = read(open("forecast/daily/group?id=" + bilbao).getInputStream());
+        assertTrue("Error: The id of a served query should be known", body.contains("\"Bilbao\""));
+    }
+
+    @Test
+    public void group_tooManyIds_returns400() throws Exception {
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i <= FakeForecastServer.MAX_GROUP_IDS; i++) {
+            ids.append(i == 0 ? "" : ",").append(mServer.addCity("city" + i));
+        }
+        assertEquals("Error: Expected a 400", 400, open("forecast/daily/group?id=" + ids).getResponseCode());
+    }
+
+    @Test
+    public void group_unsupported_returns404() throws Exception {
+        mServer.setGroupSupported(false);
+        long madrid = mServer.addCity("Madrid");
+        assertEquals("Error: Expected a 404", 404, open("forecast/daily/group?id=" + madrid).getResponseCode());
+    }
+
+    @Test
+    public void unknownPath_returns404() throws Exception {
+        assertEquals("Error: Expected a 404", 404, open("weather?q=94043").getResponseCode());
+    }
+
+    @Test
+    public void missingQuery_returns400() throws Exception {
+        assertEquals("Error: Expected a 400", 400, open("forecast/daily?cnt=7").getResponseCode());
+    }
+
+    @Test
+    public void advancePerFetch_drifts() throws Exception {
+        ForecastGenerator generator = new ForecastGenerator(1);
+        generator.setDrift(1);
+        FakeForecastServer server = new FakeForecastServer(generator, 1);
+        server.setAdvancePerFetch(true);
+        server.start(0);
+        try {
+            URL url = new URL(server.getBaseUrl() + "forecast/daily?q=94043&cnt=7");
+            String first = read(url.openStream());
+            String second = read(url.openStream());
+            assertNotEquals("Error: The second fetch should see the next run", first, second);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void keepAlive_reusesConnection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            read(open("forecast/daily?q=94043&cnt=7").getInputStream());
+        }
+        assertEquals("Error: Wrong request count", 3, mServer.getRequestCount());
+        assertEquals("Error: Requests should share one connection", 1, mServer.getConnectionCount());
+    }
+}
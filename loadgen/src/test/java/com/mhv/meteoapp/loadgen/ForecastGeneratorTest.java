@@ -0,0 +1,78 @@
+package com.mhv.meteoapp.loadgen;
+
+import com.mhv.meteoapp.core.Forecast;
+import com.mhv.meteoapp.core.ForecastParser;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class ForecastGeneratorTest {
+
+    private static final long NOW = 1463223600000L;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void daily_sameSeed_returnsSameDocument() {
+        String first = new ForecastGenerator(42).daily("Madrid,ES", 14, 3, NOW);
+        String second = new ForecastGenerator(42).daily("Madrid,ES", 14, 3, NOW);
+        assertEquals("Error: The same seed should write the same document", first, second);
+    }
+
+    @Test
+    public void daily_otherSeedOrCity_returnsOtherDocument() {
+        ForecastGenerator generator = new ForecastGenerator(42);
+        String madrid = generator.daily("Madrid,ES", 7, 0, NOW);
+        assertNotEquals("Error: Another seed should write another document",
+                madrid, new ForecastGenerator(43).daily("Madrid,ES", 7, 0, NOW));
+        assertNotEquals("Error: Another city should get another forecast",
+                madrid, generator.daily("Bilbao,ES", 7, 0, NOW));
+    }
+
+    @Test
+    public void daily_noDrift_isSameEveryRun() {
+        ForecastGenerator generator = new ForecastGenerator(7);
+        generator.setDrift(0);
+        assertEquals("Error: Runs shouldn't change without drift",
+                generator.daily("94043", 7, 0, NOW), generator.daily("94043", 7, 5, NOW));
+    }
+
+    @Test
+    public void daily_fullDrift_changesEveryRun() {
+        ForecastGenerator generator = new ForecastGenerator(7);
+        generator.setDrift(1);
+        assertNotEquals("Error: Every run should change with full drift",
+                generator.daily("94043", 7, 1, NOW), generator.daily("94043", 7, 2, NOW));
+    }
+
+    @Test
+    public void daily_parsesWithForecastParser() throws Exception {
+        Forecast forecast = new ForecastParser(NOW, UTC)
+                .parse(new ForecastGenerator(1).daily("madrid", 16, 0, NOW));
+        assertEquals("Error: Wrong city name", "Madrid", forecast.cityName);
+        assertEquals("Error: Wrong number of days", 16, forecast.days.size());
+        for (int i = 0; i < forecast.days.size(); i++) {
+            assertTrue("Error: Min above max on day " + i,
+                    forecast.days.get(i).min <= forecast.days.get(i).max);
+        }
+    }
+
+    @Test
+    public void daily_clampsDaysToMaximum() throws Exception {
+        Forecast forecast = new ForecastParser(NOW, UTC)
+                .parse(new ForecastGenerator(1).daily("94043", 40, 0, NOW));
+        assertEquals("Error: Days should be capped", ForecastGenerator.MAX_DAYS, forecast.days.size());
+        assertEquals("Error: Numeric queries should get a city name", "City 94043", forecast.cityName);
+    }
+
+    @Test
+    public void hourly_sameSeed_returnsSameDocument() {
+        String first = new ForecastGenerator(5).hourly("Madrid,ES", 2, NOW);
+        assertEquals("Error: The same seed should write the same document",
+                first, new ForecastGenerator(5).hourly("Madrid,ES", 2, NOW));
+        assertTrue("Error: The 3-hour forecast should name the city",
+                first.contains("\"name\":\"Madrid\""));
+    }
+}